@@ -0,0 +1,113 @@
+package org.springframework.batch.mongodb;
+
+import static org.springframework.batch.mongodb.AbstractMongoDao.CREATE_TIME_KEY;
+import static org.springframework.batch.mongodb.AbstractMongoDao.END_TIME_KEY;
+import static org.springframework.batch.mongodb.AbstractMongoDao.EXIT_CODE_KEY;
+import static org.springframework.batch.mongodb.AbstractMongoDao.EXIT_MESSAGE_KEY;
+import static org.springframework.batch.mongodb.AbstractMongoDao.JOB_EXECUTION_ID_KEY;
+import static org.springframework.batch.mongodb.AbstractMongoDao.JOB_INSTANCE_ID_KEY;
+import static org.springframework.batch.mongodb.AbstractMongoDao.JOB_NAME_KEY;
+import static org.springframework.batch.mongodb.AbstractMongoDao.JOB_PARAMETERS_KEY;
+import static org.springframework.batch.mongodb.AbstractMongoDao.LAST_UPDATED_KEY;
+import static org.springframework.batch.mongodb.AbstractMongoDao.START_TIME_KEY;
+import static org.springframework.batch.mongodb.AbstractMongoDao.STATUS_KEY;
+import static org.springframework.batch.mongodb.AbstractMongoDao.VERSION_KEY;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.bson.Document;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.JobParameter;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.util.Assert;
+
+/**
+ * Parent class for the DAOs storing SpringBatch Infrastructure data in a {@link MappedStore}. <br/>
+ * Entities are kept in the document form of the Mongo DAOs. The DAOs keep their secondary lookups (e.g. job instances
+ * by name) in memory, rebuilt from the store by {@code init()}, and share the store's lock for compound operations.
+ */
+public abstract class AbstractMappedDao {
+
+    static final String   IDENTIFYING_KEY = "identifying";
+
+    static final String   VALUE_KEY       = "value";
+
+    protected MappedStore store;
+
+    public void setStore(MappedStore store) {
+        this.store = store;
+    }
+
+    protected void checkStore() {
+        Assert.notNull(store, "store must be set.");
+    }
+
+    /**
+     * Parameters with their identifying flag, keyed by name. Unlike MongoDB documents, stored records allow dots in
+     * keys, so names are kept as they are.
+     */
+    static Document toParametersDocument(JobParameters jobParameters) {
+        Document parameters = new Document();
+        for (Map.Entry<String, JobParameter> entry : jobParameters.getParameters().entrySet()) {
+            parameters.put(entry.getKey(), new Document(VALUE_KEY, entry.getValue().getValue())
+                    .append(IDENTIFYING_KEY, entry.getValue().isIdentifying()));
+        }
+        return parameters;
+    }
+
+    static JobParameters toJobParameters(Document parameters) {
+        Map<String, JobParameter> map = new LinkedHashMap<>();
+        if (parameters != null) {
+            for (String key : parameters.keySet()) {
+                Document parameter = (Document) parameters.get(key);
+                Object value = parameter.get(VALUE_KEY);
+                boolean identifying = parameter.getBoolean(IDENTIFYING_KEY, true);
+                if (value instanceof String) {
+                    map.put(key, new JobParameter((String) value, identifying));
+                } else if (value instanceof Long) {
+                    map.put(key, new JobParameter((Long) value, identifying));
+                } else if (value instanceof Double) {
+                    map.put(key, new JobParameter((Double) value, identifying));
+                } else if (value instanceof Date) {
+                    map.put(key, new JobParameter((Date) value, identifying));
+                }
+            }
+        }
+        return new JobParameters(map);
+    }
+
+    /**
+     * Job execution with its instance and its own parameters, or those of the instance for executions stored before
+     * they carried them.
+     */
+    protected JobExecution mapJobExecution(Document document) {
+        if (document == null) {
+            return null;
+        }
+        Long instanceId = (Long) document.get(JOB_INSTANCE_ID_KEY);
+        JobInstance jobInstance = new JobInstance(instanceId, document.getString(JOB_NAME_KEY));
+        jobInstance.incrementVersion();
+        Document parameters = (Document) document.get(JOB_PARAMETERS_KEY);
+        if (parameters == null) {
+            Document instance = store.read(MappedStore.JOB_INSTANCE, instanceId);
+            parameters = instance == null ? null : (Document) instance.get(JOB_PARAMETERS_KEY);
+        }
+        JobParameters jobParameters = toJobParameters(parameters);
+        JobExecution jobExecution = new JobExecution(jobInstance, (Long) document.get(JOB_EXECUTION_ID_KEY),
+                jobParameters, null);
+        jobExecution.setStartTime((Date) document.get(START_TIME_KEY));
+        jobExecution.setEndTime((Date) document.get(END_TIME_KEY));
+        jobExecution.setStatus(BatchStatus.valueOf(document.getString(STATUS_KEY)));
+        jobExecution.setExitStatus(new ExitStatus(document.getString(EXIT_CODE_KEY),
+                document.getString(EXIT_MESSAGE_KEY)));
+        jobExecution.setCreateTime((Date) document.get(CREATE_TIME_KEY));
+        jobExecution.setLastUpdated((Date) document.get(LAST_UPDATED_KEY));
+        jobExecution.setVersion(document.getInteger(VERSION_KEY));
+        return jobExecution;
+    }
+}
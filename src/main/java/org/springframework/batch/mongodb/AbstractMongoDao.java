@@ -1,21 +1,37 @@
 package org.springframework.batch.mongodb;
 
+import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.exists;
+import static com.mongodb.client.model.Filters.gt;
+import static com.mongodb.client.model.Projections.include;
 import static com.mongodb.client.model.Updates.inc;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.bson.Document;
 import org.bson.conversions.Bson;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.JobExecution;
 import org.springframework.batch.core.JobInstance;
 import org.springframework.batch.core.JobParameter;
 import org.springframework.batch.core.JobParameters;
 import org.springframework.data.mongodb.core.MongoTemplate;
 
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoCommandException;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
 import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.ReturnDocument;
 
 /**
  * Parent class for all DAO used to store SpringBatch Infrastructure data to Mongo DB.
@@ -34,6 +50,8 @@ public abstract class AbstractMongoDao {
     public static final String LAST_UPDATED_KEY          = "lastUpdated";
     public static final String STATUS_KEY                = "status";
     public static final String SEQUENCES_COLLECTION_NAME = "Sequences";
+    public static final String SEQUENCE_NAME_KEY         = "name";
+    public static final String SEQUENCE_VALUE_KEY        = "value";
     public static final String ID_KEY                    = "_id";
     public static final String NS_KEY                    = "_ns";
     public static final String DOT_ESCAPE_STRING         = "\\{dot\\}";
@@ -45,6 +63,12 @@ public abstract class AbstractMongoDao {
     public static final String JOB_KEY_KEY               = "jobKey";
     public static final String JOB_PARAMETERS_KEY        = "jobParameters";
 
+    // Job Parameter Constants, one {k, v, type, identifying} element of jobParameters per parameter
+    public static final String PARAMETER_NAME_KEY        = "k";
+    public static final String PARAMETER_VALUE_KEY       = "v";
+    public static final String PARAMETER_TYPE_KEY        = "type";
+    public static final String PARAMETER_IDENTIFYING_KEY = "identifying";
+
     // Job Execution Constants
     public static final String JOB_EXECUTION_ID_KEY      = "jobExecutionId";
     public static final String CREATE_TIME_KEY           = "createTime";
@@ -57,20 +81,134 @@ public abstract class AbstractMongoDao {
     public static final String STEP_NAME_KEY             = "stepName";
     public static final String COMMIT_COUNT_KEY          = "commitCount";
     public static final String READ_COUNT_KEY            = "readCount";
-    public static final String FILTER_COUT_KEY           = "filterCout";
+    public static final String FILTER_COUNT_KEY          = "filterCount";
     public static final String WRITE_COUNT_KEY           = "writeCount";
     public static final String READ_SKIP_COUNT_KEY       = "readSkipCount";
     public static final String WRITE_SKIP_COUNT_KEY      = "writeSkipCount";
-    public static final String PROCESS_SKIP_COUT_KEY     = "processSkipCout";
+    public static final String PROCESS_SKIP_COUNT_KEY    = "processSkipCount";
     public static final String ROLLBACK_COUNT_KEY        = "rollbackCount";
 
+    // Former, misspelled counter names, still read until SchemaMigrationRunner renamed them
+    static final String        LEGACY_FILTER_COUNT_KEY       = "filterCout";
+    static final String        LEGACY_PROCESS_SKIP_COUNT_KEY = "processSkipCout";
+
+    /**
+     * Former, misspelled name of the filter count, still read until {@link SchemaMigrationRunner} renamed it.
+     */
+    @Deprecated
+    public static final String FILTER_COUT_KEY           = LEGACY_FILTER_COUNT_KEY;
+
+    /**
+     * Former, misspelled name of the process skip count, still read until {@link SchemaMigrationRunner} renamed it.
+     */
+    @Deprecated
+    public static final String PROCESS_SKIP_COUT_KEY     = LEGACY_PROCESS_SKIP_COUNT_KEY;
+
+    // Embedded Step Execution Constants
+    public static final String STEP_EXECUTIONS_KEY       = "stepExecutions";
+
+    private MongoIndexManager  indexManager;
+
+    private IdGenerator        idGenerator;
+
     protected abstract MongoCollection<Document> getCollection();
 
+    /**
+     * Index manager shared by the DAOs. Without one, {@link #ensureIndexes()} creates every index synchronously.
+     */
+    public void setIndexManager(MongoIndexManager indexManager) {
+        this.indexManager = indexManager;
+    }
+
+    /**
+     * Generator for the ids of new entities, e.g. {@link TimeOrderedIdGenerator}. Without one, ids come from the
+     * Sequences collection.
+     */
+    public void setIdGenerator(IdGenerator idGenerator) {
+        this.idGenerator = idGenerator;
+    }
+
+    /**
+     * Indexes the queries of this DAO rely on.
+     */
+    public List<IndexModel> getIndexes() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Ensures the indexes of this DAO and the unique index on the sequence names.
+     */
+    protected void ensureIndexes(MongoTemplate mongoTemplate) {
+        ensureIndexes(getCollection(), getIndexes());
+        ensureIndexes(mongoTemplate.getDb().getCollection(SEQUENCES_COLLECTION_NAME), Collections.singletonList(
+                new IndexModel(new Document(SEQUENCE_NAME_KEY, 1), new IndexOptions().unique(true))));
+    }
+
+    private void ensureIndexes(MongoCollection<Document> collection, List<IndexModel> indexes) {
+        if (indexManager != null) {
+            indexManager.ensureIndexes(collection, indexes);
+            return;
+        }
+        for (IndexModel index : indexes) {
+            collection.createIndex(index.getKeys(), index.getOptions());
+        }
+    }
+
     protected Long getNextId(String name, MongoTemplate mongoTemplate) {
-        MongoCollection<Document> collection = mongoTemplate.getDb().getCollection(SEQUENCES_COLLECTION_NAME);
-        Bson sequence = eq("name", name);
-        Document document = collection.findOneAndUpdate(sequence, inc("value", 1L), new FindOneAndUpdateOptions().upsert(true));
-        return (Long) collection.find(sequence).first().get("value");
+        if (idGenerator != null) {
+            return idGenerator.nextId(name);
+        }
+        return incrementSequence(name, 1L, mongoTemplate);
+    }
+
+    /**
+     * Adds {@code increment} to a sequence, creating it if needed. Always outside any transaction bound to the
+     * template, so concurrent transactions do not conflict on the sequence document; ids of rolled back writes are
+     * skipped.
+     *
+     * @return the new value of the sequence
+     */
+    static Long incrementSequence(String name, long increment, MongoTemplate mongoTemplate) {
+        MongoCollection<Document> collection = mongoTemplate.getMongoDatabaseFactory().getMongoDatabase()
+                .getCollection(SEQUENCES_COLLECTION_NAME);
+        Bson sequence = eq(SEQUENCE_NAME_KEY, name);
+        FindOneAndUpdateOptions options = new FindOneAndUpdateOptions().upsert(true)
+                .returnDocument(ReturnDocument.AFTER);
+        Document document;
+        try {
+            document = collection.findOneAndUpdate(sequence, inc(SEQUENCE_VALUE_KEY, increment), options);
+        } catch (MongoCommandException e) {
+            if (ErrorCategory.fromErrorCode(e.getErrorCode()) != ErrorCategory.DUPLICATE_KEY) {
+                throw e;
+            }
+            // another caller created the sequence at the same time; the unique index made this upsert fail
+            document = collection.findOneAndUpdate(sequence, inc(SEQUENCE_VALUE_KEY, increment), options);
+        }
+        return document.getLong(SEQUENCE_VALUE_KEY);
+    }
+
+    /**
+     * Ids of the job instances after {@code afterInstanceId} having executions without the given field, in id order.
+     * The executions are walked in instance id order and the walk stops once the page is full, so that paging
+     * through a long history reads every execution only once.
+     */
+    static List<Long> findInstancesMissing(MongoCollection<Document> jobExecutions, String key, long afterInstanceId,
+            int limit) {
+        List<Long> instanceIds = new ArrayList<Long>(limit);
+        try (MongoCursor<Document> cursor = jobExecutions
+                .find(and(gt(JOB_INSTANCE_ID_KEY, afterInstanceId), exists(key, false)))
+                .projection(include(JOB_INSTANCE_ID_KEY)).sort(new Document(JOB_INSTANCE_ID_KEY, 1)).iterator()) {
+            while (cursor.hasNext()) {
+                Long instanceId = cursor.next().getLong(JOB_INSTANCE_ID_KEY);
+                if (instanceIds.isEmpty() || !instanceId.equals(instanceIds.get(instanceIds.size() - 1))) {
+                    if (instanceIds.size() == limit) {
+                        break;
+                    }
+                    instanceIds.add(instanceId);
+                }
+            }
+        }
+        return instanceIds;
     }
 
     protected void removeSystemFields(Document dbObject) {
@@ -88,17 +226,60 @@ public abstract class AbstractMongoDao {
         return eq(JOB_EXECUTION_ID_KEY, id);
     }
 
-    @SuppressWarnings({ "unchecked" })
     protected JobParameters getJobParameters(Long jobInstanceId, MongoTemplate mongoTemplate) {
         Document jobParamObj = mongoTemplate.getCollection(JobInstance.class.getSimpleName())
                 .find(jobInstanceIdObj(jobInstanceId)).first();
 
         if (jobParamObj != null && jobParamObj.get(MongoJobInstanceDao.JOB_PARAMETERS_KEY) != null) {
+            return toJobParameters(jobParamObj.get(MongoJobInstanceDao.JOB_PARAMETERS_KEY));
+        }
+        return null;
+    }
 
-            Map<String, ?> jobParamsMap = (Map<String, ?>) jobParamObj.get(MongoJobInstanceDao.JOB_PARAMETERS_KEY);
+    /**
+     * Parameters as stored in the jobParameters field: one {k, v, type, identifying} element per parameter, so that
+     * a multikey index on name and value serves lookups by parameter.
+     */
+    static List<Document> toParameterList(JobParameters jobParameters) {
+        List<Document> parameters = new ArrayList<Document>(jobParameters.getParameters().size());
+        for (Map.Entry<String, JobParameter> entry : jobParameters.getParameters().entrySet()) {
+            JobParameter parameter = entry.getValue();
+            parameters.add(new Document(PARAMETER_NAME_KEY, entry.getKey())
+                    .append(PARAMETER_VALUE_KEY, parameter.getValue())
+                    .append(PARAMETER_TYPE_KEY, parameter.getType().name())
+                    .append(PARAMETER_IDENTIFYING_KEY, parameter.isIdentifying()));
+        }
+        return parameters;
+    }
 
-            Map<String, JobParameter> map = new HashMap<String, JobParameter>(jobParamsMap.size());
-            for (Map.Entry<String, ?> entry : jobParamsMap.entrySet()) {
+    /**
+     * Reads the jobParameters field in either shape: the element list, or the sub-document of values keyed by name
+     * with dots escaped written before, whose parameters all read as identifying.
+     */
+    @SuppressWarnings({ "unchecked" })
+    static JobParameters toJobParameters(Object stored) {
+        Map<String, JobParameter> map = new LinkedHashMap<String, JobParameter>();
+        if (stored instanceof List) {
+            for (Document parameter : (List<Document>) stored) {
+                Object value = parameter.get(PARAMETER_VALUE_KEY);
+                boolean identifying = parameter.getBoolean(PARAMETER_IDENTIFYING_KEY, true);
+                switch (JobParameter.ParameterType.valueOf(parameter.getString(PARAMETER_TYPE_KEY))) {
+                case STRING:
+                    map.put(parameter.getString(PARAMETER_NAME_KEY), new JobParameter((String) value, identifying));
+                    break;
+                case LONG:
+                    map.put(parameter.getString(PARAMETER_NAME_KEY), new JobParameter((Long) value, identifying));
+                    break;
+                case DOUBLE:
+                    map.put(parameter.getString(PARAMETER_NAME_KEY), new JobParameter((Double) value, identifying));
+                    break;
+                case DATE:
+                    map.put(parameter.getString(PARAMETER_NAME_KEY), new JobParameter((Date) value, identifying));
+                    break;
+                }
+            }
+        } else if (stored instanceof Map) {
+            for (Map.Entry<String, ?> entry : ((Map<String, ?>) stored).entrySet()) {
                 Object param = entry.getValue();
                 String key = entry.getKey().replaceAll(DOT_ESCAPE_STRING, DOT_STRING);
                 if (param instanceof String) {
@@ -113,8 +294,39 @@ public abstract class AbstractMongoDao {
                     map.put(key, null);
                 }
             }
-            return new JobParameters(map);
         }
-        return null;
+        return new JobParameters(map);
+    }
+
+    /**
+     * Job execution read from its document. Parameters are taken from the execution document when it carries them,
+     * and only read from the job instance for executions saved before they were.
+     */
+    protected JobExecution mapJobExecution(JobInstance jobInstance, Document dbObject, MongoTemplate mongoTemplate) {
+        if (dbObject == null) {
+            return null;
+        }
+        Long id = (Long) dbObject.get(JOB_EXECUTION_ID_KEY);
+        Object storedParameters = dbObject.get(JOB_PARAMETERS_KEY);
+        JobExecution jobExecution;
+
+        if (jobInstance == null) {
+            jobExecution = storedParameters == null ? new JobExecution(id)
+                    : new JobExecution(id, toJobParameters(storedParameters));
+        } else {
+            JobParameters jobParameters = storedParameters != null ? toJobParameters(storedParameters)
+                    : getJobParameters(jobInstance.getId(), mongoTemplate);
+            jobExecution = new JobExecution(jobInstance, id, jobParameters, null);
+        }
+        jobExecution.setStartTime((Date) dbObject.get(START_TIME_KEY));
+        jobExecution.setEndTime((Date) dbObject.get(END_TIME_KEY));
+        jobExecution.setStatus(BatchStatus.valueOf((String) dbObject.get(STATUS_KEY)));
+        jobExecution.setExitStatus(
+                new ExitStatus(((String) dbObject.get(EXIT_CODE_KEY)), (String) dbObject.get(EXIT_MESSAGE_KEY)));
+        jobExecution.setCreateTime((Date) dbObject.get(CREATE_TIME_KEY));
+        jobExecution.setLastUpdated((Date) dbObject.get(LAST_UPDATED_KEY));
+        jobExecution.setVersion((Integer) dbObject.get(VERSION_KEY));
+
+        return jobExecution;
     }
 }
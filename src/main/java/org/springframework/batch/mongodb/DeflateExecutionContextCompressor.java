@@ -0,0 +1,72 @@
+package org.springframework.batch.mongodb;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * {@link ExecutionContextCompressor} based on the JDK's {@link Deflater}; needs no extra dependency.
+ */
+public class DeflateExecutionContextCompressor implements ExecutionContextCompressor {
+
+    public static final String NAME  = "deflate";
+
+    private int                level = Deflater.BEST_SPEED;
+
+    /**
+     * Deflater compression level, 1 (fastest) to 9 (smallest). Defaults to 1.
+     */
+    public void setLevel(int level) {
+        this.level = level;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] compress(byte[] data) {
+        Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public byte[] decompress(byte[] data, int uncompressedSize) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            byte[] result = new byte[uncompressedSize];
+            int read = 0;
+            while (read < uncompressedSize && !inflater.finished()) {
+                int inflated = inflater.inflate(result, read, uncompressedSize - read);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalStateException("Corrupt compressed ExecutionContext: truncated after " + read
+                            + " of " + uncompressedSize + " bytes");
+                }
+                read += inflated;
+            }
+            if (read != uncompressedSize) {
+                throw new IllegalStateException(
+                        "Corrupt compressed ExecutionContext: expected " + uncompressedSize + " bytes, got " + read);
+            }
+            return result;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt compressed ExecutionContext", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
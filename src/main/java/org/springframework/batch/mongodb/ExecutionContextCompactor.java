@@ -0,0 +1,423 @@
+package org.springframework.batch.mongodb;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.exists;
+import static com.mongodb.client.model.Filters.gt;
+import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Filters.lt;
+import static com.mongodb.client.model.Projections.include;
+import static com.mongodb.client.model.Updates.set;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobExecutionListener;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.util.Assert;
+
+import com.mongodb.MongoException;
+import com.mongodb.MongoGridFSException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.gridfs.GridFSBucket;
+import com.mongodb.client.gridfs.GridFSBuckets;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.Sorts;
+
+/**
+ * Deletes the execution contexts that can never be read for a restart once their job instance has been finished for
+ * the retention period. <br/>
+ * A restart reads the context of the last job execution and of the last execution of each step that did not
+ * complete. So when the last execution of an instance is COMPLETED or ABANDONED, none of its contexts is needed
+ * anymore; otherwise only those are kept. Instances with a running execution are left alone, and restarting an
+ * instance makes it eligible again. Spilled values are deleted from GridFS with their context. <br/>
+ * A background thread runs {@link #compact()} every interval, and registered as a job listener the compactor also
+ * runs after every successful job. Contexts are deleted in batches with a pause in between, so that live jobs keep
+ * their share of the server. Job executions whose instance was compacted are marked with {@value #COMPACTED_KEY}.
+ */
+public class ExecutionContextCompactor implements JobExecutionListener {
+
+    private static final Logger LOG           = LoggerFactory.getLogger(ExecutionContextCompactor.class);
+
+    public static final String  COMPACTED_KEY = "contextsCompacted";
+
+    private MongoTemplate       mongoTemplate;
+
+    private MongoIndexManager   indexManager;
+
+    private long                retentionMillis = TimeUnit.DAYS.toMillis(7);
+
+    private long                intervalMillis  = TimeUnit.HOURS.toMillis(1);
+
+    private int                 batchSize       = 500;
+
+    private long                pauseMillis     = 100;
+
+    private long                deletedCount;
+
+    private long                deletedFileCount;
+
+    private boolean             requested;
+
+    private volatile boolean    running;
+
+    private Thread              compactor;
+
+    public void setMongoTemplate(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * Index manager applying its policy to the index of the compaction query. Without one, it is created
+     * synchronously.
+     */
+    public void setIndexManager(MongoIndexManager indexManager) {
+        this.indexManager = indexManager;
+    }
+
+    /**
+     * How long after the end of its last execution the contexts of an instance are kept whole. Defaults to 7 days.
+     */
+    public void setRetentionMillis(long retentionMillis) {
+        Assert.isTrue(retentionMillis >= 0, "retentionMillis must not be negative.");
+        this.retentionMillis = retentionMillis;
+    }
+
+    /**
+     * Pause between background runs. 0 starts no thread, leaving {@link #compact()} to the caller. Defaults to one
+     * hour.
+     */
+    public void setIntervalMillis(long intervalMillis) {
+        Assert.isTrue(intervalMillis >= 0, "intervalMillis must not be negative.");
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * Job instances examined, and contexts deleted, per round trip. Defaults to 500.
+     */
+    public void setBatchSize(int batchSize) {
+        Assert.isTrue(batchSize > 0, "batchSize must be positive.");
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Pause after each batch of deletes. Defaults to 100.
+     */
+    public void setPauseMillis(long pauseMillis) {
+        Assert.isTrue(pauseMillis >= 0, "pauseMillis must not be negative.");
+        this.pauseMillis = pauseMillis;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Contexts deleted so far.
+     */
+    public synchronized long getDeletedCount() {
+        return deletedCount;
+    }
+
+    /**
+     * Spilled GridFS files deleted so far.
+     */
+    public synchronized long getDeletedFileCount() {
+        return deletedFileCount;
+    }
+
+    @PostConstruct
+    public synchronized void init() {
+        Assert.notNull(mongoTemplate, "mongoTemplate must be set.");
+        List<IndexModel> indexes = getIndexes();
+        if (indexManager != null) {
+            indexManager.ensureIndexes(getJobExecutionCollection(), indexes);
+        } else {
+            for (IndexModel index : indexes) {
+                getJobExecutionCollection().createIndex(index.getKeys(), index.getOptions());
+            }
+        }
+        if (running || intervalMillis == 0) {
+            return;
+        }
+        running = true;
+        compactor = new Thread(this::run, "execution-context-compactor");
+        compactor.setDaemon(true);
+        compactor.start();
+    }
+
+    /**
+     * Stops the background thread; a run in progress stops after its current batch.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        Thread thread;
+        synchronized (this) {
+            running = false;
+            thread = compactor;
+            compactor = null;
+            notifyAll();
+        }
+        if (thread != null) {
+            thread.interrupt();
+            thread.join();
+        }
+    }
+
+    /**
+     * Finds the job executions not compacted yet in instance order, the end time filtered from the index keys.
+     */
+    public List<IndexModel> getIndexes() {
+        // db.JobExecution.createIndex( {contextsCompacted : 1, jobInstanceId : 1, endTime : 1});
+        return Collections.singletonList(new IndexModel(new Document(COMPACTED_KEY, 1)
+                .append(AbstractMongoDao.JOB_INSTANCE_ID_KEY, 1).append(AbstractMongoDao.END_TIME_KEY, 1)));
+    }
+
+    @Override
+    public void beforeJob(JobExecution jobExecution) {
+    }
+
+    /**
+     * Wakes the background thread after a successful job.
+     */
+    @Override
+    public synchronized void afterJob(JobExecution jobExecution) {
+        if (jobExecution.getStatus() == BatchStatus.COMPLETED) {
+            requested = true;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Compacts the instances whose last execution ended more than the retention period ago.
+     *
+     * @return the number of contexts deleted
+     */
+    public long compact() {
+        Date cutoff = new Date(System.currentTimeMillis() - retentionMillis);
+        long deleted = 0;
+        long lastInstanceId = Long.MIN_VALUE;
+        while (!Thread.currentThread().isInterrupted()) {
+            // paged by instance id, so that no cursor stays open across the pauses
+            List<Long> instanceIds = findInstancesToCompact(lastInstanceId, cutoff);
+            if (instanceIds.isEmpty()) {
+                break;
+            }
+            deleted += compact(instanceIds, cutoff);
+            lastInstanceId = instanceIds.get(instanceIds.size() - 1);
+        }
+        if (deleted > 0) {
+            LOG.info("Compacted {} execution contexts", deleted);
+        }
+        return deleted;
+    }
+
+    /**
+     * Walks the index in instance order from the given instance on, stopping at the first instance past the batch.
+     */
+    private List<Long> findInstancesToCompact(long afterInstanceId, Date cutoff) {
+        List<Long> instanceIds = new ArrayList<>(batchSize);
+        try (MongoCursor<Document> cursor = getJobExecutionCollection()
+                .find(and(eq(COMPACTED_KEY, null), gt(AbstractMongoDao.JOB_INSTANCE_ID_KEY, afterInstanceId),
+                        lt(AbstractMongoDao.END_TIME_KEY, cutoff)))
+                .projection(include(AbstractMongoDao.JOB_INSTANCE_ID_KEY))
+                .sort(Sorts.ascending(AbstractMongoDao.JOB_INSTANCE_ID_KEY)).iterator()) {
+            while (cursor.hasNext()) {
+                Long instanceId = cursor.next().getLong(AbstractMongoDao.JOB_INSTANCE_ID_KEY);
+                if (instanceIds.isEmpty() || !instanceId.equals(instanceIds.get(instanceIds.size() - 1))) {
+                    if (instanceIds.size() == batchSize) {
+                        break;
+                    }
+                    instanceIds.add(instanceId);
+                }
+            }
+        }
+        return instanceIds;
+    }
+
+    private long compact(List<Long> instanceIds, Date cutoff) {
+        Map<Long, List<Document>> executionsByInstance = new HashMap<>();
+        Map<Long, Document> executions = new LinkedHashMap<>();
+        for (Document execution : getJobExecutionCollection()
+                .find(in(AbstractMongoDao.JOB_INSTANCE_ID_KEY, instanceIds))
+                .projection(include(AbstractMongoDao.JOB_EXECUTION_ID_KEY, AbstractMongoDao.JOB_INSTANCE_ID_KEY,
+                        AbstractMongoDao.STATUS_KEY, AbstractMongoDao.END_TIME_KEY, AbstractMongoDao.CREATE_TIME_KEY,
+                        AbstractMongoDao.STEP_EXECUTIONS_KEY + "." + AbstractMongoDao.STEP_EXECUTION_ID_KEY,
+                        AbstractMongoDao.STEP_EXECUTIONS_KEY + "." + AbstractMongoDao.STEP_NAME_KEY,
+                        AbstractMongoDao.STEP_EXECUTIONS_KEY + "." + AbstractMongoDao.STATUS_KEY,
+                        AbstractMongoDao.STEP_EXECUTIONS_KEY + "." + AbstractMongoDao.START_TIME_KEY))) {
+            executions.put(execution.getLong(AbstractMongoDao.JOB_EXECUTION_ID_KEY), execution);
+            executionsByInstance.computeIfAbsent(execution.getLong(AbstractMongoDao.JOB_INSTANCE_ID_KEY),
+                    id -> new ArrayList<>()).add(execution);
+        }
+        Map<Long, List<Document>> stepsByExecution = new HashMap<>();
+        for (Document execution : executions.values()) {
+            // steps embedded with MongoEmbeddedStepExecutionDao
+            List<Document> embedded = execution.getList(AbstractMongoDao.STEP_EXECUTIONS_KEY, Document.class);
+            if (embedded != null) {
+                stepsByExecution.computeIfAbsent(execution.getLong(AbstractMongoDao.JOB_EXECUTION_ID_KEY),
+                        id -> new ArrayList<>()).addAll(embedded);
+            }
+        }
+        for (Document step : mongoTemplate.getCollection(StepExecution.class.getSimpleName())
+                .find(in(AbstractMongoDao.JOB_EXECUTION_ID_KEY, new ArrayList<>(executions.keySet())))
+                .projection(include(AbstractMongoDao.JOB_EXECUTION_ID_KEY, AbstractMongoDao.STEP_EXECUTION_ID_KEY,
+                        AbstractMongoDao.STEP_NAME_KEY, AbstractMongoDao.STATUS_KEY,
+                        AbstractMongoDao.START_TIME_KEY))) {
+            stepsByExecution.computeIfAbsent(step.getLong(AbstractMongoDao.JOB_EXECUTION_ID_KEY),
+                    id -> new ArrayList<>()).add(step);
+        }
+
+        List<Long> jobContexts = new ArrayList<>();
+        List<Long> stepContexts = new ArrayList<>();
+        List<Long> compacted = new ArrayList<>();
+        for (List<Document> instanceExecutions : executionsByInstance.values()) {
+            Document last = Collections.max(instanceExecutions,
+                    Comparator.comparing((Document execution) -> execution.getDate(AbstractMongoDao.CREATE_TIME_KEY),
+                            Comparator.nullsFirst(Comparator.naturalOrder()))
+                            .thenComparing(execution -> execution.getLong(AbstractMongoDao.JOB_EXECUTION_ID_KEY)));
+            if (instanceExecutions.stream().anyMatch(execution -> execution.get(AbstractMongoDao.END_TIME_KEY) == null)
+                    || !last.getDate(AbstractMongoDao.END_TIME_KEY).before(cutoff)) {
+                // running, or not finished for long enough
+                continue;
+            }
+            BatchStatus lastStatus = BatchStatus.valueOf(last.getString(AbstractMongoDao.STATUS_KEY));
+            boolean restartable = lastStatus != BatchStatus.COMPLETED && lastStatus != BatchStatus.ABANDONED;
+
+            Map<String, Document> lastSteps = new HashMap<>();
+            for (Document execution : instanceExecutions) {
+                Long executionId = execution.getLong(AbstractMongoDao.JOB_EXECUTION_ID_KEY);
+                compacted.add(executionId);
+                if (!restartable || execution != last) {
+                    jobContexts.add(executionId);
+                }
+                for (Document step : stepsByExecution.getOrDefault(executionId, Collections.emptyList())) {
+                    lastSteps.merge(step.getString(AbstractMongoDao.STEP_NAME_KEY), step,
+                            (a, b) -> isLater(b, a) ? b : a);
+                }
+            }
+            for (Document execution : instanceExecutions) {
+                for (Document step : stepsByExecution.getOrDefault(
+                        execution.getLong(AbstractMongoDao.JOB_EXECUTION_ID_KEY), Collections.emptyList())) {
+                    boolean readOnRestart = restartable
+                            && lastSteps.get(step.getString(AbstractMongoDao.STEP_NAME_KEY)) == step
+                            && !BatchStatus.COMPLETED.name().equals(step.getString(AbstractMongoDao.STATUS_KEY));
+                    if (!readOnRestart) {
+                        stepContexts.add(step.getLong(AbstractMongoDao.STEP_EXECUTION_ID_KEY));
+                    }
+                }
+            }
+        }
+
+        long deleted = delete(AbstractMongoDao.STEP_EXECUTION_ID_KEY, stepContexts)
+                + delete(AbstractMongoDao.JOB_EXECUTION_ID_KEY, jobContexts);
+        if (!compacted.isEmpty() && !Thread.currentThread().isInterrupted()) {
+            // by execution id, so that a restart launched meanwhile is compacted again later
+            getJobExecutionCollection().updateMany(in(AbstractMongoDao.JOB_EXECUTION_ID_KEY, compacted),
+                    set(COMPACTED_KEY, true));
+        }
+        return deleted;
+    }
+
+    private static boolean isLater(Document step, Document other) {
+        Date start = step.getDate(AbstractMongoDao.START_TIME_KEY);
+        Date otherStart = other.getDate(AbstractMongoDao.START_TIME_KEY);
+        if (start != null && otherStart != null && !start.equals(otherStart)) {
+            return start.after(otherStart);
+        }
+        return step.getLong(AbstractMongoDao.STEP_EXECUTION_ID_KEY) > other.getLong(
+                AbstractMongoDao.STEP_EXECUTION_ID_KEY);
+    }
+
+    /**
+     * Deletes the contexts of the given executions in batches, then the GridFS files their values spilled to.
+     */
+    @SuppressWarnings("unchecked")
+    private long delete(String executionIdKey, List<Long> executionIds) {
+        long deleted = 0;
+        for (int from = 0; from < executionIds.size() && !Thread.currentThread().isInterrupted(); from += batchSize) {
+            List<Long> batch = executionIds.subList(from, Math.min(from + batchSize, executionIds.size()));
+            List<ObjectId> files = new ArrayList<>();
+            for (Document spilled : getContextCollection()
+                    .find(and(in(executionIdKey, batch), exists(MongoExecutionContextDao.SPILLED_FILES_KEY)))
+                    .projection(include(MongoExecutionContextDao.SPILLED_FILES_KEY))) {
+                files.addAll((List<ObjectId>) spilled.get(MongoExecutionContextDao.SPILLED_FILES_KEY));
+            }
+            long count = getContextCollection().deleteMany(in(executionIdKey, batch)).getDeletedCount();
+            // deleted after their context, so that no context is left referencing a missing file
+            GridFSBucket bucket = GridFSBuckets.create(mongoTemplate.getDb(),
+                    MongoExecutionContextDao.SPILL_BUCKET_NAME);
+            for (ObjectId fileId : files) {
+                try {
+                    bucket.delete(fileId);
+                } catch (MongoGridFSException e) {
+                    LOG.debug("Spilled context file {} was already gone", fileId);
+                }
+            }
+            synchronized (this) {
+                deletedCount += count;
+                deletedFileCount += files.size();
+            }
+            deleted += count;
+            pause();
+        }
+        return deleted;
+    }
+
+    private void pause() {
+        if (pauseMillis > 0) {
+            try {
+                Thread.sleep(pauseMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                compact();
+            } catch (MongoException e) {
+                LOG.warn("Execution context compaction failed, retrying at the next interval", e);
+            }
+            synchronized (this) {
+                try {
+                    if (!requested && running) {
+                        wait(intervalMillis);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                requested = false;
+            }
+        }
+    }
+
+    private MongoCollection<Document> getJobExecutionCollection() {
+        return mongoTemplate.getCollection(JobExecution.class.getSimpleName());
+    }
+
+    private MongoCollection<Document> getContextCollection() {
+        return mongoTemplate.getCollection(ExecutionContext.class.getSimpleName());
+    }
+}
@@ -0,0 +1,42 @@
+package org.springframework.batch.mongodb;
+
+/**
+ * Codec used by {@link MongoExecutionContextDao} to store an ExecutionContext as a single compressed binary field.
+ * <br/>
+ * The name is stored with every compressed context, so contexts written with one codec remain readable after the
+ * DAO is switched to another.
+ */
+public interface ExecutionContextCompressor {
+
+    /**
+     * @return the name stored alongside the payload
+     */
+    String getName();
+
+    byte[] compress(byte[] data);
+
+    /**
+     * @param data             the compressed payload
+     * @param uncompressedSize size of the original data, as recorded when it was compressed
+     */
+    byte[] decompress(byte[] data, int uncompressedSize);
+
+    /**
+     * Looks up one of the bundled codecs: "deflate", "lz4" or "zstd". LZ4 and Zstd need aircompressor on the
+     * classpath.
+     *
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    static ExecutionContextCompressor forName(String name) {
+        switch (name) {
+        case DeflateExecutionContextCompressor.NAME:
+            return new DeflateExecutionContextCompressor();
+        case Lz4ExecutionContextCompressor.NAME:
+            return new Lz4ExecutionContextCompressor();
+        case ZstdExecutionContextCompressor.NAME:
+            return new ZstdExecutionContextCompressor();
+        default:
+            throw new IllegalArgumentException("Unknown ExecutionContext codec: " + name);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package org.springframework.batch.mongodb;
+
+/**
+ * Source of the ids the DAOs assign to new JobInstances, JobExecutions and StepExecutions. <br/>
+ * Without one, {@link AbstractMongoDao#getNextId(String, org.springframework.data.mongodb.core.MongoTemplate)}
+ * increments a counter per name in the Sequences collection. Ids must increase over time across every process
+ * writing to the repository, since the DAOs sort by id to find the latest instance or execution. Generators ordering
+ * ids within one process only, like {@link SequenceBlockIdGenerator}, are for repositories written by a single JVM.
+ */
+public interface IdGenerator {
+
+    /**
+     * @param name the sequence name, i.e. the simple class name of the entity
+     * @return a new, unique id
+     */
+    Long nextId(String name);
+}
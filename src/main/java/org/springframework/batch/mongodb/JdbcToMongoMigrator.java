@@ -0,0 +1,443 @@
+package org.springframework.batch.mongodb;
+
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Updates.max;
+import static com.mongodb.client.model.Updates.set;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.JobParameter;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.ExecutionContextSerializer;
+import org.springframework.batch.core.repository.dao.Jackson2ExecutionContextStringSerializer;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.util.Assert;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+
+/**
+ * Copies the history of a JDBC Spring Batch repository (the BATCH_* tables) into the collections used by the Mongo
+ * DAOs. <br/>
+ * Each table is streamed in id order through a forward-only cursor and cut into batches that are written by a pool of
+ * threads as unordered bulk writes. Once the pool and its queue are full the reading thread writes the next batch
+ * itself, which keeps memory bounded however fast the source is. Every document is upserted by its id, and the highest
+ * id below which all batches have been written is recorded in the {@value #CHECKPOINT_COLLECTION_NAME} collection, so
+ * a failed or interrupted run resumes from there when started again. Finally the Sequences counters are raised past
+ * the migrated ids. <br/>
+ * Each execution keeps its own job parameters, and instances take those of their first execution. Execution contexts
+ * are read with a {@link Jackson2ExecutionContextStringSerializer} unless another serializer is set, and stored as
+ * plain fields.
+ */
+public class JdbcToMongoMigrator {
+
+    private static final Logger LOG                        = LoggerFactory.getLogger(JdbcToMongoMigrator.class);
+
+    public static final String  CHECKPOINT_COLLECTION_NAME = "MigrationCheckpoints";
+
+    private static final String LAST_ID_KEY                = "lastId";
+
+    private MongoTemplate       mongoTemplate;
+
+    private JdbcTemplate        jdbcTemplate;
+
+    private String              tablePrefix                = "BATCH_";
+
+    private int                 batchSize                  = 1000;
+
+    private int                 threads                    = 4;
+
+    private int                 maxPendingBatches          = 8;
+
+    private ExecutionContextSerializer serializer          = new Jackson2ExecutionContextStringSerializer();
+
+    public void setMongoTemplate(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    public void setDataSource(DataSource dataSource) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    /**
+     * Prefix of the source tables. Defaults to BATCH_.
+     */
+    public void setTablePrefix(String tablePrefix) {
+        this.tablePrefix = tablePrefix;
+    }
+
+    /**
+     * Rows per bulk write, also used as the JDBC fetch size. Defaults to 1000.
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Number of threads writing to Mongo. Defaults to 4.
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Batches queued for the writer threads before the reading thread has to write one itself. Defaults to 8.
+     */
+    public void setMaxPendingBatches(int maxPendingBatches) {
+        this.maxPendingBatches = maxPendingBatches;
+    }
+
+    /**
+     * Serializer the source repository used for its execution contexts.
+     */
+    public void setSerializer(ExecutionContextSerializer serializer) {
+        this.serializer = serializer;
+    }
+
+    /**
+     * Migrates all tables, resuming from the recorded checkpoints.
+     *
+     * @return number of documents written per target collection
+     */
+    public Map<String, Long> migrate() {
+        Assert.notNull(mongoTemplate, "MongoTemplate must be set.");
+        Assert.notNull(jdbcTemplate, "DataSource must be set.");
+        jdbcTemplate.setFetchSize(batchSize);
+
+        Map<String, Long> counts = new LinkedHashMap<>();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(maxPendingBatches), new ThreadPoolExecutor.CallerRunsPolicy());
+        try {
+            counts.put("JobInstance", migrate(executor, "JobInstance", "SELECT JOB_INSTANCE_ID, JOB_NAME FROM "
+                    + tablePrefix + "JOB_INSTANCE WHERE JOB_INSTANCE_ID > ? ORDER BY JOB_INSTANCE_ID",
+                    JobInstance.class.getSimpleName(), AbstractMongoDao.JOB_INSTANCE_ID_KEY, this::mapJobInstance,
+                    this::addJobParameters));
+            counts.put("JobExecution", migrate(executor, "JobExecution",
+                    "SELECT E.JOB_EXECUTION_ID, E.VERSION, E.JOB_INSTANCE_ID, I.JOB_NAME, E.CREATE_TIME, E.START_TIME, "
+                            + "E.END_TIME, E.STATUS, E.EXIT_CODE, E.EXIT_MESSAGE, E.LAST_UPDATED FROM " + tablePrefix
+                            + "JOB_EXECUTION E JOIN " + tablePrefix + "JOB_INSTANCE I ON I.JOB_INSTANCE_ID = "
+                            + "E.JOB_INSTANCE_ID WHERE E.JOB_EXECUTION_ID > ? ORDER BY E.JOB_EXECUTION_ID",
+                    JobExecution.class.getSimpleName(), AbstractMongoDao.JOB_EXECUTION_ID_KEY,
+                    this::mapJobExecution, this::addExecutionParameters));
+            counts.put("StepExecution", migrate(executor, "StepExecution",
+                    "SELECT STEP_EXECUTION_ID, VERSION, STEP_NAME, JOB_EXECUTION_ID, START_TIME, END_TIME, STATUS, "
+                            + "COMMIT_COUNT, READ_COUNT, FILTER_COUNT, WRITE_COUNT, READ_SKIP_COUNT, WRITE_SKIP_COUNT, "
+                            + "PROCESS_SKIP_COUNT, ROLLBACK_COUNT, EXIT_CODE, EXIT_MESSAGE, LAST_UPDATED FROM "
+                            + tablePrefix + "STEP_EXECUTION WHERE STEP_EXECUTION_ID > ? ORDER BY STEP_EXECUTION_ID",
+                    StepExecution.class.getSimpleName(), AbstractMongoDao.STEP_EXECUTION_ID_KEY,
+                    this::mapStepExecution, null));
+            counts.put("JobExecutionContext", migrate(executor, "JobExecutionContext",
+                    "SELECT JOB_EXECUTION_ID, SHORT_CONTEXT, SERIALIZED_CONTEXT FROM " + tablePrefix
+                            + "JOB_EXECUTION_CONTEXT WHERE JOB_EXECUTION_ID > ? ORDER BY JOB_EXECUTION_ID",
+                    ExecutionContext.class.getSimpleName(), AbstractMongoDao.JOB_EXECUTION_ID_KEY,
+                    (rs) -> mapExecutionContext(rs, AbstractMongoDao.JOB_EXECUTION_ID_KEY), null));
+            counts.put("StepExecutionContext", migrate(executor, "StepExecutionContext",
+                    "SELECT STEP_EXECUTION_ID, SHORT_CONTEXT, SERIALIZED_CONTEXT FROM " + tablePrefix
+                            + "STEP_EXECUTION_CONTEXT WHERE STEP_EXECUTION_ID > ? ORDER BY STEP_EXECUTION_ID",
+                    ExecutionContext.class.getSimpleName(), AbstractMongoDao.STEP_EXECUTION_ID_KEY,
+                    (rs) -> mapExecutionContext(rs, AbstractMongoDao.STEP_EXECUTION_ID_KEY), null));
+        } finally {
+            executor.shutdown();
+        }
+
+        reseedSequence(JobInstance.class.getSimpleName(), "JOB_INSTANCE", "JOB_INSTANCE_ID");
+        reseedSequence(JobExecution.class.getSimpleName(), "JOB_EXECUTION", "JOB_EXECUTION_ID");
+        reseedSequence(StepExecution.class.getSimpleName(), "STEP_EXECUTION", "STEP_EXECUTION_ID");
+        LOG.info("Migrated {}", counts);
+        return counts;
+    }
+
+    /**
+     * Forgets all checkpoints, so that the next run copies every row again.
+     */
+    public void resetCheckpoints() {
+        mongoTemplate.getCollection(CHECKPOINT_COLLECTION_NAME).drop();
+    }
+
+    private long migrate(ThreadPoolExecutor executor, String stage, String sql, String collectionName, String idKey,
+            RowMapper rowMapper, BatchEnricher enricher) {
+        long resumeFrom = getCheckpoint(stage);
+        if (resumeFrom > 0) {
+            LOG.info("Resuming {} after id {}", stage, resumeFrom);
+        }
+        Checkpoint checkpoint = new Checkpoint(stage, resumeFrom);
+        List<Future<?>> futures = new ArrayList<>();
+        List<Document> rows = new ArrayList<>(batchSize);
+        long[] count = new long[1];
+
+        jdbcTemplate.query(sql, (ResultSet rs) -> {
+            rows.add(rowMapper.map(rs));
+            if (rows.size() >= batchSize) {
+                futures.add(submit(executor, checkpoint, new ArrayList<>(rows), collectionName, idKey, enricher));
+                count[0] += rows.size();
+                rows.clear();
+            }
+        }, resumeFrom);
+        if (!rows.isEmpty()) {
+            futures.add(submit(executor, checkpoint, new ArrayList<>(rows), collectionName, idKey, enricher));
+            count[0] += rows.size();
+        }
+
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while migrating " + stage, e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(
+                        "Migration of " + stage + " failed, it resumes after id " + checkpoint.getLowWatermark(),
+                        e.getCause());
+            }
+        }
+        LOG.info("Migrated {} {} rows", count[0], stage);
+        return count[0];
+    }
+
+    private Future<?> submit(ThreadPoolExecutor executor, Checkpoint checkpoint, List<Document> documents,
+            String collectionName, String idKey, BatchEnricher enricher) {
+        long lastId = (Long) documents.get(documents.size() - 1).get(idKey);
+        long sequence = checkpoint.started(lastId);
+        return executor.submit(() -> {
+            if (enricher != null) {
+                enricher.enrich(documents);
+            }
+            List<WriteModel<Document>> writes = new ArrayList<>(documents.size());
+            for (Document document : documents) {
+                writes.add(new ReplaceOneModel<>(eq(idKey, document.get(idKey)), document,
+                        new ReplaceOptions().upsert(true)));
+            }
+            mongoTemplate.getCollection(collectionName).bulkWrite(writes, new BulkWriteOptions().ordered(false));
+            checkpoint.completed(sequence);
+        });
+    }
+
+    private Document mapJobInstance(ResultSet rs) throws SQLException {
+        return new Document(AbstractMongoDao.JOB_INSTANCE_ID_KEY, rs.getLong("JOB_INSTANCE_ID"))
+                .append(AbstractMongoDao.JOB_NAME_KEY, rs.getString("JOB_NAME"))
+                .append(AbstractMongoDao.VERSION_KEY, 0);
+    }
+
+    /**
+     * Adds the key and the parameters of each instance, read from its first execution.
+     */
+    private void addJobParameters(List<Document> instances) {
+        long first = (Long) instances.get(0).get(AbstractMongoDao.JOB_INSTANCE_ID_KEY);
+        long last = (Long) instances.get(instances.size() - 1).get(AbstractMongoDao.JOB_INSTANCE_ID_KEY);
+        Map<Long, Long> firstExecutions = new TreeMap<>();
+        Map<Long, Map<String, JobParameter>> parameters = new TreeMap<>();
+        jdbcTemplate.query("SELECT E.JOB_INSTANCE_ID, E.JOB_EXECUTION_ID, P.TYPE_CD, P.KEY_NAME, P.STRING_VAL, "
+                + "P.DATE_VAL, P.LONG_VAL, P.DOUBLE_VAL, P.IDENTIFYING FROM " + tablePrefix + "JOB_EXECUTION E JOIN "
+                + tablePrefix + "JOB_EXECUTION_PARAMS P ON P.JOB_EXECUTION_ID = E.JOB_EXECUTION_ID "
+                + "WHERE E.JOB_INSTANCE_ID BETWEEN ? AND ? ORDER BY E.JOB_INSTANCE_ID, E.JOB_EXECUTION_ID",
+                (ResultSet rs) -> {
+                    long instanceId = rs.getLong("JOB_INSTANCE_ID");
+                    long executionId = rs.getLong("JOB_EXECUTION_ID");
+                    if (firstExecutions.computeIfAbsent(instanceId, id -> executionId) != executionId) {
+                        return;
+                    }
+                    parameters.computeIfAbsent(instanceId, id -> new LinkedHashMap<>()).put(rs.getString("KEY_NAME"),
+                            mapJobParameter(rs));
+                }, first, last);
+
+        MongoJobInstanceDao keyGenerator = new MongoJobInstanceDao();
+        for (Document instance : instances) {
+            Map<String, JobParameter> map = parameters.get(instance.get(AbstractMongoDao.JOB_INSTANCE_ID_KEY));
+            JobParameters jobParameters = map == null ? new JobParameters() : new JobParameters(map);
+            instance.append(AbstractMongoDao.JOB_KEY_KEY, keyGenerator.createJobKey(jobParameters))
+                    .append(AbstractMongoDao.JOB_PARAMETERS_KEY, MongoJobInstanceDao.toParameterList(jobParameters));
+        }
+    }
+
+    private JobParameter mapJobParameter(ResultSet rs) throws SQLException {
+        boolean identifying = "Y".equalsIgnoreCase(rs.getString("IDENTIFYING"));
+        switch (JobParameter.ParameterType.valueOf(rs.getString("TYPE_CD"))) {
+        case DATE:
+            return new JobParameter(toDate(rs.getTimestamp("DATE_VAL")), identifying);
+        case LONG:
+            return new JobParameter(rs.getLong("LONG_VAL"), identifying);
+        case DOUBLE:
+            return new JobParameter(rs.getDouble("DOUBLE_VAL"), identifying);
+        default:
+            return new JobParameter(rs.getString("STRING_VAL"), identifying);
+        }
+    }
+
+    /**
+     * Adds the parameters of each execution, non-identifying ones included.
+     */
+    private void addExecutionParameters(List<Document> executions) {
+        long first = (Long) executions.get(0).get(AbstractMongoDao.JOB_EXECUTION_ID_KEY);
+        long last = (Long) executions.get(executions.size() - 1).get(AbstractMongoDao.JOB_EXECUTION_ID_KEY);
+        Map<Long, Map<String, JobParameter>> parameters = new TreeMap<>();
+        jdbcTemplate.query("SELECT JOB_EXECUTION_ID, TYPE_CD, KEY_NAME, STRING_VAL, DATE_VAL, LONG_VAL, DOUBLE_VAL, "
+                + "IDENTIFYING FROM " + tablePrefix + "JOB_EXECUTION_PARAMS WHERE JOB_EXECUTION_ID BETWEEN ? AND ?",
+                (ResultSet rs) -> {
+                    parameters.computeIfAbsent(rs.getLong("JOB_EXECUTION_ID"), id -> new LinkedHashMap<>())
+                            .put(rs.getString("KEY_NAME"), mapJobParameter(rs));
+                }, first, last);
+
+        for (Document execution : executions) {
+            Map<String, JobParameter> map = parameters.get(execution.get(AbstractMongoDao.JOB_EXECUTION_ID_KEY));
+            execution.append(AbstractMongoDao.JOB_PARAMETERS_KEY,
+                    AbstractMongoDao.toParameterList(map == null ? new JobParameters() : new JobParameters(map)));
+        }
+    }
+
+    private Document mapJobExecution(ResultSet rs) throws SQLException {
+        JobExecution jobExecution = new JobExecution(new JobInstance(rs.getLong("JOB_INSTANCE_ID"), rs.getString("JOB_NAME")),
+                rs.getLong("JOB_EXECUTION_ID"), null, null);
+        jobExecution.setCreateTime(toDate(rs.getTimestamp("CREATE_TIME")));
+        jobExecution.setStartTime(toDate(rs.getTimestamp("START_TIME")));
+        jobExecution.setEndTime(toDate(rs.getTimestamp("END_TIME")));
+        jobExecution.setStatus(BatchStatus.valueOf(rs.getString("STATUS")));
+        jobExecution.setExitStatus(new ExitStatus(rs.getString("EXIT_CODE"), rs.getString("EXIT_MESSAGE")));
+        jobExecution.setLastUpdated(toDate(rs.getTimestamp("LAST_UPDATED")));
+        return MongoJobExecutionDao.toDocumentWithoutVersion(jobExecution).append(AbstractMongoDao.VERSION_KEY,
+                rs.getInt("VERSION"));
+    }
+
+    private Document mapStepExecution(ResultSet rs) throws SQLException {
+        StepExecution stepExecution = new StepExecution(rs.getString("STEP_NAME"),
+                new JobExecution(rs.getLong("JOB_EXECUTION_ID")), rs.getLong("STEP_EXECUTION_ID"));
+        stepExecution.setStartTime(toDate(rs.getTimestamp("START_TIME")));
+        stepExecution.setEndTime(toDate(rs.getTimestamp("END_TIME")));
+        stepExecution.setStatus(BatchStatus.valueOf(rs.getString("STATUS")));
+        stepExecution.setCommitCount(rs.getInt("COMMIT_COUNT"));
+        stepExecution.setReadCount(rs.getInt("READ_COUNT"));
+        stepExecution.setFilterCount(rs.getInt("FILTER_COUNT"));
+        stepExecution.setWriteCount(rs.getInt("WRITE_COUNT"));
+        stepExecution.setReadSkipCount(rs.getInt("READ_SKIP_COUNT"));
+        stepExecution.setWriteSkipCount(rs.getInt("WRITE_SKIP_COUNT"));
+        stepExecution.setProcessSkipCount(rs.getInt("PROCESS_SKIP_COUNT"));
+        stepExecution.setRollbackCount(rs.getInt("ROLLBACK_COUNT"));
+        stepExecution.setExitStatus(new ExitStatus(rs.getString("EXIT_CODE"), rs.getString("EXIT_MESSAGE")));
+        stepExecution.setLastUpdated(toDate(rs.getTimestamp("LAST_UPDATED")));
+        return MongoStepExecutionDao.toDocumentWithoutVersion(stepExecution).append(AbstractMongoDao.VERSION_KEY,
+                rs.getInt("VERSION"));
+    }
+
+    private Document mapExecutionContext(ResultSet rs, String executionIdKey) throws SQLException {
+        String serialized = rs.getString("SERIALIZED_CONTEXT");
+        if (serialized == null) {
+            serialized = rs.getString("SHORT_CONTEXT");
+        }
+        Map<String, Object> map;
+        try {
+            map = serializer.deserialize(new ByteArrayInputStream(serialized.getBytes(StandardCharsets.UTF_8)));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to deserialize the execution context of " + executionIdKey
+                    + " " + rs.getLong(1), e);
+        }
+        Document document = new Document(executionIdKey, rs.getLong(1));
+        document.putAll(MongoExecutionContextDao.toDocument(new ExecutionContext(map)));
+        return document;
+    }
+
+    private void reseedSequence(String name, String table, String idColumn) {
+        Long maxId = jdbcTemplate.queryForObject("SELECT MAX(" + idColumn + ") FROM " + tablePrefix + table,
+                Long.class);
+        if (maxId != null) {
+            // $max never moves a sequence back, so ids handed out since a previous run stay unique
+            mongoTemplate.getDb().getCollection(AbstractMongoDao.SEQUENCES_COLLECTION_NAME)
+                    .updateOne(eq("name", name), max("value", maxId), new UpdateOptions().upsert(true));
+        }
+    }
+
+    private long getCheckpoint(String stage) {
+        Document checkpoint = getCheckpointCollection().find(eq(AbstractMongoDao.ID_KEY, stage)).first();
+        return checkpoint == null ? 0L : (Long) checkpoint.get(LAST_ID_KEY);
+    }
+
+    private MongoCollection<Document> getCheckpointCollection() {
+        return mongoTemplate.getCollection(CHECKPOINT_COLLECTION_NAME);
+    }
+
+    private static Date toDate(Timestamp timestamp) {
+        // java.sql.Timestamp has no BSON codec and a different toString, which would change job keys
+        return timestamp == null ? null : new Date(timestamp.getTime());
+    }
+
+    private interface RowMapper {
+        Document map(ResultSet rs) throws SQLException;
+    }
+
+    private interface BatchEnricher {
+        void enrich(List<Document> documents);
+    }
+
+    /**
+     * Tracks the batches of one table in flight and persists the highest id below which all of them are written.
+     */
+    private class Checkpoint {
+
+        private final String          stage;
+
+        private final TreeMap<Long, Long> pending = new TreeMap<>();
+
+        private final TreeMap<Long, Long> done    = new TreeMap<>();
+
+        private long                  lowWatermark;
+
+        private long                  nextSequence;
+
+        Checkpoint(String stage, long lowWatermark) {
+            this.stage = stage;
+            this.lowWatermark = lowWatermark;
+        }
+
+        synchronized long started(long lastId) {
+            long sequence = nextSequence++;
+            pending.put(sequence, lastId);
+            return sequence;
+        }
+
+        synchronized void completed(long sequence) {
+            done.put(sequence, pending.get(sequence));
+            long previous = lowWatermark;
+            while (!pending.isEmpty() && done.containsKey(pending.firstKey())) {
+                lowWatermark = done.remove(pending.pollFirstEntry().getKey());
+            }
+            if (lowWatermark != previous) {
+                getCheckpointCollection().updateOne(eq(AbstractMongoDao.ID_KEY, stage), set(LAST_ID_KEY, lowWatermark),
+                        new UpdateOptions().upsert(true));
+            }
+        }
+
+        synchronized long getLowWatermark() {
+            return lowWatermark;
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package org.springframework.batch.mongodb;
+
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Projections.include;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.util.Assert;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+
+/**
+ * Keeps an in-memory view of the version and status of the {@link JobExecution}s this node is interested in, fed by
+ * a single change stream on the JobExecution collection. <br/>
+ * Set it on {@link MongoJobExecutionDao#setStatusWatcher(JobExecutionStatusWatcher)} to turn
+ * {@link MongoJobExecutionDao#synchronizeStatus(JobExecution)} into a local lookup. When change streams are not
+ * available (e.g. a standalone server) the watcher stays inactive and the DAO keeps polling.
+ */
+public class JobExecutionStatusWatcher {
+
+    private static final Logger                       LOG                            = LoggerFactory
+            .getLogger(JobExecutionStatusWatcher.class);
+
+    /** Server error returned when $changeStream is used against a standalone mongod. */
+    private static final int                          CHANGE_STREAM_NOT_SUPPORTED    = 40573;
+
+    private static final Set<BatchStatus>             TERMINAL_STATUSES              = Collections
+            .unmodifiableSet(EnumSet.of(BatchStatus.COMPLETED, BatchStatus.FAILED, BatchStatus.STOPPED,
+                    BatchStatus.ABANDONED, BatchStatus.UNKNOWN));
+
+    private static final String                       FULL_DOCUMENT_KEY              = "fullDocument";
+
+    private MongoTemplate                             mongoTemplate;
+
+    private long                                      retryIntervalMillis            = 5000;
+
+    private long                                      maxAwaitTimeMillis             = 1000;
+
+    private final ConcurrentMap<Long, ExecutionStatus> executions                    = new ConcurrentHashMap<>();
+
+    /** Latest change event of each execution whose first lookup is reading it from the database. */
+    private final ConcurrentMap<Long, AtomicReference<ExecutionStatus>> reading = new ConcurrentHashMap<>();
+
+    /**
+     * Bumped every time the stream is (re)opened, so that a poll that raced with a reconnect does not leave a stale
+     * entry behind.
+     */
+    private final AtomicLong                          generation                     = new AtomicLong();
+
+    private volatile boolean                          watching;
+
+    private volatile boolean                          running;
+
+    private Thread                                    watcherThread;
+
+    public void setMongoTemplate(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * Pause before the change stream is reopened after an error. Defaults to 5 seconds.
+     */
+    public void setRetryIntervalMillis(long retryIntervalMillis) {
+        this.retryIntervalMillis = retryIntervalMillis;
+    }
+
+    /**
+     * How long a getMore on the change stream waits for new events. Bounds how long {@link #stop()} takes. Defaults
+     * to 1 second.
+     */
+    public void setMaxAwaitTimeMillis(long maxAwaitTimeMillis) {
+        this.maxAwaitTimeMillis = maxAwaitTimeMillis;
+    }
+
+    @PostConstruct
+    public synchronized void start() {
+        Assert.notNull(mongoTemplate, "MongoTemplate must be set.");
+        if (running) {
+            return;
+        }
+        running = true;
+        watcherThread = new Thread(this::watch, "job-execution-status-watcher");
+        watcherThread.setDaemon(true);
+        watcherThread.start();
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        running = false;
+        watching = false;
+        executions.clear();
+        if (watcherThread != null) {
+            watcherThread.interrupt();
+            try {
+                watcherThread.join(maxAwaitTimeMillis * 2);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            watcherThread = null;
+        }
+    }
+
+    /**
+     * @return true while the change stream is open and the cached statuses can be trusted
+     */
+    public boolean isWatching() {
+        return watching;
+    }
+
+    /**
+     * Returns the last known version and status of a job execution. The first lookup of an id reads it from the
+     * database; afterwards it is kept current by the change stream. A change event arriving while that read is in
+     * flight is kept, and wins over the read if it is newer.
+     *
+     * @param jobExecutionId id of the execution
+     * @return the current status, or null if the watcher is not active or the execution does not exist
+     */
+    public ExecutionStatus getStatus(Long jobExecutionId) {
+        if (!watching) {
+            return null;
+        }
+        ExecutionStatus status = executions.get(jobExecutionId);
+        if (status != null) {
+            return status;
+        }
+        AtomicReference<ExecutionStatus> buffer = new AtomicReference<>();
+        AtomicReference<ExecutionStatus> shared = reading.putIfAbsent(jobExecutionId, buffer);
+        if (shared != null) {
+            buffer = shared;
+        }
+        long readGeneration = generation.get();
+        try {
+            Document document = getCollection().find(eq(AbstractMongoDao.JOB_EXECUTION_ID_KEY, jobExecutionId))
+                    .projection(include(AbstractMongoDao.VERSION_KEY, AbstractMongoDao.STATUS_KEY)).first();
+            if (document == null) {
+                return null;
+            }
+            status = toExecutionStatus(document);
+            if (watching && readGeneration == generation.get()) {
+                remember(jobExecutionId, status);
+            }
+        } finally {
+            // events from now on find the entry remembered above
+            reading.remove(jobExecutionId, buffer);
+        }
+        ExecutionStatus buffered = buffer.get();
+        if (buffered != null && buffered.getVersion() > status.getVersion()) {
+            status = buffered;
+            if (watching && readGeneration == generation.get()) {
+                remember(jobExecutionId, status);
+            }
+        }
+        return status;
+    }
+
+    /**
+     * Records a write made by this node, so a lookup does not see the older version before the change event
+     * arrives.
+     */
+    public void updated(Long jobExecutionId, Integer version, BatchStatus status) {
+        if (watching && jobExecutionId != null && version != null && status != null) {
+            remember(jobExecutionId, new ExecutionStatus(version, status));
+        }
+    }
+
+    private void remember(Long jobExecutionId, ExecutionStatus status) {
+        if (TERMINAL_STATUSES.contains(status.getStatus())) {
+            // nothing will poll a finished execution for long; keep the map bounded to live executions
+            executions.remove(jobExecutionId);
+            return;
+        }
+        executions.merge(jobExecutionId, status,
+                (current, candidate) -> candidate.getVersion() >= current.getVersion() ? candidate : current);
+    }
+
+    private void watch() {
+        List<Bson> pipeline = Arrays.asList(
+                Aggregates.match(in("operationType", "insert", "update", "replace")),
+                Aggregates.project(include(FULL_DOCUMENT_KEY + "." + AbstractMongoDao.JOB_EXECUTION_ID_KEY,
+                        FULL_DOCUMENT_KEY + "." + AbstractMongoDao.VERSION_KEY,
+                        FULL_DOCUMENT_KEY + "." + AbstractMongoDao.STATUS_KEY, "operationType")));
+        while (running) {
+            try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = getCollection().watch(pipeline)
+                    .fullDocument(FullDocument.UPDATE_LOOKUP).maxAwaitTime(maxAwaitTimeMillis, TimeUnit.MILLISECONDS)
+                    .cursor()) {
+                // events missed while disconnected can't be replayed into the map, start over
+                executions.clear();
+                generation.incrementAndGet();
+                watching = true;
+                LOG.info("Watching {} for status changes", getCollection().getNamespace());
+                while (running) {
+                    ChangeStreamDocument<Document> event = cursor.tryNext();
+                    if (event != null) {
+                        apply(event.getFullDocument());
+                    }
+                }
+            } catch (MongoCommandException e) {
+                watching = false;
+                if (e.getErrorCode() == CHANGE_STREAM_NOT_SUPPORTED) {
+                    LOG.info("Change streams are not supported by this deployment, job status will be polled");
+                    running = false;
+                    return;
+                }
+                LOG.warn("Job execution change stream failed, polling until it is reopened", e);
+                pause();
+            } catch (MongoException | IllegalStateException e) {
+                watching = false;
+                if (running) {
+                    LOG.warn("Job execution change stream failed, polling until it is reopened", e);
+                    pause();
+                }
+            }
+        }
+        watching = false;
+    }
+
+    private void apply(Document document) {
+        if (document == null) {
+            // the execution was deleted between the change and the lookup
+            return;
+        }
+        Long id = (Long) document.get(AbstractMongoDao.JOB_EXECUTION_ID_KEY);
+        if (id == null || document.get(AbstractMongoDao.VERSION_KEY) == null) {
+            return;
+        }
+        ExecutionStatus status = toExecutionStatus(document);
+        // checked before the map: a first lookup remembers its read before it stops buffering
+        AtomicReference<ExecutionStatus> buffer = reading.get(id);
+        if (buffer != null) {
+            buffer.accumulateAndGet(status, (current, candidate) -> current == null
+                    || candidate.getVersion() >= current.getVersion() ? candidate : current);
+        }
+        // only track executions this node has asked about
+        if (executions.containsKey(id)) {
+            remember(id, status);
+        }
+    }
+
+    private void pause() {
+        try {
+            Thread.sleep(retryIntervalMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+
+    private ExecutionStatus toExecutionStatus(Document document) {
+        return new ExecutionStatus((Integer) document.get(AbstractMongoDao.VERSION_KEY),
+                BatchStatus.valueOf((String) document.get(AbstractMongoDao.STATUS_KEY)));
+    }
+
+    private MongoCollection<Document> getCollection() {
+        return mongoTemplate.getCollection(JobExecution.class.getSimpleName());
+    }
+
+    /**
+     * Version and status of a job execution as last seen by the watcher.
+     */
+    public static class ExecutionStatus {
+
+        private final int         version;
+
+        private final BatchStatus status;
+
+        public ExecutionStatus(int version, BatchStatus status) {
+            this.version = version;
+            this.status = status;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+
+        public BatchStatus getStatus() {
+            return status;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package org.springframework.batch.mongodb;
+
+/**
+ * Thrown by createJobInstance of the DAOs of this package when the instance exists already. <br/>
+ * It is an IllegalStateException as the JobInstanceDao contract requires, and lets {@link MongoJobRepository} tell
+ * an existing instance apart from any other failure.
+ */
+public class JobInstanceAlreadyExistsException extends IllegalStateException {
+
+    private static final long serialVersionUID = 1L;
+
+    public JobInstanceAlreadyExistsException(String message) {
+        super(message);
+    }
+
+    public JobInstanceAlreadyExistsException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,100 @@
+package org.springframework.batch.mongodb;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.ExecutionContextSerializer;
+import org.springframework.batch.core.repository.dao.DefaultExecutionContextSerializer;
+import org.springframework.batch.core.repository.dao.ExecutionContextDao;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.util.Assert;
+
+/**
+ * Stores Springbatch's Execution contexts in a {@link MappedStore}. <br/>
+ * The store needs to be set as a property during bean definition. Contexts are stored as one serialized payload, so
+ * any value the serializer handles can be kept.
+ */
+public class MappedExecutionContextDao extends AbstractMappedDao implements ExecutionContextDao {
+
+    static final String                CONTEXT_KEY = "context";
+
+    private ExecutionContextSerializer serializer  = new DefaultExecutionContextSerializer();
+
+    /**
+     * Serializer of the contexts. Defaults to {@link DefaultExecutionContextSerializer}; must not change once
+     * contexts are stored.
+     */
+    public void setSerializer(ExecutionContextSerializer serializer) {
+        this.serializer = serializer;
+    }
+
+    public ExecutionContext getExecutionContext(JobExecution jobExecution) {
+        return read(MappedStore.JOB_EXECUTION_CONTEXT, jobExecution.getId());
+    }
+
+    public ExecutionContext getExecutionContext(StepExecution stepExecution) {
+        return read(MappedStore.STEP_EXECUTION_CONTEXT, stepExecution.getId());
+    }
+
+    public void saveExecutionContext(JobExecution jobExecution) {
+        write(MappedStore.JOB_EXECUTION_CONTEXT, jobExecution.getId(), jobExecution.getExecutionContext());
+    }
+
+    public void saveExecutionContext(StepExecution stepExecution) {
+        write(MappedStore.STEP_EXECUTION_CONTEXT, stepExecution.getId(), stepExecution.getExecutionContext());
+    }
+
+    @Override
+    public void saveExecutionContexts(Collection<StepExecution> stepExecutions) {
+        Assert.notNull(stepExecutions, "Attempt to save a null collection of step executions");
+        for (StepExecution stepExecution : stepExecutions) {
+            saveExecutionContext(stepExecution);
+        }
+    }
+
+    public void updateExecutionContext(JobExecution jobExecution) {
+        saveExecutionContext(jobExecution);
+    }
+
+    public void updateExecutionContext(StepExecution stepExecution) {
+        saveExecutionContext(stepExecution);
+    }
+
+    private ExecutionContext read(byte type, Long executionId) {
+        Assert.notNull(executionId, "ExecutionId must not be null.");
+        Document document = store.read(type, executionId);
+        if (document == null) {
+            return new ExecutionContext();
+        }
+        byte[] bytes = ((Binary) document.get(CONTEXT_KEY)).getData();
+        try {
+            return new ExecutionContext(serializer.deserialize(new ByteArrayInputStream(bytes)));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to deserialize the execution context of " + executionId, e);
+        }
+    }
+
+    private void write(byte type, Long executionId, ExecutionContext executionContext) {
+        Assert.notNull(executionId, "ExecutionId must not be null.");
+        Assert.notNull(executionContext, "The ExecutionContext must not be null.");
+        Map<String, Object> values = new HashMap<>();
+        for (Map.Entry<String, Object> entry : executionContext.entrySet()) {
+            values.put(entry.getKey(), entry.getValue());
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            serializer.serialize(values, bytes);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not serialize the execution context of " + executionId, e);
+        }
+        store.write(type, executionId, new Document(CONTEXT_KEY, new Binary(bytes.toByteArray())));
+    }
+}
@@ -0,0 +1,166 @@
+package org.springframework.batch.mongodb;
+
+import static org.springframework.batch.mongodb.AbstractMongoDao.CREATE_TIME_KEY;
+import static org.springframework.batch.mongodb.AbstractMongoDao.END_TIME_KEY;
+import static org.springframework.batch.mongodb.AbstractMongoDao.JOB_EXECUTION_ID_KEY;
+import static org.springframework.batch.mongodb.AbstractMongoDao.JOB_INSTANCE_ID_KEY;
+import static org.springframework.batch.mongodb.AbstractMongoDao.JOB_NAME_KEY;
+import static org.springframework.batch.mongodb.AbstractMongoDao.JOB_PARAMETERS_KEY;
+import static org.springframework.batch.mongodb.AbstractMongoDao.STATUS_KEY;
+import static org.springframework.batch.mongodb.AbstractMongoDao.VERSION_KEY;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.PostConstruct;
+
+import org.bson.Document;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.repository.dao.JobExecutionDao;
+import org.springframework.batch.core.repository.dao.NoSuchObjectException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.util.Assert;
+
+/**
+ * Stores Springbatch's Job Execution data in a {@link MappedStore}. <br/>
+ * The store needs to be set as a property during bean definition.
+ */
+public class MappedJobExecutionDao extends AbstractMappedDao implements JobExecutionDao {
+
+    /** Execution ids in creation order, by instance id. */
+    private final Map<Long, List<Long>> idsByInstance = new HashMap<>();
+
+    /** Ids of the executions without end time. */
+    private final Set<Long>             running       = new HashSet<>();
+
+    @PostConstruct
+    public void init() {
+        checkStore();
+        synchronized (store) {
+            List<Document> documents = store.readAll(MappedStore.JOB_EXECUTION);
+            documents.sort((a, b) -> Long.compare((Long) a.get(JOB_EXECUTION_ID_KEY),
+                    (Long) b.get(JOB_EXECUTION_ID_KEY)));
+            for (Document document : documents) {
+                index(document);
+            }
+        }
+    }
+
+    public void saveJobExecution(JobExecution jobExecution) {
+        validateJobExecution(jobExecution);
+        synchronized (store) {
+            jobExecution.incrementVersion();
+            jobExecution.setId(store.nextId(MappedStore.JOB_EXECUTION));
+            write(jobExecution, jobExecution.getVersion());
+        }
+    }
+
+    public void updateJobExecution(JobExecution jobExecution) {
+        validateJobExecution(jobExecution);
+        Long id = jobExecution.getId();
+        Assert.notNull(id, "JobExecution ID cannot be null. JobExecution must be saved before it can be updated");
+        Assert.notNull(jobExecution.getVersion(),
+                "JobExecution version cannot be null. JobExecution must be saved before it can be updated");
+        synchronized (store) {
+            Document current = store.read(MappedStore.JOB_EXECUTION, id);
+            if (current == null) {
+                throw new NoSuchObjectException("Invalid JobExecution, ID " + id + " not found.");
+            }
+            Integer currentVersion = current.getInteger(VERSION_KEY);
+            if (!currentVersion.equals(jobExecution.getVersion())) {
+                throw new OptimisticLockingFailureException("Attempt to update job execution id=" + id
+                        + " with wrong version (" + jobExecution.getVersion() + "), where current version is "
+                        + currentVersion);
+            }
+            write(jobExecution, currentVersion + 1);
+            jobExecution.incrementVersion();
+        }
+    }
+
+    public List<JobExecution> findJobExecutions(JobInstance jobInstance) {
+        Assert.notNull(jobInstance, "Job cannot be null.");
+        Assert.notNull(jobInstance.getId(), "Job Id cannot be null.");
+        synchronized (store) {
+            List<Long> ids = idsByInstance.getOrDefault(jobInstance.getId(), Collections.emptyList());
+            List<JobExecution> result = new ArrayList<>(ids.size());
+            for (int index = ids.size() - 1; index >= 0; index--) {
+                result.add(getJobExecution(ids.get(index)));
+            }
+            return result;
+        }
+    }
+
+    public JobExecution getLastJobExecution(JobInstance jobInstance) {
+        synchronized (store) {
+            Document last = null;
+            for (Long id : idsByInstance.getOrDefault(jobInstance.getId(), Collections.emptyList())) {
+                Document document = store.read(MappedStore.JOB_EXECUTION, id);
+                if (last == null || !((Date) document.get(CREATE_TIME_KEY)).before((Date) last.get(CREATE_TIME_KEY))) {
+                    last = document;
+                }
+            }
+            return mapJobExecution(last);
+        }
+    }
+
+    public Set<JobExecution> findRunningJobExecutions(String jobName) {
+        synchronized (store) {
+            Set<JobExecution> result = new HashSet<>();
+            for (Long id : running) {
+                Document document = store.read(MappedStore.JOB_EXECUTION, id);
+                if (jobName.equals(document.getString(JOB_NAME_KEY))) {
+                    result.add(mapJobExecution(document));
+                }
+            }
+            return result;
+        }
+    }
+
+    public JobExecution getJobExecution(Long executionId) {
+        return mapJobExecution(store.read(MappedStore.JOB_EXECUTION, executionId));
+    }
+
+    public void synchronizeStatus(JobExecution jobExecution) {
+        Document document = store.read(MappedStore.JOB_EXECUTION, jobExecution.getId());
+        if (document != null && !document.getInteger(VERSION_KEY).equals(jobExecution.getVersion())) {
+            jobExecution.upgradeStatus(BatchStatus.valueOf(document.getString(STATUS_KEY)));
+            jobExecution.setVersion(document.getInteger(VERSION_KEY));
+        }
+    }
+
+    private void write(JobExecution jobExecution, Integer version) {
+        Document document = MongoJobExecutionDao.toDocumentWithoutVersion(jobExecution).append(VERSION_KEY, version)
+                .append(JOB_PARAMETERS_KEY, toParametersDocument(jobExecution.getJobParameters()));
+        boolean created = store.read(MappedStore.JOB_EXECUTION, jobExecution.getId()) == null;
+        store.write(MappedStore.JOB_EXECUTION, jobExecution.getId(), document);
+        if (created) {
+            index(document);
+        } else if (document.get(END_TIME_KEY) != null) {
+            running.remove(jobExecution.getId());
+        }
+    }
+
+    private void index(Document document) {
+        Long id = (Long) document.get(JOB_EXECUTION_ID_KEY);
+        idsByInstance.computeIfAbsent((Long) document.get(JOB_INSTANCE_ID_KEY), instance -> new ArrayList<>())
+                .add(id);
+        if (document.get(END_TIME_KEY) == null) {
+            running.add(id);
+        }
+    }
+
+    private void validateJobExecution(JobExecution jobExecution) {
+        Assert.notNull(jobExecution, "JobExecution cannot be null.");
+        Assert.notNull(jobExecution.getJobId(), "JobExecution Job-Id cannot be null.");
+        Assert.notNull(jobExecution.getStatus(), "JobExecution status cannot be null.");
+        Assert.notNull(jobExecution.getCreateTime(), "JobExecution create time cannot be null");
+    }
+}
@@ -0,0 +1,171 @@
+package org.springframework.batch.mongodb;
+
+import static org.springframework.batch.mongodb.AbstractMongoDao.JOB_INSTANCE_ID_KEY;
+import static org.springframework.batch.mongodb.AbstractMongoDao.JOB_KEY_KEY;
+import static org.springframework.batch.mongodb.AbstractMongoDao.JOB_NAME_KEY;
+import static org.springframework.batch.mongodb.AbstractMongoDao.JOB_PARAMETERS_KEY;
+import static org.springframework.batch.mongodb.AbstractMongoDao.VERSION_KEY;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import javax.annotation.PostConstruct;
+
+import org.bson.Document;
+import org.springframework.batch.core.DefaultJobKeyGenerator;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.JobKeyGenerator;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.launch.NoSuchJobException;
+import org.springframework.batch.core.repository.dao.JobInstanceDao;
+import org.springframework.util.Assert;
+
+/**
+ * Stores Springbatch's Job Instance data in a {@link MappedStore}. <br/>
+ * The store needs to be set as a property during bean definition. Job keys are those of Spring Batch's
+ * {@link DefaultJobKeyGenerator}, from identifying parameters only.
+ */
+public class MappedJobInstanceDao extends AbstractMappedDao implements JobInstanceDao {
+
+    private final JobKeyGenerator<JobParameters> jobKeyGenerator = new DefaultJobKeyGenerator();
+
+    /** Instance ids by job key, by job name. */
+    private final Map<String, Map<String, Long>> idsByKey        = new HashMap<>();
+
+    /** Instance ids in creation order, by job name. */
+    private final TreeMap<String, List<Long>>    idsByName       = new TreeMap<>();
+
+    @PostConstruct
+    public void init() {
+        checkStore();
+        synchronized (store) {
+            List<Document> documents = store.readAll(MappedStore.JOB_INSTANCE);
+            documents.sort((a, b) -> Long.compare((Long) a.get(JOB_INSTANCE_ID_KEY),
+                    (Long) b.get(JOB_INSTANCE_ID_KEY)));
+            for (Document document : documents) {
+                index(document.getString(JOB_NAME_KEY), document.getString(JOB_KEY_KEY),
+                        (Long) document.get(JOB_INSTANCE_ID_KEY));
+            }
+        }
+    }
+
+    public JobInstance createJobInstance(String jobName, JobParameters jobParameters) {
+        Assert.notNull(jobName, "Job name must not be null.");
+        Assert.notNull(jobParameters, "JobParameters must not be null.");
+
+        String jobKey = jobKeyGenerator.generateKey(jobParameters);
+        synchronized (store) {
+            if (find(jobName, jobKey) != null) {
+                throw new JobInstanceAlreadyExistsException("JobInstance must not already exist");
+            }
+            Long id = store.nextId(MappedStore.JOB_INSTANCE);
+            JobInstance jobInstance = new JobInstance(id, jobName);
+            jobInstance.incrementVersion();
+            store.write(MappedStore.JOB_INSTANCE, id, new Document(JOB_INSTANCE_ID_KEY, id)
+                    .append(JOB_NAME_KEY, jobName).append(JOB_KEY_KEY, jobKey)
+                    .append(VERSION_KEY, jobInstance.getVersion())
+                    .append(JOB_PARAMETERS_KEY, toParametersDocument(jobParameters)));
+            index(jobName, jobKey, id);
+            return jobInstance;
+        }
+    }
+
+    public JobInstance getJobInstance(String jobName, JobParameters jobParameters) {
+        Assert.notNull(jobName, "Job name must not be null.");
+        Assert.notNull(jobParameters, "JobParameters must not be null.");
+
+        String jobKey = jobKeyGenerator.generateKey(jobParameters);
+        synchronized (store) {
+            Long id = find(jobName, jobKey);
+            return id == null ? null : getJobInstance(id);
+        }
+    }
+
+    public JobInstance getJobInstance(Long instanceId) {
+        return mapJobInstance(store.read(MappedStore.JOB_INSTANCE, instanceId));
+    }
+
+    public JobInstance getJobInstance(JobExecution jobExecution) {
+        Document execution = store.read(MappedStore.JOB_EXECUTION, jobExecution.getId());
+        return execution == null ? null : getJobInstance((Long) execution.get(JOB_INSTANCE_ID_KEY));
+    }
+
+    public List<JobInstance> getJobInstances(String jobName, int start, int count) {
+        synchronized (store) {
+            return page(idsByName.getOrDefault(jobName, Collections.emptyList()), start, count);
+        }
+    }
+
+    public List<String> getJobNames() {
+        synchronized (store) {
+            return new ArrayList<>(idsByName.keySet());
+        }
+    }
+
+    /**
+     * Like {@link #getJobInstances(String, int, int)}, where * in the name matches any characters.
+     */
+    @Override
+    public List<JobInstance> findJobInstancesByName(String jobName, int start, int count) {
+        Pattern pattern = Pattern.compile(Pattern.quote(jobName).replace("*", "\\E.*\\Q"));
+        synchronized (store) {
+            List<Long> ids = new ArrayList<>();
+            for (Map.Entry<String, List<Long>> entry : idsByName.entrySet()) {
+                if (pattern.matcher(entry.getKey()).matches()) {
+                    ids.addAll(entry.getValue());
+                }
+            }
+            Collections.sort(ids);
+            return page(ids, start, count);
+        }
+    }
+
+    @Override
+    public int getJobInstanceCount(String jobName) throws NoSuchJobException {
+        synchronized (store) {
+            List<Long> ids = idsByName.get(jobName);
+            if (ids == null) {
+                throw new NoSuchJobException("No job instances for job name " + jobName + " were found");
+            }
+            return ids.size();
+        }
+    }
+
+    private Long find(String jobName, String jobKey) {
+        Map<String, Long> ids = idsByKey.get(jobName);
+        return ids == null ? null : ids.get(jobKey);
+    }
+
+    private void index(String jobName, String jobKey, Long id) {
+        idsByKey.computeIfAbsent(jobName, name -> new HashMap<>()).put(jobKey, id);
+        idsByName.computeIfAbsent(jobName, name -> new ArrayList<>()).add(id);
+    }
+
+    /**
+     * @param ids in ascending order
+     * @return the instances of a page of ids, newest first
+     */
+    private List<JobInstance> page(List<Long> ids, int start, int count) {
+        List<JobInstance> result = new ArrayList<>();
+        for (int index = ids.size() - 1 - start; index >= 0 && result.size() < count; index--) {
+            result.add(getJobInstance(ids.get(index)));
+        }
+        return result;
+    }
+
+    private JobInstance mapJobInstance(Document document) {
+        if (document == null) {
+            return null;
+        }
+        JobInstance jobInstance = new JobInstance((Long) document.get(JOB_INSTANCE_ID_KEY),
+                document.getString(JOB_NAME_KEY));
+        jobInstance.incrementVersion();
+        return jobInstance;
+    }
+}
@@ -0,0 +1,170 @@
+package org.springframework.batch.mongodb;
+
+import static org.springframework.batch.mongodb.AbstractMongoDao.JOB_EXECUTION_ID_KEY;
+import static org.springframework.batch.mongodb.AbstractMongoDao.JOB_INSTANCE_ID_KEY;
+import static org.springframework.batch.mongodb.AbstractMongoDao.START_TIME_KEY;
+import static org.springframework.batch.mongodb.AbstractMongoDao.STEP_EXECUTION_ID_KEY;
+import static org.springframework.batch.mongodb.AbstractMongoDao.STEP_NAME_KEY;
+import static org.springframework.batch.mongodb.AbstractMongoDao.VERSION_KEY;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.PostConstruct;
+
+import org.bson.Document;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.dao.StepExecutionDao;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.util.Assert;
+
+/**
+ * Stores Springbatch's Step Execution data in a {@link MappedStore}. <br/>
+ * The store needs to be set as a property during bean definition. Each update appends the whole step execution, a few
+ * hundred bytes.
+ */
+public class MappedStepExecutionDao extends AbstractMappedDao implements StepExecutionDao {
+
+    /** Step execution ids in creation order, by job execution id. */
+    private final Map<Long, List<Long>> idsByJobExecution = new HashMap<>();
+
+    /** Step execution ids in creation order, by job instance id. */
+    private final Map<Long, List<Long>> idsByJobInstance  = new HashMap<>();
+
+    @PostConstruct
+    public void init() {
+        checkStore();
+        synchronized (store) {
+            List<Document> documents = store.readAll(MappedStore.STEP_EXECUTION);
+            documents.sort((a, b) -> Long.compare((Long) a.get(STEP_EXECUTION_ID_KEY),
+                    (Long) b.get(STEP_EXECUTION_ID_KEY)));
+            for (Document document : documents) {
+                index(document);
+            }
+        }
+    }
+
+    public void saveStepExecution(StepExecution stepExecution) {
+        Assert.isNull(stepExecution.getId(),
+                "to-be-saved (not updated) StepExecution can't already have an id assigned");
+        Assert.isNull(stepExecution.getVersion(),
+                "to-be-saved (not updated) StepExecution can't already have a version assigned");
+        MongoStepExecutionDao.validateStepExecution(stepExecution);
+        synchronized (store) {
+            stepExecution.setId(store.nextId(MappedStore.STEP_EXECUTION));
+            stepExecution.incrementVersion();
+            index(write(stepExecution, stepExecution.getVersion()));
+        }
+    }
+
+    @Override
+    public void saveStepExecutions(Collection<StepExecution> stepExecutions) {
+        Assert.notNull(stepExecutions, "Attempt to save a null collection of step executions");
+        for (StepExecution stepExecution : stepExecutions) {
+            saveStepExecution(stepExecution);
+        }
+    }
+
+    public void updateStepExecution(StepExecution stepExecution) {
+        MongoStepExecutionDao.validateStepExecution(stepExecution);
+        Long id = stepExecution.getId();
+        Assert.notNull(id, "StepExecution Id cannot be null. StepExecution must saved before it can be updated.");
+        synchronized (store) {
+            Document current = store.read(MappedStore.STEP_EXECUTION, id);
+            if (current == null) {
+                throw new IllegalArgumentException("Can't update this stepExecution, it was never saved.");
+            }
+            Integer currentVersion = current.getInteger(VERSION_KEY);
+            if (!currentVersion.equals(stepExecution.getVersion())) {
+                throw new OptimisticLockingFailureException("Attempt to update step execution id=" + id
+                        + " with wrong version (" + stepExecution.getVersion() + "), where current version is "
+                        + currentVersion);
+            }
+            write(stepExecution, currentVersion + 1);
+            stepExecution.incrementVersion();
+        }
+    }
+
+    public StepExecution getStepExecution(JobExecution jobExecution, Long stepExecutionId) {
+        Document document = store.read(MappedStore.STEP_EXECUTION, stepExecutionId);
+        if (document == null || !jobExecution.getId().equals(document.get(JOB_EXECUTION_ID_KEY))) {
+            return null;
+        }
+        return MongoStepExecutionDao.mapStepExecution(document, jobExecution);
+    }
+
+    /**
+     * The step execution started last, the latest created one among those started at the same time.
+     */
+    @Override
+    public StepExecution getLastStepExecution(JobInstance jobInstance, String stepName) {
+        synchronized (store) {
+            Document last = null;
+            for (Document document : find(jobInstance, stepName)) {
+                if (last == null
+                        || !((Date) document.get(START_TIME_KEY)).before((Date) last.get(START_TIME_KEY))) {
+                    last = document;
+                }
+            }
+            if (last == null) {
+                return null;
+            }
+            JobExecution jobExecution = mapJobExecution(
+                    store.read(MappedStore.JOB_EXECUTION, (Long) last.get(JOB_EXECUTION_ID_KEY)));
+            return MongoStepExecutionDao.mapStepExecution(last, jobExecution);
+        }
+    }
+
+    @Override
+    public int countStepExecutions(JobInstance jobInstance, String stepName) {
+        synchronized (store) {
+            return find(jobInstance, stepName).size();
+        }
+    }
+
+    public void addStepExecutions(JobExecution jobExecution) {
+        synchronized (store) {
+            for (Long id : idsByJobExecution.getOrDefault(jobExecution.getId(), Collections.emptyList())) {
+                MongoStepExecutionDao.mapStepExecution(store.read(MappedStore.STEP_EXECUTION, id), jobExecution);
+            }
+        }
+    }
+
+    /**
+     * The job instance id is stored with the step, so executions of an instance are found without reading its job
+     * executions.
+     */
+    private Document write(StepExecution stepExecution, Integer version) {
+        Document document = MongoStepExecutionDao.toDocumentWithoutVersion(stepExecution)
+                .append(JOB_INSTANCE_ID_KEY, stepExecution.getJobExecution().getJobId())
+                .append(VERSION_KEY, version);
+        store.write(MappedStore.STEP_EXECUTION, stepExecution.getId(), document);
+        return document;
+    }
+
+    private List<Document> find(JobInstance jobInstance, String stepName) {
+        List<Document> documents = new ArrayList<>();
+        for (Long id : idsByJobInstance.getOrDefault(jobInstance.getId(), Collections.emptyList())) {
+            Document document = store.read(MappedStore.STEP_EXECUTION, id);
+            if (stepName.equals(document.getString(STEP_NAME_KEY))) {
+                documents.add(document);
+            }
+        }
+        return documents;
+    }
+
+    private void index(Document document) {
+        Long id = (Long) document.get(STEP_EXECUTION_ID_KEY);
+        idsByJobExecution.computeIfAbsent((Long) document.get(JOB_EXECUTION_ID_KEY), execution -> new ArrayList<>())
+                .add(id);
+        idsByJobInstance.computeIfAbsent((Long) document.get(JOB_INSTANCE_ID_KEY), instance -> new ArrayList<>())
+                .add(id);
+    }
+}
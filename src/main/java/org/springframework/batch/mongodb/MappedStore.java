@@ -0,0 +1,337 @@
+package org.springframework.batch.mongodb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.util.Assert;
+
+import com.mongodb.MongoClientSettings;
+
+/**
+ * Embedded storage for the Mapped DAOs, for single-node deployments without a MongoDB server. <br/>
+ * Every write appends a record to one log file, mapped into memory in fixed-size segments. A record holds its length,
+ * a CRC32, its type, its id and the entity as BSON, in the same document form as the Mongo DAOs store. The offset of
+ * the latest record of each id is kept in an off-heap hash index per type, so reads never scan the log. <br/>
+ * On start-up the log is replayed to rebuild the indexes: the first record that is incomplete or fails its checksum
+ * marks the end of the log, and everything from there on is discarded, so a crash in the middle of a write loses only
+ * that write. Without {@link #setForceOnWrite(boolean)} written records survive a crash of the process but not of the
+ * machine. <br/>
+ * Superseded versions stay in the log; the file grows with every write. <br/>
+ * The file is locked while open, so a second store, in this or another process, fails to open it.
+ */
+public class MappedStore {
+
+    private static final Logger          LOG                    = LoggerFactory.getLogger(MappedStore.class);
+
+    static final byte                    JOB_INSTANCE           = 1;
+    static final byte                    JOB_EXECUTION          = 2;
+    static final byte                    STEP_EXECUTION         = 3;
+    static final byte                    JOB_EXECUTION_CONTEXT  = 4;
+    static final byte                    STEP_EXECUTION_CONTEXT = 5;
+
+    private static final int             TYPES                  = 6;
+
+    /** Length, checksum, type and id in front of each payload. */
+    private static final int             HEADER_SIZE            = 4 + 4 + 1 + 8;
+
+    /** Length marking the rest of a segment as unused. */
+    private static final int             SEGMENT_END            = -1;
+
+    private static final Codec<Document> CODEC                  = MongoClientSettings.getDefaultCodecRegistry()
+            .get(Document.class);
+
+    private File                         file;
+
+    private int                          segmentSize            = 64 * 1024 * 1024;
+
+    private boolean                      forceOnWrite;
+
+    private FileChannel                  channel;
+
+    private FileLock                     lock;
+
+    private final List<MappedByteBuffer> segments               = new ArrayList<>();
+
+    private final OffHeapLongIndex[]     indexes                = new OffHeapLongIndex[TYPES];
+
+    private final long[]                 lastIds                = new long[TYPES];
+
+    /** Offset of the next record in the log. */
+    private long                         position;
+
+    public void setFile(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Size of the mapped segments, which is also the upper bound for one record. Defaults to 64 MB. Must not change
+     * once the file exists.
+     */
+    public void setSegmentSize(int segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Whether each record is forced to the storage device before the write returns, so it survives a power loss.
+     * Defaults to false: records are then written back by the operating system.
+     */
+    public void setForceOnWrite(boolean forceOnWrite) {
+        this.forceOnWrite = forceOnWrite;
+    }
+
+    /**
+     * Opens the file, creating it if needed, and rebuilds the indexes from the records in it.
+     */
+    @PostConstruct
+    public synchronized void init() {
+        Assert.notNull(file, "file must be set.");
+        Assert.isTrue(segmentSize > HEADER_SIZE, "segmentSize must be larger than a record header.");
+        Assert.state(channel == null, "MappedStore is already open.");
+        for (int type = 0; type < TYPES; type++) {
+            indexes[type] = new OffHeapLongIndex(1024);
+            lastIds[type] = 0;
+        }
+        position = 0;
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            lock();
+            recover();
+        } catch (IOException e) {
+            closeChannel();
+            throw new DataAccessResourceFailureException("Failed to open " + file, e);
+        } catch (RuntimeException e) {
+            closeChannel();
+            throw e;
+        }
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        if (channel == null) {
+            return;
+        }
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+        closeChannel();
+    }
+
+    /**
+     * @return a new id for a type, above every id stored for it
+     */
+    synchronized long nextId(byte type) {
+        return ++lastIds[type];
+    }
+
+    /**
+     * Appends a new version of an entity, which from now on is the one read for its id.
+     */
+    synchronized void write(byte type, long id, Document document) {
+        Assert.state(channel != null, "MappedStore is not open.");
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        CODEC.encode(new BsonBinaryWriter(buffer), document, EncoderContext.builder().build());
+        byte[] payload = buffer.toByteArray();
+        int recordSize = HEADER_SIZE + payload.length;
+        if (recordSize > segmentSize) {
+            throw new IllegalArgumentException("Record of " + recordSize + " bytes does not fit in a segment of "
+                    + segmentSize + " bytes.");
+        }
+        int offset = (int) (position % segmentSize);
+        if (offset + recordSize > segmentSize) {
+            if (offset + 4 <= segmentSize) {
+                segment(position).putInt(offset, SEGMENT_END);
+            }
+            position += segmentSize - offset;
+            offset = 0;
+        }
+        MappedByteBuffer segment = segment(position);
+        segment.putInt(offset + 4, checksum(type, id, payload));
+        segment.put(offset + 8, type);
+        segment.putLong(offset + 9, id);
+        segment.put(offset + HEADER_SIZE, payload);
+        // the length goes last: until it is written the record reads as the end of the log
+        segment.putInt(offset, payload.length);
+        if (forceOnWrite) {
+            segment.force(offset, recordSize);
+        }
+        indexes[type].put(id, position);
+        lastIds[type] = Math.max(lastIds[type], id);
+        position += recordSize;
+    }
+
+    /**
+     * @return the latest version of an entity, or null if none was written
+     */
+    synchronized Document read(byte type, long id) {
+        Assert.state(channel != null, "MappedStore is not open.");
+        long recordPosition = indexes[type].get(id);
+        if (recordPosition == OffHeapLongIndex.ABSENT) {
+            return null;
+        }
+        MappedByteBuffer segment = segments.get((int) (recordPosition / segmentSize));
+        int offset = (int) (recordPosition % segmentSize);
+        ByteBuffer payload = segment.slice(offset + HEADER_SIZE, segment.getInt(offset));
+        return CODEC.decode(new BsonBinaryReader(payload), DecoderContext.builder().build());
+    }
+
+    /**
+     * @return the latest version of every entity of a type, in no particular order
+     */
+    synchronized List<Document> readAll(byte type) {
+        List<Document> documents = new ArrayList<>(indexes[type].size());
+        indexes[type].forEachKey(id -> documents.add(read(type, id)));
+        return documents;
+    }
+
+    /**
+     * @return bytes used by the log, including superseded versions
+     */
+    public synchronized long getSize() {
+        return position;
+    }
+
+    private void recover() throws IOException {
+        long segmentCount = (channel.size() + segmentSize - 1) / segmentSize;
+        int records = 0;
+        scan: for (int index = 0; index < segmentCount; index++) {
+            MappedByteBuffer segment = segment((long) index * segmentSize);
+            int offset = 0;
+            while (offset + HEADER_SIZE <= segmentSize) {
+                int length = segment.getInt(offset);
+                if (length == SEGMENT_END) {
+                    break;
+                }
+                if (length <= 0 || offset + HEADER_SIZE + length > segmentSize
+                        || !valid(segment, offset, length)) {
+                    if (length != 0) {
+                        LOG.warn("Discarding the torn record at offset {} of {} and everything after it",
+                                position, file);
+                    }
+                    break scan;
+                }
+                byte type = segment.get(offset + 8);
+                long id = segment.getLong(offset + 9);
+                indexes[type].put(id, position);
+                lastIds[type] = Math.max(lastIds[type], id);
+                records++;
+                offset += HEADER_SIZE + length;
+                position = (long) index * segmentSize + offset;
+            }
+            if (index + 1 < segmentCount) {
+                position = (long) (index + 1) * segmentSize;
+            }
+        }
+        discardTail();
+        LOG.info("Opened {} with {} records in {} bytes", file, records, position);
+    }
+
+    /**
+     * Zeroes whatever follows the last valid record, so that it cannot be taken for records written later.
+     */
+    private void discardTail() throws IOException {
+        int last = (int) (position / segmentSize);
+        if (last < segments.size()) {
+            MappedByteBuffer segment = segments.get(last);
+            int from = (int) (position % segmentSize);
+            byte[] zeros = new byte[Math.min(64 * 1024, segmentSize - from)];
+            for (int offset = from; offset < segmentSize; offset += zeros.length) {
+                segment.put(offset, zeros, 0, Math.min(zeros.length, segmentSize - offset));
+            }
+            segment.force();
+            while (segments.size() > last + 1) {
+                segments.remove(segments.size() - 1);
+            }
+            if (channel.size() > (long) (last + 1) * segmentSize) {
+                channel.truncate((long) (last + 1) * segmentSize);
+            }
+        }
+    }
+
+    private boolean valid(MappedByteBuffer segment, int offset, int length) {
+        byte type = segment.get(offset + 8);
+        if (type <= 0 || type >= TYPES) {
+            return false;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(segment.slice(offset + 9, 8 + length));
+        return segment.getInt(offset + 4) == (int) crc.getValue();
+    }
+
+    private static int checksum(byte type, long id, byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(ByteBuffer.allocate(8).putLong(0, id));
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * @return the segment holding a position, mapping it (and growing the file) if needed
+     */
+    private MappedByteBuffer segment(long at) {
+        int index = (int) (at / segmentSize);
+        while (segments.size() <= index) {
+            try {
+                segments.add(channel.map(FileChannel.MapMode.READ_WRITE, (long) segments.size() * segmentSize,
+                        segmentSize));
+            } catch (IOException e) {
+                throw new DataAccessResourceFailureException("Failed to map segment " + segments.size() + " of "
+                        + file, e);
+            }
+        }
+        return segments.get(index);
+    }
+
+    private void lock() throws IOException {
+        try {
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // held by another store of this process
+            lock = null;
+        }
+        if (lock == null) {
+            throw new DataAccessResourceFailureException(file + " is in use by another MappedStore.");
+        }
+    }
+
+    /**
+     * Closes the channel, which also releases the lock.
+     */
+    private void closeChannel() {
+        segments.clear();
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOG.warn("Failed to close {}", file, e);
+        }
+        channel = null;
+        lock = null;
+    }
+}
@@ -0,0 +1,135 @@
+package org.springframework.batch.mongodb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.data.mongodb.MongoTransactionManager;
+import org.springframework.util.Assert;
+
+import com.mongodb.ClientSessionOptions;
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoException;
+import com.mongodb.TransactionOptions;
+import com.mongodb.client.ClientSession;
+import com.mongodb.client.MongoDatabase;
+
+/**
+ * Transaction manager running the repository writes of a transaction in one MongoDB multi-document transaction, e.g.
+ * the step execution and execution context updates of a chunk, which then commit atomically with a single journal
+ * flush. Requires a replica set or sharded cluster. <br/>
+ * Use it as transaction manager of {@link MongoJobRepositoryFactoryBean} and of the steps. The DAOs take part through
+ * their MongoTemplate, which must use the same MongoDatabaseFactory. Since collections cannot always be created inside
+ * a transaction, the repository collections are created up front by {@link #afterPropertiesSet()}; sequence ids are
+ * always allocated outside the transaction. Commits with an unknown outcome are retried, as advised for MongoDB
+ * transactions.
+ */
+public class MongoBatchTransactionManager extends MongoTransactionManager {
+
+    private static final long   serialVersionUID = 1L;
+
+    private static final Logger LOG              = LoggerFactory.getLogger(MongoBatchTransactionManager.class);
+
+    private static final String NAMESPACE_EXISTS = "NamespaceExists";
+
+    private List<String>        collectionNames  = new ArrayList<>(Arrays.asList(
+            JobInstance.class.getSimpleName(), JobExecution.class.getSimpleName(),
+            StepExecution.class.getSimpleName(), ExecutionContext.class.getSimpleName(),
+            AbstractMongoDao.SEQUENCES_COLLECTION_NAME, MongoExecutionContextDao.SPILL_BUCKET_NAME + ".files",
+            MongoExecutionContextDao.SPILL_BUCKET_NAME + ".chunks"));
+
+    private int                 commitRetries    = 3;
+
+    public MongoBatchTransactionManager() {
+    }
+
+    public MongoBatchTransactionManager(MongoDatabaseFactory dbFactory) {
+        super(dbFactory);
+    }
+
+    public MongoBatchTransactionManager(MongoDatabaseFactory dbFactory, TransactionOptions options) {
+        super(dbFactory, options);
+    }
+
+    /**
+     * Collections created by {@link #afterPropertiesSet()} when missing. Defaults to the collections of the Mongo
+     * DAOs.
+     */
+    public void setCollectionNames(List<String> collectionNames) {
+        this.collectionNames = collectionNames;
+    }
+
+    /**
+     * Times a commit with unknown outcome is retried. Defaults to 3.
+     */
+    public void setCommitRetries(int commitRetries) {
+        Assert.isTrue(commitRetries >= 0, "commitRetries must not be negative.");
+        this.commitRetries = commitRetries;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        super.afterPropertiesSet();
+        createCollections();
+    }
+
+    @Override
+    protected void doCommit(MongoTransactionObject transactionObject) throws Exception {
+        for (int attempt = 0;; attempt++) {
+            try {
+                transactionObject.commitTransaction();
+                return;
+            } catch (MongoException e) {
+                if (attempt >= commitRetries
+                        || !e.hasErrorLabel(MongoException.UNKNOWN_TRANSACTION_COMMIT_RESULT_LABEL)) {
+                    throw e;
+                }
+                LOG.warn("Retrying commit with unknown result", e);
+            }
+        }
+    }
+
+    private void createCollections() {
+        MongoDatabase database = getDbFactory().getMongoDatabase();
+        Set<String> existing = database.listCollectionNames().into(new HashSet<>());
+        for (String name : collectionNames) {
+            if (!existing.contains(name)) {
+                try {
+                    database.createCollection(name);
+                    LOG.debug("Created collection {}", name);
+                } catch (MongoCommandException e) {
+                    // created concurrently by another application
+                    if (!NAMESPACE_EXISTS.equals(e.getErrorCodeName())) {
+                        throw e;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds out whether the server behind a database factory supports transactions, by running an empty one.
+     */
+    public static boolean supportsTransactions(MongoDatabaseFactory dbFactory) {
+        try (ClientSession session = dbFactory.getSession(ClientSessionOptions.builder().build())) {
+            session.startTransaction();
+            dbFactory.getMongoDatabase().getCollection(AbstractMongoDao.SEQUENCES_COLLECTION_NAME)
+                    .countDocuments(session, new Document());
+            session.abortTransaction();
+            return true;
+        } catch (MongoException e) {
+            LOG.debug("Transactions not supported", e);
+            return false;
+        }
+    }
+}
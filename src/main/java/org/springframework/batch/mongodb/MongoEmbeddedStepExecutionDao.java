@@ -0,0 +1,228 @@
+package org.springframework.batch.mongodb;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.elemMatch;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.exists;
+import static com.mongodb.client.model.Filters.gt;
+import static com.mongodb.client.model.Filters.or;
+import static com.mongodb.client.model.Projections.include;
+import static com.mongodb.client.model.Updates.combine;
+import static com.mongodb.client.model.Updates.pushEach;
+import static com.mongodb.client.model.Updates.set;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.dao.StepExecutionDao;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.util.Assert;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.client.result.UpdateResult;
+
+/**
+ * Alternative to {@link MongoStepExecutionDao} that stores step executions as an array embedded in their
+ * JobExecution document instead of in a separate StepExecution collection. <br/>
+ * Loading a job execution with all its steps is a single read and step updates use the positional operator on the
+ * parent document. Select it per repository by wiring it as the stepExecutionDao of
+ * {@link MongoJobRepositoryFactoryBean}; use {@link StepExecutionLayoutMigrator} to move existing data between the
+ * two layouts. <br/>
+ * MongoTemplate needs to be set as a property during bean definition
+ */
+@Repository
+public class MongoEmbeddedStepExecutionDao extends AbstractMongoDao implements StepExecutionDao {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MongoEmbeddedStepExecutionDao.class);
+
+    private static final String STEP_PREFIX = STEP_EXECUTIONS_KEY + ".";
+
+    private MongoTemplate       mongoTemplate;
+
+    public void setMongoTemplate(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    public void saveStepExecution(StepExecution stepExecution) {
+        saveStepExecutions(Arrays.asList(stepExecution));
+    }
+
+    /**
+     * Saves all the step executions of one job execution with a single $push.
+     */
+    @Override
+    public void saveStepExecutions(Collection<StepExecution> stepExecutions) {
+        Assert.notNull(stepExecutions, "Attempt to save an null collect of step executions");
+        Map<Long, List<Document>> byJobExecution = new LinkedHashMap<>();
+        for (StepExecution stepExecution : stepExecutions) {
+            Assert.isNull(stepExecution.getId(),
+                    "to-be-saved (not updated) StepExecution can't already have an id assigned");
+            Assert.isNull(stepExecution.getVersion(),
+                    "to-be-saved (not updated) StepExecution can't already have a version assigned");
+            MongoStepExecutionDao.validateStepExecution(stepExecution);
+            Assert.notNull(stepExecution.getJobExecutionId(),
+                    "StepExecution must belong to a saved JobExecution to be embedded in it");
+
+            stepExecution.setId(getNextId(StepExecution.class.getSimpleName(), mongoTemplate));
+            stepExecution.incrementVersion(); // should be 0 now
+            byJobExecution.computeIfAbsent(stepExecution.getJobExecutionId(), id -> new ArrayList<>())
+                    .add(MongoStepExecutionDao.toDocumentWithoutVersion(stepExecution).append(VERSION_KEY,
+                            stepExecution.getVersion()));
+        }
+        for (Map.Entry<Long, List<Document>> entry : byJobExecution.entrySet()) {
+            UpdateResult result = getCollection().updateOne(jobExecutionIdObj(entry.getKey()),
+                    pushEach(STEP_EXECUTIONS_KEY, entry.getValue()));
+            if (result.getMatchedCount() == 0) {
+                throw new IllegalArgumentException(
+                        "Can't save step executions, JobExecution " + entry.getKey() + " was never saved.");
+            }
+            LOG.debug("Embedded {} Step Execution(s) in Job Execution {}", entry.getValue().size(), entry.getKey());
+        }
+    }
+
+    public synchronized void updateStepExecution(StepExecution stepExecution) {
+        Integer currentVersion = stepExecution.getVersion();
+        Integer newVersion = currentVersion + 1;
+
+        List<Bson> updates = new ArrayList<>();
+        for (Map.Entry<String, Object> field : MongoStepExecutionDao.toDocumentWithoutVersion(stepExecution)
+                .entrySet()) {
+            updates.add(set(STEP_PREFIX + "$." + field.getKey(), field.getValue()));
+        }
+        updates.add(set(STEP_PREFIX + "$." + VERSION_KEY, newVersion));
+        updates.add(MongoStepExecutionDao.unsetLegacyCounters(STEP_PREFIX + "$."));
+
+        UpdateResult result = getCollection().updateOne(
+                and(jobExecutionIdObj(stepExecution.getJobExecutionId()),
+                        elemMatch(STEP_EXECUTIONS_KEY,
+                                and(eq(STEP_EXECUTION_ID_KEY, stepExecution.getId()), eq(VERSION_KEY, currentVersion)))),
+                combine(updates));
+        if (result.getMatchedCount() == 0) {
+            throw new OptimisticLockingFailureException("Attempt to update step execution id="
+                    + stepExecution.getId() + " with wrong version (" + currentVersion + ") or missing parent");
+        }
+        stepExecution.incrementVersion();
+    }
+
+    public StepExecution getStepExecution(JobExecution jobExecution, Long stepExecutionId) {
+        Document parent = getCollection().find(jobExecutionIdObj(jobExecution.getId()))
+                .projection(Projections.elemMatch(STEP_EXECUTIONS_KEY,
+                        eq(STEP_EXECUTION_ID_KEY, stepExecutionId)))
+                .first();
+        List<Document> steps = getSteps(parent);
+        return steps.isEmpty() ? null : MongoStepExecutionDao.mapStepExecution(steps.get(0), jobExecution);
+    }
+
+    public void addStepExecutions(JobExecution jobExecution) {
+        Document parent = getCollection().find(jobExecutionIdObj(jobExecution.getId()))
+                .projection(include(STEP_EXECUTIONS_KEY)).first();
+        List<Document> steps = getSteps(parent);
+        steps.sort(Comparator.comparing(step -> (Long) step.get(STEP_EXECUTION_ID_KEY)));
+        for (Document step : steps) {
+            // the StepExecution constructor adds the step to the job execution
+            MongoStepExecutionDao.mapStepExecution(step, jobExecution);
+        }
+    }
+
+    /**
+     * Retrieve the last {@link StepExecution} for a given {@link JobInstance} ordered by starting time and then id,
+     * with a single aggregation over the instance's job executions.
+     */
+    @Override
+    public StepExecution getLastStepExecution(JobInstance jobInstance, String stepName) {
+        Document result = getCollection()
+                .aggregate(Arrays.asList(Aggregates.match(jobInstanceIdObj(jobInstance.getId())),
+                        Aggregates.unwind("$" + STEP_EXECUTIONS_KEY),
+                        Aggregates.match(eq(STEP_PREFIX + STEP_NAME_KEY, stepName)),
+                        Aggregates.sort(Sorts.descending(STEP_PREFIX + START_TIME_KEY,
+                                STEP_PREFIX + STEP_EXECUTION_ID_KEY)),
+                        Aggregates.limit(1)))
+                .first();
+        if (result == null) {
+            return null;
+        }
+        Document step = (Document) result.remove(STEP_EXECUTIONS_KEY);
+        JobExecution jobExecution = mapJobExecution(null, result, mongoTemplate);
+        return MongoStepExecutionDao.mapStepExecution(step, jobExecution);
+    }
+
+    @Override
+    public int countStepExecutions(JobInstance jobInstance, String stepName) {
+        Document result = getCollection()
+                .aggregate(Arrays.asList(Aggregates.match(jobInstanceIdObj(jobInstance.getId())),
+                        Aggregates.project(include(STEP_EXECUTIONS_KEY)),
+                        Aggregates.unwind("$" + STEP_EXECUTIONS_KEY),
+                        Aggregates.match(eq(STEP_PREFIX + STEP_NAME_KEY, stepName)), Aggregates.count()))
+                .first();
+        return result == null ? 0 : result.getInteger("count");
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Document> getSteps(Document parent) {
+        if (parent == null || parent.get(STEP_EXECUTIONS_KEY) == null) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>((List<Document>) parent.get(STEP_EXECUTIONS_KEY));
+    }
+
+    /**
+     * Renames the counters of the steps embedded in the next job executions after the given one still stored under
+     * their former names, for {@link SchemaMigrationRunner}.
+     *
+     * @return the last job execution id handled, or null when none was left
+     */
+    Long renameLegacyCounters(Long afterJobExecutionId, int limit) {
+        List<Document> batch = getCollection()
+                .find(and(gt(JOB_EXECUTION_ID_KEY, afterJobExecutionId == null ? Long.MIN_VALUE : afterJobExecutionId),
+                        or(exists(STEP_PREFIX + LEGACY_FILTER_COUNT_KEY),
+                                exists(STEP_PREFIX + LEGACY_PROCESS_SKIP_COUNT_KEY))))
+                .projection(include(JOB_EXECUTION_ID_KEY, STEP_PREFIX + STEP_EXECUTION_ID_KEY,
+                        STEP_PREFIX + FILTER_COUNT_KEY, STEP_PREFIX + PROCESS_SKIP_COUNT_KEY,
+                        STEP_PREFIX + LEGACY_FILTER_COUNT_KEY, STEP_PREFIX + LEGACY_PROCESS_SKIP_COUNT_KEY))
+                .sort(jobExecutionIdObj(1L)).limit(limit).into(new ArrayList<>());
+        if (batch.isEmpty()) {
+            return null;
+        }
+        List<WriteModel<Document>> updates = new ArrayList<>();
+        for (Document parent : batch) {
+            for (Document step : getSteps(parent)) {
+                List<Bson> values = MongoStepExecutionDao.legacyCounterValues(step);
+                if (!values.isEmpty()) {
+                    values.add(0, eq(STEP_EXECUTION_ID_KEY, step.get(STEP_EXECUTION_ID_KEY)));
+                    updates.add(new UpdateOneModel<>(
+                            and(jobExecutionIdObj(parent.getLong(JOB_EXECUTION_ID_KEY)),
+                                    elemMatch(STEP_EXECUTIONS_KEY, and(values))),
+                            MongoStepExecutionDao.renameLegacyCounters(step, STEP_PREFIX + "$.")));
+                }
+            }
+        }
+        if (!updates.isEmpty()) {
+            getCollection().bulkWrite(updates, new BulkWriteOptions().ordered(false));
+        }
+        return batch.get(batch.size() - 1).getLong(JOB_EXECUTION_ID_KEY);
+    }
+
+    protected MongoCollection<Document> getCollection() {
+        return mongoTemplate.getCollection(JobExecution.class.getSimpleName());
+    }
+}
@@ -1,20 +1,37 @@
 package org.springframework.batch.mongodb;
 
 import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Projections.include;
 import static com.mongodb.client.model.Updates.combine;
 import static com.mongodb.client.model.Updates.set;
+import static com.mongodb.client.model.Updates.unset;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.annotation.PostConstruct;
 
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
 import org.bson.Document;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
 import org.bson.conversions.Bson;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.types.Binary;
+import org.bson.types.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.batch.core.JobExecution;
@@ -27,14 +44,29 @@ import org.springframework.util.Assert;
 import org.springframework.util.NumberUtils;
 
 import com.mongodb.BasicDBObject;
-import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+import com.mongodb.MongoGridFSException;
 import com.mongodb.client.MongoCollection;
-import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.gridfs.GridFSBucket;
+import com.mongodb.client.gridfs.GridFSBuckets;
+import com.mongodb.client.gridfs.GridFSUploadStream;
+import com.mongodb.client.gridfs.model.GridFSUploadOptions;
+import com.mongodb.client.model.FindOneAndReplaceOptions;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.ReturnDocument;
 import com.mongodb.client.model.UpdateOptions;
 
 /**
  * Uses MongoTemplate to perform CRUD on Springbatch's Execution context to Mongo DB. <br/>
- * MongoTemplate needs to be set as a property during bean definition
+ * MongoTemplate needs to be set as a property during bean definition. <br/>
+ * With a spill threshold set, context values too large to be stored inline are written to the
+ * {@value #SPILL_BUCKET_NAME} GridFS bucket and replaced by a reference; a loaded context reads them back only when
+ * they are accessed, and keeps the reference of a value never read when it is written again. Contexts with nothing to
+ * spill are written with the same field updates as without spilling. <br/>
+ * With a compressor set, contexts above the compression threshold are stored as a single compressed BSON payload
+ * instead of one field per entry; the codec name is kept with the payload so existing contexts stay readable when the
+ * codec changes.
  * 
  * @author Baruch S.
  * @author vfouzdar
@@ -44,22 +76,89 @@ public class MongoExecutionContextDao extends AbstractMongoDao implements Execut
 
     private static final Logger LOG = LoggerFactory.getLogger(MongoExecutionContextDao.class);
 
+    public static final String  SPILL_BUCKET_NAME   = "ExecutionContextSpill";
+    public static final String  SPILL_REFERENCE_KEY = "_gridFsId";
+    public static final String  SPILLED_FILES_KEY   = "_spilledFiles";
+    private static final String SPILLED_KEY_KEY     = "key";
+    private static final String SPILLED_VALUE_KEY   = "value";
+    public static final String  CODEC_KEY           = "_codec";
+    public static final String  RAW_LENGTH_KEY      = "_rawLength";
+    public static final String  PAYLOAD_KEY         = "_payload";
+
     /**
      * mongoTemplate is used to CRUD Job execution data in Mongo db. This bean needs to be set during bean definition
      * for MongoExecutionContextDao
      */
     private MongoTemplate       mongoTemplate;
 
+    /**
+     * Values whose BSON size exceeds this many bytes are stored in GridFS. 0 (the default) keeps every context
+     * inline.
+     */
+    private int                 spillThreshold;
+
+    /**
+     * Once spilling is enabled, largest values are also moved to GridFS until the inline part of the context fits
+     * in this many bytes, keeping the document clear of the 16 MB BSON limit.
+     */
+    private long                maxInlineSize = 12 * 1024 * 1024;
+
+    /**
+     * Codec used to compress contexts. Null (the default) stores every context as plain fields.
+     */
+    private ExecutionContextCompressor compressor;
+
+    /**
+     * Contexts whose BSON size is below this many bytes are stored as plain fields even with a compressor set.
+     */
+    private int                 compressionThreshold = 1024;
+
+    /**
+     * Journal for plain and compressed contexts written while MongoDB is unreachable. Contexts spilling to GridFS
+     * are always written directly.
+     */
+    private RepositoryWriteJournal writeJournal;
+
+    /**
+     * Contexts known to reference spilled files, because this DAO spilled or loaded them. Only these are replaced
+     * whole when nothing spills, so that the files of values that shrank or were removed are deleted.
+     */
+    private final Set<String>   spilledContexts = ConcurrentHashMap.newKeySet();
+
     public void setMongoTemplate(MongoTemplate mongoTemplate) {
         this.mongoTemplate = mongoTemplate;
     }
 
+    public void setSpillThreshold(int spillThreshold) {
+        this.spillThreshold = spillThreshold;
+    }
+
+    public void setMaxInlineSize(long maxInlineSize) {
+        this.maxInlineSize = maxInlineSize;
+    }
+
+    public void setCompressor(ExecutionContextCompressor compressor) {
+        this.compressor = compressor;
+    }
+
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    public void setWriteJournal(RepositoryWriteJournal writeJournal) {
+        this.writeJournal = writeJournal;
+    }
+
     @PostConstruct
     public void init() {
+        ensureIndexes(mongoTemplate);
+    }
+
+    @Override
+    public List<IndexModel> getIndexes() {
         // db.ExecutionContext.createIndex( {jobExecutionId : 1});
-        getCollection().createIndex(jobExecutionIdObj(1L));
-        getCollection().createIndex(new Document(STEP_EXECUTION_ID_KEY, 1).append(JOB_EXECUTION_ID_KEY, 1),
-                new IndexOptions());
+        return Arrays.asList(new IndexModel(jobExecutionIdObj(1L)),
+                new IndexModel(new Document(STEP_EXECUTION_ID_KEY, 1).append(JOB_EXECUTION_ID_KEY, 1)));
     }
 
     public ExecutionContext getExecutionContext(JobExecution jobExecution) {
@@ -91,25 +190,240 @@ public class MongoExecutionContextDao extends AbstractMongoDao implements Execut
         Assert.notNull(executionId, "ExecutionId must not be null.");
         Assert.notNull(executionContext, "The ExecutionContext must not be null.");
 
-        DBObject dbObject = new BasicDBObject(executionIdKey, executionId);
+        Document fields = toDocument(executionContext);
+        // files of spilled values loaded with the context and never read since
+        List<ObjectId> spilledFiles = new ArrayList<>();
+        for (Object value : fields.values()) {
+            if (isSpillReference(value)) {
+                spilledFiles.add((ObjectId) ((Document) value).get(SPILL_REFERENCE_KEY));
+            }
+        }
+        if (compressor != null) {
+            fields = compress(fields);
+        }
+        List<ObjectId> uploadedFiles = Collections.emptyList();
+        if (spillThreshold > 0) {
+            uploadedFiles = spill(executionIdKey, executionId, fields);
+            spilledFiles.addAll(uploadedFiles);
+        }
+
+        String spillKey = executionIdKey + ":" + executionId;
+        if (compressor != null || !spilledFiles.isEmpty() || spilledContexts.contains(spillKey)) {
+            // replaced whole, so that no stub of a spilled value removed from the context outlives its file
+            replaceExecutionContext(executionIdKey, executionId, fields,
+                    spillThreshold > 0 || !spilledFiles.isEmpty() ? spilledFiles : null, uploadedFiles);
+            if (spilledFiles.isEmpty()) {
+                spilledContexts.remove(spillKey);
+            } else {
+                spilledContexts.add(spillKey);
+            }
+            return;
+        }
+
         List<Bson> updates = new ArrayList<>();
         updates.add(set(executionIdKey, executionId));
-        for (Map.Entry<String, Object> entry : executionContext.entrySet()) {
+        for (Map.Entry<String, Object> entry : fields.entrySet()) {
+            updates.add(set(entry.getKey(), entry.getValue()));
+        }
+        // left over if the context was last written with compression enabled
+        updates.add(unset(CODEC_KEY));
+        updates.add(unset(RAW_LENGTH_KEY));
+        updates.add(unset(PAYLOAD_KEY));
+        Bson updateStatement = combine(updates);
+        LOG.debug("Making update with statement: " + updateStatement);
+        if (writeJournal != null) {
+            writeJournal.updateOne(getCollection(), eq(executionIdKey, executionId), updateStatement, true);
+        } else {
+            getCollection().updateOne(eq(executionIdKey, executionId), updateStatement,
+                    new UpdateOptions().upsert(true));
+        }
+    }
+
+    /**
+     * Replaces the whole context document, so that switching between the plain and the compressed shape leaves no
+     * stale fields behind, nor a reference to a spilled file of a key removed from the context. <br/>
+     * Files spilled for this write are deleted again if the write fails.
+     *
+     * @param spilledFiles all files referenced by the context, or null when spilled files are not tracked
+     * @param uploadedFiles files spilled for this write
+     */
+    private void replaceExecutionContext(String executionIdKey, Long executionId, Document fields,
+            List<ObjectId> spilledFiles, List<ObjectId> uploadedFiles) {
+        Document replacement = new Document(executionIdKey, executionId);
+        replacement.putAll(fields);
+        if (spilledFiles == null) {
+            if (writeJournal != null) {
+                writeJournal.replaceOne(getCollection(), eq(executionIdKey, executionId), replacement, true);
+            } else {
+                getCollection().replaceOne(eq(executionIdKey, executionId), replacement,
+                        new ReplaceOptions().upsert(true));
+            }
+        } else {
+            replacement.append(SPILLED_FILES_KEY, spilledFiles);
+            Document previous;
+            try {
+                previous = getCollection().findOneAndReplace(eq(executionIdKey, executionId), replacement,
+                        new FindOneAndReplaceOptions().upsert(true).projection(include(SPILLED_FILES_KEY))
+                                .returnDocument(ReturnDocument.BEFORE));
+            } catch (RuntimeException e) {
+                // the files just uploaded are referenced by nothing
+                deleteFiles(uploadedFiles);
+                throw e;
+            }
+            deleteReplacedFiles(previous, spilledFiles);
+        }
+    }
+
+    /**
+     * Encodes the context fields as one BSON document and compresses it.
+     *
+     * @return the compressed payload fields, or {@code fields} unchanged when the context is below the compression
+     *         threshold or does not shrink
+     */
+    private Document compress(Document fields) {
+        BasicOutputBuffer buffer = encode(fields);
+        int rawLength = buffer.getPosition();
+        if (rawLength < compressionThreshold) {
+            return fields;
+        }
+        byte[] compressed = compressor.compress(buffer.toByteArray());
+        if (compressed.length >= rawLength) {
+            return fields;
+        }
+        LOG.debug("Compressed execution context from {} to {} bytes with {}", rawLength, compressed.length,
+                compressor.getName());
+        return new Document(CODEC_KEY, compressor.getName()).append(RAW_LENGTH_KEY, rawLength).append(PAYLOAD_KEY,
+                new Binary(compressed));
+    }
+
+    private Document decompress(Document stored) {
+        Object payload = stored.get(PAYLOAD_KEY);
+        if (isSpillReference(payload)) {
+            payload = readSpilledValue((ObjectId) ((Document) payload).get(SPILL_REFERENCE_KEY));
+        }
+        byte[] data = payload instanceof Binary ? ((Binary) payload).getData() : (byte[]) payload;
+        String codecName = stored.getString(CODEC_KEY);
+        ExecutionContextCompressor codec = compressor != null && compressor.getName().equals(codecName) ? compressor
+                : ExecutionContextCompressor.forName(codecName);
+        return decode(codec.decompress(data, stored.getInteger(RAW_LENGTH_KEY)));
+    }
+
+    /**
+     * Flattens the context into the fields stored in the context document, escaping dots in keys. Spilled values not
+     * read since the context was loaded stay references.
+     */
+    static Document toDocument(ExecutionContext executionContext) {
+        Document fields = new Document();
+        Set<Map.Entry<String, Object>> entries = executionContext instanceof SpilledExecutionContext
+                ? ((SpilledExecutionContext) executionContext).storedEntrySet()
+                : executionContext.entrySet();
+        for (Map.Entry<String, Object> entry : entries) {
             Object value = entry.getValue();
             String key = entry.getKey();
-            dbObject.put(key.replaceAll(DOT_STRING, DOT_ESCAPE_STRING), value);
             if (value instanceof BigDecimal || value instanceof BigInteger) {
-                dbObject.put(key + TYPE_SUFFIX, value.getClass().getName());
-                updates.add(set(key + TYPE_SUFFIX, value.getClass().getName()));
+                fields.put(key + TYPE_SUFFIX, value.getClass().getName());
             } else {
-                updates.add(set(key.replaceAll(DOT_STRING, DOT_ESCAPE_STRING), value));
+                fields.put(key.replaceAll(DOT_STRING, DOT_ESCAPE_STRING), value);
             }
         }
-        Bson updateStatement = combine(updates);
-        LOG.debug("Making update with statement: " + updateStatement);
-        getCollection().updateOne(eq(executionIdKey, executionId), updateStatement, new UpdateOptions().upsert(true));
-//		getCollection().updateMany(new BasicDBObject(executionIdKey, executionId),
-//				dbObject, true, false);
+        return fields;
+    }
+
+    /**
+     * Moves values that are too large to be kept inline into GridFS, replacing them in {@code fields} with a
+     * reference. Values above the spill threshold always go; if the remaining document is still above the maximum
+     * inline size, the largest remaining values follow. Values that already are references stay as they are.
+     *
+     * @return ids of the GridFS files uploaded
+     */
+    private List<ObjectId> spill(String executionIdKey, Long executionId, Document fields) {
+        Map<String, BasicOutputBuffer> encoded = new HashMap<>();
+        long inlineSize = 0;
+        for (Map.Entry<String, Object> entry : fields.entrySet()) {
+            if (isSpillReference(entry.getValue())) {
+                continue;
+            }
+            BasicOutputBuffer buffer = encodeValue(entry.getValue());
+            encoded.put(entry.getKey(), buffer);
+            inlineSize += buffer.getPosition();
+        }
+        List<String> candidates = new ArrayList<>(encoded.keySet());
+        candidates.sort((a, b) -> Integer.compare(encoded.get(b).getPosition(), encoded.get(a).getPosition()));
+
+        List<ObjectId> spilledFiles = new ArrayList<>();
+        for (String key : candidates) {
+            int size = encoded.get(key).getPosition();
+            if (size <= spillThreshold && inlineSize <= maxInlineSize) {
+                break;
+            }
+            GridFSUploadOptions options = new GridFSUploadOptions().metadata(new Document(executionIdKey, executionId)
+                    .append(SPILLED_KEY_KEY, key));
+            ObjectId fileId;
+            try (GridFSUploadStream upload = getSpillBucket()
+                    .openUploadStream(executionIdKey + ":" + executionId + ":" + key, options)) {
+                encoded.get(key).pipe(upload);
+                fileId = upload.getObjectId();
+            } catch (IOException | RuntimeException e) {
+                deleteFiles(spilledFiles);
+                if (e instanceof RuntimeException) {
+                    throw (RuntimeException) e;
+                }
+                throw new IllegalStateException("Failed to spill execution context value " + key + " to GridFS", e);
+            }
+            fields.put(key, new Document(SPILL_REFERENCE_KEY, fileId));
+            spilledFiles.add(fileId);
+            inlineSize -= size;
+            LOG.debug("Spilled {} bytes of context value {} to GridFS file {}", size, key, fileId);
+        }
+        return spilledFiles;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void deleteReplacedFiles(Document previous, List<ObjectId> current) {
+        if (previous == null || previous.get(SPILLED_FILES_KEY) == null) {
+            return;
+        }
+        List<ObjectId> replaced = new ArrayList<>((List<ObjectId>) previous.get(SPILLED_FILES_KEY));
+        replaced.removeAll(current);
+        deleteFiles(replaced);
+    }
+
+    private void deleteFiles(List<ObjectId> fileIds) {
+        for (ObjectId fileId : fileIds) {
+            try {
+                getSpillBucket().delete(fileId);
+            } catch (MongoGridFSException e) {
+                LOG.warn("Spilled context file {} was already gone", fileId);
+            } catch (MongoException e) {
+                LOG.warn("Failed to delete spilled context file {}", fileId, e);
+            }
+        }
+    }
+
+    private static boolean isSpillReference(Object value) {
+        return value instanceof Document && ((Document) value).get(SPILL_REFERENCE_KEY) instanceof ObjectId;
+    }
+
+    private BasicOutputBuffer encodeValue(Object value) {
+        return encode(new Document(SPILLED_VALUE_KEY, value));
+    }
+
+    private Object readSpilledValue(ObjectId fileId) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        getSpillBucket().downloadToStream(fileId, bytes);
+        return decode(bytes.toByteArray()).get(SPILLED_VALUE_KEY);
+    }
+
+    private BasicOutputBuffer encode(Document document) {
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        getCollection().getCodecRegistry().get(Document.class).encode(new BsonBinaryWriter(buffer), document,
+                EncoderContext.builder().build());
+        return buffer;
+    }
+
+    private Document decode(byte[] bytes) {
+        return getCollection().getCodecRegistry().get(Document.class)
+                .decode(new BsonBinaryReader(ByteBuffer.wrap(bytes)), DecoderContext.builder().build());
     }
 
     @SuppressWarnings({ "unchecked" })
@@ -119,9 +433,25 @@ public class MongoExecutionContextDao extends AbstractMongoDao implements Execut
         ExecutionContext executionContext = new ExecutionContext();
         if (result != null) {
             result.remove(executionIdKey);
+            if (result.remove(SPILLED_FILES_KEY) != null) {
+                spilledContexts.add(executionIdKey + ":" + executionId);
+            }
             removeSystemFields(result);
+            if (result.get(CODEC_KEY) != null) {
+                result = decompress(result);
+            }
+            if (result.values().stream().anyMatch(MongoExecutionContextDao::isSpillReference)) {
+                // only contexts that actually spilled pay for the GridFS reads, and only for the values accessed
+                executionContext = new SpilledExecutionContext(this::readSpilledValue);
+            }
             for (String key : result.keySet()) {
                 Object value = result.get(key);
+                if (isSpillReference(value)) {
+                    ((SpilledExecutionContext) executionContext).putReference(
+                            key.replaceAll(DOT_ESCAPE_STRING, DOT_STRING), value,
+                            (ObjectId) ((Document) value).get(SPILL_REFERENCE_KEY));
+                    continue;
+                }
                 String type = (String) result.get(key + TYPE_SUFFIX);
                 if (type != null && Number.class.isAssignableFrom(value.getClass())) {
                     try {
@@ -138,6 +468,10 @@ public class MongoExecutionContextDao extends AbstractMongoDao implements Execut
         return executionContext;
     }
 
+    protected GridFSBucket getSpillBucket() {
+        return GridFSBuckets.create(mongoTemplate.getDb(), SPILL_BUCKET_NAME);
+    }
+
     protected MongoCollection<Document> getCollection() {
         return mongoTemplate.getCollection(ExecutionContext.class.getSimpleName());
     }
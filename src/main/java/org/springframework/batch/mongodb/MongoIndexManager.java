@@ -0,0 +1,238 @@
+package org.springframework.batch.mongodb;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
+
+import org.bson.BsonBoolean;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriterSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.IndexModel;
+
+/**
+ * Bootstraps the indexes declared by the DAOs ({@link AbstractMongoDao#getIndexes()}) once per manager instead of
+ * issuing every createIndex on each start-up. <br/>
+ * Set one instance on all DAOs of an application (or on {@link MongoJobRepositoryFactoryBean}). On the first call per
+ * collection it reads the existing indexes with a single listIndexes and, depending on the {@link Policy}, creates
+ * only the missing ones, in the background or synchronously, or fails fast when any is missing. Indexes are compared
+ * on their keys, uniqueness and partial filter, so a plain index does not pass for the unique one a DAO relies on.
+ * Unique indexes are always created before the DAO finishes initializing, as they guard against duplicates from the
+ * first write on.
+ */
+public class MongoIndexManager {
+
+    private static final Logger             LOG     = LoggerFactory.getLogger(MongoIndexManager.class);
+
+    private static final JsonWriterSettings RELAXED = JsonWriterSettings.builder().outputMode(JsonMode.RELAXED)
+            .build();
+
+    public enum Policy {
+        /** Create missing indexes before the DAO finishes initializing. */
+        CREATE,
+        /**
+         * Create missing indexes on a background thread; start-up does not wait for the server. Unique indexes are
+         * still created synchronously.
+         */
+        CREATE_ASYNC,
+        /** Only check that the indexes exist and fail start-up otherwise, e.g. when indexes are managed by DBAs. */
+        VERIFY,
+        /** Do not touch indexes at all. */
+        NONE
+    }
+
+    private Policy                policy   = Policy.CREATE_ASYNC;
+
+    /** Namespace and keys of the indexes already checked or being created. */
+    private final Set<String>     ensured  = ConcurrentHashMap.newKeySet();
+
+    private final AtomicInteger   pending  = new AtomicInteger();
+
+    private ExecutorService       executor;
+
+    public void setPolicy(Policy policy) {
+        this.policy = policy;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Applies the policy to the indexes of a collection not seen before by this manager.
+     *
+     * @throws IllegalStateException with policy VERIFY, if any index is missing
+     */
+    public void ensureIndexes(MongoCollection<Document> collection, List<IndexModel> indexes) {
+        if (policy == Policy.NONE) {
+            return;
+        }
+        String namespace = collection.getNamespace().getFullName();
+        List<IndexModel> unchecked = new ArrayList<>();
+        for (IndexModel index : indexes) {
+            if (ensured.add(namespace + keyOf(index))) {
+                unchecked.add(index);
+            }
+        }
+        if (unchecked.isEmpty()) {
+            return;
+        }
+        switch (policy) {
+        case VERIFY:
+            List<IndexModel> missing = findMissing(collection, unchecked);
+            if (!missing.isEmpty()) {
+                forget(namespace, unchecked);
+                throw new IllegalStateException("Missing indexes on " + namespace + ": " + describe(missing));
+            }
+            break;
+        case CREATE:
+            createMissing(collection, unchecked);
+            break;
+        default:
+            List<IndexModel> unique = new ArrayList<>();
+            List<IndexModel> background = new ArrayList<>();
+            for (IndexModel index : unchecked) {
+                (index.getOptions().isUnique() ? unique : background).add(index);
+            }
+            if (!unique.isEmpty()) {
+                try {
+                    createMissing(collection, unique);
+                } catch (MongoException e) {
+                    forget(namespace, unchecked);
+                    throw e;
+                }
+            }
+            if (background.isEmpty()) {
+                break;
+            }
+            pending.incrementAndGet();
+            getExecutor().execute(() -> {
+                try {
+                    createMissing(collection, background);
+                } catch (MongoException e) {
+                    forget(namespace, background);
+                    LOG.error("Failed to create indexes on {}", namespace, e);
+                } finally {
+                    synchronized (pending) {
+                        pending.decrementAndGet();
+                        pending.notifyAll();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Waits for background index creation started so far.
+     *
+     * @return true if nothing is pending anymore
+     */
+    public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (pending) {
+            while (pending.get() > 0) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    return false;
+                }
+                pending.wait(remaining);
+            }
+        }
+        return true;
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    private void createMissing(MongoCollection<Document> collection, List<IndexModel> indexes) {
+        List<IndexModel> missing = findMissing(collection, indexes);
+        if (!missing.isEmpty()) {
+            LOG.info("Creating indexes on {}: {}", collection.getNamespace(), describe(missing));
+            collection.createIndexes(missing);
+        }
+    }
+
+    private List<IndexModel> findMissing(MongoCollection<Document> collection, List<IndexModel> indexes) {
+        Set<String> existing = new HashSet<>();
+        for (BsonDocument index : collection.listIndexes(BsonDocument.class)) {
+            existing.add(keyOf(index.getDocument("key"), index.getBoolean("unique", BsonBoolean.FALSE).getValue(),
+                    index.getDocument("partialFilterExpression", null)));
+        }
+        List<IndexModel> missing = new ArrayList<>();
+        for (IndexModel index : indexes) {
+            if (!existing.contains(keyOf(index))) {
+                missing.add(index);
+            }
+        }
+        return missing;
+    }
+
+    private void forget(String namespace, List<IndexModel> indexes) {
+        for (IndexModel index : indexes) {
+            ensured.remove(namespace + keyOf(index));
+        }
+    }
+
+    private static String keyOf(IndexModel index) {
+        Bson partialFilter = index.getOptions().getPartialFilterExpression();
+        return keyOf(index.getKeys().toBsonDocument(), index.getOptions().isUnique(),
+                partialFilter == null ? null : partialFilter.toBsonDocument());
+    }
+
+    /**
+     * Key pattern with directions normalized, since DAOs and servers mix int, long and double directions, followed
+     * by the options that change what the index guarantees.
+     */
+    private static String keyOf(BsonDocument keys, boolean unique, BsonDocument partialFilter) {
+        Map<String, Object> normalized = new LinkedHashMap<>();
+        for (Map.Entry<String, BsonValue> key : keys.entrySet()) {
+            BsonValue direction = key.getValue();
+            normalized.put(key.getKey(),
+                    direction.isNumber() ? (Object) direction.asNumber().intValue() : direction.toString());
+        }
+        return normalized.toString() + (unique ? " unique" : "")
+                + (partialFilter == null ? "" : " partial " + partialFilter.toJson(RELAXED));
+    }
+
+    private static String describe(List<IndexModel> indexes) {
+        List<String> keys = new ArrayList<>();
+        for (IndexModel index : indexes) {
+            keys.add(keyOf(index));
+        }
+        return keys.toString();
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "mongo-index-manager");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+}
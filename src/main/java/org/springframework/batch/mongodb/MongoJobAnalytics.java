@@ -0,0 +1,474 @@
+package org.springframework.batch.mongodb;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.exists;
+import static com.mongodb.client.model.Filters.gte;
+import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Filters.lt;
+import static com.mongodb.client.model.Filters.ne;
+import static com.mongodb.client.model.Projections.include;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.PostConstruct;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.util.Assert;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.UpdateManyModel;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+
+/**
+ * Job duration and failure statistics computed on the server with aggregation pipelines, so only one small document
+ * per job or step name is transferred instead of every execution. <br/>
+ * Executions are selected by time range through the indexes created by {@link #init()}. Grouping by job name
+ * relies on the job name written onto JobExecution documents by {@link MongoJobExecutionDao}; run
+ * {@link #backfillJobNames()} once for executions saved before. Percentiles use $percentile with its approximate
+ * method on MongoDB 7.0+. Older servers get them from a histogram of each group's durations in buckets 1% wide, as the
+ * largest duration of the bucket holding the rank, so within 1% above the exact value; a group holds at most about
+ * 2000 buckets, whatever the number of executions. Step statistics read the StepExecution collection, so they do not
+ * include steps stored with {@link MongoEmbeddedStepExecutionDao}.
+ */
+public class MongoJobAnalytics {
+
+    private static final Logger       LOG          = LoggerFactory.getLogger(MongoJobAnalytics.class);
+
+    private static final String       DURATION_KEY = "duration";
+
+    private static final String       COUNT_KEY    = "count";
+
+    private static final String       NAME_KEY     = "name";
+
+    private static final String       JOB_KEY      = "job";
+
+    private static final List<Double> PERCENTILES  = Arrays.asList(0.5, 0.95, 0.99);
+
+    private static final List<String> PERCENTILE_KEYS = Arrays.asList("p50", "p95", "p99");
+
+    /** Error code of an unknown $group accumulator, here $percentile before MongoDB 7.0 */
+    private static final int          UNKNOWN_GROUP_OPERATOR = 15952;
+
+    /** Histogram buckets per factor e of duration, so each bucket is 1% wide */
+    private static final int          BUCKETS_PER_E = 100;
+
+    private static final String       BUCKETS_KEY  = "buckets";
+
+    private static final String       TOTAL_KEY    = "total";
+
+    private MongoTemplate             mongoTemplate;
+
+    private MongoIndexManager         indexManager;
+
+    private int                       batchSize    = 1000;
+
+    private volatile boolean          percentileSupported = true;
+
+    public void setMongoTemplate(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * Index manager applying its policy to the indexes of the analytics queries. Without one, they are created
+     * synchronously.
+     */
+    public void setIndexManager(MongoIndexManager indexManager) {
+        this.indexManager = indexManager;
+    }
+
+    /**
+     * Job instances looked up per round trip by {@link #backfillJobNames()}. Defaults to 1000.
+     */
+    public void setBatchSize(int batchSize) {
+        Assert.isTrue(batchSize > 0, "batchSize must be positive.");
+        this.batchSize = batchSize;
+    }
+
+    @PostConstruct
+    public void init() {
+        ensureIndexes(getJobExecutionCollection(), getJobExecutionIndexes());
+        ensureIndexes(getStepExecutionCollection(), getStepExecutionIndexes());
+    }
+
+    /**
+     * Selects the job executions by createTime range, the fields filtered and grouped on kept in the index.
+     */
+    public List<IndexModel> getJobExecutionIndexes() {
+        return Collections.singletonList(new IndexModel(new Document(AbstractMongoDao.CREATE_TIME_KEY, 1)
+                .append(AbstractMongoDao.JOB_NAME_KEY, 1).append(AbstractMongoDao.STATUS_KEY, 1)
+                .append(AbstractMongoDao.START_TIME_KEY, 1).append(AbstractMongoDao.END_TIME_KEY, 1)));
+    }
+
+    /**
+     * Selects the step executions by startTime range, the fields filtered and grouped on kept in the index.
+     */
+    public List<IndexModel> getStepExecutionIndexes() {
+        return Collections.singletonList(new IndexModel(new Document(AbstractMongoDao.START_TIME_KEY, 1)
+                .append(AbstractMongoDao.STEP_NAME_KEY, 1).append(AbstractMongoDao.END_TIME_KEY, 1)));
+    }
+
+    /**
+     * Duration statistics per job name of the finished executions created in [from, to), by job name.
+     */
+    public List<DurationStatistics> getJobDurations(Date from, Date to) {
+        return durations(getJobExecutionCollection(), AbstractMongoDao.CREATE_TIME_KEY,
+                new Document(NAME_KEY, "$" + AbstractMongoDao.JOB_NAME_KEY), Collections.<Bson>emptyList(), from, to,
+                new Document("_id." + NAME_KEY, 1), 0);
+    }
+
+    /**
+     * Duration statistics per job and step name of the finished step executions started in [from, to), slowest
+     * 95th percentile first. The job name is looked up on the job execution of each step.
+     */
+    public List<DurationStatistics> getSlowestSteps(Date from, Date to, int limit) {
+        Assert.isTrue(limit > 0, "limit must be positive.");
+        List<Bson> lookup = Arrays.asList(
+                Aggregates.lookup(JobExecution.class.getSimpleName(), AbstractMongoDao.JOB_EXECUTION_ID_KEY,
+                        AbstractMongoDao.JOB_EXECUTION_ID_KEY, JOB_KEY),
+                new Document("$addFields", new Document(JOB_KEY, new Document("$arrayElemAt",
+                        Arrays.asList("$" + JOB_KEY + "." + AbstractMongoDao.JOB_NAME_KEY, 0)))));
+        return durations(getStepExecutionCollection(), AbstractMongoDao.START_TIME_KEY,
+                new Document(JOB_KEY, "$" + JOB_KEY).append(NAME_KEY, "$" + AbstractMongoDao.STEP_NAME_KEY),
+                lookup, from, to, new Document("p95", -1).append("_id." + JOB_KEY, 1).append("_id." + NAME_KEY, 1),
+                limit);
+    }
+
+    /**
+     * Executions per status and job name of the executions created in [from, to), by job name.
+     */
+    public List<StatusHistogram> getStatusHistograms(Date from, Date to) {
+        List<Bson> pipeline = Arrays.asList(Aggregates.match(range(AbstractMongoDao.CREATE_TIME_KEY, from, to)),
+                new Document("$group", new Document("_id",
+                        new Document("name", "$" + AbstractMongoDao.JOB_NAME_KEY).append("status",
+                                "$" + AbstractMongoDao.STATUS_KEY)).append(COUNT_KEY, new Document("$sum", 1))),
+                new Document("$sort", new Document("_id.name", 1)));
+        Map<String, StatusHistogram> histograms = new LinkedHashMap<>();
+        for (Document group : getJobExecutionCollection().aggregate(pipeline).allowDiskUse(true)) {
+            Document id = group.get("_id", Document.class);
+            histograms.computeIfAbsent(id.getString("name"), StatusHistogram::new).counts.put(
+                    BatchStatus.valueOf(id.getString("status")), ((Number) group.get(COUNT_KEY)).longValue());
+        }
+        return new ArrayList<>(histograms.values());
+    }
+
+    /**
+     * Copies the job name of their instance onto the job executions saved without one.
+     *
+     * @return the number of job executions updated
+     */
+    public long backfillJobNames() {
+        long updated = 0;
+        long after = Long.MIN_VALUE;
+        List<Long> batch;
+        while (!(batch = AbstractMongoDao.findInstancesMissing(getJobExecutionCollection(),
+                AbstractMongoDao.JOB_NAME_KEY, after, batchSize)).isEmpty()) {
+            updated += backfillJobNames(batch);
+            after = batch.get(batch.size() - 1);
+        }
+        LOG.info("Backfilled the job name of {} job executions", updated);
+        return updated;
+    }
+
+    /**
+     * Backfills the executions of the next instances after the given one, for {@link SchemaMigrationRunner}.
+     *
+     * @return the last instance id handled, or null when none was left
+     */
+    Long backfillJobNames(Long afterInstanceId, int limit) {
+        List<Long> batch = AbstractMongoDao.findInstancesMissing(getJobExecutionCollection(),
+                AbstractMongoDao.JOB_NAME_KEY, afterInstanceId == null ? Long.MIN_VALUE : afterInstanceId, limit);
+        if (batch.isEmpty()) {
+            return null;
+        }
+        backfillJobNames(batch);
+        return batch.get(batch.size() - 1);
+    }
+
+    private long backfillJobNames(List<Long> instanceIds) {
+        List<WriteModel<Document>> updates = new ArrayList<>();
+        for (Document instance : mongoTemplate.getCollection(JobInstance.class.getSimpleName())
+                .find(in(AbstractMongoDao.JOB_INSTANCE_ID_KEY, instanceIds))
+                .projection(include(AbstractMongoDao.JOB_INSTANCE_ID_KEY, AbstractMongoDao.JOB_NAME_KEY))) {
+            updates.add(new UpdateManyModel<>(
+                    and(eq(AbstractMongoDao.JOB_INSTANCE_ID_KEY, instance.get(AbstractMongoDao.JOB_INSTANCE_ID_KEY)),
+                            exists(AbstractMongoDao.JOB_NAME_KEY, false)),
+                    Updates.set(AbstractMongoDao.JOB_NAME_KEY, instance.getString(AbstractMongoDao.JOB_NAME_KEY))));
+        }
+        return updates.isEmpty() ? 0 : getJobExecutionCollection().bulkWrite(updates).getModifiedCount();
+    }
+
+    private List<DurationStatistics> durations(MongoCollection<Document> collection, String timeKey, Document groupKey,
+            List<Bson> lookup, Date from, Date to, Document sort, int limit) {
+        if (percentileSupported) {
+            try {
+                return durations(collection, timeKey, groupKey, lookup, from, to, sort, limit, true);
+            } catch (MongoCommandException e) {
+                // $percentile is MongoDB 7.0+; any other failure is not a reason to stop using it
+                if (e.getErrorCode() != UNKNOWN_GROUP_OPERATOR || !e.getErrorMessage().contains("$percentile")) {
+                    throw e;
+                }
+                LOG.info("Percentiles computed from duration histograms, $percentile failed: {}",
+                        e.getErrorMessage());
+                percentileSupported = false;
+            }
+        }
+        return durations(collection, timeKey, groupKey, lookup, from, to, sort, limit, false);
+    }
+
+    private List<DurationStatistics> durations(MongoCollection<Document> collection, String timeKey, Document groupKey,
+            List<Bson> lookup, Date from, Date to, Document sort, int limit, boolean percentile) {
+        List<Bson> pipeline = new ArrayList<>();
+        pipeline.add(Aggregates.match(and(range(timeKey, from, to), ne(AbstractMongoDao.END_TIME_KEY, null))));
+        pipeline.addAll(lookup);
+        Document project = new Document("_id", 0).append(DURATION_KEY, new Document("$subtract",
+                Arrays.asList("$" + AbstractMongoDao.END_TIME_KEY, "$" + AbstractMongoDao.START_TIME_KEY)));
+        for (Object field : groupKey.values()) {
+            project.append(((String) field).substring(1), 1);
+        }
+        pipeline.add(new Document("$project", project));
+        Document percentiles = new Document();
+        if (percentile) {
+            pipeline.add(new Document("$group", new Document("_id", groupKey)
+                    .append(COUNT_KEY, new Document("$sum", 1))
+                    .append("average", new Document("$avg", "$" + DURATION_KEY))
+                    .append("max", new Document("$max", "$" + DURATION_KEY))
+                    .append(DURATION_KEY, new Document("$percentile", new Document("input", "$" + DURATION_KEY)
+                            .append("p", PERCENTILES).append("method", "approximate")))));
+            for (int i = 0; i < PERCENTILES.size(); i++) {
+                percentiles.append(PERCENTILE_KEYS.get(i),
+                        new Document("$arrayElemAt", Arrays.asList("$" + DURATION_KEY, i)));
+            }
+        } else {
+            pipeline.addAll(histogram(groupKey));
+            Document walks = new Document("average", new Document("$divide", Arrays.asList("$" + TOTAL_KEY,
+                    "$" + COUNT_KEY)));
+            for (int i = 0; i < PERCENTILES.size(); i++) {
+                walks.append(PERCENTILE_KEYS.get(i), nearestRank(PERCENTILES.get(i)));
+                percentiles.append(PERCENTILE_KEYS.get(i), "$" + PERCENTILE_KEYS.get(i) + ".value");
+            }
+            pipeline.add(new Document("$addFields", walks));
+        }
+        pipeline.add(new Document("$addFields", percentiles));
+        pipeline.add(new Document("$project", new Document(DURATION_KEY, 0).append(BUCKETS_KEY, 0)
+                .append(TOTAL_KEY, 0)));
+        pipeline.add(new Document("$sort", sort));
+        if (limit > 0) {
+            pipeline.add(new Document("$limit", limit));
+        }
+        List<DurationStatistics> statistics = new ArrayList<>();
+        for (Document result : collection.aggregate(pipeline).allowDiskUse(true)) {
+            Document id = result.get("_id", Document.class);
+            statistics.add(new DurationStatistics(id.getString(JOB_KEY), id.getString(NAME_KEY),
+                    ((Number) result.get(COUNT_KEY)).longValue(), millis(result.get("average")),
+                    millis(result.get("max")), millis(result.get("p50")), millis(result.get("p95")),
+                    millis(result.get("p99"))));
+        }
+        return statistics;
+    }
+
+    /**
+     * Groups the durations into buckets 1% wide, then each group into its count, total, max and buckets in order.
+     */
+    private static List<Bson> histogram(Document groupKey) {
+        Document bucket = new Document("$floor", new Document("$multiply", Arrays.asList(BUCKETS_PER_E,
+                new Document("$ln", new Document("$add", Arrays.asList(1, new Document("$max",
+                        Arrays.asList("$" + DURATION_KEY, 0))))))));
+        return Arrays.asList(
+                new Document("$group", new Document("_id", new Document(NAME_KEY, groupKey).append("bucket", bucket))
+                        .append(COUNT_KEY, new Document("$sum", 1))
+                        .append(TOTAL_KEY, new Document("$sum", "$" + DURATION_KEY))
+                        .append("max", new Document("$max", "$" + DURATION_KEY))),
+                new Document("$sort", new Document("_id.bucket", 1)),
+                new Document("$group", new Document("_id", "$_id." + NAME_KEY)
+                        .append(COUNT_KEY, new Document("$sum", "$" + COUNT_KEY))
+                        .append(TOTAL_KEY, new Document("$sum", "$" + TOTAL_KEY))
+                        .append("max", new Document("$max", "$max"))
+                        .append(BUCKETS_KEY, new Document("$push", new Document(COUNT_KEY, "$" + COUNT_KEY)
+                                .append("max", "$max")))));
+    }
+
+    /**
+     * @return a walk over the buckets whose value is the largest duration of the first bucket reaching the nearest
+     *         rank of the percentile
+     */
+    private static Document nearestRank(double percentile) {
+        Document rank = new Document("$ceil", new Document("$multiply", Arrays.asList(percentile, "$" + COUNT_KEY)));
+        Document seen = new Document("$add", Arrays.asList("$$value.seen", "$$this." + COUNT_KEY));
+        return new Document("$reduce", new Document("input", "$" + BUCKETS_KEY)
+                .append("initialValue", new Document("seen", 0).append("value", null))
+                .append("in", new Document("seen", seen).append("value", new Document("$cond", Arrays.asList(
+                        new Document("$and", Arrays.asList(new Document("$eq", Arrays.asList("$$value.value", null)),
+                                new Document("$gte", Arrays.asList(seen, rank)))),
+                        "$$this.max", "$$value.value")))));
+    }
+
+    private static Bson range(String key, Date from, Date to) {
+        Assert.notNull(from, "from must not be null.");
+        Assert.notNull(to, "to must not be null.");
+        return and(gte(key, from), lt(key, to));
+    }
+
+    private static long millis(Object value) {
+        return value == null ? 0 : Math.round(((Number) value).doubleValue());
+    }
+
+    private void ensureIndexes(MongoCollection<Document> collection, List<IndexModel> indexes) {
+        if (indexManager != null) {
+            indexManager.ensureIndexes(collection, indexes);
+            return;
+        }
+        for (IndexModel index : indexes) {
+            collection.createIndex(index.getKeys(), index.getOptions());
+        }
+    }
+
+    private MongoCollection<Document> getJobExecutionCollection() {
+        return mongoTemplate.getCollection(JobExecution.class.getSimpleName());
+    }
+
+    private MongoCollection<Document> getStepExecutionCollection() {
+        return mongoTemplate.getCollection(StepExecution.class.getSimpleName());
+    }
+
+    /**
+     * Durations in milliseconds of the finished executions of one job or step name.
+     */
+    public static class DurationStatistics {
+
+        private final String jobName;
+
+        private final String name;
+
+        private final long   count;
+
+        private final long   average;
+
+        private final long   max;
+
+        private final long   p50;
+
+        private final long   p95;
+
+        private final long   p99;
+
+        DurationStatistics(String jobName, String name, long count, long average, long max, long p50, long p95,
+                long p99) {
+            this.jobName = jobName;
+            this.name = name;
+            this.count = count;
+            this.average = average;
+            this.max = max;
+            this.p50 = p50;
+            this.p95 = p95;
+            this.p99 = p99;
+        }
+
+        /**
+         * Job name of step statistics; null for job statistics, and for steps of job executions without a job name.
+         */
+        public String getJobName() {
+            return jobName;
+        }
+
+        /**
+         * Job or step name. Job names are null for job executions saved before job names were written and not
+         * backfilled.
+         */
+        public String getName() {
+            return name;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getAverage() {
+            return average;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public long getP50() {
+            return p50;
+        }
+
+        public long getP95() {
+            return p95;
+        }
+
+        public long getP99() {
+            return p99;
+        }
+
+        @Override
+        public String toString() {
+            return (jobName != null ? jobName + "." : "") + name + ": count=" + count + ", average=" + average + ", p50=" + p50 + ", p95=" + p95 + ", p99="
+                    + p99 + ", max=" + max;
+        }
+    }
+
+    /**
+     * Executions per status of one job name.
+     */
+    public static class StatusHistogram {
+
+        private final String                 jobName;
+
+        private final Map<BatchStatus, Long> counts = new EnumMap<>(BatchStatus.class);
+
+        StatusHistogram(String jobName) {
+            this.jobName = jobName;
+        }
+
+        public String getJobName() {
+            return jobName;
+        }
+
+        public Map<BatchStatus, Long> getCounts() {
+            return Collections.unmodifiableMap(counts);
+        }
+
+        public long getCount(BatchStatus status) {
+            return counts.getOrDefault(status, 0L);
+        }
+
+        public long getTotal() {
+            return counts.values().stream().mapToLong(Long::longValue).sum();
+        }
+
+        /**
+         * Share of FAILED executions among all executions of the job.
+         */
+        public double getFailureRate() {
+            long total = getTotal();
+            return total == 0 ? 0 : (double) getCount(BatchStatus.FAILED) / total;
+        }
+
+        @Override
+        public String toString() {
+            return jobName + ": " + counts;
+        }
+    }
+}
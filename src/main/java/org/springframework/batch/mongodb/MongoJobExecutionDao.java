@@ -1,11 +1,16 @@
 package org.springframework.batch.mongodb;
 
+import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.exists;
+import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Projections.exclude;
+import static com.mongodb.client.model.Projections.include;
 import static com.mongodb.client.model.Updates.combine;
 import static com.mongodb.client.model.Updates.set;
 
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -17,12 +22,11 @@ import org.bson.conversions.Bson;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.batch.core.BatchStatus;
-import org.springframework.batch.core.ExitStatus;
 import org.springframework.batch.core.JobExecution;
 import org.springframework.batch.core.JobInstance;
-import org.springframework.batch.core.JobParameters;
 import org.springframework.batch.core.repository.dao.JobExecutionDao;
 import org.springframework.batch.core.repository.dao.NoSuchObjectException;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.stereotype.Repository;
 import org.springframework.util.Assert;
@@ -31,8 +35,10 @@ import com.mongodb.BasicDBObject;
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoCursor;
-import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.UpdateManyModel;
 import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
 import com.mongodb.client.result.UpdateResult;
 
 /**
@@ -45,24 +51,59 @@ import com.mongodb.client.result.UpdateResult;
 @Repository
 public class MongoJobExecutionDao extends AbstractMongoDao implements JobExecutionDao {
 
-    private static final Logger LOG = LoggerFactory.getLogger(MongoJobExecutionDao.class);
+    private static final Logger LOG                 = LoggerFactory.getLogger(MongoJobExecutionDao.class);
+
+    private static final int    BACKFILL_BATCH_SIZE = 1000;
 
     private MongoTemplate       mongoTemplate;
 
+    /**
+     * Optional. When set and its change stream is open, {@link #synchronizeStatus(JobExecution)} is answered from
+     * memory instead of reading the execution on every chunk.
+     */
+    private JobExecutionStatusWatcher statusWatcher;
+
+    private RepositoryWriteJournal writeJournal;
+
     public void setMongoTemplate(MongoTemplate mongoTemplate) {
         this.mongoTemplate = mongoTemplate;
     }
 
+    public void setStatusWatcher(JobExecutionStatusWatcher statusWatcher) {
+        this.statusWatcher = statusWatcher;
+    }
+
+    /**
+     * Journal updates failing while MongoDB is unreachable, and replay them once it is back. While writes are
+     * pending, {@link #synchronizeStatus(JobExecution)} keeps the status known locally instead of reading it.
+     */
+    public void setWriteJournal(RepositoryWriteJournal writeJournal) {
+        this.writeJournal = writeJournal;
+    }
+
     @PostConstruct
     public void init() {
-        // db.JobExecution.createIndex( {jobInstanceId : 1});
-        getCollection().createIndex(jobInstanceIdObj(1L));
-        // db.JobExecution.createIndex( {jobExecutionId : 1});
-        getCollection().createIndex(jobExecutionIdObj(1L));
-        // db.JobExecution.createIndex( {createTime : -1});
-        getCollection().createIndex(new BasicDBObject(CREATE_TIME_KEY, -1));
-        getCollection().createIndex(new Document(JOB_EXECUTION_ID_KEY, 1).append(JOB_INSTANCE_ID_KEY, 1),
-                new IndexOptions());
+        ensureIndexes(mongoTemplate);
+    }
+
+    @Override
+    public List<IndexModel> getIndexes() {
+        return Arrays.asList(
+                // db.JobExecution.createIndex( {jobInstanceId : 1, jobExecutionId : -1});
+                new IndexModel(new Document(JOB_INSTANCE_ID_KEY, 1).append(JOB_EXECUTION_ID_KEY, -1)),
+                // db.JobExecution.createIndex( {jobInstanceId : 1, createTime : -1, jobExecutionId : -1}); last
+                // execution of an instance
+                new IndexModel(new Document(JOB_INSTANCE_ID_KEY, 1).append(CREATE_TIME_KEY, -1)
+                        .append(JOB_EXECUTION_ID_KEY, -1)),
+                // db.JobExecution.createIndex( {jobInstanceId : 1, endTime : 1}); running executions
+                new IndexModel(new Document(JOB_INSTANCE_ID_KEY, 1).append(END_TIME_KEY, 1)),
+                // db.JobExecution.createIndex( {jobExecutionId : 1});
+                new IndexModel(jobExecutionIdObj(1L)),
+                // db.JobExecution.createIndex( {createTime : -1});
+                new IndexModel(new BasicDBObject(CREATE_TIME_KEY, -1)),
+                new IndexModel(new Document(JOB_EXECUTION_ID_KEY, 1).append(JOB_INSTANCE_ID_KEY, 1)),
+                // db.JobExecution.createIndex( {jobName : 1, createTime : -1});
+                new IndexModel(new Document(JOB_NAME_KEY, 1).append(CREATE_TIME_KEY, -1)));
     }
 
     public void saveJobExecution(JobExecution jobExecution) {
@@ -74,15 +115,21 @@ public class MongoJobExecutionDao extends AbstractMongoDao implements JobExecuti
 
     private void save(JobExecution jobExecution, Long id) {
         jobExecution.setId(id);
-        Bson object = toDbObjectWithoutVersion(jobExecution);
-        object = combine(object, set(VERSION_KEY, jobExecution.getVersion()));
+        // parameters never change after the execution is created, so updates leave them alone
+        Bson object = combine(toDbObjectWithoutVersion(jobExecution), set(VERSION_KEY, jobExecution.getVersion()),
+                set(JOB_PARAMETERS_KEY, toParameterList(jobExecution.getJobParameters())));
         UpdateResult result = getCollection().updateOne(eq(JOB_EXECUTION_ID_KEY, id), object, new UpdateOptions().upsert(true));
         LOG.debug("Saved Job Execution: " + result.getMatchedCount() + " - " + result.getModifiedCount());
+        if (statusWatcher != null) {
+            statusWatcher.updated(id, jobExecution.getVersion(), jobExecution.getStatus());
+        }
     }
 
     private Bson toDbObjectWithoutVersion(JobExecution jobExecution) {
         return combine(set(JOB_EXECUTION_ID_KEY, jobExecution.getId()),
-                set(JOB_INSTANCE_ID_KEY, jobExecution.getJobId()), set(START_TIME_KEY, jobExecution.getStartTime()),
+                set(JOB_INSTANCE_ID_KEY, jobExecution.getJobId()),
+                set(JOB_NAME_KEY, jobExecution.getJobInstance().getJobName()),
+                set(START_TIME_KEY, jobExecution.getStartTime()),
                 set(END_TIME_KEY, jobExecution.getEndTime()), set(STATUS_KEY, jobExecution.getStatus().toString()),
                 set(EXIT_CODE_KEY, jobExecution.getExitStatus().getExitCode()),
                 set(EXIT_MESSAGE_KEY, jobExecution.getExitStatus().getExitDescription()),
@@ -90,6 +137,74 @@ public class MongoJobExecutionDao extends AbstractMongoDao implements JobExecuti
                 set(LAST_UPDATED_KEY, jobExecution.getLastUpdated()));
     }
 
+    /**
+     * Document form of a job execution without its version, as stored in the JobExecution collection. The job name is
+     * copied from the instance so analytics can group executions without a lookup.
+     */
+    static Document toDocumentWithoutVersion(JobExecution jobExecution) {
+        return new Document(JOB_EXECUTION_ID_KEY, jobExecution.getId())
+                .append(JOB_INSTANCE_ID_KEY, jobExecution.getJobId())
+                .append(JOB_NAME_KEY, jobExecution.getJobInstance().getJobName())
+                .append(START_TIME_KEY, jobExecution.getStartTime()).append(END_TIME_KEY, jobExecution.getEndTime())
+                .append(STATUS_KEY, jobExecution.getStatus().toString())
+                .append(EXIT_CODE_KEY, jobExecution.getExitStatus().getExitCode())
+                .append(EXIT_MESSAGE_KEY, jobExecution.getExitStatus().getExitDescription())
+                .append(CREATE_TIME_KEY, jobExecution.getCreateTime())
+                .append(LAST_UPDATED_KEY, jobExecution.getLastUpdated());
+    }
+
+    /**
+     * Copies the parameters of their job instance onto the executions saved before executions carried their own, so
+     * that they are mapped without reading the instance. Until then they are read from the instance, so this can run
+     * while jobs run.
+     *
+     * @return the number of executions updated
+     */
+    public long backfillJobParameters() {
+        long updated = 0;
+        long after = Long.MIN_VALUE;
+        List<Long> batch;
+        while (!(batch = findInstancesMissing(getCollection(), JOB_PARAMETERS_KEY, after, BACKFILL_BATCH_SIZE))
+                .isEmpty()) {
+            updated += backfillJobParameters(batch);
+            after = batch.get(batch.size() - 1);
+        }
+        LOG.info("Backfilled the job parameters of {} job executions", updated);
+        return updated;
+    }
+
+    /**
+     * Backfills the executions of the next instances after the given one, for {@link SchemaMigrationRunner}.
+     *
+     * @return the last instance id handled, or null when none was left
+     */
+    Long backfillJobParameters(Long afterInstanceId, int limit) {
+        List<Long> batch = findInstancesMissing(getCollection(), JOB_PARAMETERS_KEY,
+                afterInstanceId == null ? Long.MIN_VALUE : afterInstanceId, limit);
+        if (batch.isEmpty()) {
+            return null;
+        }
+        backfillJobParameters(batch);
+        return batch.get(batch.size() - 1);
+    }
+
+    private long backfillJobParameters(List<Long> instanceIds) {
+        List<WriteModel<Document>> updates = new ArrayList<WriteModel<Document>>();
+        for (Document instance : mongoTemplate.getCollection(JobInstance.class.getSimpleName())
+                .find(in(JOB_INSTANCE_ID_KEY, instanceIds))
+                .projection(include(JOB_INSTANCE_ID_KEY, JOB_PARAMETERS_KEY))) {
+            Object parameters = instance.get(JOB_PARAMETERS_KEY);
+            if (parameters != null) {
+                // either shape on the instance, always the list on the execution
+                Bson filter = and(eq(JOB_INSTANCE_ID_KEY, instance.get(JOB_INSTANCE_ID_KEY)),
+                        exists(JOB_PARAMETERS_KEY, false));
+                updates.add(new UpdateManyModel<Document>(filter,
+                        set(JOB_PARAMETERS_KEY, toParameterList(toJobParameters(parameters)))));
+            }
+        }
+        return updates.isEmpty() ? 0 : getCollection().bulkWrite(updates).getModifiedCount();
+    }
+
     private void validateJobExecution(JobExecution jobExecution) {
 
         Assert.notNull(jobExecution);
@@ -110,43 +225,33 @@ public class MongoJobExecutionDao extends AbstractMongoDao implements JobExecuti
 
         Integer version = jobExecution.getVersion() + 1;
 
-        if (getCollection().find(jobExecutionIdObj(jobExecutionId)) == null) {
-            throw new NoSuchObjectException("Invalid JobExecution, ID " + jobExecutionId + " not found.");
-        }
-
-//		DBObject object = toDbObjectWithoutVersion(jobExecution);
-//		object.put(VERSION_KEY, version);
-//		getCollection().update(
-//				start().add(JOB_EXECUTION_ID_KEY, jobExecutionId)
-//						.add(VERSION_KEY, jobExecution.getVersion()).get(),
-//				object);
-
         Bson object = toDbObjectWithoutVersion(jobExecution);
         object = combine(object, set(VERSION_KEY, version));
-        getCollection().updateOne(
-                combine(eq(JOB_EXECUTION_ID_KEY, jobExecutionId), eq(VERSION_KEY, jobExecution.getVersion())), object, new UpdateOptions().upsert(true));
+        Bson filter = combine(eq(JOB_EXECUTION_ID_KEY, jobExecutionId), eq(VERSION_KEY, jobExecution.getVersion()));
+        boolean matched;
+        if (writeJournal != null) {
+            matched = writeJournal.updateOne(getCollection(), eq(JOB_EXECUTION_ID_KEY, jobExecutionId), VERSION_KEY,
+                    jobExecution.getVersion(), object);
+        } else {
+            matched = getCollection().updateOne(filter, object).getMatchedCount() > 0;
+        }
 
         // Avoid concurrent modifications...
-//		DBObject lastError = mongoTemplate.getDb().getLastError();
-//		if (!((Boolean) lastError.get(UPDATED_EXISTING_STATUS))) {
-//			LOG.error("Update returned status {}", lastError);
-//			DBObject existingJobExecution = getCollection().findOne(
-//					jobExecutionIdObj(jobExecutionId),
-//					new BasicDBObject(VERSION_KEY, 1));
-//			if (existingJobExecution == null) {
-//				throw new IllegalArgumentException(
-//						"Can't update this jobExecution, it was never saved.");
-//			}
-//			Integer curentVersion = ((Integer) existingJobExecution
-//					.get(VERSION_KEY));
-//			throw new OptimisticLockingFailureException(
-//					"Attempt to update job execution id=" + jobExecutionId
-//							+ " with wrong version ("
-//							+ jobExecution.getVersion()
-//							+ "), where current version is " + curentVersion);
-//		}
+        if (!matched) {
+            Document existing = getCollection().find(jobExecutionIdObj(jobExecutionId))
+                    .projection(include(VERSION_KEY)).first();
+            if (existing == null) {
+                throw new NoSuchObjectException("Invalid JobExecution, ID " + jobExecutionId + " not found.");
+            }
+            throw new OptimisticLockingFailureException("Attempt to update job execution id=" + jobExecutionId
+                    + " with wrong version (" + jobExecution.getVersion() + "), where current version is "
+                    + existing.get(VERSION_KEY));
+        }
 
         jobExecution.incrementVersion();
+        if (statusWatcher != null) {
+            statusWatcher.updated(jobExecutionId, version, jobExecution.getStatus());
+        }
     }
 
     public List<JobExecution> findJobExecutions(JobInstance jobInstance) {
@@ -154,7 +259,7 @@ public class MongoJobExecutionDao extends AbstractMongoDao implements JobExecuti
         Long id = jobInstance.getId();
         Assert.notNull(id, "Job Id cannot be null.");
         FindIterable<Document> documents = getCollection().find(jobInstanceIdObj(id))
-                .sort(new BasicDBObject(JOB_EXECUTION_ID_KEY, -1));
+                .projection(exclude(STEP_EXECUTIONS_KEY)).sort(new BasicDBObject(JOB_EXECUTION_ID_KEY, -1));
         MongoCursor<Document> dbCursor = documents.iterator();
         List<JobExecution> result = new ArrayList<JobExecution>();
         while (dbCursor.hasNext()) {
@@ -167,7 +272,8 @@ public class MongoJobExecutionDao extends AbstractMongoDao implements JobExecuti
     public JobExecution getLastJobExecution(JobInstance jobInstance) {
         Long id = jobInstance.getId();
         FindIterable<Document> documents = getCollection().find(jobInstanceIdObj(id))
-                .sort(new BasicDBObject(CREATE_TIME_KEY, -1)).limit(1);
+                .projection(exclude(STEP_EXECUTIONS_KEY))
+                .sort(new Document(CREATE_TIME_KEY, -1).append(JOB_EXECUTION_ID_KEY, -1)).limit(1);
         MongoCursor<Document> dbCursor = documents.iterator();
         if (!dbCursor.hasNext()) {
             return null;
@@ -182,13 +288,15 @@ public class MongoJobExecutionDao extends AbstractMongoDao implements JobExecuti
 
     public Set<JobExecution> findRunningJobExecutions(String jobName) {
         MongoCursor<Document> instancesCursor = mongoTemplate.getCollection(JobInstance.class.getSimpleName())
-                .find(combine(eq(MongoJobInstanceDao.JOB_NAME_KEY, jobName), jobInstanceIdObj(1L))).iterator();
+                .find(eq(MongoJobInstanceDao.JOB_NAME_KEY, jobName)).projection(include(JOB_INSTANCE_ID_KEY))
+                .iterator();
         List<Long> ids = new ArrayList<Long>();
         while (instancesCursor.hasNext()) {
             ids.add((Long) instancesCursor.next().get(JOB_INSTANCE_ID_KEY));
         }
         FindIterable<Document> documents = getCollection().find(
-                combine(eq(JOB_INSTANCE_ID_KEY, new BasicDBObject("$in", ids.toArray())), eq(END_TIME_KEY, null)));
+                combine(eq(JOB_INSTANCE_ID_KEY, new BasicDBObject("$in", ids.toArray())), eq(END_TIME_KEY, null)))
+                .projection(exclude(STEP_EXECUTIONS_KEY));
         MongoCursor<Document> dbCursor = documents.iterator();
         Set<JobExecution> result = new HashSet<JobExecution>();
         while (dbCursor.hasNext()) {
@@ -197,13 +305,56 @@ public class MongoJobExecutionDao extends AbstractMongoDao implements JobExecuti
         return result;
     }
 
+    /**
+     * The most recently created execution of each job name, ordered by job name, in a single aggregation served by
+     * the (jobName, createTime) index. <br/>
+     * Executions come with their job instance (id and name) but without job parameters or step executions.
+     * Executions saved without a job name are left out; see {@link MongoJobAnalytics#backfillJobNames()}.
+     */
+    public List<JobExecution> getLatestJobExecutions() {
+        Document latest = new Document("_id", "$" + JOB_NAME_KEY);
+        for (String key : Arrays.asList(JOB_EXECUTION_ID_KEY, JOB_INSTANCE_ID_KEY, START_TIME_KEY, END_TIME_KEY,
+                STATUS_KEY, EXIT_CODE_KEY, EXIT_MESSAGE_KEY, CREATE_TIME_KEY, LAST_UPDATED_KEY, VERSION_KEY)) {
+            latest.append(key, new Document("$first", "$" + key));
+        }
+        List<Document> pipeline = Arrays.asList(
+                new Document("$sort", new Document(JOB_NAME_KEY, 1).append(CREATE_TIME_KEY, -1)),
+                new Document("$group", latest), new Document("$sort", new Document("_id", 1)));
+        List<JobExecution> result = new ArrayList<JobExecution>();
+        for (Document dbObject : getCollection().aggregate(pipeline).allowDiskUse(true)) {
+            String jobName = dbObject.getString("_id");
+            if (jobName != null) {
+                JobExecution jobExecution = mapJobExecution(dbObject);
+                jobExecution.setJobInstance(new JobInstance((Long) dbObject.get(JOB_INSTANCE_ID_KEY), jobName));
+                result.add(jobExecution);
+            }
+        }
+        return result;
+    }
+
     public JobExecution getJobExecution(Long executionId) {
-        return mapJobExecution(getCollection().find(jobExecutionIdObj(executionId)).first());
+        return mapJobExecution(
+                getCollection().find(jobExecutionIdObj(executionId)).projection(exclude(STEP_EXECUTIONS_KEY)).first());
     }
 
     public void synchronizeStatus(JobExecution jobExecution) {
         Long id = jobExecution.getId();
-        Document jobExecutionObject = getCollection().find(jobExecutionIdObj(id)).first();
+        if (statusWatcher != null) {
+            JobExecutionStatusWatcher.ExecutionStatus current = statusWatcher.getStatus(id);
+            if (current != null) {
+                if (current.getVersion() != jobExecution.getVersion()) {
+                    jobExecution.upgradeStatus(current.getStatus());
+                    jobExecution.setVersion(current.getVersion());
+                }
+                return;
+            }
+        }
+        if (writeJournal != null && writeJournal.isPending()) {
+            // the stored execution is behind this one until the journal is replayed
+            return;
+        }
+        Document jobExecutionObject = getCollection().find(jobExecutionIdObj(id))
+                .projection(include(VERSION_KEY, STATUS_KEY)).first();
         int currentVersion = jobExecutionObject != null ? ((Integer) jobExecutionObject.get(VERSION_KEY)) : 0;
         if (currentVersion != jobExecution.getVersion()) {
             if (jobExecutionObject == null) {
@@ -225,28 +376,7 @@ public class MongoJobExecutionDao extends AbstractMongoDao implements JobExecuti
     }
 
     private JobExecution mapJobExecution(JobInstance jobInstance, Document dbObject) {
-        if (dbObject == null) {
-            return null;
-        }
-        Long id = (Long) dbObject.get(JOB_EXECUTION_ID_KEY);
-        JobExecution jobExecution;
-
-        if (jobInstance == null) {
-            jobExecution = new JobExecution(id);
-        } else {
-            JobParameters jobParameters = getJobParameters(jobInstance.getId(), mongoTemplate);
-            jobExecution = new JobExecution(jobInstance, id, jobParameters, null);
-        }
-        jobExecution.setStartTime((Date) dbObject.get(START_TIME_KEY));
-        jobExecution.setEndTime((Date) dbObject.get(END_TIME_KEY));
-        jobExecution.setStatus(BatchStatus.valueOf((String) dbObject.get(STATUS_KEY)));
-        jobExecution.setExitStatus(
-                new ExitStatus(((String) dbObject.get(EXIT_CODE_KEY)), (String) dbObject.get(EXIT_MESSAGE_KEY)));
-        jobExecution.setCreateTime((Date) dbObject.get(CREATE_TIME_KEY));
-        jobExecution.setLastUpdated((Date) dbObject.get(LAST_UPDATED_KEY));
-        jobExecution.setVersion((Integer) dbObject.get(VERSION_KEY));
-
-        return jobExecution;
+        return mapJobExecution(jobInstance, dbObject, mongoTemplate);
     }
 
 }
@@ -1,23 +1,34 @@
 package org.springframework.batch.mongodb;
 
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.elemMatch;
 import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.exists;
+import static com.mongodb.client.model.Filters.gt;
+import static com.mongodb.client.model.Filters.not;
+import static com.mongodb.client.model.Filters.type;
+import static com.mongodb.client.model.Projections.include;
 import static com.mongodb.client.model.Updates.combine;
 import static com.mongodb.client.model.Updates.set;
+import static com.mongodb.client.model.Updates.setOnInsert;
 
 import java.io.UnsupportedEncodingException;
 import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import javax.annotation.PostConstruct;
 
+import org.bson.BsonType;
 import org.bson.Document;
 import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.batch.core.JobExecution;
 import org.springframework.batch.core.JobInstance;
 import org.springframework.batch.core.JobParameter;
@@ -29,11 +40,18 @@ import org.springframework.stereotype.Repository;
 import org.springframework.util.Assert;
 
 import com.mongodb.BasicDBObject;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoWriteException;
 import com.mongodb.client.DistinctIterable;
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.UpdateOneModel;
 import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.client.result.UpdateResult;
 
 /**
  * Uses MongoTemplate to perform CRUD on Springbatch's Job Instance Data to Mongo DB. <br/>
@@ -45,7 +63,11 @@ import com.mongodb.client.model.UpdateOptions;
 @Repository
 public class MongoJobInstanceDao extends AbstractMongoDao implements JobInstanceDao {
 
-    private MongoTemplate mongoTemplate;
+    private static final Logger LOG                  = LoggerFactory.getLogger(MongoJobInstanceDao.class);
+
+    private static final int    MIGRATION_BATCH_SIZE = 1000;
+
+    private MongoTemplate       mongoTemplate;
 
     public void setMongoTemplate(MongoTemplate mongoTemplate) {
         this.mongoTemplate = mongoTemplate;
@@ -53,16 +75,37 @@ public class MongoJobInstanceDao extends AbstractMongoDao implements JobInstance
 
     @PostConstruct
     public void init() {
-        // db.JobInstance.createIndex( {jobName : -1});
-        getCollection().createIndex(new BasicDBObject(JOB_NAME_KEY, -1L));
-        getCollection().createIndex(new BasicDBObject(JOB_INSTANCE_ID_KEY, 1L));
+        ensureIndexes(mongoTemplate);
     }
 
+    @Override
+    public List<IndexModel> getIndexes() {
+        // db.JobInstance.createIndex( {jobName : 1, jobInstanceId : -1}); pages of instances, newest first
+        return Arrays.asList(new IndexModel(new Document(JOB_NAME_KEY, 1).append(JOB_INSTANCE_ID_KEY, -1)),
+                new IndexModel(new BasicDBObject(JOB_INSTANCE_ID_KEY, 1L)),
+                // db.JobInstance.createIndex( {jobName : 1, jobKey : 1}, {unique : true});
+                new IndexModel(new Document(JOB_NAME_KEY, 1).append(JOB_KEY_KEY, 1),
+                        new IndexOptions().unique(true)),
+                // db.JobInstance.createIndex( {"jobParameters.k" : 1, "jobParameters.v" : 1, jobInstanceId : -1});
+                new IndexModel(new Document(JOB_PARAMETERS_KEY + "." + PARAMETER_NAME_KEY, 1)
+                        .append(JOB_PARAMETERS_KEY + "." + PARAMETER_VALUE_KEY, 1).append(JOB_INSTANCE_ID_KEY, -1)));
+    }
+
+    /**
+     * Creates the instance with a single upsert on jobName and jobKey that only inserts. The unique index on both
+     * makes concurrent launches of the same instance fail, instead of creating duplicates. An instance still stored
+     * under its {@link #createLegacyJobKey(JobParameters) legacy key} counts as existing too.
+     */
     public JobInstance createJobInstance(String jobName, final JobParameters jobParameters) {
         Assert.notNull(jobName, "Job name must not be null.");
         Assert.notNull(jobParameters, "JobParameters must not be null.");
 
-        Assert.state(getJobInstance(jobName, jobParameters) == null, "JobInstance must not already exist");
+        String jobKey = createJobKey(jobParameters);
+        String legacyJobKey = createLegacyJobKey(jobParameters);
+        if (!legacyJobKey.equals(jobKey) && getCollection()
+                .find(combine(eq(JOB_NAME_KEY, jobName), eq(JOB_KEY_KEY, legacyJobKey))).first() != null) {
+            throw new JobInstanceAlreadyExistsException("JobInstance must not already exist");
+        }
 
         Long jobId = getNextId(JobInstance.class.getSimpleName(), mongoTemplate);
 
@@ -70,26 +113,41 @@ public class MongoJobInstanceDao extends AbstractMongoDao implements JobInstance
 
         jobInstance.incrementVersion();
 
-        Map<String, JobParameter> jobParams = jobParameters.getParameters();
-        Map<String, Object> paramMap = new HashMap<String, Object>(jobParams.size());
-        for (Map.Entry<String, JobParameter> entry : jobParams.entrySet()) {
-            paramMap.put(entry.getKey().replaceAll(DOT_STRING, DOT_ESCAPE_STRING), entry.getValue().getValue());
+        Bson object = combine(setOnInsert(JOB_INSTANCE_ID_KEY, jobId),
+                setOnInsert(VERSION_KEY, jobInstance.getVersion()),
+                setOnInsert(JOB_PARAMETERS_KEY, toParameterList(jobParameters)));
+        UpdateResult result;
+        try {
+            result = getCollection().updateOne(combine(eq(JOB_NAME_KEY, jobName), eq(JOB_KEY_KEY, jobKey)), object,
+                    new UpdateOptions().upsert(true));
+        } catch (MongoWriteException e) {
+            if (e.getError().getCategory() == ErrorCategory.DUPLICATE_KEY) {
+                throw new JobInstanceAlreadyExistsException("JobInstance must not already exist", e);
+            }
+            throw e;
+        }
+        if (result.getUpsertedId() == null) {
+            throw new JobInstanceAlreadyExistsException("JobInstance must not already exist");
         }
-        Bson object = combine(set(JOB_INSTANCE_ID_KEY, jobId), set(JOB_NAME_KEY, jobName),
-                set(JOB_KEY_KEY, createJobKey(jobParameters)), set(VERSION_KEY, jobInstance.getVersion()),
-                set(JOB_PARAMETERS_KEY, new BasicDBObject(paramMap)));
-        getCollection().updateOne(eq(JOB_INSTANCE_ID_KEY, jobId), object, new UpdateOptions().upsert(true));
         return jobInstance;
     }
 
+    /**
+     * Instance found by its job key, or by its {@link #createLegacyJobKey(JobParameters) legacy key} until
+     * {@link #migrateJobKeys()} has rewritten it.
+     */
     public JobInstance getJobInstance(String jobName, JobParameters jobParameters) {
         Assert.notNull(jobName, "Job name must not be null.");
         Assert.notNull(jobParameters, "JobParameters must not be null.");
 
         String jobKey = createJobKey(jobParameters);
-
-        return mapJobInstance(getCollection().find(combine(eq(JOB_NAME_KEY, jobName), eq(JOB_KEY_KEY, jobKey))).first(),
-                jobParameters);
+        Document instance = getCollection().find(combine(eq(JOB_NAME_KEY, jobName), eq(JOB_KEY_KEY, jobKey))).first();
+        String legacyJobKey = createLegacyJobKey(jobParameters);
+        if (instance == null && !legacyJobKey.equals(jobKey)) {
+            instance = getCollection().find(combine(eq(JOB_NAME_KEY, jobName), eq(JOB_KEY_KEY, legacyJobKey)))
+                    .first();
+        }
+        return mapJobInstance(instance);
     }
 
     public JobInstance getJobInstance(Long instanceId) {
@@ -97,12 +155,11 @@ public class MongoJobInstanceDao extends AbstractMongoDao implements JobInstance
     }
 
     public JobInstance getJobInstance(JobExecution jobExecution) {
-        Document instanceId = mongoTemplate.getCollection(JobExecution.class.getSimpleName())
-                .find(combine(jobExecutionIdObj(jobExecution.getId()), jobInstanceIdObj(1L))).first();
-        if (instanceId != null) {
-            removeSystemFields(instanceId);
-            return mapJobInstance(getCollection().find(instanceId).first());
-        } 
+        Document execution = mongoTemplate.getCollection(JobExecution.class.getSimpleName())
+                .find(jobExecutionIdObj(jobExecution.getId())).projection(include(JOB_INSTANCE_ID_KEY)).first();
+        if (execution != null) {
+            return getJobInstance((Long) execution.get(JOB_INSTANCE_ID_KEY));
+        }
         return null;
     }
 
@@ -125,14 +182,169 @@ public class MongoJobInstanceDao extends AbstractMongoDao implements JobInstance
 
     }
 
+    /**
+     * Instances having all the given parameters, compared by name and value (so also by type, a Long 42 is not the
+     * String "42"), newest first. Identifying and non-identifying parameters are both matched.
+     *
+     * @param jobName the job name, or null for instances of any job
+     */
+    public List<JobInstance> findJobInstancesByParameters(String jobName, JobParameters jobParameters, int start,
+            int count) {
+        Assert.notNull(jobParameters, "JobParameters must not be null.");
+        Assert.isTrue(!jobParameters.isEmpty(), "At least one parameter must be given.");
+
+        List<Bson> filters = new ArrayList<Bson>();
+        if (jobName != null) {
+            filters.add(eq(JOB_NAME_KEY, jobName));
+        }
+        for (Map.Entry<String, JobParameter> entry : jobParameters.getParameters().entrySet()) {
+            filters.add(elemMatch(JOB_PARAMETERS_KEY, and(eq(PARAMETER_NAME_KEY, entry.getKey()),
+                    eq(PARAMETER_VALUE_KEY, entry.getValue().getValue()))));
+        }
+        return mapJobInstances(getCollection().find(and(filters)).sort(jobInstanceIdObj(-1L)).skip(start)
+                .limit(count));
+    }
+
+    /**
+     * Rewrites the jobParameters of instances stored before parameters were kept as a list, so that
+     * {@link #findJobInstancesByParameters} finds them. Both shapes are read, so this can run while jobs run.
+     *
+     * @return the number of instances rewritten
+     */
+    public long migrateJobParameters() {
+        long migrated = 0;
+        long after = Long.MIN_VALUE;
+        List<Document> batch;
+        while (!(batch = findLegacyJobParameters(after, MIGRATION_BATCH_SIZE)).isEmpty()) {
+            migrated += migrateJobParameters(batch);
+            after = batch.get(batch.size() - 1).getLong(JOB_INSTANCE_ID_KEY);
+        }
+        LOG.info("Migrated the job parameters of {} job instances", migrated);
+        return migrated;
+    }
+
+    /**
+     * Migrates the next instances after the given one, for {@link SchemaMigrationRunner}.
+     *
+     * @return the last instance id handled, or null when none was left
+     */
+    Long migrateJobParameters(Long afterInstanceId, int limit) {
+        List<Document> batch = findLegacyJobParameters(afterInstanceId == null ? Long.MIN_VALUE : afterInstanceId,
+                limit);
+        if (batch.isEmpty()) {
+            return null;
+        }
+        migrateJobParameters(batch);
+        return batch.get(batch.size() - 1).getLong(JOB_INSTANCE_ID_KEY);
+    }
+
+    private List<Document> findLegacyJobParameters(long afterInstanceId, int limit) {
+        return getCollection()
+                .find(and(gt(JOB_INSTANCE_ID_KEY, afterInstanceId), exists(JOB_PARAMETERS_KEY),
+                        not(type(JOB_PARAMETERS_KEY, BsonType.ARRAY))))
+                .projection(include(JOB_INSTANCE_ID_KEY, JOB_PARAMETERS_KEY)).sort(jobInstanceIdObj(1L))
+                .limit(limit).into(new ArrayList<Document>());
+    }
+
+    private long migrateJobParameters(List<Document> instances) {
+        List<WriteModel<Document>> updates = new ArrayList<WriteModel<Document>>();
+        for (Document instance : instances) {
+            Object legacy = instance.get(JOB_PARAMETERS_KEY);
+            updates.add(new UpdateOneModel<Document>(
+                    and(eq(JOB_INSTANCE_ID_KEY, instance.get(JOB_INSTANCE_ID_KEY)), eq(JOB_PARAMETERS_KEY, legacy)),
+                    set(JOB_PARAMETERS_KEY, toParameterList(toJobParameters(legacy)))));
+        }
+        return getCollection().bulkWrite(updates).getModifiedCount();
+    }
+
+    /**
+     * Rewrites the job key of instances created while it hashed all parameters, so that they are found by their
+     * identifying parameters alone. Instances are read under both keys meanwhile, so this can run while jobs run.
+     * An instance whose new key is taken by another instance, created with other non-identifying parameters, keeps
+     * its former key.
+     *
+     * @return the number of instances rewritten
+     */
+    public long migrateJobKeys() {
+        long migrated = 0;
+        long after = Long.MIN_VALUE;
+        List<Document> batch;
+        while (!(batch = findInstances(after, MIGRATION_BATCH_SIZE)).isEmpty()) {
+            migrated += migrateJobKeys(batch);
+            after = batch.get(batch.size() - 1).getLong(JOB_INSTANCE_ID_KEY);
+        }
+        LOG.info("Migrated the job keys of {} job instances", migrated);
+        return migrated;
+    }
+
+    /**
+     * Migrates the job keys of the next instances after the given one, for {@link SchemaMigrationRunner}.
+     *
+     * @return the last instance id handled, or null when none was left
+     */
+    Long migrateJobKeys(Long afterInstanceId, int limit) {
+        List<Document> batch = findInstances(afterInstanceId == null ? Long.MIN_VALUE : afterInstanceId, limit);
+        if (batch.isEmpty()) {
+            return null;
+        }
+        migrateJobKeys(batch);
+        return batch.get(batch.size() - 1).getLong(JOB_INSTANCE_ID_KEY);
+    }
+
+    private List<Document> findInstances(long afterInstanceId, int limit) {
+        return getCollection().find(gt(JOB_INSTANCE_ID_KEY, afterInstanceId))
+                .projection(include(JOB_INSTANCE_ID_KEY, JOB_NAME_KEY, JOB_KEY_KEY, JOB_PARAMETERS_KEY))
+                .sort(jobInstanceIdObj(1L)).limit(limit).into(new ArrayList<Document>());
+    }
+
+    private long migrateJobKeys(List<Document> instances) {
+        long migrated = 0;
+        for (Document instance : instances) {
+            String jobKey = instance.getString(JOB_KEY_KEY);
+            String migratedKey = createJobKey(toJobParameters(instance.get(JOB_PARAMETERS_KEY)));
+            if (migratedKey.equals(jobKey)) {
+                continue;
+            }
+            try {
+                migrated += getCollection().updateOne(
+                        and(eq(JOB_INSTANCE_ID_KEY, instance.get(JOB_INSTANCE_ID_KEY)), eq(JOB_KEY_KEY, jobKey)),
+                        set(JOB_KEY_KEY, migratedKey)).getModifiedCount();
+            } catch (MongoWriteException e) {
+                if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) {
+                    throw e;
+                }
+                LOG.warn("Job instance {} of {} keeps its former job key, another instance has its parameters",
+                        instance.get(JOB_INSTANCE_ID_KEY), instance.get(JOB_NAME_KEY));
+            }
+        }
+        return migrated;
+    }
+
+    /**
+     * Hash of the identifying parameters, so that executions of an instance may differ in their non-identifying ones.
+     */
     protected String createJobKey(JobParameters jobParameters) {
+        return hash(jobParameters, false);
+    }
+
+    /**
+     * Hash of all parameters, the job key of instances created before it left out non-identifying parameters.
+     */
+    protected String createLegacyJobKey(JobParameters jobParameters) {
+        return hash(jobParameters, true);
+    }
+
+    private static String hash(JobParameters jobParameters, boolean nonIdentifying) {
 
         Map<String, JobParameter> props = jobParameters.getParameters();
         StringBuilder stringBuilder = new StringBuilder();
         List<String> keys = new ArrayList<String>(props.keySet());
         Collections.sort(keys);
         for (String key : keys) {
-            stringBuilder.append(key).append("=").append(props.get(key).toString()).append(";");
+            JobParameter parameter = props.get(key);
+            if (nonIdentifying || parameter.isIdentifying()) {
+                stringBuilder.append(key).append("=").append(parameter.toString()).append(";");
+            }
         }
 
         MessageDigest digest;
@@ -164,17 +376,9 @@ public class MongoJobInstanceDao extends AbstractMongoDao implements JobInstance
     }
 
     private JobInstance mapJobInstance(Document dbObject) {
-        return mapJobInstance(dbObject, null);
-    }
-
-    private JobInstance mapJobInstance(Document dbObject, JobParameters jobParameters) {
         JobInstance jobInstance = null;
         if (dbObject != null) {
             Long id = (Long) dbObject.get(JOB_INSTANCE_ID_KEY);
-            if (jobParameters == null) {
-                jobParameters = getJobParameters(id, mongoTemplate);
-            }
-
             jobInstance = new JobInstance(id, (String) dbObject.get(JOB_NAME_KEY)); // should always be at version=0
                                                                                     // because they never get updated
             jobInstance.incrementVersion();
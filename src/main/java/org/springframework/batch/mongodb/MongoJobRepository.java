@@ -0,0 +1,74 @@
+package org.springframework.batch.mongodb;
+
+import java.util.Date;
+
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.repository.JobExecutionAlreadyRunningException;
+import org.springframework.batch.core.repository.JobInstanceAlreadyCompleteException;
+import org.springframework.batch.core.repository.JobRestartException;
+import org.springframework.batch.core.repository.dao.ExecutionContextDao;
+import org.springframework.batch.core.repository.dao.JobExecutionDao;
+import org.springframework.batch.core.repository.dao.JobInstanceDao;
+import org.springframework.batch.core.repository.dao.StepExecutionDao;
+import org.springframework.batch.core.repository.support.SimpleJobRepository;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.util.Assert;
+
+/**
+ * JobRepository with a shorter launch path for jobs started with new parameters. <br/>
+ * {@link SimpleJobRepository} looks the instance up before creating it and saves the empty ExecutionContext of every
+ * new execution. This repository creates the instance first, relying on createJobInstance to throw
+ * {@link JobInstanceAlreadyExistsException} for an existing instance (see {@link MongoJobInstanceDao}), and only then
+ * falls back to the lookup and restart checks of its parent. With an instance DAO from elsewhere, which cannot tell an
+ * existing instance apart from other failures, it launches as its parent does.
+ * The empty context of a new execution is not written with {@link MongoExecutionContextDao}, whose reads return an
+ * empty context for a missing document and whose updates insert it. A new launch thus takes the instance and the
+ * execution write, plus their id allocations (see {@link SequenceBlockIdGenerator} for a single JVM and
+ * {@link TimeOrderedIdGenerator} for several).
+ */
+public class MongoJobRepository extends SimpleJobRepository {
+
+    private final JobInstanceDao      jobInstanceDao;
+
+    private final JobExecutionDao     jobExecutionDao;
+
+    private final ExecutionContextDao executionContextDao;
+
+    public MongoJobRepository(JobInstanceDao jobInstanceDao, JobExecutionDao jobExecutionDao,
+            StepExecutionDao stepExecutionDao, ExecutionContextDao executionContextDao) {
+        super(jobInstanceDao, jobExecutionDao, stepExecutionDao, executionContextDao);
+        this.jobInstanceDao = jobInstanceDao;
+        this.jobExecutionDao = jobExecutionDao;
+        this.executionContextDao = executionContextDao;
+    }
+
+    @Override
+    public JobExecution createJobExecution(String jobName, JobParameters jobParameters)
+            throws JobExecutionAlreadyRunningException, JobRestartException, JobInstanceAlreadyCompleteException {
+        Assert.notNull(jobName, "Job name must not be null.");
+        Assert.notNull(jobParameters, "JobParameters must not be null.");
+
+        if (!(jobInstanceDao instanceof MongoJobInstanceDao || jobInstanceDao instanceof MappedJobInstanceDao)) {
+            return super.createJobExecution(jobName, jobParameters);
+        }
+        JobInstance jobInstance;
+        try {
+            jobInstance = jobInstanceDao.createJobInstance(jobName, jobParameters);
+        } catch (JobInstanceAlreadyExistsException e) {
+            // the instance exists: restart, with the checks for running and completed executions
+            return super.createJobExecution(jobName, jobParameters);
+        }
+
+        JobExecution jobExecution = new JobExecution(jobInstance, jobParameters, null);
+        ExecutionContext executionContext = new ExecutionContext();
+        jobExecution.setExecutionContext(executionContext);
+        jobExecution.setLastUpdated(new Date(System.currentTimeMillis()));
+        jobExecutionDao.saveJobExecution(jobExecution);
+        if (!(executionContextDao instanceof MongoExecutionContextDao)) {
+            executionContextDao.saveExecutionContext(jobExecution);
+        }
+        return jobExecution;
+    }
+}
@@ -1,12 +1,29 @@
 package org.springframework.batch.mongodb;
 
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.aop.Advisor;
+import org.springframework.aop.framework.Advised;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.batch.core.repository.JobRepository;
 import org.springframework.batch.core.repository.dao.ExecutionContextDao;
 import org.springframework.batch.core.repository.dao.JobExecutionDao;
 import org.springframework.batch.core.repository.dao.JobInstanceDao;
 import org.springframework.batch.core.repository.dao.StepExecutionDao;
 import org.springframework.batch.core.repository.support.AbstractJobRepositoryFactoryBean;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.util.Assert;
+
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoCompressor;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
 
 /**
  * Job Factory responsible to provide execution/Job DAOs for storing Springbatch metadata in Mongo DB. <br/>
@@ -17,11 +34,18 @@ import org.springframework.beans.factory.InitializingBean;
  * <li>{@link MongoJobInstanceDao}</li>
  * <li>{@link MongoStepExecutionDao}</li>
  * </ul>  
+ * Use {@link MongoEmbeddedStepExecutionDao} as stepExecutionDao to store step executions inside their job execution
+ * document instead. To keep the metadata in a local file without a MongoDB server, set the Mapped DAOs sharing one
+ * {@link MappedStore} (e.g. {@link MappedJobInstanceDao}) instead. <br/>
+ * Alternatively set a connectionString and databaseName: the factory then creates its own MongoClient, using the
+ * configured wire-protocol compressors and pool settings, and default Mongo DAOs for any DAO that was not set. With a
+ * {@link RepositoryWriteJournal}, updates of the default DAOs survive short outages, e.g. a replica set failover. <br/>
  * 
  * @author vfouzdar
  *
  */
-public class MongoJobRepositoryFactoryBean extends AbstractJobRepositoryFactoryBean implements InitializingBean {
+public class MongoJobRepositoryFactoryBean extends AbstractJobRepositoryFactoryBean
+		implements InitializingBean, DisposableBean {
 	
 	/**
 	 * To store sprinbatch metadata in MongoDB this should hold an instance of {@link MongoExecutionContextDao}
@@ -39,9 +63,87 @@ public class MongoJobRepositoryFactoryBean extends AbstractJobRepositoryFactoryB
     private JobInstanceDao jobInstanceDao;
 
     /**
-	 * To store sprinbatch metadata in MongoDB this should hold an instance of {@link MongoStepExecutionDao}
+	 * To store sprinbatch metadata in MongoDB this should hold an instance of {@link MongoStepExecutionDao} or
+	 * {@link MongoEmbeddedStepExecutionDao}
 	 */
     private StepExecutionDao stepExecutionDao;
+
+    /**
+	 * Used to create the default DAOs; built from connectionString and databaseName when not set
+	 */
+    private MongoTemplate mongoTemplate;
+
+    private String connectionString;
+
+    private String databaseName;
+
+    /**
+	 * Wire-protocol compressors offered to the server, in order of preference: zlib, snappy or zstd
+	 */
+    private List<String> compressors = new ArrayList<>();
+
+    /**
+	 * Optional listener reporting slow repository commands of the client created by this factory
+	 */
+    private SlowOperationDetector slowOperationDetector;
+
+    /**
+	 * Optional pool and command metrics of the client created by this factory
+	 */
+    private MongoRepositoryMetrics repositoryMetrics;
+
+    /**
+	 * Pool and server selection settings of the client created by this factory; unset ones keep the connection
+	 * string or driver defaults
+	 */
+    private Integer maxPoolSize;
+
+    private Integer minPoolSize;
+
+    private Long maxConnectionWaitMillis;
+
+    private Long maxConnectionIdleTimeMillis;
+
+    private Long serverSelectionTimeoutMillis;
+
+    private Long localThresholdMillis;
+
+    /**
+	 * Optional index manager given to the default DAOs, so their indexes are bootstrapped according to its policy
+	 */
+    private MongoIndexManager indexManager;
+
+    /**
+	 * Optional id generator given to the default DAOs instead of the Sequences collection
+	 */
+    private IdGenerator idGenerator;
+
+    /**
+	 * Whether the repository is a {@link MongoJobRepository} instead of a SimpleJobRepository
+	 */
+    private boolean fastLaunch;
+
+    private JobRepository fastLaunchRepository;
+
+    /**
+	 * Optional group committer given to the default step execution DAO
+	 */
+    private StepExecutionGroupCommitter groupCommitter;
+
+    /**
+	 * Optional progress recorder given to the default step execution DAO
+	 */
+    private StepExecutionProgressRecorder progressRecorder;
+
+    /**
+	 * Optional journal given to the default execution DAOs
+	 */
+    private RepositoryWriteJournal writeJournal;
+
+    /**
+	 * Client created by this factory, closed with it
+	 */
+    private MongoClient mongoClient;
     
     /**
 	 * Should hold an instance of {@link MongoExecutionContextDao}
@@ -65,12 +167,298 @@ public class MongoJobRepositoryFactoryBean extends AbstractJobRepositoryFactoryB
 	}
 
 	/**
-	 * Should hold an instance of {@link MongoStepExecutionDao}
+	 * Should hold an instance of {@link MongoStepExecutionDao} or {@link MongoEmbeddedStepExecutionDao}
 	 */
 	public void setStepExecutionDao(StepExecutionDao stepExecutionDao) {
 		this.stepExecutionDao = stepExecutionDao;
 	}
 
+	/**
+	 * MongoTemplate the default DAOs are created with, instead of one built from connectionString
+	 */
+	public void setMongoTemplate(MongoTemplate mongoTemplate) {
+		this.mongoTemplate = mongoTemplate;
+	}
+
+	public MongoTemplate getMongoTemplate() {
+		return mongoTemplate;
+	}
+
+	/**
+	 * e.g. mongodb://127.0.0.1:27017; compressors set on this factory replace any listed in the connection string
+	 */
+	public void setConnectionString(String connectionString) {
+		this.connectionString = connectionString;
+	}
+
+	public void setDatabaseName(String databaseName) {
+		this.databaseName = databaseName;
+	}
+
+	/**
+	 * Names of the wire-protocol compressors, e.g. "zstd", "snappy", "zlib". The server picks the first one it also
+	 * supports. Snappy and zstd need the driver's optional snappy-java and zstd-jni dependencies on the classpath.
+	 */
+	public void setCompressors(List<String> compressors) {
+		this.compressors = compressors;
+	}
+
+	/**
+	 * Registered on the client created from connectionString; also used by the detector to run its explains
+	 */
+	public void setSlowOperationDetector(SlowOperationDetector slowOperationDetector) {
+		this.slowOperationDetector = slowOperationDetector;
+	}
+
+	/**
+	 * Registered on the client created from connectionString as command and connection pool listener
+	 */
+	public void setRepositoryMetrics(MongoRepositoryMetrics repositoryMetrics) {
+		this.repositoryMetrics = repositoryMetrics;
+	}
+
+	/**
+	 * Connections per server of the client created from connectionString; threads beyond it wait for a connection
+	 */
+	public void setMaxPoolSize(Integer maxPoolSize) {
+		this.maxPoolSize = maxPoolSize;
+	}
+
+	public void setMinPoolSize(Integer minPoolSize) {
+		this.minPoolSize = minPoolSize;
+	}
+
+	/**
+	 * How long a thread waits for a connection of an exhausted pool before the checkout fails
+	 */
+	public void setMaxConnectionWaitMillis(Long maxConnectionWaitMillis) {
+		this.maxConnectionWaitMillis = maxConnectionWaitMillis;
+	}
+
+	public void setMaxConnectionIdleTimeMillis(Long maxConnectionIdleTimeMillis) {
+		this.maxConnectionIdleTimeMillis = maxConnectionIdleTimeMillis;
+	}
+
+	/**
+	 * How long an operation waits for a suitable server, e.g. during an election, before it fails
+	 */
+	public void setServerSelectionTimeoutMillis(Long serverSelectionTimeoutMillis) {
+		this.serverSelectionTimeoutMillis = serverSelectionTimeoutMillis;
+	}
+
+	/**
+	 * Latency window within which servers are considered equally near for reads
+	 */
+	public void setLocalThresholdMillis(Long localThresholdMillis) {
+		this.localThresholdMillis = localThresholdMillis;
+	}
+
+	/**
+	 * Given to the default DAOs; without one they create their indexes synchronously on start-up
+	 */
+	public void setIndexManager(MongoIndexManager indexManager) {
+		this.indexManager = indexManager;
+	}
+
+	/**
+	 * Given to the default DAOs, e.g. a {@link TimeOrderedIdGenerator}; without one ids come from Sequences
+	 */
+	public void setIdGenerator(IdGenerator idGenerator) {
+		this.idGenerator = idGenerator;
+	}
+
+	/**
+	 * Use a {@link MongoJobRepository}, which writes less when launching jobs with new parameters. Transactions are
+	 * applied to it as to the default repository.
+	 */
+	public void setFastLaunch(boolean fastLaunch) {
+		this.fastLaunch = fastLaunch;
+	}
+
+	/**
+	 * Group commit for the updates of the default {@link MongoStepExecutionDao}; the committer then writes through this
+	 * factory's MongoTemplate.
+	 */
+	public void setGroupCommitter(StepExecutionGroupCommitter groupCommitter) {
+		this.groupCommitter = groupCommitter;
+	}
+
+	/**
+	 * Progress history for the updates of the default {@link MongoStepExecutionDao}; the recorder is started with this
+	 * factory's MongoTemplate if it is not started yet.
+	 */
+	public void setProgressRecorder(StepExecutionProgressRecorder progressRecorder) {
+		this.progressRecorder = progressRecorder;
+	}
+
+	/**
+	 * Journal for the job execution, step execution and execution context updates of the default DAOs failing while
+	 * MongoDB is unreachable; the journal is started with this factory's MongoTemplate if it is not started yet.
+	 */
+	public void setWriteJournal(RepositoryWriteJournal writeJournal) {
+		this.writeJournal = writeJournal;
+	}
+
+	@Override
+	public void afterPropertiesSet() throws Exception {
+		if (mongoTemplate == null && connectionString != null) {
+			Assert.hasText(databaseName, "databaseName must be set together with connectionString.");
+			mongoClient = MongoClients.create(createMongoClientSettings());
+			if (slowOperationDetector != null) {
+				slowOperationDetector.setMongoClient(mongoClient);
+			}
+			mongoTemplate = new MongoTemplate(mongoClient, databaseName);
+		}
+		if (mongoTemplate != null) {
+			createDefaultDaos();
+		}
+		super.afterPropertiesSet();
+	}
+
+	/**
+	 * The repository of the parent, or with fastLaunch a {@link MongoJobRepository} proxied with the same advisors,
+	 * i.e. the same transaction attributes and state validation.
+	 */
+	@Override
+	public JobRepository getObject() throws Exception {
+		JobRepository repository = super.getObject();
+		if (!fastLaunch) {
+			return repository;
+		}
+		synchronized (this) {
+			if (fastLaunchRepository == null) {
+				ProxyFactory proxyFactory = new ProxyFactory(new MongoJobRepository(jobInstanceDao, jobExecutionDao,
+						stepExecutionDao, executionContextDao));
+				proxyFactory.setInterfaces(JobRepository.class);
+				for (Advisor advisor : ((Advised) repository).getAdvisors()) {
+					proxyFactory.addAdvisor(advisor);
+				}
+				fastLaunchRepository = (JobRepository) proxyFactory.getProxy(getClass().getClassLoader());
+			}
+			return fastLaunchRepository;
+		}
+	}
+
+	/**
+	 * Settings of the client created from connectionString. Override to add settings not exposed by this factory.
+	 */
+	protected MongoClientSettings createMongoClientSettings() {
+		MongoClientSettings.Builder builder = MongoClientSettings.builder()
+				.applyConnectionString(new ConnectionString(connectionString));
+		if (!compressors.isEmpty()) {
+			List<MongoCompressor> wireCompressors = new ArrayList<>();
+			for (String compressor : compressors) {
+				wireCompressors.add(createCompressor(compressor.trim()));
+			}
+			builder.compressorList(wireCompressors);
+		}
+		if (slowOperationDetector != null) {
+			builder.addCommandListener(slowOperationDetector);
+		}
+		if (repositoryMetrics != null) {
+			builder.addCommandListener(repositoryMetrics);
+		}
+		builder.applyToConnectionPoolSettings(pool -> {
+			if (maxPoolSize != null) {
+				pool.maxSize(maxPoolSize);
+			}
+			if (minPoolSize != null) {
+				pool.minSize(minPoolSize);
+			}
+			if (maxConnectionWaitMillis != null) {
+				pool.maxWaitTime(maxConnectionWaitMillis, TimeUnit.MILLISECONDS);
+			}
+			if (maxConnectionIdleTimeMillis != null) {
+				pool.maxConnectionIdleTime(maxConnectionIdleTimeMillis, TimeUnit.MILLISECONDS);
+			}
+			if (repositoryMetrics != null) {
+				pool.addConnectionPoolListener(repositoryMetrics);
+			}
+		});
+		builder.applyToClusterSettings(cluster -> {
+			if (serverSelectionTimeoutMillis != null) {
+				cluster.serverSelectionTimeout(serverSelectionTimeoutMillis, TimeUnit.MILLISECONDS);
+			}
+			if (localThresholdMillis != null) {
+				cluster.localThreshold(localThresholdMillis, TimeUnit.MILLISECONDS);
+			}
+		});
+		return builder.build();
+	}
+
+	private MongoCompressor createCompressor(String name) {
+		switch (name) {
+		case "zlib":
+			return MongoCompressor.createZlibCompressor();
+		case "snappy":
+			return MongoCompressor.createSnappyCompressor();
+		case "zstd":
+			return MongoCompressor.createZstdCompressor();
+		default:
+			throw new IllegalArgumentException("Unsupported wire compressor: " + name);
+		}
+	}
+
+	private void createDefaultDaos() {
+		if (writeJournal != null && !writeJournal.isRunning()) {
+			writeJournal.setMongoTemplate(mongoTemplate);
+			writeJournal.init();
+		}
+		if (jobInstanceDao == null) {
+			MongoJobInstanceDao dao = new MongoJobInstanceDao();
+			dao.setMongoTemplate(mongoTemplate);
+			dao.setIndexManager(indexManager);
+			dao.setIdGenerator(idGenerator);
+			dao.init();
+			jobInstanceDao = dao;
+		}
+		if (jobExecutionDao == null) {
+			MongoJobExecutionDao dao = new MongoJobExecutionDao();
+			dao.setMongoTemplate(mongoTemplate);
+			dao.setIndexManager(indexManager);
+			dao.setIdGenerator(idGenerator);
+			dao.setWriteJournal(writeJournal);
+			dao.init();
+			jobExecutionDao = dao;
+		}
+		if (stepExecutionDao == null) {
+			MongoStepExecutionDao dao = new MongoStepExecutionDao();
+			dao.setMongoTemplate(mongoTemplate);
+			dao.setIndexManager(indexManager);
+			dao.setIdGenerator(idGenerator);
+			if (groupCommitter != null) {
+				groupCommitter.setMongoTemplate(mongoTemplate);
+				dao.setGroupCommitter(groupCommitter);
+			}
+			if (progressRecorder != null) {
+				if (!progressRecorder.isRunning()) {
+					progressRecorder.setMongoTemplate(mongoTemplate);
+					progressRecorder.init();
+				}
+				dao.setProgressRecorder(progressRecorder);
+			}
+			dao.setWriteJournal(writeJournal);
+			dao.init();
+			stepExecutionDao = dao;
+		}
+		if (executionContextDao == null) {
+			MongoExecutionContextDao dao = new MongoExecutionContextDao();
+			dao.setMongoTemplate(mongoTemplate);
+			dao.setIndexManager(indexManager);
+			dao.setIdGenerator(idGenerator);
+			dao.setWriteJournal(writeJournal);
+			dao.init();
+			executionContextDao = dao;
+		}
+	}
+
+	@Override
+	public void destroy() {
+		if (mongoClient != null) {
+			mongoClient.close();
+		}
+	}
+
 	@Override
 	protected JobInstanceDao createJobInstanceDao() throws Exception {
 		return jobInstanceDao;
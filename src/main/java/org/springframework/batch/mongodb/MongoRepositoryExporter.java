@@ -0,0 +1,300 @@
+package org.springframework.batch.mongodb;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.gte;
+import static com.mongodb.client.model.Filters.lt;
+import static com.mongodb.client.model.Projections.include;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import org.bson.BsonDocument;
+import org.bson.BsonTimestamp;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.util.Assert;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Sorts;
+
+/**
+ * Dumps the job repository collections to a directory, for audits and backups without mongodump. <br/>
+ * Every collection is cut into _id ranges of about the same size that are read in parallel. Each range is written
+ * through a {@link FileChannel} to its own file as a plain sequence of BSON documents, which are length-prefixed by
+ * the BSON format itself. A {@value #MANIFEST_FILE_NAME} lists the files with their document count and CRC32.
+ * {@link MongoRepositoryImporter} loads such a directory back. <br/>
+ * With snapshot enabled all ranges are read at the same cluster time, which needs a replica set or sharded cluster.
+ * Otherwise documents written while the export runs may or may not be included.
+ */
+public class MongoRepositoryExporter {
+
+    private static final Logger      LOG                 = LoggerFactory.getLogger(MongoRepositoryExporter.class);
+
+    public static final String       MANIFEST_FILE_NAME  = "manifest.json";
+
+    /**
+     * Collections exported by default: the DAO collections, their id sequences and the GridFS bucket of spilled
+     * execution context values.
+     */
+    public static final List<String> DEFAULT_COLLECTIONS = Collections.unmodifiableList(Arrays.asList(
+            JobInstance.class.getSimpleName(), JobExecution.class.getSimpleName(),
+            StepExecution.class.getSimpleName(), ExecutionContext.class.getSimpleName(),
+            AbstractMongoDao.SEQUENCES_COLLECTION_NAME, MongoExecutionContextDao.SPILL_BUCKET_NAME + ".files",
+            MongoExecutionContextDao.SPILL_BUCKET_NAME + ".chunks"));
+
+    static final String              COLLECTIONS_KEY     = "collections";
+    static final String              NAME_KEY            = "name";
+    static final String              FILES_KEY           = "files";
+    static final String              FILE_KEY            = "file";
+    static final String              COUNT_KEY           = "count";
+    static final String              BYTES_KEY           = "bytes";
+    static final String              CRC32_KEY           = "crc32";
+    static final String              CREATED_KEY         = "created";
+    static final String              CLUSTER_TIME_KEY    = "atClusterTime";
+
+    private static final int         BUFFER_SIZE         = 1024 * 1024;
+
+    private MongoTemplate            mongoTemplate;
+
+    private List<String>             collections         = DEFAULT_COLLECTIONS;
+
+    private int                      partitions          = 4;
+
+    private boolean                  snapshot;
+
+    public void setMongoTemplate(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    public void setCollections(List<String> collections) {
+        this.collections = collections;
+    }
+
+    /**
+     * Number of _id ranges, and threads, per collection. Defaults to 4.
+     */
+    public void setPartitions(int partitions) {
+        this.partitions = partitions;
+    }
+
+    /**
+     * Read every collection at one cluster time. Defaults to false.
+     */
+    public void setSnapshot(boolean snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Exports the collections into {@code directory}, which is created if needed and must not hold an export
+     * already.
+     *
+     * @return the manifest written along with the data files
+     */
+    public Document export(Path directory) throws IOException {
+        Assert.notNull(mongoTemplate, "MongoTemplate must be set.");
+        Files.createDirectories(directory);
+        Assert.state(!Files.exists(directory.resolve(MANIFEST_FILE_NAME)), "Directory already holds an export");
+
+        BsonTimestamp atClusterTime = snapshot ? getClusterTime() : null;
+        Document manifest = new Document(CREATED_KEY, new Date()).append(CLUSTER_TIME_KEY, atClusterTime);
+        List<Document> collectionEntries = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(partitions);
+        try {
+            for (String name : collections) {
+                collectionEntries.add(exportCollection(executor, directory, name, atClusterTime));
+            }
+        } finally {
+            executor.shutdown();
+        }
+        manifest.append(COLLECTIONS_KEY, collectionEntries);
+        Files.write(directory.resolve(MANIFEST_FILE_NAME), manifest.toJson().getBytes(StandardCharsets.UTF_8));
+        return manifest;
+    }
+
+    private Document exportCollection(ExecutorService executor, Path directory, String name,
+            BsonTimestamp atClusterTime) throws IOException {
+        List<Bson> ranges = getRanges(name);
+        List<Future<Document>> futures = new ArrayList<>();
+        for (int i = 0; i < ranges.size(); i++) {
+            Path file = directory.resolve(name + "-" + i + ".bson");
+            Bson range = ranges.get(i);
+            futures.add(executor.submit(() -> exportRange(name, range, file, atClusterTime)));
+        }
+        List<Document> files = new ArrayList<>();
+        long count = 0;
+        for (Future<Document> future : futures) {
+            try {
+                Document file = future.get();
+                count += file.getLong(COUNT_KEY);
+                files.add(file);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while exporting " + name, e);
+            } catch (ExecutionException e) {
+                throw new IOException("Failed to export " + name, e.getCause());
+            }
+        }
+        LOG.info("Exported {} documents of {} in {} files", count, name, files.size());
+        return new Document(NAME_KEY, name).append(COUNT_KEY, count).append(FILES_KEY, files);
+    }
+
+    /**
+     * Cuts the collection into ranges of about equal size, with boundaries found by skipping through the _id index.
+     * A collection whose ids are not all of one BSON type is exported as one range, since range filters only match
+     * values of the bound's type.
+     */
+    private List<Bson> getRanges(String name) {
+        MongoCollection<BsonDocument> collection = getDatabase().getCollection(name, BsonDocument.class);
+        long count = collection.estimatedDocumentCount();
+        BsonDocument first = collection.find().projection(include(AbstractMongoDao.ID_KEY))
+                .sort(Sorts.ascending(AbstractMongoDao.ID_KEY)).first();
+        BsonDocument last = collection.find().projection(include(AbstractMongoDao.ID_KEY))
+                .sort(Sorts.descending(AbstractMongoDao.ID_KEY)).first();
+        if (partitions <= 1 || count < partitions || first == null || last == null
+                || first.get(AbstractMongoDao.ID_KEY).getBsonType() != last.get(AbstractMongoDao.ID_KEY).getBsonType()) {
+            return Collections.singletonList(new Document());
+        }
+
+        List<BsonValue> boundaries = new ArrayList<>();
+        for (int i = 1; i < partitions; i++) {
+            BsonDocument boundary = collection.find().projection(include(AbstractMongoDao.ID_KEY))
+                    .sort(Sorts.ascending(AbstractMongoDao.ID_KEY)).skip((int) (count * i / partitions)).first();
+            if (boundary != null && (boundaries.isEmpty()
+                    || !boundaries.get(boundaries.size() - 1).equals(boundary.get(AbstractMongoDao.ID_KEY)))) {
+                boundaries.add(boundary.get(AbstractMongoDao.ID_KEY));
+            }
+        }
+        List<Bson> ranges = new ArrayList<>();
+        BsonValue lower = null;
+        for (BsonValue upper : boundaries) {
+            ranges.add(lower == null ? lt(AbstractMongoDao.ID_KEY, upper)
+                    : and(gte(AbstractMongoDao.ID_KEY, lower), lt(AbstractMongoDao.ID_KEY, upper)));
+            lower = upper;
+        }
+        ranges.add(lower == null ? new Document() : gte(AbstractMongoDao.ID_KEY, lower));
+        return ranges;
+    }
+
+    private Document exportRange(String name, Bson range, Path file, BsonTimestamp atClusterTime)
+            throws IOException {
+        CRC32 crc = new CRC32();
+        long[] totals = new long[2];
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            IOException[] failure = new IOException[1];
+            read(name, range, atClusterTime, document -> {
+                if (failure[0] != null) {
+                    return;
+                }
+                ByteBuffer bytes = document.getByteBuffer().asNIO();
+                totals[0]++;
+                totals[1] += bytes.remaining();
+                crc.update(bytes.duplicate());
+                try {
+                    if (bytes.remaining() > buffer.remaining()) {
+                        flush(channel, buffer);
+                    }
+                    if (bytes.remaining() > buffer.capacity()) {
+                        writeFully(channel, bytes);
+                    } else {
+                        buffer.put(bytes);
+                    }
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            });
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+            flush(channel, buffer);
+            channel.force(true);
+        }
+        return new Document(FILE_KEY, file.getFileName().toString()).append(COUNT_KEY, totals[0])
+                .append(BYTES_KEY, totals[1]).append(CRC32_KEY, crc.getValue());
+    }
+
+    /**
+     * Streams the documents of a range as raw BSON, without decoding them.
+     */
+    private void read(String name, Bson range, BsonTimestamp atClusterTime, Consumer<RawBsonDocument> consumer) {
+        if (atClusterTime == null) {
+            try (MongoCursor<RawBsonDocument> cursor = getDatabase().getCollection(name, RawBsonDocument.class)
+                    .find(range).iterator()) {
+                cursor.forEachRemaining(consumer);
+            }
+            return;
+        }
+        BsonDocument filter = range.toBsonDocument(BsonDocument.class, mongoTemplate.getDb().getCodecRegistry());
+        RawBsonDocument response = getDatabase().runCommand(new Document("find", name).append("filter", filter)
+                .append("readConcern", new Document("level", "snapshot").append("atClusterTime", atClusterTime)),
+                RawBsonDocument.class);
+        BsonDocument cursor = response.getDocument("cursor");
+        readBatch(cursor.getArray("firstBatch").getValues(), consumer);
+        long cursorId = cursor.getInt64("id").getValue();
+        while (cursorId != 0) {
+            response = getDatabase().runCommand(new Document("getMore", cursorId).append("collection", name),
+                    RawBsonDocument.class);
+            cursor = response.getDocument("cursor");
+            readBatch(cursor.getArray("nextBatch").getValues(), consumer);
+            cursorId = cursor.getInt64("id").getValue();
+        }
+    }
+
+    private void readBatch(List<BsonValue> batch, Consumer<RawBsonDocument> consumer) {
+        for (BsonValue value : batch) {
+            // nested documents of a raw response are raw documents over the same bytes
+            consumer.accept((RawBsonDocument) value.asDocument());
+        }
+    }
+
+    private BsonTimestamp getClusterTime() {
+        Document response = getDatabase().runCommand(new Document("ping", 1));
+        Object operationTime = response.get("operationTime");
+        Assert.state(operationTime instanceof BsonTimestamp,
+                "Snapshot exports need a replica set or sharded cluster");
+        return (BsonTimestamp) operationTime;
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        writeFully(channel, buffer);
+        buffer.clear();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+
+    private MongoDatabase getDatabase() {
+        return mongoTemplate.getDb();
+    }
+}
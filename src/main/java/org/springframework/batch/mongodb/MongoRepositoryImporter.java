@@ -0,0 +1,263 @@
+package org.springframework.batch.mongodb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.util.Assert;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.InsertManyOptions;
+
+/**
+ * Loads a directory written by {@link MongoRepositoryExporter} into an empty database. <br/>
+ * All checksums are verified before the first insert, so a damaged export leaves the target untouched. The files are
+ * then inserted in parallel as unordered batches of raw BSON, without decoding the documents. Files can be read
+ * through memory mappings instead of channel reads. Indexes are not part of the export; the DAOs create them on
+ * start-up.
+ */
+public class MongoRepositoryImporter {
+
+    private static final Logger LOG         = LoggerFactory.getLogger(MongoRepositoryImporter.class);
+
+    private static final int    BUFFER_SIZE = 1024 * 1024;
+
+    private MongoTemplate       mongoTemplate;
+
+    private int                 threads     = 4;
+
+    private int                 batchSize   = 1000;
+
+    private boolean             memoryMapped;
+
+    public void setMongoTemplate(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * Number of files loaded at the same time. Defaults to 4.
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Documents per insert. Defaults to 1000.
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Read files through memory mappings. Defaults to false.
+     */
+    public void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+    }
+
+    /**
+     * Imports the export in {@code directory}.
+     *
+     * @return number of documents inserted per collection
+     * @throws IllegalStateException if a target collection is not empty or a file does not match its checksum
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, Long> importFrom(Path directory) throws IOException {
+        Assert.notNull(mongoTemplate, "MongoTemplate must be set.");
+        Document manifest = Document.parse(new String(
+                Files.readAllBytes(directory.resolve(MongoRepositoryExporter.MANIFEST_FILE_NAME)),
+                StandardCharsets.UTF_8));
+        List<Document> collections = (List<Document>) manifest.get(MongoRepositoryExporter.COLLECTIONS_KEY);
+
+        for (Document collection : collections) {
+            String name = collection.getString(MongoRepositoryExporter.NAME_KEY);
+            Assert.state(mongoTemplate.getDb().getCollection(name).estimatedDocumentCount() == 0,
+                    "Collection " + name + " is not empty, import needs an empty database");
+        }
+        for (Document collection : collections) {
+            for (Document file : (List<Document>) collection.get(MongoRepositoryExporter.FILES_KEY)) {
+                verify(directory, file);
+            }
+        }
+
+        Map<String, Long> counts = new LinkedHashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            Map<String, List<Future<Long>>> futures = new LinkedHashMap<>();
+            for (Document collection : collections) {
+                String name = collection.getString(MongoRepositoryExporter.NAME_KEY);
+                List<Future<Long>> collectionFutures = new ArrayList<>();
+                for (Document file : (List<Document>) collection.get(MongoRepositoryExporter.FILES_KEY)) {
+                    Path path = directory.resolve(file.getString(MongoRepositoryExporter.FILE_KEY));
+                    collectionFutures.add(executor.submit(() -> load(name, path)));
+                }
+                futures.put(name, collectionFutures);
+            }
+            for (Map.Entry<String, List<Future<Long>>> entry : futures.entrySet()) {
+                long count = 0;
+                for (Future<Long> future : entry.getValue()) {
+                    count += get(future, entry.getKey());
+                }
+                counts.put(entry.getKey(), count);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        LOG.info("Imported {}", counts);
+        return counts;
+    }
+
+    private void verify(Path directory, Document file) throws IOException {
+        Path path = directory.resolve(file.getString(MongoRepositoryExporter.FILE_KEY));
+        CRC32 crc = new CRC32();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (memoryMapped && channel.size() <= Integer.MAX_VALUE) {
+                crc.update(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            } else {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+                while (channel.read(buffer) > 0) {
+                    buffer.flip();
+                    crc.update(buffer);
+                    buffer.clear();
+                }
+            }
+        }
+        long expected = ((Number) file.get(MongoRepositoryExporter.CRC32_KEY)).longValue();
+        Assert.state(crc.getValue() == expected, "Checksum mismatch in " + path + ", the export is damaged");
+    }
+
+    private long load(String name, Path path) throws IOException {
+        MongoCollection<RawBsonDocument> collection = mongoTemplate.getDb().getCollection(name,
+                RawBsonDocument.class);
+        List<RawBsonDocument> batch = new ArrayList<>(batchSize);
+        long count = 0;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            DocumentReader reader = memoryMapped && channel.size() <= Integer.MAX_VALUE
+                    ? new MappedDocumentReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()))
+                    : new ChannelDocumentReader(channel);
+            RawBsonDocument document;
+            while ((document = reader.next()) != null) {
+                batch.add(document);
+                if (batch.size() >= batchSize) {
+                    count += insert(collection, batch);
+                }
+            }
+        }
+        return count + insert(collection, batch);
+    }
+
+    private long insert(MongoCollection<RawBsonDocument> collection, List<RawBsonDocument> batch) {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        collection.insertMany(batch, new InsertManyOptions().ordered(false));
+        long count = batch.size();
+        batch.clear();
+        return count;
+    }
+
+    private long get(Future<Long> future, String name) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while importing " + name, e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to import " + name, e.getCause());
+        }
+    }
+
+    private interface DocumentReader {
+        /**
+         * @return the next document, or null at the end of the file
+         */
+        RawBsonDocument next() throws IOException;
+    }
+
+    private static class MappedDocumentReader implements DocumentReader {
+
+        private final MappedByteBuffer buffer;
+
+        MappedDocumentReader(MappedByteBuffer buffer) {
+            this.buffer = buffer;
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        @Override
+        public RawBsonDocument next() {
+            if (!buffer.hasRemaining()) {
+                return null;
+            }
+            byte[] bytes = new byte[buffer.getInt(buffer.position())];
+            buffer.get(bytes);
+            return new RawBsonDocument(bytes);
+        }
+    }
+
+    private static class ChannelDocumentReader implements DocumentReader {
+
+        private final FileChannel channel;
+
+        private final ByteBuffer  buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        ChannelDocumentReader(FileChannel channel) {
+            this.channel = channel;
+            buffer.limit(0);
+        }
+
+        @Override
+        public RawBsonDocument next() throws IOException {
+            if (!fill(4)) {
+                return null;
+            }
+            byte[] bytes = new byte[buffer.getInt(buffer.position())];
+            int read = 0;
+            while (read < bytes.length) {
+                if (!buffer.hasRemaining() && !fill(1)) {
+                    throw new IOException("Truncated document at end of file");
+                }
+                int chunk = Math.min(buffer.remaining(), bytes.length - read);
+                buffer.get(bytes, read, chunk);
+                read += chunk;
+            }
+            return new RawBsonDocument(bytes);
+        }
+
+        /**
+         * Makes at least {@code needed} bytes available in the buffer unless the file ends first.
+         */
+        private boolean fill(int needed) throws IOException {
+            if (buffer.remaining() >= needed) {
+                return true;
+            }
+            buffer.compact();
+            while (buffer.position() < needed) {
+                if (channel.read(buffer) < 0) {
+                    break;
+                }
+            }
+            buffer.flip();
+            return buffer.remaining() >= needed;
+        }
+    }
+}
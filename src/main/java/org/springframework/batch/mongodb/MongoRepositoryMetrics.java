@@ -0,0 +1,353 @@
+package org.springframework.batch.mongodb;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import com.mongodb.event.ConnectionCheckOutFailedEvent;
+import com.mongodb.event.ConnectionCheckOutStartedEvent;
+import com.mongodb.event.ConnectionCheckedInEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionClosedEvent;
+import com.mongodb.event.ConnectionCreatedEvent;
+import com.mongodb.event.ConnectionPoolListener;
+
+/**
+ * Connection pool and command metrics of the client used by the repository, with every command and connection
+ * checkout attributed to the DAO method that issued it. <br/>
+ * Register it with {@link MongoJobRepositoryFactoryBean#setRepositoryMetrics(MongoRepositoryMetrics)}, or add it as
+ * command and connection pool listener to the settings of your own client. The sync driver checks out the connection
+ * and notifies listeners on the calling thread, so a checkout wait is charged to the command that follows it on the
+ * same thread. Counters are LongAdders, cheap to update from many threads; read them through
+ * {@link #getPoolStatistics()} and {@link #getCommandStatistics()}.
+ */
+public class MongoRepositoryMetrics implements CommandListener, ConnectionPoolListener {
+
+    private final AtomicInteger                       poolSize         = new AtomicInteger();
+
+    private final AtomicInteger                       inUse            = new AtomicInteger();
+
+    private final AtomicInteger                       waiting          = new AtomicInteger();
+
+    private final LongAdder                           checkouts        = new LongAdder();
+
+    private final LongAdder                           checkoutFailures = new LongAdder();
+
+    private final LongAdder                           checkoutWait     = new LongAdder();
+
+    private final LongAccumulator                     maxCheckoutWait  = new LongAccumulator(Math::max, 0);
+
+    private final ConcurrentMap<String, CommandStats> commands         = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<Integer, InFlight>    inFlight         = new ConcurrentHashMap<>();
+
+    /** Start of the checkout in progress on this thread, then its wait until the next command. */
+    private final ThreadLocal<long[]>                 checkout         = ThreadLocal.withInitial(() -> new long[2]);
+
+    private boolean                                   callSites        = true;
+
+    /**
+     * Whether commands are attributed to the DAO method issuing them, which walks the stack once per command.
+     * Defaults to true; without it commands are only told apart by name.
+     */
+    public void setCallSites(boolean callSites) {
+        this.callSites = callSites;
+    }
+
+    public PoolStatistics getPoolStatistics() {
+        long count = checkouts.sum();
+        return new PoolStatistics(poolSize.get(), inUse.get(), waiting.get(), count, checkoutFailures.sum(),
+                count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(checkoutWait.sum() / count),
+                TimeUnit.NANOSECONDS.toMicros(maxCheckoutWait.get()));
+    }
+
+    /**
+     * @return statistics per DAO method and command, highest total time first
+     */
+    public List<CommandStatistics> getCommandStatistics() {
+        List<CommandStatistics> statistics = new ArrayList<>();
+        for (CommandStats stats : commands.values()) {
+            statistics.add(stats.snapshot());
+        }
+        statistics.sort(Comparator.comparingLong(CommandStatistics::getTotalMicros).reversed());
+        return statistics;
+    }
+
+    @Override
+    public void connectionCreated(ConnectionCreatedEvent event) {
+        poolSize.incrementAndGet();
+    }
+
+    @Override
+    public void connectionClosed(ConnectionClosedEvent event) {
+        poolSize.decrementAndGet();
+    }
+
+    @Override
+    public void connectionCheckOutStarted(ConnectionCheckOutStartedEvent event) {
+        waiting.incrementAndGet();
+        checkout.get()[0] = System.nanoTime();
+    }
+
+    @Override
+    public void connectionCheckedOut(ConnectionCheckedOutEvent event) {
+        waiting.decrementAndGet();
+        inUse.incrementAndGet();
+        checkouts.increment();
+        long[] current = checkout.get();
+        long wait = System.nanoTime() - current[0];
+        current[1] = wait;
+        checkoutWait.add(wait);
+        maxCheckoutWait.accumulate(wait);
+    }
+
+    @Override
+    public void connectionCheckOutFailed(ConnectionCheckOutFailedEvent event) {
+        waiting.decrementAndGet();
+        checkoutFailures.increment();
+        long wait = System.nanoTime() - checkout.get()[0];
+        checkoutWait.add(wait);
+        maxCheckoutWait.accumulate(wait);
+    }
+
+    @Override
+    public void connectionCheckedIn(ConnectionCheckedInEvent event) {
+        inUse.decrementAndGet();
+    }
+
+    @Override
+    public void commandStarted(CommandStartedEvent event) {
+        String daoMethod = callSites ? RepositoryCallSite.current() : RepositoryCallSite.UNKNOWN;
+        String key = daoMethod + " " + event.getCommandName();
+        CommandStats stats = commands.computeIfAbsent(key, k -> new CommandStats(daoMethod, event.getCommandName()));
+        long[] current = checkout.get();
+        stats.checkoutWait.add(current[1]);
+        current[1] = 0;
+        inFlight.put(event.getRequestId(), new InFlight(stats));
+    }
+
+    @Override
+    public void commandSucceeded(CommandSucceededEvent event) {
+        InFlight command = inFlight.remove(event.getRequestId());
+        if (command != null) {
+            command.stats.record(event.getElapsedTime(TimeUnit.NANOSECONDS), false);
+        }
+    }
+
+    @Override
+    public void commandFailed(CommandFailedEvent event) {
+        InFlight command = inFlight.remove(event.getRequestId());
+        if (command != null) {
+            command.stats.record(event.getElapsedTime(TimeUnit.NANOSECONDS), true);
+        }
+    }
+
+    private static class InFlight {
+
+        private final CommandStats stats;
+
+        InFlight(CommandStats stats) {
+            this.stats = stats;
+        }
+    }
+
+    private static class CommandStats {
+
+        private final String          daoMethod;
+
+        private final String          commandName;
+
+        private final LongAdder       count        = new LongAdder();
+
+        private final LongAdder       failures     = new LongAdder();
+
+        private final LongAdder       total        = new LongAdder();
+
+        private final LongAdder       checkoutWait = new LongAdder();
+
+        private final LongAccumulator max          = new LongAccumulator(Math::max, 0);
+
+        CommandStats(String daoMethod, String commandName) {
+            this.daoMethod = daoMethod;
+            this.commandName = commandName;
+        }
+
+        void record(long nanos, boolean failed) {
+            count.increment();
+            total.add(nanos);
+            max.accumulate(nanos);
+            if (failed) {
+                failures.increment();
+            }
+        }
+
+        CommandStatistics snapshot() {
+            return new CommandStatistics(daoMethod, commandName, count.sum(), failures.sum(),
+                    TimeUnit.NANOSECONDS.toMicros(total.sum()), TimeUnit.NANOSECONDS.toMicros(max.get()),
+                    TimeUnit.NANOSECONDS.toMicros(checkoutWait.sum()));
+        }
+    }
+
+    /**
+     * State of the connection pool, summed over the servers of the client.
+     */
+    public static class PoolStatistics {
+
+        private final int  size;
+
+        private final int  inUse;
+
+        private final int  waiting;
+
+        private final long checkouts;
+
+        private final long checkoutFailures;
+
+        private final long averageCheckoutWaitMicros;
+
+        private final long maxCheckoutWaitMicros;
+
+        PoolStatistics(int size, int inUse, int waiting, long checkouts, long checkoutFailures,
+                long averageCheckoutWaitMicros, long maxCheckoutWaitMicros) {
+            this.size = size;
+            this.inUse = inUse;
+            this.waiting = waiting;
+            this.checkouts = checkouts;
+            this.checkoutFailures = checkoutFailures;
+            this.averageCheckoutWaitMicros = averageCheckoutWaitMicros;
+            this.maxCheckoutWaitMicros = maxCheckoutWaitMicros;
+        }
+
+        /**
+         * Open connections.
+         */
+        public int getSize() {
+            return size;
+        }
+
+        /**
+         * Connections checked out.
+         */
+        public int getInUse() {
+            return inUse;
+        }
+
+        /**
+         * Threads waiting for a connection.
+         */
+        public int getWaiting() {
+            return waiting;
+        }
+
+        public long getCheckouts() {
+            return checkouts;
+        }
+
+        /**
+         * Checkouts that failed, e.g. timed out waiting on an exhausted pool.
+         */
+        public long getCheckoutFailures() {
+            return checkoutFailures;
+        }
+
+        public long getAverageCheckoutWaitMicros() {
+            return averageCheckoutWaitMicros;
+        }
+
+        public long getMaxCheckoutWaitMicros() {
+            return maxCheckoutWaitMicros;
+        }
+
+        @Override
+        public String toString() {
+            return "size=" + size + ", inUse=" + inUse + ", waiting=" + waiting + ", checkouts=" + checkouts
+                    + ", checkoutFailures=" + checkoutFailures + ", averageCheckoutWait=" + averageCheckoutWaitMicros
+                    + "us, maxCheckoutWait=" + maxCheckoutWaitMicros + "us";
+        }
+    }
+
+    /**
+     * Latency of one command issued by one DAO method.
+     */
+    public static class CommandStatistics {
+
+        private final String daoMethod;
+
+        private final String commandName;
+
+        private final long   count;
+
+        private final long   failures;
+
+        private final long   totalMicros;
+
+        private final long   maxMicros;
+
+        private final long   checkoutWaitMicros;
+
+        CommandStatistics(String daoMethod, String commandName, long count, long failures, long totalMicros,
+                long maxMicros, long checkoutWaitMicros) {
+            this.daoMethod = daoMethod;
+            this.commandName = commandName;
+            this.count = count;
+            this.failures = failures;
+            this.totalMicros = totalMicros;
+            this.maxMicros = maxMicros;
+            this.checkoutWaitMicros = checkoutWaitMicros;
+        }
+
+        /**
+         * @return "SimpleClassName.method" of the repository code that issued the command, or "unknown"
+         */
+        public String getDaoMethod() {
+            return daoMethod;
+        }
+
+        public String getCommandName() {
+            return commandName;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getFailures() {
+            return failures;
+        }
+
+        public long getTotalMicros() {
+            return totalMicros;
+        }
+
+        public long getAverageMicros() {
+            return count == 0 ? 0 : totalMicros / count;
+        }
+
+        public long getMaxMicros() {
+            return maxMicros;
+        }
+
+        /**
+         * Time spent waiting for a connection before these commands, not included in their latency.
+         */
+        public long getCheckoutWaitMicros() {
+            return checkoutWaitMicros;
+        }
+
+        @Override
+        public String toString() {
+            return daoMethod + " " + commandName + ": count=" + count + ", failures=" + failures + ", average="
+                    + getAverageMicros() + "us, max=" + maxMicros + "us, checkoutWait=" + checkoutWaitMicros + "us";
+        }
+    }
+}
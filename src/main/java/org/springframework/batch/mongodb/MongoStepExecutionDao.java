@@ -1,16 +1,30 @@
 package org.springframework.batch.mongodb;
 
+import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.exists;
+import static com.mongodb.client.model.Filters.gt;
 import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Filters.or;
+import static com.mongodb.client.model.Projections.include;
 import static com.mongodb.client.model.Updates.combine;
+import static com.mongodb.client.model.Updates.inc;
+import static com.mongodb.client.model.Updates.max;
 import static com.mongodb.client.model.Updates.set;
+import static com.mongodb.client.model.Updates.unset;
 import static org.springframework.util.Assert.notNull;
 
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -24,19 +38,23 @@ import org.springframework.batch.core.BatchStatus;
 import org.springframework.batch.core.ExitStatus;
 import org.springframework.batch.core.JobExecution;
 import org.springframework.batch.core.JobInstance;
-import org.springframework.batch.core.JobParameters;
 import org.springframework.batch.core.StepExecution;
 import org.springframework.batch.core.repository.dao.StepExecutionDao;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.util.Assert;
 
 import com.mongodb.BasicDBObject;
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoCursor;
-import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.UpdateOneModel;
 import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
 import com.mongodb.client.result.UpdateResult;
 
 /**
@@ -51,19 +69,83 @@ public class MongoStepExecutionDao extends AbstractMongoDao implements StepExecu
 
     private static final Logger LOG = LoggerFactory.getLogger(MongoStepExecutionDao.class);
 
+    private static final List<String> COUNTER_KEYS = Arrays.asList(COMMIT_COUNT_KEY, READ_COUNT_KEY,
+            FILTER_COUNT_KEY, WRITE_COUNT_KEY, READ_SKIP_COUNT_KEY, WRITE_SKIP_COUNT_KEY, PROCESS_SKIP_COUNT_KEY,
+            ROLLBACK_COUNT_KEY);
+
     private MongoTemplate       mongoTemplate;
 
+    private boolean             incrementalCounters;
+
+    private StepExecutionGroupCommitter groupCommitter;
+
+    private StepExecutionProgressRecorder progressRecorder;
+
+    private RepositoryWriteJournal writeJournal;
+
+    /**
+     * Last written or read state of each StepExecution object of running step executions, by step execution id, for
+     * incremental counter updates
+     */
+    private final Map<Long, List<Flushed>> flushed = new HashMap<>();
+
+    /** StepExecution objects collected while their state was kept in flushed */
+    private final ReferenceQueue<StepExecution> collected = new ReferenceQueue<>();
+
     public void setMongoTemplate(MongoTemplate mongoTemplate) {
         this.mongoTemplate = mongoTemplate;
     }
 
+    /**
+     * Send counter changes as $inc deltas since the last update or read of the same StepExecution object through this
+     * DAO, so concurrent writers of a step do not overwrite each other's counts. Updates changing only counters and
+     * lastUpdated skip the version check and keep the version; any other change (status, exit status, times) is still
+     * a version checked update failing with an OptimisticLockingFailureException. Objects this DAO did not save,
+     * read or update are written with absolute counters. The state of an object is dropped when its step execution
+     * ends or the object is garbage collected. Defaults to false.
+     */
+    public void setIncrementalCounters(boolean incrementalCounters) {
+        this.incrementalCounters = incrementalCounters;
+    }
+
+    /**
+     * Send updates through a group committer, so updates of many threads (e.g. of a partitioned step) share bulk
+     * writes. Updates made inside a transaction bound to this template's database factory are written directly, as
+     * the committer's thread does not take part in the transaction. Not used with incrementalCounters.
+     */
+    public void setGroupCommitter(StepExecutionGroupCommitter groupCommitter) {
+        this.groupCommitter = groupCommitter;
+    }
+
+    /**
+     * Record a progress sample of each updated step execution, e.g. to look at throughput curves afterwards.
+     */
+    public void setProgressRecorder(StepExecutionProgressRecorder progressRecorder) {
+        this.progressRecorder = progressRecorder;
+    }
+
+    /**
+     * Journal updates failing while MongoDB is unreachable, and replay them once it is back, so running steps survive
+     * a failover. Incremental and group committed updates are not journaled.
+     */
+    public void setWriteJournal(RepositoryWriteJournal writeJournal) {
+        this.writeJournal = writeJournal;
+    }
+
     @PostConstruct
     public void init() {
-        // db.StepExecution.createIndex( {jobExecutionId : 1});
-        getCollection().createIndex(new BasicDBObject(JOB_EXECUTION_ID_KEY, 1L));
-        getCollection().createIndex(new Document(STEP_EXECUTION_ID_KEY, 1).append(JOB_EXECUTION_ID_KEY, 1),
-                new IndexOptions());
+        ensureIndexes(mongoTemplate);
+    }
 
+    @Override
+    public List<IndexModel> getIndexes() {
+        // db.StepExecution.createIndex( {jobExecutionId : 1, stepExecutionId : 1}); steps of an execution
+        return Arrays.asList(new IndexModel(new Document(JOB_EXECUTION_ID_KEY, 1).append(STEP_EXECUTION_ID_KEY, 1)),
+                // db.StepExecution.createIndex( {jobExecutionId : 1, stepName : 1, startTime : -1,
+                // stepExecutionId : -1}); counts and last execution of a step, merge sorted across executions
+                new IndexModel(new Document(JOB_EXECUTION_ID_KEY, 1).append(STEP_NAME_KEY, 1)
+                        .append(START_TIME_KEY, -1).append(STEP_EXECUTION_ID_KEY, -1)),
+                new IndexModel(new Document(STEP_EXECUTION_ID_KEY, 1).append(JOB_EXECUTION_ID_KEY, 1)));
     }
 
     public void saveStepExecution(StepExecution stepExecution) {
@@ -81,7 +163,7 @@ public class MongoStepExecutionDao extends AbstractMongoDao implements StepExecu
         UpdateResult result = getCollection().updateOne(eq(STEP_EXECUTION_ID_KEY, stepExecution.getId()), object,
                 new UpdateOptions().upsert(true));
         LOG.debug("Saved Step Execution: " + result.getMatchedCount() + " - " + result.getModifiedCount());
-
+        remember(stepExecution);
     }
 
     private Bson toDbObjectWithoutVersion(StepExecution stepExecution) {
@@ -91,45 +173,222 @@ public class MongoStepExecutionDao extends AbstractMongoDao implements StepExecu
                 set(START_TIME_KEY, stepExecution.getStartTime()), set(END_TIME_KEY, stepExecution.getEndTime()),
                 set(STATUS_KEY, stepExecution.getStatus().toString()),
                 set(COMMIT_COUNT_KEY, stepExecution.getCommitCount()),
-                set(READ_COUNT_KEY, stepExecution.getReadCount()), set(FILTER_COUT_KEY, stepExecution.getFilterCount()),
+                set(READ_COUNT_KEY, stepExecution.getReadCount()),
+                set(FILTER_COUNT_KEY, stepExecution.getFilterCount()),
                 set(WRITE_COUNT_KEY, stepExecution.getWriteCount()),
                 set(EXIT_CODE_KEY, stepExecution.getExitStatus().getExitCode()),
                 set(EXIT_MESSAGE_KEY, stepExecution.getExitStatus().getExitDescription()),
                 set(READ_SKIP_COUNT_KEY, stepExecution.getReadSkipCount()),
                 set(WRITE_SKIP_COUNT_KEY, stepExecution.getWriteSkipCount()),
-                set(PROCESS_SKIP_COUT_KEY, stepExecution.getProcessSkipCount()),
+                set(PROCESS_SKIP_COUNT_KEY, stepExecution.getProcessSkipCount()),
                 set(ROLLBACK_COUNT_KEY, stepExecution.getRollbackCount()),
-                set(LAST_UPDATED_KEY, stepExecution.getLastUpdated()));
+                set(LAST_UPDATED_KEY, stepExecution.getLastUpdated()), unsetLegacyCounters(""));
     }
 
-    public synchronized void updateStepExecution(StepExecution stepExecution) {
+    /**
+     * Current and former names of the renamed counters.
+     */
+    private static final String[][] LEGACY_COUNTER_KEYS = {
+            { FILTER_COUNT_KEY, LEGACY_FILTER_COUNT_KEY }, { PROCESS_SKIP_COUNT_KEY, LEGACY_PROCESS_SKIP_COUNT_KEY } };
+
+    /**
+     * Removes the counters stored under their former names, for updates writing all counters.
+     */
+    static Bson unsetLegacyCounters(String prefix) {
+        return combine(unset(prefix + LEGACY_FILTER_COUNT_KEY), unset(prefix + LEGACY_PROCESS_SKIP_COUNT_KEY));
+    }
+
+    /**
+     * Counter stored under its current name, or its former one for documents written before the rename. When a node
+     * not upgraded yet writes the former name on a document holding both, the current name still wins: each write of
+     * that node sets the counters whole, so it cannot be told apart from a stale leftover.
+     */
+    private static Integer getCounter(Document object, String key, String legacyKey) {
+        Integer value = (Integer) object.get(key);
+        return value != null ? value : (Integer) object.get(legacyKey);
+    }
+
+    /**
+     * Document form of a step execution without its version, as stored in the StepExecution collection or embedded
+     * in a JobExecution by {@link MongoEmbeddedStepExecutionDao}.
+     */
+    static Document toDocumentWithoutVersion(StepExecution stepExecution) {
+        return new Document(STEP_EXECUTION_ID_KEY, stepExecution.getId())
+                .append(STEP_NAME_KEY, stepExecution.getStepName())
+                .append(JOB_EXECUTION_ID_KEY, stepExecution.getJobExecutionId())
+                .append(START_TIME_KEY, stepExecution.getStartTime()).append(END_TIME_KEY, stepExecution.getEndTime())
+                .append(STATUS_KEY, stepExecution.getStatus().toString())
+                .append(COMMIT_COUNT_KEY, stepExecution.getCommitCount())
+                .append(READ_COUNT_KEY, stepExecution.getReadCount())
+                .append(FILTER_COUNT_KEY, stepExecution.getFilterCount())
+                .append(WRITE_COUNT_KEY, stepExecution.getWriteCount())
+                .append(EXIT_CODE_KEY, stepExecution.getExitStatus().getExitCode())
+                .append(EXIT_MESSAGE_KEY, stepExecution.getExitStatus().getExitDescription())
+                .append(READ_SKIP_COUNT_KEY, stepExecution.getReadSkipCount())
+                .append(WRITE_SKIP_COUNT_KEY, stepExecution.getWriteSkipCount())
+                .append(PROCESS_SKIP_COUNT_KEY, stepExecution.getProcessSkipCount())
+                .append(ROLLBACK_COUNT_KEY, stepExecution.getRollbackCount())
+                .append(LAST_UPDATED_KEY, stepExecution.getLastUpdated());
+    }
+
+    public void updateStepExecution(StepExecution stepExecution) {
+        if (incrementalCounters) {
+            updateIncrementally(stepExecution);
+        } else if (groupCommitter != null
+                && !TransactionSynchronizationManager.hasResource(mongoTemplate.getMongoDatabaseFactory())) {
+            Integer currentVersion = stepExecution.getVersion();
+            groupCommitter.update(stepExecution.getId(), currentVersion,
+                    combine(toDbObjectWithoutVersion(stepExecution), set(VERSION_KEY, currentVersion + 1)));
+            stepExecution.incrementVersion();
+        } else {
+            updateDirectly(stepExecution);
+        }
+        if (progressRecorder != null) {
+            progressRecorder.record(stepExecution);
+        }
+    }
+
+    private synchronized void updateDirectly(StepExecution stepExecution) {
         // Attempt to prevent concurrent modification errors by blocking here if
         // someone is already trying to do it.
         Integer currentVersion = stepExecution.getVersion();
         Integer newVersion = currentVersion + 1;
         Bson object = toDbObjectWithoutVersion(stepExecution);
         object = combine(object, set(VERSION_KEY, newVersion));
-        getCollection().updateOne(
-                combine(eq(STEP_EXECUTION_ID_KEY, stepExecution.getId()), eq(VERSION_KEY, currentVersion)), object,
-                new UpdateOptions().upsert(true));
-
+        Bson filter = combine(eq(STEP_EXECUTION_ID_KEY, stepExecution.getId()), eq(VERSION_KEY, currentVersion));
+        boolean matched;
+        if (writeJournal != null) {
+            matched = writeJournal.updateOne(getCollection(), eq(STEP_EXECUTION_ID_KEY, stepExecution.getId()),
+                    VERSION_KEY, currentVersion, object);
+        } else {
+            matched = getCollection().updateOne(filter, object).getMatchedCount() > 0;
+        }
         // Avoid concurrent modifications...
-//        DBObject lastError = mongoTemplate.getDb().getLastError();
-//        if (!((Boolean) lastError.get(UPDATED_EXISTING_STATUS))) {
-//            LOG.error("Update returned status {}", lastError);
-//            DBObject existingStepExecution = getCollection().findOne(stepExecutionIdObj(stepExecution.getId()), new BasicDBObject(VERSION_KEY, 1));
-//            if (existingStepExecution == null) {
-//                throw new IllegalArgumentException("Can't update this stepExecution, it was never saved.");
-//            }
-//            Integer curentVersion = ((Integer) existingStepExecution.get(VERSION_KEY));
-//            throw new OptimisticLockingFailureException("Attempt to update job execution id="
-//                    + stepExecution.getId() + " with wrong version (" + currentVersion
-//                    + "), where current version is " + curentVersion);
-//        }
+        if (!matched) {
+            throw versionConflict(stepExecution.getId(), currentVersion);
+        }
 
         stepExecution.incrementVersion();
     }
 
+    /**
+     * Why an update of the step execution at the given version matched nothing.
+     */
+    private RuntimeException versionConflict(Long id, Integer version) {
+        Document existing = getCollection().find(eq(STEP_EXECUTION_ID_KEY, id)).projection(include(VERSION_KEY))
+                .first();
+        if (existing == null) {
+            return new IllegalArgumentException("Can't update this stepExecution, it was never saved.");
+        }
+        return new OptimisticLockingFailureException("Attempt to update step execution id=" + id
+                + " with wrong version (" + version + "), where current version is " + existing.get(VERSION_KEY));
+    }
+
+    private synchronized void updateIncrementally(StepExecution stepExecution) {
+        Long id = stepExecution.getId();
+        Document current = toDocumentWithoutVersion(stepExecution);
+        Document previous = baseline(stepExecution);
+
+        boolean transition = previous == null;
+        List<Bson> updates = new ArrayList<>();
+        for (Map.Entry<String, Object> field : current.entrySet()) {
+            String key = field.getKey();
+            Object value = field.getValue();
+            if (previous != null && COUNTER_KEYS.contains(key)) {
+                int delta = (Integer) value - previous.getInteger(key);
+                if (delta != 0) {
+                    updates.add(inc(key, delta));
+                }
+            } else if (LAST_UPDATED_KEY.equals(key)) {
+                if (value != null) {
+                    updates.add(max(key, value));
+                }
+            } else if (previous == null || !Objects.equals(value, previous.get(key))) {
+                transition = true;
+                updates.add(set(key, value));
+            }
+        }
+
+        if (previous == null) {
+            // counters are written whole, so the old names must go
+            updates.add(unsetLegacyCounters(""));
+        }
+        if (transition) {
+            Integer currentVersion = stepExecution.getVersion();
+            updates.add(set(VERSION_KEY, currentVersion + 1));
+            UpdateResult result = getCollection().updateOne(
+                    and(eq(STEP_EXECUTION_ID_KEY, id), eq(VERSION_KEY, currentVersion)), combine(updates));
+            if (result.getMatchedCount() == 0) {
+                forget(stepExecution);
+                throw versionConflict(id, currentVersion);
+            }
+            stepExecution.incrementVersion();
+        } else if (!updates.isEmpty()) {
+            UpdateResult result = getCollection().updateOne(eq(STEP_EXECUTION_ID_KEY, id), combine(updates));
+            if (result.getMatchedCount() == 0) {
+                throw new IllegalArgumentException("Can't update this stepExecution, it was never saved.");
+            }
+        }
+        remember(stepExecution, current);
+    }
+
+    private void remember(StepExecution stepExecution) {
+        if (incrementalCounters) {
+            remember(stepExecution, toDocumentWithoutVersion(stepExecution));
+        }
+    }
+
+    private void remember(StepExecution stepExecution, Document values) {
+        purge();
+        synchronized (flushed) {
+            if (stepExecution.getEndTime() != null) {
+                flushed.remove(stepExecution.getId());
+                return;
+            }
+            List<Flushed> states = flushed.computeIfAbsent(stepExecution.getId(), id -> new ArrayList<>());
+            states.removeIf(state -> state.get() == stepExecution);
+            states.add(new Flushed(stepExecution, values, collected));
+        }
+    }
+
+    /**
+     * @return the state of this StepExecution object as last written or read, or null if it is not known
+     */
+    private Document baseline(StepExecution stepExecution) {
+        synchronized (flushed) {
+            for (Flushed state : flushed.getOrDefault(stepExecution.getId(), Collections.emptyList())) {
+                if (state.get() == stepExecution) {
+                    return state.values;
+                }
+            }
+            return null;
+        }
+    }
+
+    private void forget(StepExecution stepExecution) {
+        synchronized (flushed) {
+            List<Flushed> states = flushed.get(stepExecution.getId());
+            if (states != null) {
+                states.removeIf(state -> state.get() == stepExecution);
+                if (states.isEmpty()) {
+                    flushed.remove(stepExecution.getId());
+                }
+            }
+        }
+    }
+
+    private void purge() {
+        Flushed gone;
+        while ((gone = (Flushed) collected.poll()) != null) {
+            synchronized (flushed) {
+                List<Flushed> states = flushed.get(gone.id);
+                if (states != null && states.remove(gone) && states.isEmpty()) {
+                    flushed.remove(gone.id);
+                }
+            }
+        }
+    }
+
     /**
      * Retrieve the last {@link StepExecution} for a given {@link JobInstance} ordered by starting time and then id.
      *
@@ -151,23 +410,20 @@ public class MongoStepExecutionDao extends AbstractMongoDao implements StepExecu
         Map<Long, JobExecution> jobExecutionMap = jobExecutions.stream()
                 .collect(Collectors.toMap(JobExecution::getId, jobExecutionEntity -> jobExecutionEntity));
 
-        FindIterable<Document> stepExecutionDocuments = queryGetStepExecutions(jobExecutionMap.keySet(), stepName);
-
-        Document stepObject = stepExecutionDocuments.first();
+        Document stepObject = queryGetStepExecutions(jobExecutionMap.keySet(), stepName)
+                .sort(new Document(START_TIME_KEY, -1).append(STEP_EXECUTION_ID_KEY, -1)).limit(1).first();
 
         if (stepObject == null) {
             return null;
         }
 
-        // list is already sorted by most recent first
-        StepExecution tempStepExecution = mapStepExecution(stepObject, null);
-
-        JobExecution jobExecution = jobExecutionMap.get(tempStepExecution.getJobExecutionId());
+        JobExecution jobExecution = jobExecutionMap.get((Long) stepObject.get(JOB_EXECUTION_ID_KEY));
         if (jobExecution == null) {
             return null;
         }
 
         StepExecution finalStepExecution = mapStepExecution(stepObject, jobExecution);
+        remember(finalStepExecution);
 
         return finalStepExecution;
     }
@@ -219,28 +475,7 @@ public class MongoStepExecutionDao extends AbstractMongoDao implements StepExecu
     }
 
     private JobExecution mapJobExecution(JobInstance jobInstance, Document dbObject) {
-        if (dbObject == null) {
-            return null;
-        }
-        Long id = (Long) dbObject.get(JOB_EXECUTION_ID_KEY);
-        JobExecution jobExecution;
-
-        if (jobInstance == null) {
-            jobExecution = new JobExecution(id);
-        } else {
-            JobParameters jobParameters = getJobParameters(jobInstance.getId(), mongoTemplate);
-            jobExecution = new JobExecution(jobInstance, id, jobParameters, null);
-        }
-        jobExecution.setStartTime((Date) dbObject.get(START_TIME_KEY));
-        jobExecution.setEndTime((Date) dbObject.get(END_TIME_KEY));
-        jobExecution.setStatus(BatchStatus.valueOf((String) dbObject.get(STATUS_KEY)));
-        jobExecution.setExitStatus(
-                new ExitStatus(((String) dbObject.get(EXIT_CODE_KEY)), (String) dbObject.get(EXIT_MESSAGE_KEY)));
-        jobExecution.setCreateTime((Date) dbObject.get(CREATE_TIME_KEY));
-        jobExecution.setLastUpdated((Date) dbObject.get(LAST_UPDATED_KEY));
-        jobExecution.setVersion((Integer) dbObject.get(VERSION_KEY));
-
-        return jobExecution;
+        return mapJobExecution(jobInstance, dbObject, mongoTemplate);
     }
 
     static BasicDBObject stepExecutionIdObj(Long id) {
@@ -248,12 +483,16 @@ public class MongoStepExecutionDao extends AbstractMongoDao implements StepExecu
     }
 
     public StepExecution getStepExecution(JobExecution jobExecution, Long stepExecutionId) {
-        return mapStepExecution(getCollection().find(
+        StepExecution stepExecution = mapStepExecution(getCollection().find(
                 combine(eq(STEP_EXECUTION_ID_KEY, stepExecutionId), eq(JOB_EXECUTION_ID_KEY, jobExecution.getId())))
                 .first(), jobExecution);
+        if (stepExecution != null) {
+            remember(stepExecution);
+        }
+        return stepExecution;
     }
 
-    private StepExecution mapStepExecution(Document object, JobExecution jobExecution) {
+    static StepExecution mapStepExecution(Document object, JobExecution jobExecution) {
         if (object == null) {
             return null;
         }
@@ -269,13 +508,14 @@ public class MongoStepExecutionDao extends AbstractMongoDao implements StepExecu
         stepExecution.setStatus(BatchStatus.valueOf((String) object.get(STATUS_KEY)));
         stepExecution.setCommitCount((Integer) object.get(COMMIT_COUNT_KEY));
         stepExecution.setReadCount((Integer) object.get(READ_COUNT_KEY));
-        stepExecution.setFilterCount((Integer) object.get(FILTER_COUT_KEY));
+        stepExecution.setFilterCount(getCounter(object, FILTER_COUNT_KEY, LEGACY_FILTER_COUNT_KEY));
         stepExecution.setWriteCount((Integer) object.get(WRITE_COUNT_KEY));
         stepExecution.setExitStatus(
                 new ExitStatus((String) object.get(EXIT_CODE_KEY), ((String) object.get(EXIT_MESSAGE_KEY))));
         stepExecution.setReadSkipCount((Integer) object.get(READ_SKIP_COUNT_KEY));
         stepExecution.setWriteSkipCount((Integer) object.get(WRITE_SKIP_COUNT_KEY));
-        stepExecution.setProcessSkipCount((Integer) object.get(PROCESS_SKIP_COUT_KEY));
+        stepExecution.setProcessSkipCount(
+                getCounter(object, PROCESS_SKIP_COUNT_KEY, LEGACY_PROCESS_SKIP_COUNT_KEY));
         stepExecution.setRollbackCount((Integer) object.get(ROLLBACK_COUNT_KEY));
         stepExecution.setLastUpdated((Date) object.get(LAST_UPDATED_KEY));
         stepExecution.setVersion((Integer) object.get(VERSION_KEY));
@@ -290,10 +530,69 @@ public class MongoStepExecutionDao extends AbstractMongoDao implements StepExecu
         while (stepsCoursor.hasNext()) {
             Document stepObject = stepsCoursor.next();
             // Calls constructor of StepExecution, which adds the step; Wow, that's unclear code!
-            mapStepExecution(stepObject, jobExecution);
+            remember(mapStepExecution(stepObject, jobExecution));
         }
     }
 
+    /**
+     * Renames the counters of the next step executions after the given one still stored under their former
+     * names, for {@link SchemaMigrationRunner}.
+     *
+     * @return the last step execution id handled, or null when none was left
+     */
+    Long renameLegacyCounters(Long afterStepExecutionId, int limit) {
+        List<Document> batch = getCollection()
+                .find(and(gt(STEP_EXECUTION_ID_KEY, afterStepExecutionId == null ? Long.MIN_VALUE
+                        : afterStepExecutionId),
+                        or(exists(LEGACY_FILTER_COUNT_KEY), exists(LEGACY_PROCESS_SKIP_COUNT_KEY))))
+                .projection(include(STEP_EXECUTION_ID_KEY, FILTER_COUNT_KEY, PROCESS_SKIP_COUNT_KEY,
+                        LEGACY_FILTER_COUNT_KEY, LEGACY_PROCESS_SKIP_COUNT_KEY))
+                .sort(stepExecutionIdObj(1L)).limit(limit).into(new ArrayList<Document>());
+        if (batch.isEmpty()) {
+            return null;
+        }
+        List<WriteModel<Document>> updates = new ArrayList<WriteModel<Document>>();
+        for (Document step : batch) {
+            List<Bson> filter = new ArrayList<Bson>(legacyCounterValues(step));
+            filter.add(0, eq(STEP_EXECUTION_ID_KEY, step.get(STEP_EXECUTION_ID_KEY)));
+            updates.add(new UpdateOneModel<Document>(and(filter), renameLegacyCounters(step, "")));
+        }
+        getCollection().bulkWrite(updates, new BulkWriteOptions().ordered(false));
+        return batch.get(batch.size() - 1).getLong(STEP_EXECUTION_ID_KEY);
+    }
+
+    /**
+     * Matches the counters of a step execution document as read, so that a rename applies only if no whole write
+     * happened in between.
+     */
+    static List<Bson> legacyCounterValues(Document step) {
+        List<Bson> values = new ArrayList<Bson>();
+        for (String[] keys : LEGACY_COUNTER_KEYS) {
+            if (step.containsKey(keys[1])) {
+                values.add(eq(keys[1], step.get(keys[1])));
+                if (!step.containsKey(keys[0])) {
+                    values.add(exists(keys[0], false));
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Moves the legacy counters of a step execution document to their current names, unless these are set already
+     * and so read instead, and removes them.
+     */
+    static Bson renameLegacyCounters(Document step, String prefix) {
+        List<Bson> updates = new ArrayList<Bson>();
+        for (String[] keys : LEGACY_COUNTER_KEYS) {
+            if (step.get(keys[1]) != null && !step.containsKey(keys[0])) {
+                updates.add(set(prefix + keys[0], step.get(keys[1])));
+            }
+        }
+        updates.add(unsetLegacyCounters(prefix));
+        return combine(updates);
+    }
+
     protected MongoCollection<Document> getCollection() {
         return mongoTemplate.getCollection(StepExecution.class.getSimpleName());
     }
@@ -302,7 +601,7 @@ public class MongoStepExecutionDao extends AbstractMongoDao implements StepExecu
         return mongoTemplate.getCollection(JobExecution.class.getSimpleName());
     }
 
-    private void validateStepExecution(StepExecution stepExecution) {
+    static void validateStepExecution(StepExecution stepExecution) {
         notNull(stepExecution);
         notNull(stepExecution.getStepName(), "StepExecution step name cannot be null.");
         notNull(stepExecution.getStartTime(), "StepExecution start time cannot be null.");
@@ -318,4 +617,21 @@ public class MongoStepExecutionDao extends AbstractMongoDao implements StepExecu
 
     }
 
+    /**
+     * State of a StepExecution object as last written or read, so later updates of the same object can send deltas.
+     * <br/>
+     * References the object weakly, so the state is dropped once no caller holds it.
+     */
+    private static class Flushed extends WeakReference<StepExecution> {
+
+        private final Long     id;
+
+        private final Document values;
+
+        Flushed(StepExecution owner, Document values, ReferenceQueue<StepExecution> queue) {
+            super(owner, queue);
+            this.id = owner.getId();
+            this.values = values;
+        }
+    }
 }
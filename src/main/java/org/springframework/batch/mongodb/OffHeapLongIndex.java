@@ -0,0 +1,104 @@
+package org.springframework.batch.mongodb;
+
+import java.nio.ByteBuffer;
+import java.util.function.LongConsumer;
+
+import org.springframework.util.Assert;
+
+/**
+ * Map from positive long keys to non-negative long values, kept in a direct buffer outside the Java heap. Open
+ * addressing with linear probing; 0 marks an empty slot, so 0 cannot be a key. Values are stored plus one, so the
+ * zeroes of an empty slot never read as a value. Not thread-safe.
+ */
+final class OffHeapLongIndex {
+
+    /** Returned by {@link #get(long)} for keys without a value. */
+    static final long        ABSENT    = -1;
+
+    private static final int SLOT_SIZE = 16;
+
+    private ByteBuffer       slots;
+
+    private int              capacity;
+
+    private int              size;
+
+    OffHeapLongIndex(int initialCapacity) {
+        capacity = Integer.highestOneBit(Math.max(16, initialCapacity - 1) << 1);
+        slots = ByteBuffer.allocateDirect(capacity * SLOT_SIZE);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the value of the key, or {@link #ABSENT} if it has none
+     */
+    long get(long key) {
+        if (key <= 0) {
+            return ABSENT;
+        }
+        for (int slot = slot(key);; slot = (slot + 1) & (capacity - 1)) {
+            long stored = slots.getLong(slot * SLOT_SIZE);
+            if (stored == key) {
+                return slots.getLong(slot * SLOT_SIZE + 8) - 1;
+            }
+            if (stored == 0) {
+                return ABSENT;
+            }
+        }
+    }
+
+    void put(long key, long value) {
+        Assert.isTrue(key > 0, "Keys must be positive.");
+        Assert.isTrue(value >= 0, "Values must not be negative.");
+        if ((size + 1) * 2 > capacity) {
+            grow();
+        }
+        if (insert(slots, capacity, key, value + 1)) {
+            size++;
+        }
+    }
+
+    void forEachKey(LongConsumer consumer) {
+        for (int slot = 0; slot < capacity; slot++) {
+            long key = slots.getLong(slot * SLOT_SIZE);
+            if (key != 0) {
+                consumer.accept(key);
+            }
+        }
+    }
+
+    private int slot(long key) {
+        return slot(key, capacity);
+    }
+
+    private static int slot(long key, int capacity) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & (capacity - 1);
+    }
+
+    private static boolean insert(ByteBuffer slots, int capacity, long key, long value) {
+        for (int slot = slot(key, capacity);; slot = (slot + 1) & (capacity - 1)) {
+            long stored = slots.getLong(slot * SLOT_SIZE);
+            if (stored == key || stored == 0) {
+                slots.putLong(slot * SLOT_SIZE, key);
+                slots.putLong(slot * SLOT_SIZE + 8, value);
+                return stored == 0;
+            }
+        }
+    }
+
+    private void grow() {
+        int grown = capacity * 2;
+        ByteBuffer larger = ByteBuffer.allocateDirect(grown * SLOT_SIZE);
+        for (int slot = 0; slot < capacity; slot++) {
+            long key = slots.getLong(slot * SLOT_SIZE);
+            if (key != 0) {
+                insert(larger, grown, key, slots.getLong(slot * SLOT_SIZE + 8));
+            }
+        }
+        slots = larger;
+        capacity = grown;
+    }
+}
@@ -0,0 +1,34 @@
+package org.springframework.batch.mongodb;
+
+import java.util.Optional;
+
+import com.mongodb.event.CommandListener;
+
+/**
+ * Finds which repository class issued the Mongo command being listened to. The sync driver notifies command listeners
+ * on the calling thread, so the DAO frame is still on the stack.
+ */
+final class RepositoryCallSite {
+
+    static final String                UNKNOWN = "unknown";
+
+    private static final String        PACKAGE = RepositoryCallSite.class.getPackage().getName() + ".";
+
+    private static final StackWalker   WALKER  = StackWalker.getInstance(StackWalker.Option.RETAIN_CLASS_REFERENCE);
+
+    private RepositoryCallSite() {
+    }
+
+    /**
+     * @return "SimpleClassName.method" of the innermost frame in this package outside the listeners, or
+     *         {@value #UNKNOWN}
+     */
+    static String current() {
+        Optional<String> callSite = WALKER.walk(frames -> frames
+                .filter(frame -> frame.getClassName().startsWith(PACKAGE)
+                        && frame.getDeclaringClass() != RepositoryCallSite.class
+                        && !CommandListener.class.isAssignableFrom(frame.getDeclaringClass()))
+                .findFirst().map(frame -> frame.getDeclaringClass().getSimpleName() + "." + frame.getMethodName()));
+        return callSite.orElse(UNKNOWN);
+    }
+}
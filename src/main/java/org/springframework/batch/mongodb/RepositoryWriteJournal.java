@@ -0,0 +1,585 @@
+package org.springframework.batch.mongodb;
+
+import static com.mongodb.client.model.Projections.include;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.Document;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.conversions.Bson;
+import org.bson.io.BasicOutputBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.Assert;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoException;
+import com.mongodb.MongoNodeIsRecoveringException;
+import com.mongodb.MongoNotPrimaryException;
+import com.mongodb.MongoSocketException;
+import com.mongodb.MongoTimeoutException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.result.UpdateResult;
+
+/**
+ * Local write-ahead journal keeping repository writes that fail while MongoDB is unreachable, e.g. during a replica
+ * set election, and replaying them in order once it is back, so that long-running steps survive short outages. <br/>
+ * Set it on {@link MongoJobRepositoryFactoryBean} (or on the Mongo DAOs). Step execution, job execution and execution
+ * context updates go through it: a write failing with a network, server selection or not-primary error is appended to
+ * the journal file and the caller carries on. While writes are pending, later ones are appended behind them rather than
+ * sent, and a background thread replays them. Pending writes survive a restart and are replayed by {@link #init()}.
+ * <br/>
+ * The journal is bounded by {@link #setMaxSize(long)}: once full, writes fail with a
+ * DataAccessResourceFailureException, as they would without the journal. Writes inside a MongoDB transaction are
+ * never journaled. While writes are pending, {@link MongoJobExecutionDao#synchronizeStatus} keeps the status known
+ * locally, so a job stopped from elsewhere during the outage is noticed only after the replay. <br/>
+ * A write failing with a network error may still have been applied, so versioned execution updates, which never
+ * upsert, count as done when the execution is found at a later version. Writes that cannot be replayed are
+ * skipped and reported to the {@link #setReplayFailureHandler(ReplayFailureHandler) replay failure handler}.
+ */
+public class RepositoryWriteJournal {
+
+    private static final Logger          LOG                 = LoggerFactory.getLogger(RepositoryWriteJournal.class);
+
+    /** Offset of the first record not replayed yet. */
+    private static final int             HEADER_SIZE         = 8;
+
+    /** Length and checksum in front of each payload. */
+    private static final int             RECORD_HEADER_SIZE  = 8;
+
+    private static final String          COLLECTION_KEY      = "collection";
+
+    private static final String          FILTER_KEY          = "filter";
+
+    private static final String          UPDATE_KEY          = "update";
+
+    private static final String          REPLACEMENT_KEY     = "replacement";
+
+    private static final String          UPSERT_KEY          = "upsert";
+
+    private static final String          ID_FILTER_KEY       = "idFilter";
+
+    private static final String          VERSION_FIELD_KEY   = "versionField";
+
+    private static final String          VERSION_KEY         = "version";
+
+    private static final Codec<Document> CODEC               = MongoClientSettings.getDefaultCodecRegistry()
+            .get(Document.class);
+
+    /**
+     * Told about journaled writes that cannot be replayed, before they are skipped.
+     */
+    public interface ReplayFailureHandler {
+
+        /**
+         * @param collection collection the write was for
+         * @param write the journaled write: its filter and its update or replacement
+         * @param cause why MongoDB rejected it, or an OptimisticLockingFailureException if the document was missing
+         *            or at an older version than the write expects
+         */
+        void replayFailed(String collection, Document write, RuntimeException cause);
+    }
+
+    /**
+     * When appended writes are forced to the storage device.
+     */
+    public enum FsyncPolicy {
+        /** Before each journaled write returns; survives a power loss. */
+        ALWAYS,
+        /** Every fsyncIntervalMillis; a power loss may lose the writes of the last interval. */
+        INTERVAL,
+        /** Left to the operating system; survives a crash of the process only. */
+        NEVER
+    }
+
+    private MongoTemplate                mongoTemplate;
+
+    private File                         file;
+
+    private long                         maxSize             = 64 * 1024 * 1024;
+
+    private FsyncPolicy                  fsyncPolicy         = FsyncPolicy.INTERVAL;
+
+    private long                         fsyncIntervalMillis = 1000;
+
+    private long                         retryIntervalMillis = 1000;
+
+    private ReplayFailureHandler         replayFailureHandler;
+
+    private FileChannel                  channel;
+
+    private long                         replayPosition;
+
+    private long                         writePosition;
+
+    private long                         pendingCount;
+
+    private long                         journaledCount;
+
+    private long                         failedCount;
+
+    private boolean                      dirty;
+
+    private volatile boolean             running;
+
+    private Thread                       replayer;
+
+    /**
+     * Held shared while a write is sent directly and exclusively while one is journaled, so no direct write is still
+     * in flight once a write is journaled ahead of it.
+     */
+    private final ReadWriteLock          sendLock            = new ReentrantReadWriteLock();
+
+    /**
+     * Template the writes are replayed with.
+     */
+    public void setMongoTemplate(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    public void setFile(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Size the journal file may grow to before writes fail. Defaults to 64 MB.
+     */
+    public void setMaxSize(long maxSize) {
+        Assert.isTrue(maxSize > HEADER_SIZE, "maxSize must be larger than the journal header.");
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Defaults to {@link FsyncPolicy#INTERVAL}.
+     */
+    public void setFsyncPolicy(FsyncPolicy fsyncPolicy) {
+        Assert.notNull(fsyncPolicy, "fsyncPolicy must not be null.");
+        this.fsyncPolicy = fsyncPolicy;
+    }
+
+    /**
+     * Defaults to 1000.
+     */
+    public void setFsyncIntervalMillis(long fsyncIntervalMillis) {
+        Assert.isTrue(fsyncIntervalMillis > 0, "fsyncIntervalMillis must be positive.");
+        this.fsyncIntervalMillis = fsyncIntervalMillis;
+    }
+
+    /**
+     * Pause between replay attempts while MongoDB is unreachable. Defaults to 1000.
+     */
+    public void setRetryIntervalMillis(long retryIntervalMillis) {
+        Assert.isTrue(retryIntervalMillis > 0, "retryIntervalMillis must be positive.");
+        this.retryIntervalMillis = retryIntervalMillis;
+    }
+
+    /**
+     * Called for each journaled write that cannot be replayed, in addition to the error logged and
+     * {@link #getFailedCount()}, e.g. to fail the job or alert.
+     */
+    public void setReplayFailureHandler(ReplayFailureHandler replayFailureHandler) {
+        this.replayFailureHandler = replayFailureHandler;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Whether journaled writes are waiting to be replayed, i.e. MongoDB is behind this process.
+     */
+    public synchronized boolean isPending() {
+        return pendingCount > 0;
+    }
+
+    public synchronized long getPendingCount() {
+        return pendingCount;
+    }
+
+    /**
+     * Writes journaled so far.
+     */
+    public synchronized long getJournaledCount() {
+        return journaledCount;
+    }
+
+    /**
+     * Journaled writes that could not be replayed; they are logged, passed to the
+     * {@link #setReplayFailureHandler(ReplayFailureHandler) replay failure handler} and skipped.
+     */
+    public synchronized long getFailedCount() {
+        return failedCount;
+    }
+
+    /**
+     * Opens the journal file, creating it if needed, and starts replaying the writes left in it.
+     */
+    @PostConstruct
+    public synchronized void init() {
+        Assert.notNull(mongoTemplate, "mongoTemplate must be set.");
+        Assert.notNull(file, "file must be set.");
+        if (running) {
+            return;
+        }
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            recover();
+        } catch (IOException e) {
+            throw new DataAccessResourceFailureException("Failed to open the repository write journal " + file, e);
+        }
+        running = true;
+        replayer = new Thread(this::replay, "repository-write-journal");
+        replayer.setDaemon(true);
+        replayer.start();
+    }
+
+    /**
+     * Stops the replay and closes the file; writes still pending are replayed on the next start.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        Thread thread;
+        synchronized (this) {
+            running = false;
+            thread = replayer;
+            replayer = null;
+            notifyAll();
+        }
+        if (thread != null) {
+            thread.join();
+        }
+        synchronized (this) {
+            if (channel != null) {
+                try {
+                    channel.force(false);
+                    channel.close();
+                } catch (IOException e) {
+                    LOG.warn("Failed to close the repository write journal {}", file, e);
+                }
+                channel = null;
+            }
+        }
+    }
+
+    /**
+     * Updates one document, or journals the update if MongoDB is unreachable or writes are already pending.
+     */
+    public void updateOne(MongoCollection<Document> collection, Bson filter, Bson update, boolean upsert) {
+        Document record = new Document(COLLECTION_KEY, collection.getNamespace().getCollectionName())
+                .append(FILTER_KEY, toDocument(filter, collection)).append(UPDATE_KEY, toDocument(update, collection))
+                .append(UPSERT_KEY, upsert);
+        write(collection, record);
+    }
+
+    /**
+     * Updates the document matching idFilter at the given version, or journals the update if MongoDB is unreachable
+     * or writes are already pending. <br/>
+     * The update is expected to move versionField past version, and never upserts. When replayed, a write failing
+     * with a network error may have been applied, so a document found at a later version is taken as updated already.
+     *
+     * @return false if the update was sent and matched no document at that version, true if it was applied or
+     *         journaled
+     */
+    public boolean updateOne(MongoCollection<Document> collection, Bson idFilter, String versionField, int version,
+            Bson update) {
+        BsonDocument id = toDocument(idFilter, collection);
+        Document record = new Document(COLLECTION_KEY, collection.getNamespace().getCollectionName())
+                .append(FILTER_KEY, id.clone().append(versionField, new BsonInt32(version)))
+                .append(UPDATE_KEY, toDocument(update, collection)).append(UPSERT_KEY, false)
+                .append(ID_FILTER_KEY, id).append(VERSION_FIELD_KEY, versionField).append(VERSION_KEY, version);
+        return write(collection, record);
+    }
+
+    /**
+     * Replaces one document, or journals the replacement if MongoDB is unreachable or writes are already pending.
+     */
+    public void replaceOne(MongoCollection<Document> collection, Bson filter, Document replacement, boolean upsert) {
+        Document record = new Document(COLLECTION_KEY, collection.getNamespace().getCollectionName())
+                .append(FILTER_KEY, toDocument(filter, collection))
+                .append(REPLACEMENT_KEY, toDocument(replacement, collection))
+                .append(UPSERT_KEY, upsert);
+        write(collection, record);
+    }
+
+    /**
+     * Whether a failed write is due to MongoDB being unreachable or without primary, rather than to the write itself.
+     */
+    protected boolean isOutage(MongoException e) {
+        return e instanceof MongoSocketException || e instanceof MongoTimeoutException
+                || e instanceof MongoNotPrimaryException || e instanceof MongoNodeIsRecoveringException
+                || e.hasErrorLabel("RetryableWriteError");
+    }
+
+    /**
+     * @return whether the write matched or upserted a document, or was journaled
+     */
+    private boolean write(MongoCollection<Document> collection, Document record) {
+        Assert.state(running, "The repository write journal is not started.");
+        if (TransactionSynchronizationManager.hasResource(mongoTemplate.getMongoDatabaseFactory())) {
+            return apply(collection, record);
+        }
+        MongoException outage = null;
+        sendLock.readLock().lock();
+        try {
+            if (!isPending()) {
+                return apply(collection, record);
+            }
+        } catch (MongoException e) {
+            if (!isOutage(e)) {
+                throw e;
+            }
+            LOG.warn("MongoDB unreachable, journaling repository writes until it is back: {}", e.toString());
+            outage = e;
+        } finally {
+            sendLock.readLock().unlock();
+        }
+        sendLock.writeLock().lock();
+        try {
+            append(record, outage);
+        } finally {
+            sendLock.writeLock().unlock();
+        }
+        return true;
+    }
+
+    private boolean apply(MongoCollection<Document> collection, Document record) {
+        Bson filter = (Bson) record.get(FILTER_KEY);
+        boolean upsert = record.getBoolean(UPSERT_KEY);
+        if (record.containsKey(REPLACEMENT_KEY)) {
+            UpdateResult result = collection.withDocumentClass(BsonDocument.class).replaceOne(filter,
+                    toDocument((Bson) record.get(REPLACEMENT_KEY), collection), new ReplaceOptions().upsert(upsert));
+            return result.getMatchedCount() > 0 || result.getUpsertedId() != null;
+        }
+        UpdateResult result = collection.updateOne(filter, (Bson) record.get(UPDATE_KEY),
+                new UpdateOptions().upsert(upsert));
+        return result.getMatchedCount() > 0 || result.getUpsertedId() != null;
+    }
+
+    private synchronized void append(Document record, MongoException cause) {
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        CODEC.encode(new BsonBinaryWriter(buffer), record, EncoderContext.builder().build());
+        byte[] payload = buffer.toByteArray();
+        if (writePosition + RECORD_HEADER_SIZE + payload.length > maxSize) {
+            throw new DataAccessResourceFailureException("Repository write journal " + file + " is full with "
+                    + pendingCount + " pending writes (" + maxSize + " bytes); MongoDB has been unreachable for too "
+                    + "long", cause);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer bytes = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length);
+        bytes.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+        try {
+            write(bytes, writePosition);
+            if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+                channel.force(false);
+            } else {
+                dirty = true;
+            }
+        } catch (IOException e) {
+            throw new DataAccessResourceFailureException("Failed to append to the repository write journal " + file,
+                    e);
+        }
+        writePosition += bytes.limit();
+        pendingCount++;
+        journaledCount++;
+        notifyAll();
+    }
+
+    /**
+     * Replays pending writes in order, and forces the file every fsyncIntervalMillis when it changed.
+     */
+    private void replay() {
+        long lastForce = System.currentTimeMillis();
+        while (running) {
+            try {
+                Document record;
+                long next;
+                synchronized (this) {
+                    long now = System.currentTimeMillis();
+                    if (dirty && fsyncPolicy == FsyncPolicy.INTERVAL && now - lastForce >= fsyncIntervalMillis) {
+                        channel.force(false);
+                        dirty = false;
+                        lastForce = now;
+                    }
+                    if (pendingCount == 0) {
+                        wait(fsyncIntervalMillis);
+                        continue;
+                    }
+                    ByteBuffer header = read(replayPosition, RECORD_HEADER_SIZE);
+                    int length = header.getInt(0);
+                    record = CODEC.decode(new BsonBinaryReader(read(replayPosition + RECORD_HEADER_SIZE, length)),
+                            DecoderContext.builder().build());
+                    next = replayPosition + RECORD_HEADER_SIZE + length;
+                }
+                try {
+                    replay(mongoTemplate.getCollection(record.getString(COLLECTION_KEY)), record);
+                } catch (MongoException e) {
+                    if (isOutage(e)) {
+                        LOG.debug("MongoDB still unreachable, retrying the journaled writes later", e);
+                        synchronized (this) {
+                            wait(retryIntervalMillis);
+                        }
+                        continue;
+                    }
+                    failed(record, e);
+                } catch (OptimisticLockingFailureException e) {
+                    failed(record, e);
+                }
+                replayed(next);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException | RuntimeException e) {
+                LOG.error("Failed to replay the repository write journal {}", file, e);
+                try {
+                    Thread.sleep(retryIntervalMillis);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies a journaled write. A versioned update matching nothing counts as applied if the document is found at a
+     * later version.
+     */
+    private void replay(MongoCollection<Document> collection, Document record) {
+        if (apply(collection, record) || !record.containsKey(VERSION_FIELD_KEY)) {
+            return;
+        }
+        String versionField = record.getString(VERSION_FIELD_KEY);
+        int version = record.getInteger(VERSION_KEY);
+        Document current = collection.find((Bson) record.get(ID_FILTER_KEY)).projection(include(versionField))
+                .first();
+        if (current == null) {
+            throw new OptimisticLockingFailureException("Journaled write expects " + versionField + " " + version
+                    + " but found no document");
+        } else if (current.get(versionField) instanceof Number
+                && ((Number) current.get(versionField)).intValue() > version) {
+            LOG.debug("Journaled write was applied before it failed: {}", record.toJson());
+        } else {
+            throw new OptimisticLockingFailureException("Journaled write expects " + versionField + " " + version
+                    + " but found " + current.get(versionField));
+        }
+    }
+
+    private void failed(Document record, RuntimeException cause) {
+        LOG.error("Skipping a journaled write that cannot be replayed: {}", record.toJson(), cause);
+        synchronized (this) {
+            failedCount++;
+        }
+        if (replayFailureHandler != null) {
+            try {
+                replayFailureHandler.replayFailed(record.getString(COLLECTION_KEY), record, cause);
+            } catch (RuntimeException e) {
+                LOG.warn("Replay failure handler failed", e);
+            }
+        }
+    }
+
+    /**
+     * Moves the replay position past a replayed write, emptying the file once everything is replayed.
+     */
+    private synchronized void replayed(long next) throws IOException {
+        pendingCount--;
+        if (pendingCount == 0) {
+            LOG.info("Replayed all journaled repository writes");
+            channel.truncate(HEADER_SIZE);
+            replayPosition = HEADER_SIZE;
+            writePosition = HEADER_SIZE;
+        } else {
+            replayPosition = next;
+        }
+        write(ByteBuffer.allocate(HEADER_SIZE).putLong(0, replayPosition), 0);
+        if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+            channel.force(false);
+        } else {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Finds the pending writes from the replay position on; a torn record at the end, from a crash in the middle of
+     * an append, is cut off.
+     */
+    private void recover() throws IOException {
+        long size = channel.size();
+        replayPosition = size >= HEADER_SIZE ? read(0, HEADER_SIZE).getLong(0) : HEADER_SIZE;
+        if (replayPosition < HEADER_SIZE || replayPosition > size) {
+            replayPosition = HEADER_SIZE;
+        }
+        writePosition = replayPosition;
+        pendingCount = 0;
+        while (writePosition + RECORD_HEADER_SIZE <= size) {
+            ByteBuffer header = read(writePosition, RECORD_HEADER_SIZE);
+            int length = header.getInt(0);
+            if (length <= 0 || writePosition + RECORD_HEADER_SIZE + length > size) {
+                break;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(read(writePosition + RECORD_HEADER_SIZE, length));
+            if (header.getInt(4) != (int) crc.getValue()) {
+                break;
+            }
+            writePosition += RECORD_HEADER_SIZE + length;
+            pendingCount++;
+        }
+        if (pendingCount == 0) {
+            replayPosition = HEADER_SIZE;
+            writePosition = HEADER_SIZE;
+        } else {
+            LOG.warn("Found {} journaled repository writes in {}, replaying them", pendingCount, file);
+        }
+        if (writePosition < size || size < HEADER_SIZE) {
+            channel.truncate(writePosition);
+            write(ByteBuffer.allocate(HEADER_SIZE).putLong(0, replayPosition), 0);
+            channel.force(false);
+        }
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of the repository write journal " + file);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private void write(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    private static BsonDocument toDocument(Bson bson, MongoCollection<Document> collection) {
+        return bson.toBsonDocument(BsonDocument.class, collection.getCodecRegistry());
+    }
+}
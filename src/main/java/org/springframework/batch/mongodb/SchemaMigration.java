@@ -0,0 +1,27 @@
+package org.springframework.batch.mongodb;
+
+/**
+ * One versioned change of the document format, applied by {@link SchemaMigrationRunner} in batches while jobs run.
+ * <br/>
+ * Batches walk the documents in the order of an indexed, unique position such as an id, and must be idempotent: the
+ * runner records the position returned by each batch and resumes from the last one recorded after a restart, so the
+ * batch in flight may be applied twice. The DAOs must read the old and the new format until the migration is done.
+ */
+public interface SchemaMigration {
+
+    /**
+     * Schema version reached once this migration is done; versions start at 1 and have no gaps.
+     */
+    int getVersion();
+
+    String getDescription();
+
+    /**
+     * Migrates the next documents after {@code position}.
+     *
+     * @param position position returned by the previous batch, or null for the first one
+     * @param limit    maximum number of documents to examine
+     * @return the position of the last document examined, stored in BSON, or null once no document was left
+     */
+    Object migrateBatch(Object position, int limit);
+}
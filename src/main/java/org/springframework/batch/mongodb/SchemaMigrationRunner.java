@@ -0,0 +1,368 @@
+package org.springframework.batch.mongodb;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.lt;
+import static com.mongodb.client.model.Filters.or;
+import static com.mongodb.client.model.Updates.combine;
+import static com.mongodb.client.model.Updates.inc;
+import static com.mongodb.client.model.Updates.set;
+import static com.mongodb.client.model.Updates.unset;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.BiFunction;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.util.Assert;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
+
+/**
+ * Brings the stored documents to the latest schema version while jobs keep running. <br/>
+ * The schema version is kept in the {@value #COLLECTION_NAME} collection, with the migration in progress and the
+ * position its last batch reached. Pending {@link SchemaMigration}s run in version order, one batch at a time with a
+ * pause in between; the position is recorded after each batch, so a run interrupted by a restart resumes where it
+ * stopped. A lease on the version document lets only one process migrate at a time. The DAOs read every format a
+ * migration may leave behind, so nothing waits for a migration to finish. <br/>
+ * Without migrations set, the built-in ones run: <br/>
+ * 1. job names copied onto job executions ({@link MongoJobAnalytics#backfillJobNames()}) <br/>
+ * 2. job instance parameters stored as a list ({@link MongoJobInstanceDao#migrateJobParameters()}) <br/>
+ * 3. job parameters copied onto job executions ({@link MongoJobExecutionDao#backfillJobParameters()}) <br/>
+ * 4. filterCout and processSkipCout renamed to filterCount and processSkipCount in the StepExecution collection <br/>
+ * 5. the same for steps embedded by {@link MongoEmbeddedStepExecutionDao} <br/>
+ * 6. job keys hashed from identifying parameters only ({@link MongoJobInstanceDao#migrateJobKeys()}) <br/>
+ * Migrations walk the history once in id order, so start them once every node writes the current format: documents a
+ * node not upgraded yet writes in a former format after the walk passed them stay as they are. Counters such a node
+ * sets under their former names on a document holding the current ones are not read, as the current names win.
+ */
+public class SchemaMigrationRunner {
+
+    private static final Logger LOG             = LoggerFactory.getLogger(SchemaMigrationRunner.class);
+
+    public static final String  COLLECTION_NAME = "SchemaVersion";
+
+    public static final String  SCHEMA_ID       = "batch";
+
+    public static final String  VERSION_KEY     = "version";
+
+    public static final String  MIGRATION_KEY   = "migration";
+
+    public static final String  POSITION_KEY    = "position";
+
+    public static final String  BATCHES_KEY     = "batches";
+
+    private static final String OWNER_KEY       = "owner";
+
+    private static final String LEASE_KEY       = "leaseUntil";
+
+    private final String        owner           = UUID.randomUUID().toString();
+
+    private MongoTemplate       mongoTemplate;
+
+    private List<SchemaMigration> migrations;
+
+    private int                 batchSize       = 1000;
+
+    private long                pauseMillis     = 100;
+
+    private long                leaseMillis     = 60_000;
+
+    private boolean             async           = true;
+
+    private volatile boolean    running;
+
+    private Thread              migrator;
+
+    public void setMongoTemplate(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * Migrations to apply, with versions from 1 without gaps. Defaults to the built-in ones.
+     */
+    public void setMigrations(List<SchemaMigration> migrations) {
+        this.migrations = migrations;
+    }
+
+    /**
+     * Documents examined per batch. Defaults to 1000.
+     */
+    public void setBatchSize(int batchSize) {
+        Assert.isTrue(batchSize > 0, "batchSize must be positive.");
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Pause after each batch. Defaults to 100.
+     */
+    public void setPauseMillis(long pauseMillis) {
+        Assert.isTrue(pauseMillis >= 0, "pauseMillis must not be negative.");
+        this.pauseMillis = pauseMillis;
+    }
+
+    /**
+     * How long the version document stays locked by a process that stopped renewing it, e.g. because it died.
+     * Defaults to one minute.
+     */
+    public void setLeaseMillis(long leaseMillis) {
+        Assert.isTrue(leaseMillis > 0, "leaseMillis must be positive.");
+        this.leaseMillis = leaseMillis;
+    }
+
+    /**
+     * Whether {@link #init()} migrates on a background thread, or before returning. Defaults to true.
+     */
+    public void setAsync(boolean async) {
+        this.async = async;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    @PostConstruct
+    public synchronized void init() {
+        Assert.notNull(mongoTemplate, "mongoTemplate must be set.");
+        if (migrations == null) {
+            migrations = defaultMigrations();
+        }
+        List<SchemaMigration> sorted = new ArrayList<>(migrations);
+        sorted.sort(Comparator.comparingInt(SchemaMigration::getVersion));
+        for (int i = 0; i < sorted.size(); i++) {
+            Assert.isTrue(sorted.get(i).getVersion() == i + 1, "Migration versions must start at 1 without gaps.");
+        }
+        migrations = sorted;
+        if (!async) {
+            migrate();
+            return;
+        }
+        if (running) {
+            return;
+        }
+        running = true;
+        migrator = new Thread(() -> {
+            try {
+                migrate();
+            } catch (MongoException e) {
+                LOG.error("Schema migration failed, it resumes on the next start", e);
+            } finally {
+                running = false;
+            }
+        }, "schema-migration-runner");
+        migrator.setDaemon(true);
+        migrator.start();
+    }
+
+    /**
+     * Stops a background migration after its current batch.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        Thread thread;
+        synchronized (this) {
+            thread = migrator;
+            migrator = null;
+        }
+        if (thread != null) {
+            thread.interrupt();
+            thread.join();
+        }
+    }
+
+    /**
+     * Version of the stored documents: that of the last migration done, 0 before any.
+     */
+    public int getSchemaVersion() {
+        Document schema = getCollection().find(eq("_id", SCHEMA_ID)).first();
+        return schema == null || schema.get(VERSION_KEY) == null ? 0 : schema.getInteger(VERSION_KEY);
+    }
+
+    public int getLatestVersion() {
+        Assert.state(migrations != null, "The schema migration runner is not initialized.");
+        return migrations.size();
+    }
+
+    /**
+     * Applies the pending migrations, unless another process holds the lease.
+     *
+     * @return the schema version reached
+     */
+    public int migrate() {
+        Document schema = acquire();
+        if (schema == null) {
+            LOG.info("Schema migration left to the process holding the lease");
+            return getSchemaVersion();
+        }
+        int version = schema.get(VERSION_KEY) == null ? 0 : schema.getInteger(VERSION_KEY);
+        try {
+            for (SchemaMigration migration : migrations) {
+                if (migration.getVersion() <= version) {
+                    continue;
+                }
+                boolean resumed = Integer.valueOf(migration.getVersion()).equals(schema.get(MIGRATION_KEY));
+                Object position = resumed ? schema.get(POSITION_KEY) : null;
+                LOG.info("{} schema migration {}: {}", resumed ? "Resuming" : "Starting", migration.getVersion(),
+                        migration.getDescription());
+                if (!resumed && !renew(combine(set(MIGRATION_KEY, migration.getVersion()), unset(POSITION_KEY),
+                        set(BATCHES_KEY, 0L)))) {
+                    return version;
+                }
+                while (true) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        LOG.info("Schema migration {} interrupted, it resumes on the next start",
+                                migration.getVersion());
+                        return version;
+                    }
+                    position = migration.migrateBatch(position, batchSize);
+                    if (position == null) {
+                        break;
+                    }
+                    if (!renew(combine(set(POSITION_KEY, position), inc(BATCHES_KEY, 1L)))) {
+                        return version;
+                    }
+                    pause();
+                }
+                version = migration.getVersion();
+                if (!renew(combine(set(VERSION_KEY, version), unset(MIGRATION_KEY), unset(POSITION_KEY),
+                        unset(BATCHES_KEY)))) {
+                    return version;
+                }
+                LOG.info("Schema migrated to version {}", version);
+            }
+            return version;
+        } finally {
+            getCollection().updateOne(and(eq("_id", SCHEMA_ID), eq(OWNER_KEY, owner)),
+                    combine(unset(OWNER_KEY), unset(LEASE_KEY)));
+        }
+    }
+
+    /**
+     * Takes the lease on the version document, creating it if needed.
+     *
+     * @return the version document, or null if another process holds the lease
+     */
+    private Document acquire() {
+        Date now = new Date();
+        try {
+            return getCollection().findOneAndUpdate(
+                    and(eq("_id", SCHEMA_ID), or(eq(OWNER_KEY, null), eq(OWNER_KEY, owner), lt(LEASE_KEY, now))),
+                    combine(set(OWNER_KEY, owner), set(LEASE_KEY, new Date(now.getTime() + leaseMillis))),
+                    new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.AFTER));
+        } catch (MongoCommandException e) {
+            if (ErrorCategory.fromErrorCode(e.getErrorCode()) != ErrorCategory.DUPLICATE_KEY) {
+                throw e;
+            }
+        } catch (MongoWriteException e) {
+            if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) {
+                throw e;
+            }
+        }
+        // the document exists and its lease is held by someone else
+        return null;
+    }
+
+    /**
+     * Records progress and extends the lease.
+     *
+     * @return false if the lease was lost, e.g. after a pause longer than the lease
+     */
+    private boolean renew(Bson progress) {
+        boolean renewed = getCollection().updateOne(and(eq("_id", SCHEMA_ID), eq(OWNER_KEY, owner)),
+                combine(progress, set(LEASE_KEY, new Date(System.currentTimeMillis() + leaseMillis))))
+                .getMatchedCount() > 0;
+        if (!renewed) {
+            LOG.warn("Lost the schema migration lease, leaving the migration to its new holder");
+        }
+        return renewed;
+    }
+
+    private void pause() {
+        if (pauseMillis > 0) {
+            try {
+                Thread.sleep(pauseMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private List<SchemaMigration> defaultMigrations() {
+        MongoJobAnalytics analytics = new MongoJobAnalytics();
+        analytics.setMongoTemplate(mongoTemplate);
+        MongoJobInstanceDao jobInstanceDao = new MongoJobInstanceDao();
+        jobInstanceDao.setMongoTemplate(mongoTemplate);
+        MongoJobExecutionDao jobExecutionDao = new MongoJobExecutionDao();
+        jobExecutionDao.setMongoTemplate(mongoTemplate);
+        MongoStepExecutionDao stepExecutionDao = new MongoStepExecutionDao();
+        stepExecutionDao.setMongoTemplate(mongoTemplate);
+        MongoEmbeddedStepExecutionDao embeddedStepExecutionDao = new MongoEmbeddedStepExecutionDao();
+        embeddedStepExecutionDao.setMongoTemplate(mongoTemplate);
+        return Arrays.asList(
+                new BatchedMigration(1, "Copy job names onto job executions", analytics::backfillJobNames),
+                new BatchedMigration(2, "Store job instance parameters as a list",
+                        jobInstanceDao::migrateJobParameters),
+                new BatchedMigration(3, "Copy job parameters onto job executions",
+                        jobExecutionDao::backfillJobParameters),
+                new BatchedMigration(4, "Rename the filterCout and processSkipCout step execution counters",
+                        stepExecutionDao::renameLegacyCounters),
+                new BatchedMigration(5, "Rename the filterCout and processSkipCout counters of embedded steps",
+                        embeddedStepExecutionDao::renameLegacyCounters),
+                new BatchedMigration(6, "Hash job keys from identifying parameters only",
+                        jobInstanceDao::migrateJobKeys));
+    }
+
+    private MongoCollection<Document> getCollection() {
+        return mongoTemplate.getCollection(COLLECTION_NAME);
+    }
+
+    /**
+     * Migration paged by a Long id.
+     */
+    private static final class BatchedMigration implements SchemaMigration {
+
+        private final int                               version;
+
+        private final String                            description;
+
+        private final BiFunction<Long, Integer, Long>   batch;
+
+        BatchedMigration(int version, String description, BiFunction<Long, Integer, Long> batch) {
+            this.version = version;
+            this.description = description;
+            this.batch = batch;
+        }
+
+        @Override
+        public int getVersion() {
+            return version;
+        }
+
+        @Override
+        public String getDescription() {
+            return description;
+        }
+
+        @Override
+        public Object migrateBatch(Object position, int limit) {
+            return batch.apply((Long) position, limit);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package org.springframework.batch.mongodb;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.util.Assert;
+
+/**
+ * {@link IdGenerator} reserving blocks of ids from the Sequences collection, so only one id in blockSize costs a
+ * round trip. <br/>
+ * Only for repositories written by a single JVM. Ids increase within one generator, but each JVM works through its
+ * own block, so with several JVMs a newer instance or execution can get a lower id and the DAOs' lookups of the
+ * latest one by id go wrong; use a {@link TimeOrderedIdGenerator} there. A warning is logged when a new block does
+ * not follow the previous one, i.e. another process or the DAOs' default allocation took ids in between. <br/>
+ * Shares the counters of the DAOs' default id allocation, so an existing repository can switch to it. Ids of a block
+ * left unused at shutdown are skipped.
+ */
+public class SequenceBlockIdGenerator implements IdGenerator {
+
+    private static final Logger      LOG       = LoggerFactory.getLogger(SequenceBlockIdGenerator.class);
+
+    private final Map<String, Block> blocks    = new ConcurrentHashMap<>();
+
+    private MongoTemplate            mongoTemplate;
+
+    private int                      blockSize = 100;
+
+    public void setMongoTemplate(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * Ids reserved per round trip. Defaults to 100.
+     */
+    public void setBlockSize(int blockSize) {
+        Assert.isTrue(blockSize > 0, "blockSize must be positive.");
+        this.blockSize = blockSize;
+    }
+
+    @Override
+    public Long nextId(String name) {
+        Block block = blocks.computeIfAbsent(name, key -> new Block());
+        synchronized (block) {
+            if (block.next > block.last) {
+                long last = AbstractMongoDao.incrementSequence(name, blockSize, mongoTemplate);
+                if (block.last > 0 && last != block.last + blockSize) {
+                    LOG.warn("Ids {} to {} of {} were allocated elsewhere; ids no longer follow creation time, as "
+                            + "SequenceBlockIdGenerator must be the only allocator", block.last + 1,
+                            last - blockSize, name);
+                }
+                block.last = last;
+                block.next = block.last - blockSize + 1;
+            }
+            return block.next++;
+        }
+    }
+
+    private static class Block {
+
+        private long next = 1;
+
+        private long last = 0;
+    }
+}
@@ -0,0 +1,452 @@
+package org.springframework.batch.mongodb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+
+import org.bson.BsonArray;
+import org.bson.BsonBoolean;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoClient;
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+
+/**
+ * {@link CommandListener} that reports repository queries slower than a threshold, with the DAO method that issued
+ * them, the shape of their filter (values replaced by "?") and, captured in the background, the query plan returned
+ * by explain. <br/>
+ * Register it with {@link MongoJobRepositoryFactoryBean#setSlowOperationDetector(SlowOperationDetector)}, or add it
+ * to the settings of your own client and call {@link #setMongoClient(MongoClient)}. Reports are rate limited, each
+ * filter shape is explained at most once per explain interval and explains run one at a time on a single daemon
+ * thread, so a burst of slow queries cannot add load to an already struggling server.
+ */
+public class SlowOperationDetector implements CommandListener {
+
+    private static final Logger       LOG                 = LoggerFactory.getLogger(SlowOperationDetector.class);
+
+    /** Tracked commands, with the fields kept for explain and the filter shape. */
+    private static final Map<String, List<String>> EXPLAINED_FIELDS = new HashMap<>();
+
+    /** Arrays of write statements, of which only the first is kept. */
+    private static final Set<String>  STATEMENT_FIELDS    = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "updates", "deletes")));
+
+    /** Fields added by the driver that explain does not accept inside the explained command. */
+    private static final Set<String>  SESSION_FIELDS      = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "$db", "lsid", "$clusterTime", "txnNumber", "autocommit", "startTransaction", "$readPreference",
+            "readConcern", "writeConcern", "apiVersion", "apiStrict", "apiDeprecationErrors")));
+
+    /** Fields holding field names and directions rather than values; they are part of the shape. */
+    private static final Set<String>  UNMASKED_FIELDS     = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "sort", "projection", "key", "$sort", "$project")));
+
+    private static final String       PLACEHOLDER         = "?";
+
+    private static final String       TRUNCATED_KEY       = "$truncated";
+
+    private static final BsonDocumentCodec CODEC          = new BsonDocumentCodec();
+
+    static {
+        EXPLAINED_FIELDS.put("find", Arrays.asList("filter", "sort", "projection", "hint", "skip", "limit",
+                "collation"));
+        EXPLAINED_FIELDS.put("aggregate", Arrays.asList("pipeline", "hint", "collation", "cursor"));
+        EXPLAINED_FIELDS.put("count", Arrays.asList("query", "hint", "skip", "limit", "collation"));
+        EXPLAINED_FIELDS.put("distinct", Arrays.asList("key", "query", "collation"));
+        EXPLAINED_FIELDS.put("findAndModify", Arrays.asList("query", "sort", "update", "remove", "upsert",
+                "collation"));
+        EXPLAINED_FIELDS.put("update", Arrays.asList("updates"));
+        EXPLAINED_FIELDS.put("delete", Arrays.asList("deletes"));
+    }
+
+    private static final int          RECENT_OPERATIONS   = 50;
+
+    private long                      thresholdMillis     = 100;
+
+    private int                       maxReportsPerMinute = 10;
+
+    private long                      explainIntervalMillis = TimeUnit.MINUTES.toMillis(10);
+
+    private boolean                   explain             = true;
+
+    private int                       maxCommandBytes     = 16 * 1024;
+
+    private volatile MongoClient      mongoClient;
+
+    private final ConcurrentMap<Integer, BsonDocument> inFlight = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Long> lastExplained = new ConcurrentHashMap<>();
+
+    private final Deque<SlowOperation> recentOperations   = new ConcurrentLinkedDeque<>();
+
+    private final AtomicLong          windowStart         = new AtomicLong();
+
+    private final AtomicInteger       reportsInWindow     = new AtomicInteger();
+
+    private final AtomicInteger       suppressed          = new AtomicInteger();
+
+    private final ThreadPoolExecutor  explainExecutor     = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(10), runnable -> {
+                Thread thread = new Thread(runnable, "slow-operation-explain");
+                thread.setDaemon(true);
+                return thread;
+            }, new ThreadPoolExecutor.DiscardPolicy());
+
+    /**
+     * Operations taking at least this long are reported. Defaults to 100 ms.
+     */
+    public void setThresholdMillis(long thresholdMillis) {
+        this.thresholdMillis = thresholdMillis;
+    }
+
+    /**
+     * Reports beyond this number within a minute are only counted. Defaults to 10.
+     */
+    public void setMaxReportsPerMinute(int maxReportsPerMinute) {
+        this.maxReportsPerMinute = maxReportsPerMinute;
+    }
+
+    /**
+     * Minimum time between two explains of the same filter shape. Defaults to 10 minutes.
+     */
+    public void setExplainIntervalMillis(long explainIntervalMillis) {
+        this.explainIntervalMillis = explainIntervalMillis;
+    }
+
+    /**
+     * Whether query plans are captured. Defaults to true; explain also needs the client to be set.
+     */
+    public void setExplain(boolean explain) {
+        this.explain = explain;
+    }
+
+    /**
+     * Size above which the filter of an in-flight command is kept masked only, so it is still reported but not
+     * explained. Defaults to 16 KB.
+     */
+    public void setMaxCommandBytes(int maxCommandBytes) {
+        this.maxCommandBytes = maxCommandBytes;
+    }
+
+    /**
+     * Client the explains are run with, normally the one this listener is registered on.
+     */
+    public void setMongoClient(MongoClient mongoClient) {
+        this.mongoClient = mongoClient;
+    }
+
+    /**
+     * @return the last reported operations, most recent first
+     */
+    public List<SlowOperation> getRecentOperations() {
+        return new ArrayList<>(recentOperations);
+    }
+
+    @PreDestroy
+    public void stop() {
+        explainExecutor.shutdownNow();
+    }
+
+    @Override
+    public void commandStarted(CommandStartedEvent event) {
+        List<String> fields = EXPLAINED_FIELDS.get(event.getCommandName());
+        if (fields != null) {
+            inFlight.put(event.getRequestId(), summarize(event.getCommandName(), event.getDatabaseName(),
+                    event.getCommand(), fields));
+        }
+    }
+
+    /**
+     * Copies the fields of the command that explain and the filter shape need, leaving out the payload of writes.
+     * The event's document is only valid during commandStarted, so the summary is encoded right away; summaries
+     * over {@link #setMaxCommandBytes(int) maxCommandBytes} keep only the masked shape and are not explained.
+     */
+    private BsonDocument summarize(String commandName, String databaseName, BsonDocument command,
+            List<String> fields) {
+        BsonDocument summary = new BsonDocument(commandName, command.get(commandName));
+        summary.put("$db", new BsonString(databaseName));
+        for (String field : fields) {
+            BsonValue value = command.get(field);
+            if (value == null) {
+                continue;
+            }
+            if (STATEMENT_FIELDS.contains(field)) {
+                // the first statement, its update replaced by an empty one
+                if (!value.isArray() || value.asArray().isEmpty() || !value.asArray().get(0).isDocument()) {
+                    continue;
+                }
+                BsonDocument statement = new BsonDocument();
+                for (Map.Entry<String, BsonValue> entry : value.asArray().get(0).asDocument().entrySet()) {
+                    statement.put(entry.getKey(), "u".equals(entry.getKey()) ? new BsonDocument()
+                            : entry.getValue());
+                }
+                value = new BsonArray(Collections.singletonList(statement));
+            } else if ("update".equals(field)) {
+                value = new BsonDocument();
+            }
+            summary.put(field, value);
+        }
+        RawBsonDocument raw = new RawBsonDocument(summary, CODEC);
+        if (raw.getByteBuffer().remaining() <= maxCommandBytes) {
+            return raw;
+        }
+        BsonDocument masked = new BsonDocument(commandName, summary.get(commandName));
+        masked.put(TRUNCATED_KEY, BsonBoolean.TRUE);
+        for (Map.Entry<String, BsonValue> field : summary.entrySet()) {
+            if (!masked.containsKey(field.getKey())) {
+                masked.put(field.getKey(), UNMASKED_FIELDS.contains(field.getKey()) ? field.getValue()
+                        : mask(field.getValue()));
+            }
+        }
+        return new RawBsonDocument(masked, CODEC);
+    }
+
+    @Override
+    public void commandSucceeded(CommandSucceededEvent event) {
+        BsonDocument command = inFlight.remove(event.getRequestId());
+        if (command != null) {
+            completed(event.getCommandName(), command, event.getElapsedTime(TimeUnit.MILLISECONDS));
+        }
+    }
+
+    @Override
+    public void commandFailed(CommandFailedEvent event) {
+        BsonDocument command = inFlight.remove(event.getRequestId());
+        if (command != null) {
+            completed(event.getCommandName(), command, event.getElapsedTime(TimeUnit.MILLISECONDS));
+        }
+    }
+
+    private void completed(String commandName, BsonDocument command, long elapsedMillis) {
+        if (elapsedMillis < thresholdMillis || !acquireReport()) {
+            return;
+        }
+        BsonValue collection = command.get(commandName);
+        SlowOperation operation = new SlowOperation(commandName,
+                collection != null && collection.isString() ? collection.asString().getValue() : null,
+                RepositoryCallSite.current(), shapeOf(commandName, command), elapsedMillis);
+        int missed = suppressed.getAndSet(0);
+        LOG.warn("Slow {} on {} took {} ms in {}, filter {}{}", commandName, operation.getCollection(),
+                elapsedMillis, operation.getDaoMethod(), operation.getFilterShape(),
+                missed > 0 ? " (" + missed + " earlier slow operations not reported)" : "");
+        recentOperations.addFirst(operation);
+        while (recentOperations.size() > RECENT_OPERATIONS) {
+            recentOperations.pollLast();
+        }
+        if (explain && mongoClient != null && !command.containsKey(TRUNCATED_KEY) && shouldExplain(operation)) {
+            try {
+                explainExecutor.execute(() -> explain(command.getString("$db").getValue(), command, operation));
+            } catch (RejectedExecutionException e) {
+                LOG.debug("Explain executor is stopped");
+            }
+        }
+    }
+
+    /**
+     * Fixed one-minute windows; cheap enough to run on every slow command.
+     */
+    private boolean acquireReport() {
+        long now = System.currentTimeMillis();
+        long start = windowStart.get();
+        if (now - start >= 60000 && windowStart.compareAndSet(start, now)) {
+            reportsInWindow.set(0);
+        }
+        if (reportsInWindow.incrementAndGet() > maxReportsPerMinute) {
+            suppressed.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    private boolean shouldExplain(SlowOperation operation) {
+        String key = operation.getCollection() + ":" + operation.getCommandName() + ":" + operation.getFilterShape();
+        long now = System.currentTimeMillis();
+        Long previous = lastExplained.get(key);
+        if (previous != null && now - previous < explainIntervalMillis) {
+            return false;
+        }
+        if (lastExplained.size() > 1000) {
+            lastExplained.clear();
+        }
+        return previous == null ? lastExplained.putIfAbsent(key, now) == null
+                : lastExplained.replace(key, previous, now);
+    }
+
+    private void explain(String databaseName, BsonDocument command, SlowOperation operation) {
+        BsonDocument explained = new BsonDocument();
+        for (Map.Entry<String, BsonValue> field : command.entrySet()) {
+            if (!SESSION_FIELDS.contains(field.getKey())) {
+                explained.put(field.getKey(), field.getValue());
+            }
+        }
+        try {
+            Document plan = mongoClient.getDatabase(databaseName).runCommand(
+                    new Document("explain", explained).append("verbosity", "queryPlanner"));
+            Object queryPlanner = plan.get("queryPlanner");
+            Object winningPlan = queryPlanner instanceof Document ? ((Document) queryPlanner).get("winningPlan")
+                    : plan;
+            operation.explain = winningPlan instanceof Document ? (Document) winningPlan : plan;
+            LOG.warn("Plan of slow {} in {}: {}", operation.getCommandName(), operation.getDaoMethod(),
+                    operation.explain.toJson());
+        } catch (MongoException e) {
+            LOG.debug("Could not explain slow {} in {}", operation.getCommandName(), operation.getDaoMethod(), e);
+        }
+    }
+
+    /**
+     * Filter, sort or pipeline of the command with every value replaced by a placeholder.
+     */
+    static String shapeOf(String commandName, BsonDocument command) {
+        BsonDocument shape = new BsonDocument();
+        switch (commandName) {
+        case "find":
+            copyShape(command, shape, "filter", "sort", "projection");
+            break;
+        case "aggregate":
+            copyShape(command, shape, "pipeline");
+            break;
+        case "count":
+        case "distinct":
+        case "findAndModify":
+            copyShape(command, shape, "query", "sort", "key");
+            break;
+        case "update":
+            copyFirstStatement(command, shape, "updates", "q");
+            break;
+        case "delete":
+            copyFirstStatement(command, shape, "deletes", "q");
+            break;
+        default:
+            break;
+        }
+        return shape.toJson();
+    }
+
+    private static void copyShape(BsonDocument command, BsonDocument shape, String... fields) {
+        for (String field : fields) {
+            if (command.containsKey(field)) {
+                shape.put(field, UNMASKED_FIELDS.contains(field) ? command.get(field) : mask(command.get(field)));
+            }
+        }
+    }
+
+    private static void copyFirstStatement(BsonDocument command, BsonDocument shape, String statements,
+            String filter) {
+        BsonValue value = command.get(statements);
+        if (value != null && value.isArray() && !value.asArray().isEmpty()
+                && value.asArray().get(0).isDocument()) {
+            BsonValue q = value.asArray().get(0).asDocument().get(filter);
+            if (q != null) {
+                shape.put("filter", mask(q));
+            }
+        }
+    }
+
+    private static BsonValue mask(BsonValue value) {
+        if (value.isDocument()) {
+            BsonDocument masked = new BsonDocument();
+            for (Map.Entry<String, BsonValue> entry : value.asDocument().entrySet()) {
+                masked.put(entry.getKey(), UNMASKED_FIELDS.contains(entry.getKey()) ? entry.getValue()
+                        : mask(entry.getValue()));
+            }
+            return masked;
+        }
+        if (value.isArray()) {
+            // keep the structure of $and/$or and pipelines, collapse arrays of values such as $in
+            BsonArray masked = new BsonArray();
+            for (BsonValue element : value.asArray()) {
+                if (element.isDocument()) {
+                    masked.add(mask(element));
+                } else {
+                    return new BsonString(PLACEHOLDER);
+                }
+            }
+            return masked;
+        }
+        return new BsonString(PLACEHOLDER);
+    }
+
+    /**
+     * A reported slow operation.
+     */
+    public static class SlowOperation {
+
+        private final String      commandName;
+
+        private final String      collection;
+
+        private final String      daoMethod;
+
+        private final String      filterShape;
+
+        private final long        elapsedMillis;
+
+        private volatile Document explain;
+
+        SlowOperation(String commandName, String collection, String daoMethod, String filterShape,
+                long elapsedMillis) {
+            this.commandName = commandName;
+            this.collection = collection;
+            this.daoMethod = daoMethod;
+            this.filterShape = filterShape;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public String getCommandName() {
+            return commandName;
+        }
+
+        public String getCollection() {
+            return collection;
+        }
+
+        /**
+         * @return "SimpleClassName.method" of the repository code that issued the command
+         */
+        public String getDaoMethod() {
+            return daoMethod;
+        }
+
+        public String getFilterShape() {
+            return filterShape;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        /**
+         * @return the winning plan, once captured; null while pending or if explain failed
+         */
+        public Document getExplain() {
+            return explain;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package org.springframework.batch.mongodb;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.bson.types.ObjectId;
+import org.springframework.batch.item.ExecutionContext;
+
+/**
+ * Execution context whose values spilled to GridFS are read only when first accessed. Until then the entry holds the
+ * stored reference, so that writing the context back keeps pointing at the same file instead of uploading it again.
+ * <br/>
+ * Resolving a value does not mark the context dirty. Serialized as a plain, fully resolved ExecutionContext.
+ */
+final class SpilledExecutionContext extends ExecutionContext {
+
+    private static final long                          serialVersionUID = 1L;
+
+    private final transient Map<String, ObjectId>      unresolved       = new HashMap<>();
+
+    private final transient Function<ObjectId, Object> loader;
+
+    SpilledExecutionContext(Function<ObjectId, Object> loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * Adds a spilled value by its stored reference, without reading it.
+     */
+    synchronized void putReference(String key, Object reference, ObjectId fileId) {
+        super.put(key, reference);
+        unresolved.put(key, fileId);
+    }
+
+    /**
+     * @return the entries as stored, with the reference in place of every value not read yet
+     */
+    Set<Map.Entry<String, Object>> storedEntrySet() {
+        return super.entrySet();
+    }
+
+    @Override
+    public Object get(String key) {
+        resolve(key);
+        return super.get(key);
+    }
+
+    @Override
+    public synchronized void put(String key, Object value) {
+        unresolved.remove(key);
+        super.put(key, value);
+    }
+
+    @Override
+    public synchronized Object remove(String key) {
+        unresolved.remove(key);
+        return super.remove(key);
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        resolveAll();
+        return super.entrySet();
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        resolveAll();
+        return super.containsValue(value);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        resolveAll();
+        return super.equals(other);
+    }
+
+    @Override
+    public int hashCode() {
+        resolveAll();
+        return super.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        resolveAll();
+        return super.toString();
+    }
+
+    private synchronized void resolve(String key) {
+        ObjectId fileId = unresolved.get(key);
+        if (fileId != null) {
+            Object value = loader.apply(fileId);
+            unresolved.remove(key);
+            boolean dirty = isDirty();
+            super.put(key, value);
+            if (!dirty) {
+                clearDirtyFlag();
+            }
+        }
+    }
+
+    private synchronized void resolveAll() {
+        for (String key : unresolved.keySet().toArray(new String[0])) {
+            resolve(key);
+        }
+    }
+
+    private Object writeReplace() {
+        return new ExecutionContext(this);
+    }
+}
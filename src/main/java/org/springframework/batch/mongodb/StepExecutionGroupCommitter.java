@@ -0,0 +1,340 @@
+package org.springframework.batch.mongodb;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Projections.include;
+import static com.mongodb.client.model.Updates.combine;
+import static com.mongodb.client.model.Updates.set;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.util.Assert;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+
+/**
+ * Group commit of step execution updates: updates arriving from many threads within a short window are sent as one
+ * unordered bulkWrite, and each caller is released once the batch is acknowledged, so updates stay synchronous and
+ * durable as with single writes. <br/>
+ * Set one instance on {@link MongoStepExecutionDao} (or on {@link MongoJobRepositoryFactoryBean}). Each update stays
+ * version checked: a caller whose update matched nothing gets an OptimisticLockingFailureException, the other updates
+ * of its batch are not affected. Two updates of the same step execution are never put in the same batch. <br/>
+ * Each update also stores a unique {@value #COMMIT_ID_KEY}, which tells after a partly matched batch which updates
+ * were applied. Every caller is released, with an exception if its batch could not be written.
+ */
+public class StepExecutionGroupCommitter {
+
+    private static final Logger          LOG            = LoggerFactory.getLogger(StepExecutionGroupCommitter.class);
+
+    /** Id of the last grouped update applied to a step execution. */
+    public static final String           COMMIT_ID_KEY  = "commitId";
+
+    private final BlockingQueue<Pending> queue          = new LinkedBlockingQueue<>();
+
+    private final AtomicLong             updates        = new AtomicLong();
+
+    private final AtomicLong             batches        = new AtomicLong();
+
+    private MongoTemplate                mongoTemplate;
+
+    private int                          maxBatchSize   = 256;
+
+    private long                         maxDelayMicros = 200;
+
+    private volatile boolean             running;
+
+    private Thread                       flusher;
+
+    public void setMongoTemplate(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * Most updates sent in one bulkWrite. Defaults to 256.
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        Assert.isTrue(maxBatchSize > 0, "maxBatchSize must be positive.");
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * How long the first update of a batch waits for others to join it. Updates arriving while the previous batch is
+     * written are grouped anyway, so 0 still batches under load. Defaults to 200 microseconds.
+     */
+    public void setMaxDelayMicros(long maxDelayMicros) {
+        Assert.isTrue(maxDelayMicros >= 0, "maxDelayMicros must not be negative.");
+        this.maxDelayMicros = maxDelayMicros;
+    }
+
+    /**
+     * Updates written so far.
+     */
+    public long getUpdateCount() {
+        return updates.get();
+    }
+
+    /**
+     * bulkWrites issued so far.
+     */
+    public long getBatchCount() {
+        return batches.get();
+    }
+
+    /**
+     * Applies an update to the step execution with the given id and version, waiting until its batch is written.
+     *
+     * @throws OptimisticLockingFailureException if the stored version differs
+     * @throws IllegalArgumentException          if the step execution was never saved
+     */
+    public void update(Long stepExecutionId, Integer version, Bson update) {
+        Pending pending = new Pending(stepExecutionId, version, update);
+        synchronized (this) {
+            start();
+            queue.add(pending);
+        }
+        try {
+            pending.done.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Writes the updates still queued and stops the flusher thread.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        Thread thread;
+        synchronized (this) {
+            running = false;
+            thread = flusher;
+            flusher = null;
+        }
+        if (thread != null) {
+            thread.join();
+        }
+    }
+
+    private void start() {
+        if (flusher == null) {
+            Assert.notNull(mongoTemplate, "mongoTemplate must be set.");
+            running = true;
+            flusher = new Thread(this::flush, "step-execution-group-commit");
+            flusher.setDaemon(true);
+            flusher.start();
+        }
+    }
+
+    private void flush() {
+        Deque<Pending> deferred = new ArrayDeque<>();
+        try {
+            while (running || !queue.isEmpty() || !deferred.isEmpty()) {
+                List<Pending> batch = new ArrayList<>();
+                RuntimeException failure = null;
+                try {
+                    collect(deferred, batch);
+                    if (!batch.isEmpty()) {
+                        write(batch);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    // released once the flusher is cleared, so that their next update starts a new one
+                    deferred.addAll(batch);
+                    batch.clear();
+                    return;
+                } catch (RuntimeException e) {
+                    LOG.error("Group commit failed", e);
+                    failure = e;
+                } finally {
+                    abandon(batch, failure);
+                }
+            }
+        } finally {
+            List<Pending> left = new ArrayList<>(deferred);
+            synchronized (this) {
+                if (flusher == Thread.currentThread()) {
+                    // interrupted: the next update starts a new flusher
+                    flusher = null;
+                    queue.drainTo(left);
+                }
+            }
+            abandon(left, null);
+        }
+    }
+
+    /**
+     * Releases the callers of updates that were not written.
+     */
+    private void abandon(List<Pending> pending, RuntimeException cause) {
+        for (Pending update : pending) {
+            if (!update.done.isDone()) {
+                update.fail(new DataAccessResourceFailureException("Step execution update " + update.id
+                        + " was not written, the group commit failed or was stopped", cause));
+            }
+        }
+    }
+
+    private void collect(Deque<Pending> deferred, List<Pending> batch) throws InterruptedException {
+        Set<Long> ids = new HashSet<>();
+        while (!deferred.isEmpty() && batch.size() < maxBatchSize) {
+            Pending pending = deferred.peek();
+            if (!ids.add(pending.id)) {
+                break;
+            }
+            batch.add(deferred.poll());
+        }
+        if (batch.isEmpty()) {
+            Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+            if (first == null) {
+                return;
+            }
+            ids.add(first.id);
+            batch.add(first);
+        }
+        long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+        while (batch.size() < maxBatchSize) {
+            Pending next = queue.poll();
+            if (next == null) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || (next = queue.poll(remaining, TimeUnit.NANOSECONDS)) == null) {
+                    break;
+                }
+            }
+            if (ids.add(next.id)) {
+                batch.add(next);
+            } else {
+                deferred.add(next);
+            }
+        }
+    }
+
+    private void write(List<Pending> batch) {
+        MongoCollection<Document> collection = mongoTemplate.getCollection(StepExecution.class.getSimpleName());
+        List<WriteModel<Document>> models = new ArrayList<>(batch.size());
+        for (Pending pending : batch) {
+            models.add(new UpdateOneModel<>(and(eq(AbstractMongoDao.STEP_EXECUTION_ID_KEY, pending.id),
+                    eq(AbstractMongoDao.VERSION_KEY, pending.version)),
+                    combine(pending.update, set(COMMIT_ID_KEY, pending.commitId))));
+        }
+        batches.incrementAndGet();
+        updates.addAndGet(batch.size());
+        List<Pending> unresolved = batch;
+        try {
+            BulkWriteResult result = collection.bulkWrite(models, new BulkWriteOptions().ordered(false));
+            if (result.getMatchedCount() == batch.size()) {
+                batch.forEach(pending -> pending.done.complete(null));
+                return;
+            }
+        } catch (MongoBulkWriteException e) {
+            // the other updates were still applied, as the batch is unordered
+            unresolved = new ArrayList<>(batch);
+            RuntimeException translated = translate(e);
+            for (BulkWriteError error : e.getWriteErrors()) {
+                Pending failed = batch.get(error.getIndex());
+                failed.fail(translated);
+                unresolved.remove(failed);
+            }
+        } catch (RuntimeException e) {
+            RuntimeException translated = translate(e);
+            batch.forEach(pending -> pending.fail(translated));
+            return;
+        }
+        try {
+            resolve(collection, unresolved);
+        } catch (RuntimeException e) {
+            // completing an already resolved update is a no-op
+            RuntimeException translated = translate(e);
+            unresolved.forEach(pending -> pending.fail(translated));
+        }
+    }
+
+    /**
+     * Finds out which updates of a partly matched batch were applied, from the commit ids now stored. Versions alone
+     * cannot tell: another writer may have moved the version to the one an update would have set.
+     */
+    private void resolve(MongoCollection<Document> collection, List<Pending> batch) {
+        Map<Long, Pending> byId = new HashMap<>();
+        batch.forEach(pending -> byId.put(pending.id, pending));
+        Map<Long, Document> stored = new HashMap<>();
+        for (Document document : collection.find(in(AbstractMongoDao.STEP_EXECUTION_ID_KEY, byId.keySet()))
+                .projection(include(AbstractMongoDao.STEP_EXECUTION_ID_KEY, AbstractMongoDao.VERSION_KEY,
+                        COMMIT_ID_KEY))) {
+            stored.put(document.getLong(AbstractMongoDao.STEP_EXECUTION_ID_KEY), document);
+        }
+        for (Pending pending : batch) {
+            Document document = stored.get(pending.id);
+            if (document == null) {
+                pending.fail(new IllegalArgumentException("Can't update this stepExecution, it was never saved."));
+            } else if (pending.commitId.equals(document.get(COMMIT_ID_KEY))) {
+                pending.done.complete(null);
+            } else {
+                pending.fail(new OptimisticLockingFailureException("Attempt to update step execution id="
+                        + pending.id + " with wrong version (" + pending.version + "), where current version is "
+                        + document.get(AbstractMongoDao.VERSION_KEY)));
+            }
+        }
+    }
+
+    private RuntimeException translate(RuntimeException e) {
+        DataAccessException translated = mongoTemplate.getExceptionTranslator().translateExceptionIfPossible(e);
+        return translated != null ? translated : e;
+    }
+
+    private static class Pending {
+
+        private final Long                    id;
+
+        private final Integer                 version;
+
+        private final Bson                    update;
+
+        private final ObjectId                commitId = new ObjectId();
+
+        private final CompletableFuture<Void> done     = new CompletableFuture<>();
+
+        Pending(Long id, Integer version, Bson update) {
+            this.id = id;
+            this.version = version;
+            this.update = update;
+        }
+
+        void fail(RuntimeException e) {
+            done.completeExceptionally(e);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package org.springframework.batch.mongodb;
+
+import static com.mongodb.client.model.Filters.exists;
+import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Projections.include;
+import static com.mongodb.client.model.Updates.set;
+import static com.mongodb.client.model.Updates.unset;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.util.Assert;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+
+/**
+ * Moves step executions between the separate StepExecution collection used by {@link MongoStepExecutionDao} and the
+ * array embedded in JobExecution documents used by {@link MongoEmbeddedStepExecutionDao}. <br/>
+ * Both directions write whole step lists per job execution, so an interrupted run can simply be started again. Jobs
+ * must not be running against the repository while it migrates.
+ */
+public class StepExecutionLayoutMigrator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StepExecutionLayoutMigrator.class);
+
+    private MongoTemplate       mongoTemplate;
+
+    private int                 batchSize = 500;
+
+    private boolean             removeSource;
+
+    public void setMongoTemplate(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * Number of job executions written per bulk write. Defaults to 500.
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Whether the source layout is removed after each batch has been written. Defaults to false, leaving the old
+     * data in place until the new layout has been verified.
+     */
+    public void setRemoveSource(boolean removeSource) {
+        this.removeSource = removeSource;
+    }
+
+    /**
+     * Copies every StepExecution document into the stepExecutions array of its JobExecution.
+     *
+     * @return the number of job executions updated
+     */
+    public int migrateToEmbedded() {
+        Assert.notNull(mongoTemplate, "MongoTemplate must be set.");
+        MongoCollection<Document> steps = getStepCollection();
+        List<WriteModel<Document>> batch = new ArrayList<>();
+        List<Long> batchIds = new ArrayList<>();
+        int migrated = 0;
+
+        Long currentJobExecutionId = null;
+        List<Document> currentSteps = new ArrayList<>();
+        try (MongoCursor<Document> cursor = steps.find().sort(Sorts.ascending(AbstractMongoDao.JOB_EXECUTION_ID_KEY))
+                .iterator()) {
+            while (cursor.hasNext()) {
+                Document step = cursor.next();
+                step.remove(AbstractMongoDao.ID_KEY);
+                Long jobExecutionId = (Long) step.get(AbstractMongoDao.JOB_EXECUTION_ID_KEY);
+                if (currentJobExecutionId != null && !currentJobExecutionId.equals(jobExecutionId)) {
+                    addEmbedding(batch, batchIds, currentJobExecutionId, currentSteps);
+                    currentSteps = new ArrayList<>();
+                    if (batch.size() >= batchSize) {
+                        migrated += flushToEmbedded(batch, batchIds);
+                    }
+                }
+                currentJobExecutionId = jobExecutionId;
+                currentSteps.add(step);
+            }
+        }
+        if (currentJobExecutionId != null) {
+            addEmbedding(batch, batchIds, currentJobExecutionId, currentSteps);
+        }
+        migrated += flushToEmbedded(batch, batchIds);
+        LOG.info("Embedded step executions into {} job executions", migrated);
+        return migrated;
+    }
+
+    /**
+     * Copies every embedded step execution back into the StepExecution collection.
+     *
+     * @return the number of job executions whose steps were copied
+     */
+    @SuppressWarnings("unchecked")
+    public int migrateToSeparate() {
+        Assert.notNull(mongoTemplate, "MongoTemplate must be set.");
+        List<WriteModel<Document>> batch = new ArrayList<>();
+        List<Long> batchIds = new ArrayList<>();
+        int migrated = 0;
+        try (MongoCursor<Document> cursor = getJobExecutionCollection()
+                .find(exists(AbstractMongoDao.STEP_EXECUTIONS_KEY))
+                .projection(include(AbstractMongoDao.JOB_EXECUTION_ID_KEY, AbstractMongoDao.STEP_EXECUTIONS_KEY))
+                .iterator()) {
+            while (cursor.hasNext()) {
+                Document parent = cursor.next();
+                for (Document step : (List<Document>) parent.get(AbstractMongoDao.STEP_EXECUTIONS_KEY)) {
+                    batch.add(new ReplaceOneModel<>(
+                            MongoStepExecutionDao.stepExecutionIdObj((Long) step.get(AbstractMongoDao.STEP_EXECUTION_ID_KEY)),
+                            step, new ReplaceOptions().upsert(true)));
+                }
+                batchIds.add((Long) parent.get(AbstractMongoDao.JOB_EXECUTION_ID_KEY));
+                if (batchIds.size() >= batchSize) {
+                    migrated += flushToSeparate(batch, batchIds);
+                }
+            }
+        }
+        migrated += flushToSeparate(batch, batchIds);
+        LOG.info("Copied embedded step executions of {} job executions", migrated);
+        return migrated;
+    }
+
+    private void addEmbedding(List<WriteModel<Document>> batch, List<Long> batchIds, Long jobExecutionId,
+            List<Document> jobSteps) {
+        jobSteps.sort(Comparator.comparing(step -> (Long) step.get(AbstractMongoDao.STEP_EXECUTION_ID_KEY)));
+        batch.add(new UpdateOneModel<>(new Document(AbstractMongoDao.JOB_EXECUTION_ID_KEY, jobExecutionId),
+                set(AbstractMongoDao.STEP_EXECUTIONS_KEY, jobSteps)));
+        batchIds.add(jobExecutionId);
+    }
+
+    private int flushToEmbedded(List<WriteModel<Document>> batch, List<Long> batchIds) {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        getJobExecutionCollection().bulkWrite(batch, new BulkWriteOptions().ordered(false));
+        if (removeSource) {
+            getStepCollection().deleteMany(in(AbstractMongoDao.JOB_EXECUTION_ID_KEY, batchIds));
+        }
+        int count = batchIds.size();
+        batch.clear();
+        batchIds.clear();
+        return count;
+    }
+
+    private int flushToSeparate(List<WriteModel<Document>> batch, List<Long> batchIds) {
+        if (batchIds.isEmpty()) {
+            return 0;
+        }
+        if (!batch.isEmpty()) {
+            getStepCollection().bulkWrite(batch, new BulkWriteOptions().ordered(false));
+        }
+        if (removeSource) {
+            getJobExecutionCollection().updateMany(in(AbstractMongoDao.JOB_EXECUTION_ID_KEY, batchIds),
+                    unset(AbstractMongoDao.STEP_EXECUTIONS_KEY));
+        }
+        int count = batchIds.size();
+        batch.clear();
+        batchIds.clear();
+        return count;
+    }
+
+    private MongoCollection<Document> getStepCollection() {
+        return mongoTemplate.getCollection(StepExecution.class.getSimpleName());
+    }
+
+    private MongoCollection<Document> getJobExecutionCollection() {
+        return mongoTemplate.getCollection(JobExecution.class.getSimpleName());
+    }
+}
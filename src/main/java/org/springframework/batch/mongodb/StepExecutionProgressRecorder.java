@@ -0,0 +1,282 @@
+package org.springframework.batch.mongodb;
+
+import static com.mongodb.client.model.Filters.eq;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.util.Assert;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.CreateCollectionOptions;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.TimeSeriesGranularity;
+import com.mongodb.client.model.TimeSeriesOptions;
+
+/**
+ * Keeps a progress history of step executions in a time-series collection: one sample of the counters per
+ * updateStepExecution, whereas the StepExecution document only holds the latest counters. <br/>
+ * Set it on {@link MongoStepExecutionDao} (or on {@link MongoJobRepositoryFactoryBean}). Samples are queued and
+ * inserted in batches by a background thread, so recording never waits for the server; when the queue is full, new
+ * samples are dropped and counted instead of slowing down the step. {@link #getStepRates(Long)} and
+ * {@link #getJobRates(Long)} compute rate curves on the server with $setWindowFields (MongoDB 5.0+).
+ */
+public class StepExecutionProgressRecorder {
+
+    private static final Logger         LOG                     = LoggerFactory
+            .getLogger(StepExecutionProgressRecorder.class);
+
+    public static final String          DEFAULT_COLLECTION_NAME = "StepExecutionProgress";
+
+    public static final String          TIMESTAMP_KEY           = "timestamp";
+
+    public static final String          META_KEY                = "meta";
+
+    public static final String          READ_RATE_KEY           = "readRate";
+
+    public static final String          WRITE_RATE_KEY          = "writeRate";
+
+    public static final String          COMMIT_RATE_KEY         = "commitRate";
+
+    private static final String         NAMESPACE_EXISTS        = "NamespaceExists";
+
+    private final AtomicLong            dropped                 = new AtomicLong();
+
+    private BlockingQueue<Document>     queue;
+
+    private MongoTemplate               mongoTemplate;
+
+    private String                      collectionName          = DEFAULT_COLLECTION_NAME;
+
+    private int                         capacity                = 10000;
+
+    private int                         batchSize               = 500;
+
+    private long                        flushIntervalMillis     = 1000;
+
+    private Long                        expireAfterSeconds;
+
+    private volatile boolean            running;
+
+    private Thread                      flusher;
+
+    public void setMongoTemplate(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * Defaults to {@value #DEFAULT_COLLECTION_NAME}.
+     */
+    public void setCollectionName(String collectionName) {
+        this.collectionName = collectionName;
+    }
+
+    /**
+     * Samples queued at most before new ones are dropped. Defaults to 10000.
+     */
+    public void setCapacity(int capacity) {
+        Assert.isTrue(capacity > 0, "capacity must be positive.");
+        this.capacity = capacity;
+    }
+
+    /**
+     * Samples inserted at most per insertMany. Defaults to 500.
+     */
+    public void setBatchSize(int batchSize) {
+        Assert.isTrue(batchSize > 0, "batchSize must be positive.");
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Longest time a sample stays queued while the batch is not full. Defaults to 1000.
+     */
+    public void setFlushIntervalMillis(long flushIntervalMillis) {
+        Assert.isTrue(flushIntervalMillis > 0, "flushIntervalMillis must be positive.");
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+
+    /**
+     * Lets the server delete samples older than this when the collection is created. Kept forever by default.
+     */
+    public void setExpireAfterSeconds(Long expireAfterSeconds) {
+        this.expireAfterSeconds = expireAfterSeconds;
+    }
+
+    /**
+     * Samples dropped so far because the queue was full.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Creates the time-series collection if it does not exist and starts the background inserts.
+     */
+    @PostConstruct
+    public synchronized void init() {
+        Assert.notNull(mongoTemplate, "mongoTemplate must be set.");
+        if (!mongoTemplate.collectionExists(collectionName)) {
+            CreateCollectionOptions options = new CreateCollectionOptions().timeSeriesOptions(
+                    new TimeSeriesOptions(TIMESTAMP_KEY).metaField(META_KEY).granularity(TimeSeriesGranularity.SECONDS));
+            if (expireAfterSeconds != null) {
+                options.expireAfter(expireAfterSeconds, TimeUnit.SECONDS);
+            }
+            try {
+                mongoTemplate.getDb().createCollection(collectionName, options);
+            } catch (MongoCommandException e) {
+                // created concurrently by another recorder
+                if (!NAMESPACE_EXISTS.equals(e.getErrorCodeName())) {
+                    throw e;
+                }
+            }
+        }
+        if (flusher == null) {
+            queue = new LinkedBlockingQueue<>(capacity);
+            running = true;
+            flusher = new Thread(this::flush, "step-execution-progress-recorder");
+            flusher.setDaemon(true);
+            flusher.start();
+        }
+    }
+
+    /**
+     * Inserts the samples still queued and stops the background inserts.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        Thread thread;
+        synchronized (this) {
+            running = false;
+            thread = flusher;
+            flusher = null;
+        }
+        if (thread != null) {
+            thread.join();
+        }
+    }
+
+    /**
+     * Queues a sample of the current counters of a step execution, taken at its lastUpdated time.
+     *
+     * @return false if the sample was dropped because the queue is full or the recorder is not started
+     */
+    public boolean record(StepExecution stepExecution) {
+        BlockingQueue<Document> samples = queue;
+        Date timestamp = stepExecution.getLastUpdated() != null ? stepExecution.getLastUpdated() : new Date();
+        Document sample = new Document(TIMESTAMP_KEY, timestamp)
+                .append(META_KEY, new Document(AbstractMongoDao.STEP_EXECUTION_ID_KEY, stepExecution.getId())
+                        .append(AbstractMongoDao.JOB_EXECUTION_ID_KEY, stepExecution.getJobExecutionId())
+                        .append(AbstractMongoDao.STEP_NAME_KEY, stepExecution.getStepName()))
+                .append(AbstractMongoDao.STATUS_KEY, stepExecution.getStatus().toString())
+                // samples keep the former counter names, so the series reads the same across upgrades
+                .append(AbstractMongoDao.READ_COUNT_KEY, stepExecution.getReadCount())
+                .append(AbstractMongoDao.WRITE_COUNT_KEY, stepExecution.getWriteCount())
+                .append(AbstractMongoDao.LEGACY_FILTER_COUNT_KEY, stepExecution.getFilterCount())
+                .append(AbstractMongoDao.COMMIT_COUNT_KEY, stepExecution.getCommitCount())
+                .append(AbstractMongoDao.READ_SKIP_COUNT_KEY, stepExecution.getReadSkipCount())
+                .append(AbstractMongoDao.WRITE_SKIP_COUNT_KEY, stepExecution.getWriteSkipCount())
+                .append(AbstractMongoDao.LEGACY_PROCESS_SKIP_COUNT_KEY, stepExecution.getProcessSkipCount())
+                .append(AbstractMongoDao.ROLLBACK_COUNT_KEY, stepExecution.getRollbackCount());
+        if (!running || !samples.offer(sample)) {
+            if (dropped.getAndIncrement() % capacity == 0) {
+                LOG.warn("Progress sample queue full, {} samples dropped so far", dropped.get());
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Rate curve of one step execution: its samples in time order, each with the counters and readRate, writeRate
+     * and commitRate per second since the previous sample.
+     */
+    public List<Document> getStepRates(Long stepExecutionId) {
+        return rates(eq(META_KEY + "." + AbstractMongoDao.STEP_EXECUTION_ID_KEY, stepExecutionId));
+    }
+
+    /**
+     * Rate curves of all step executions of a job execution, as {@link #getStepRates(Long)} and ordered by step
+     * execution, then time; the step execution and name are in the meta field of each sample.
+     */
+    public List<Document> getJobRates(Long jobExecutionId) {
+        return rates(eq(META_KEY + "." + AbstractMongoDao.JOB_EXECUTION_ID_KEY, jobExecutionId));
+    }
+
+    private List<Document> rates(Bson filter) {
+        String stepExecutionId = "$" + META_KEY + "." + AbstractMongoDao.STEP_EXECUTION_ID_KEY;
+        Document window = new Document("documents", Arrays.asList(-1, 0));
+        Document output = new Document()
+                .append(READ_RATE_KEY, derivative(AbstractMongoDao.READ_COUNT_KEY, window))
+                .append(WRITE_RATE_KEY, derivative(AbstractMongoDao.WRITE_COUNT_KEY, window))
+                .append(COMMIT_RATE_KEY, derivative(AbstractMongoDao.COMMIT_COUNT_KEY, window));
+        List<Document> pipeline = Arrays.asList(new Document("$match", filter),
+                new Document("$setWindowFields", new Document("partitionBy", stepExecutionId)
+                        .append("sortBy", new Document(TIMESTAMP_KEY, 1)).append("output", output)),
+                new Document("$sort", new Document(META_KEY + "." + AbstractMongoDao.STEP_EXECUTION_ID_KEY, 1)
+                        .append(TIMESTAMP_KEY, 1)),
+                new Document("$project", new Document("_id", 0)));
+        return getCollection().aggregate(pipeline).into(new ArrayList<>());
+    }
+
+    private static Document derivative(String counter, Document window) {
+        // the first sample of a step has no rate
+        return new Document("$derivative", new Document("input", "$" + counter).append("unit", "second"))
+                .append("window", window);
+    }
+
+    private void flush() {
+        List<Document> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Document first = queue.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+                while (batch.size() < batchSize && running) {
+                    long remaining = deadline - System.nanoTime();
+                    Document next = queue.poll(Math.max(remaining, 0), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                queue.drainTo(batch, batchSize - batch.size());
+                getCollection().insertMany(batch, new InsertManyOptions().ordered(false));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (MongoException e) {
+                LOG.error("Failed to insert {} progress samples", batch.size(), e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private MongoCollection<Document> getCollection() {
+        return mongoTemplate.getCollection(collectionName);
+    }
+}
@@ -0,0 +1,206 @@
+package org.springframework.batch.mongodb;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.lte;
+import static com.mongodb.client.model.Filters.or;
+import static com.mongodb.client.model.Updates.combine;
+import static com.mongodb.client.model.Updates.set;
+
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.util.Assert;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
+
+/**
+ * {@link IdGenerator} producing 64-bit ids on the client, without a round trip per id: 41 bits of milliseconds since
+ * 2020-01-01, a 10 bit node id and a 12 bit counter, so ids increase with time and up to 4096 ids per millisecond
+ * and node can be generated. <br/>
+ * Node ids are leased from the IdGeneratorNodes collection and renewed in the background; a node only generates ids
+ * with timestamps before its lease expires, and takes over an expired lease only once that expiry has passed, so two
+ * nodes never share a node id for the same millisecond. Ids are far larger than Sequences values, so switching an
+ * existing repository keeps ordering by id intact. They exceed 2^53 and lose precision as JavaScript numbers.
+ */
+public class TimeOrderedIdGenerator implements IdGenerator {
+
+    private static final Logger LOG                   = LoggerFactory.getLogger(TimeOrderedIdGenerator.class);
+
+    public static final String  LEASE_COLLECTION_NAME = "IdGeneratorNodes";
+    public static final String  OWNER_KEY             = "owner";
+    public static final String  EXPIRES_AT_KEY        = "expiresAt";
+
+    /** 2020-01-01T00:00:00Z */
+    static final long           EPOCH                 = 1577836800000L;
+    static final int            NODE_BITS             = 10;
+    static final int            COUNTER_BITS          = 12;
+    static final int            MAX_NODE_ID           = (1 << NODE_BITS) - 1;
+    static final int            MAX_COUNTER           = (1 << COUNTER_BITS) - 1;
+
+    private final String        owner                 = UUID.randomUUID().toString();
+
+    private MongoTemplate       mongoTemplate;
+
+    private long                leaseMillis           = 60000;
+
+    private int                 nodeId                = -1;
+
+    /** Lease expiry, in milliseconds since 1970 */
+    private long                leaseExpiresAt;
+
+    /** Timestamp of the last id, in milliseconds since {@link #EPOCH} */
+    private long                lastTimestamp;
+
+    private int                 counter;
+
+    private ScheduledExecutorService renewer;
+
+    public void setMongoTemplate(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * How long a node id is leased. The lease is renewed every third of this. Defaults to one minute.
+     */
+    public void setLeaseMillis(long leaseMillis) {
+        this.leaseMillis = leaseMillis;
+    }
+
+    /**
+     * @return the leased node id, or -1 before the first lease
+     */
+    public synchronized int getNodeId() {
+        return nodeId;
+    }
+
+    @PostConstruct
+    public synchronized void init() {
+        Assert.notNull(mongoTemplate, "MongoTemplate must be set.");
+        if (nodeId < 0) {
+            acquire();
+        }
+    }
+
+    @Override
+    public synchronized Long nextId(String name) {
+        if (nodeId < 0) {
+            init();
+        }
+        long now = System.currentTimeMillis() - EPOCH;
+        if (now > lastTimestamp) {
+            lastTimestamp = now;
+            counter = 0;
+        } else if (++counter > MAX_COUNTER) {
+            // counter exhausted, or the clock went back: continue in the next millisecond
+            lastTimestamp++;
+            counter = 0;
+        }
+        if (EPOCH + lastTimestamp >= leaseExpiresAt) {
+            renew();
+        }
+        return (lastTimestamp << (NODE_BITS + COUNTER_BITS)) | ((long) nodeId << COUNTER_BITS) | counter;
+    }
+
+    /**
+     * Releases the node id, so the next node can take it over once the last timestamp used here has passed.
+     */
+    @PreDestroy
+    public synchronized void stop() {
+        if (renewer != null) {
+            renewer.shutdownNow();
+            renewer = null;
+        }
+        if (nodeId >= 0) {
+            getLeases().updateOne(and(eq(AbstractMongoDao.ID_KEY, nodeId), eq(OWNER_KEY, owner)),
+                    set(EXPIRES_AT_KEY, new Date(EPOCH + lastTimestamp + 1)));
+            nodeId = -1;
+        }
+    }
+
+    private void acquire() {
+        long now = System.currentTimeMillis();
+        int start = ThreadLocalRandom.current().nextInt(MAX_NODE_ID + 1);
+        for (int i = 0; i <= MAX_NODE_ID; i++) {
+            int candidate = (start + i) & MAX_NODE_ID;
+            Document previous;
+            try {
+                previous = getLeases().findOneAndUpdate(
+                        and(eq(AbstractMongoDao.ID_KEY, candidate),
+                                or(lte(EXPIRES_AT_KEY, new Date(now)), eq(OWNER_KEY, owner))),
+                        combine(set(OWNER_KEY, owner), set(EXPIRES_AT_KEY, new Date(now + leaseMillis))),
+                        new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.BEFORE));
+            } catch (MongoException e) {
+                if (ErrorCategory.fromErrorCode(e.getCode()) == ErrorCategory.DUPLICATE_KEY) {
+                    // leased by a live node
+                    continue;
+                }
+                throw e;
+            }
+            if (previous != null) {
+                // ids of the previous holder are all older than its lease expiry
+                lastTimestamp = Math.max(lastTimestamp, previous.getDate(EXPIRES_AT_KEY).getTime() - EPOCH);
+            }
+            nodeId = candidate;
+            leaseExpiresAt = now + leaseMillis;
+            if (renewer == null) {
+                renewer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "id-generator-lease");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                renewer.scheduleWithFixedDelay(this::renewQuietly, leaseMillis / 3, leaseMillis / 3,
+                        TimeUnit.MILLISECONDS);
+            }
+            LOG.info("Leased id generator node {}", nodeId);
+            return;
+        }
+        throw new IllegalStateException("All " + (MAX_NODE_ID + 1) + " id generator node ids are leased");
+    }
+
+    /**
+     * Extends the lease, or leases another node id if this one was taken over after expiring, e.g. after a long pause.
+     */
+    private synchronized void renew() {
+        long now = System.currentTimeMillis();
+        long matched = getLeases().updateOne(and(eq(AbstractMongoDao.ID_KEY, nodeId), eq(OWNER_KEY, owner)),
+                set(EXPIRES_AT_KEY, new Date(now + leaseMillis))).getMatchedCount();
+        if (matched == 0) {
+            LOG.warn("Lease of id generator node {} was lost, leasing another one", nodeId);
+            acquire();
+        } else {
+            leaseExpiresAt = now + leaseMillis;
+        }
+    }
+
+    private void renewQuietly() {
+        try {
+            synchronized (this) {
+                if (nodeId >= 0) {
+                    renew();
+                }
+            }
+        } catch (RuntimeException e) {
+            LOG.warn("Failed to renew lease of id generator node {}", nodeId, e);
+        }
+    }
+
+    private MongoCollection<Document> getLeases() {
+        return mongoTemplate.getDb().getCollection(LEASE_COLLECTION_NAME);
+    }
+}
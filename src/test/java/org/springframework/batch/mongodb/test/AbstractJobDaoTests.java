@@ -45,7 +45,6 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.mongodb.core.MongoTemplate;
 
 import com.mongodb.BasicDBObject;
-import com.mongodb.DBObject;
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCursor;
 
@@ -234,12 +233,17 @@ public abstract class AbstractJobDaoTests {
         assertTrue(dbCursor.hasNext());
         Document dbObject = dbCursor.next();
         assertNotNull(dbObject);
-        DBObject jobParamObj = (DBObject) dbObject.get(MongoJobInstanceDao.JOB_PARAMETERS_KEY);
-        assertNotNull(jobParamObj);
-        String encodedKey = "job.key".replaceAll(MongoJobInstanceDao.DOT_STRING, MongoJobInstanceDao.DOT_ESCAPE_STRING);
-        assertNotNull(jobParamObj.get(encodedKey));
-
-        assertEquals(jobParameters.getString("job.key"), jobParamObj.get(encodedKey).toString());
+        List<Document> jobParamList = dbObject.getList(MongoJobInstanceDao.JOB_PARAMETERS_KEY, Document.class);
+        assertNotNull(jobParamList);
+        Document jobKeyParam = null;
+        for (Document param : jobParamList) {
+            if ("job.key".equals(param.get(MongoJobInstanceDao.PARAMETER_NAME_KEY))) {
+                jobKeyParam = param;
+            }
+        }
+        assertNotNull(jobKeyParam);
+
+        assertEquals(jobParameters.getString("job.key"), jobKeyParam.get(MongoJobInstanceDao.PARAMETER_VALUE_KEY));
 
     }
 
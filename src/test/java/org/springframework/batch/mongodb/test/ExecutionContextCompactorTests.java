@@ -0,0 +1,211 @@
+package org.springframework.batch.mongodb.test;
+
+import static com.mongodb.client.model.Filters.eq;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.bson.Document;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.batch.mongodb.AbstractMongoDao;
+import org.springframework.batch.mongodb.ExecutionContextCompactor;
+import org.springframework.batch.mongodb.MongoExecutionContextDao;
+import org.springframework.batch.mongodb.MongoJobRepositoryFactoryBean;
+import org.springframework.batch.support.transaction.ResourcelessTransactionManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+/**
+ * Tests for {@link ExecutionContextCompactor}: which contexts go, retention, spilled files and the background thread.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath:spring/batch/config/test-context.xml" })
+public class ExecutionContextCompactorTests {
+
+    @Autowired
+    protected MongoTemplate           mongoTemplate;
+
+    private JobRepository             jobRepository;
+
+    private ExecutionContextCompactor compactor;
+
+    @Before
+    public void setUp() throws Exception {
+        mongoTemplate.getDb().drop();
+        MongoJobRepositoryFactoryBean factory = new MongoJobRepositoryFactoryBean();
+        factory.setTransactionManager(new ResourcelessTransactionManager());
+        factory.setMongoTemplate(mongoTemplate);
+        factory.afterPropertiesSet();
+        jobRepository = factory.getObject();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (compactor != null) {
+            compactor.stop();
+        }
+    }
+
+    @Test
+    public void testKeepsOnlyContextsReadOnRestart() throws Exception {
+        JobExecution completed = startJob("completedJob");
+        StepExecution completedFirst = runStep(completed, "first", BatchStatus.COMPLETED);
+        StepExecution completedSecond = runStep(completed, "second", BatchStatus.COMPLETED);
+        finish(completed, BatchStatus.COMPLETED);
+
+        JobExecution failed = startJob("failedJob");
+        StepExecution failedFirst = runStep(failed, "first", BatchStatus.COMPLETED);
+        StepExecution failedSecond = runStep(failed, "second", BatchStatus.FAILED);
+        finish(failed, BatchStatus.FAILED);
+
+        JobExecution running = startJob("runningJob");
+        StepExecution runningFirst = runStep(running, "first", BatchStatus.COMPLETED);
+
+        compactor = compactor(0);
+        assertEquals(4, compactor.compact());
+        assertFalse(hasContext(completed));
+        assertFalse(hasContext(completedFirst));
+        assertFalse(hasContext(completedSecond));
+        // the restart reads the job context and that of the failed step
+        assertTrue(hasContext(failed));
+        assertFalse(hasContext(failedFirst));
+        assertTrue(hasContext(failedSecond));
+        assertTrue(hasContext(running));
+        assertTrue(hasContext(runningFirst));
+        assertEquals(0, compactor.compact());
+
+        JobExecution restarted = startJob("failedJob");
+        assertEquals(failed.getJobId(), restarted.getJobId());
+        StepExecution restartedSecond = runStep(restarted, "second", BatchStatus.COMPLETED);
+        finish(restarted, BatchStatus.COMPLETED);
+        assertEquals(4, compactor.compact());
+        assertFalse(hasContext(failed));
+        assertFalse(hasContext(failedSecond));
+        assertFalse(hasContext(restarted));
+        assertFalse(hasContext(restartedSecond));
+        assertEquals(8, compactor.getDeletedCount());
+        assertEquals(Boolean.TRUE, mongoTemplate.getCollection("JobExecution")
+                .find(eq(AbstractMongoDao.JOB_EXECUTION_ID_KEY, restarted.getId())).first()
+                .get(ExecutionContextCompactor.COMPACTED_KEY));
+    }
+
+    @Test
+    public void testRetentionAndSpilledValues() throws Exception {
+        MongoExecutionContextDao spillingDao = new MongoExecutionContextDao();
+        spillingDao.setMongoTemplate(mongoTemplate);
+        spillingDao.setSpillThreshold(1024);
+        JobExecution jobExecution = startJob("spillingJob");
+        StepExecution stepExecution = runStep(jobExecution, "partitioned", BatchStatus.COMPLETED);
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            keys.add("partition-key-" + i);
+        }
+        stepExecution.getExecutionContext().put("keys", keys);
+        spillingDao.updateExecutionContext(stepExecution);
+        finish(jobExecution, BatchStatus.COMPLETED);
+        assertEquals(1, countSpilledFiles());
+
+        compactor = compactor(60 * 60 * 1000);
+        assertEquals(0, compactor.compact());
+        assertTrue(hasContext(stepExecution));
+
+        compactor = compactor(0);
+        assertEquals(2, compactor.compact());
+        assertFalse(hasContext(stepExecution));
+        assertEquals(0, countSpilledFiles());
+        assertEquals(1, compactor.getDeletedFileCount());
+    }
+
+    @Test
+    public void testCompactsInBackgroundAfterJob() throws Exception {
+        compactor = new ExecutionContextCompactor();
+        compactor.setMongoTemplate(mongoTemplate);
+        compactor.setRetentionMillis(0);
+        compactor.setPauseMillis(0);
+        compactor.init();
+        assertTrue(compactor.isRunning());
+
+        JobExecution jobExecution = startJob("backgroundJob");
+        StepExecution stepExecution = runStep(jobExecution, "step", BatchStatus.COMPLETED);
+        finish(jobExecution, BatchStatus.COMPLETED);
+        compactor.afterJob(jobExecution);
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (hasContext(stepExecution) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertFalse(hasContext(stepExecution));
+        assertFalse(hasContext(jobExecution));
+        compactor.stop();
+        assertFalse(compactor.isRunning());
+    }
+
+    private ExecutionContextCompactor compactor(long retentionMillis) {
+        ExecutionContextCompactor compactor = new ExecutionContextCompactor();
+        compactor.setMongoTemplate(mongoTemplate);
+        compactor.setRetentionMillis(retentionMillis);
+        compactor.setIntervalMillis(0);
+        compactor.setBatchSize(2);
+        compactor.setPauseMillis(0);
+        compactor.init();
+        return compactor;
+    }
+
+    private JobExecution startJob(String jobName) throws Exception {
+        JobExecution jobExecution = jobRepository.createJobExecution(jobName, new JobParameters());
+        jobExecution.setStartTime(new Date());
+        jobExecution.getExecutionContext().putString("job", jobName);
+        jobRepository.updateExecutionContext(jobExecution);
+        return jobExecution;
+    }
+
+    private StepExecution runStep(JobExecution jobExecution, String stepName, BatchStatus status) {
+        StepExecution stepExecution = jobExecution.createStepExecution(stepName);
+        stepExecution.setStartTime(new Date());
+        jobRepository.add(stepExecution);
+        stepExecution.getExecutionContext().putInt("position", 42);
+        jobRepository.updateExecutionContext(stepExecution);
+        stepExecution.setStatus(status);
+        stepExecution.setEndTime(new Date());
+        jobRepository.update(stepExecution);
+        return stepExecution;
+    }
+
+    private void finish(JobExecution jobExecution, BatchStatus status) {
+        jobExecution.setStatus(status);
+        // in the past, so a retention of 0 compacts it even within the same millisecond
+        jobExecution.setEndTime(new Date(System.currentTimeMillis() - 1000));
+        jobRepository.update(jobExecution);
+    }
+
+    private boolean hasContext(JobExecution jobExecution) {
+        return countContexts(AbstractMongoDao.JOB_EXECUTION_ID_KEY, jobExecution.getId()) > 0;
+    }
+
+    private boolean hasContext(StepExecution stepExecution) {
+        return countContexts(AbstractMongoDao.STEP_EXECUTION_ID_KEY, stepExecution.getId()) > 0;
+    }
+
+    private long countContexts(String executionIdKey, Long executionId) {
+        return mongoTemplate.getCollection("ExecutionContext")
+                .countDocuments(new Document(executionIdKey, executionId));
+    }
+
+    private long countSpilledFiles() {
+        return mongoTemplate.getCollection(MongoExecutionContextDao.SPILL_BUCKET_NAME + ".files").countDocuments();
+    }
+}
@@ -0,0 +1,144 @@
+package org.springframework.batch.mongodb.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.dao.ExecutionContextDao;
+import org.springframework.batch.core.repository.dao.JobExecutionDao;
+import org.springframework.batch.core.repository.dao.JobInstanceDao;
+import org.springframework.batch.core.repository.dao.StepExecutionDao;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.mongodb.AbstractMongoDao;
+import org.springframework.batch.mongodb.DeflateExecutionContextCompressor;
+import org.springframework.batch.mongodb.ExecutionContextCompressor;
+import org.springframework.batch.mongodb.Lz4ExecutionContextCompressor;
+import org.springframework.batch.mongodb.MongoExecutionContextDao;
+import org.springframework.batch.mongodb.MongoJobRepositoryFactoryBean;
+import org.springframework.batch.mongodb.ZstdExecutionContextCompressor;
+import org.springframework.batch.support.transaction.ResourcelessTransactionManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+/**
+ * Compares stored size and save/load latency of ExecutionContexts with the plain and the compressed encodings, and
+ * with wire-protocol compression. Sizes can be raised with -Dbenchmark.contextEntries and -Dbenchmark.iterations; the
+ * server used for wire compression with -Dbenchmark.mongodb.uri. Results are logged.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath:spring/batch/config/test-context.xml" })
+public class ExecutionContextEncodingBenchmarkTests {
+
+    private static final Logger LOG        = LoggerFactory.getLogger(ExecutionContextEncodingBenchmarkTests.class);
+
+    private static final int    ENTRIES    = Integer.getInteger("benchmark.contextEntries", 2000);
+
+    private static final int    ITERATIONS = Integer.getInteger("benchmark.iterations", 20);
+
+    private static final String MONGODB_URI = System.getProperty("benchmark.mongodb.uri", "mongodb://127.0.0.1:27017");
+
+    @Autowired
+    protected MongoTemplate     mongoTemplate;
+
+    @Autowired
+    private JobInstanceDao      jobInstanceDao;
+
+    @Autowired
+    private JobExecutionDao     jobExecutionDao;
+
+    @Autowired
+    private StepExecutionDao    stepExecutionDao;
+
+    private StepExecution       stepExecution;
+
+    @Before
+    public void onSetUp() {
+        mongoTemplate.getDb().drop();
+        JobInstance ji = jobInstanceDao.createJobInstance("benchmarkJob", new JobParameters());
+        JobExecution jobExecution = new JobExecution(ji, null);
+        jobExecutionDao.saveJobExecution(jobExecution);
+        stepExecution = new StepExecution("step", jobExecution);
+        stepExecutionDao.saveStepExecution(stepExecution);
+        stepExecution.setExecutionContext(createContext());
+    }
+
+    @Test
+    public void testCompareEncodings() {
+        int plainSize = run(mongoTemplate, null);
+        for (ExecutionContextCompressor codec : Arrays.asList(new DeflateExecutionContextCompressor(),
+                new Lz4ExecutionContextCompressor(), new ZstdExecutionContextCompressor())) {
+            int compressedSize = run(mongoTemplate, codec);
+            assertTrue(codec.getName() + " should shrink the context", compressedSize < plainSize);
+        }
+    }
+
+    @Test
+    public void testWireCompression() throws Exception {
+        MongoJobRepositoryFactoryBean factory = new MongoJobRepositoryFactoryBean();
+        factory.setTransactionManager(new ResourcelessTransactionManager());
+        factory.setConnectionString(MONGODB_URI);
+        factory.setDatabaseName(mongoTemplate.getDb().getName());
+        factory.setCompressors(Arrays.asList("zlib"));
+        factory.afterPropertiesSet();
+        try {
+            run(factory.getMongoTemplate(), null);
+        } finally {
+            factory.destroy();
+        }
+    }
+
+    private int run(MongoTemplate template, ExecutionContextCompressor codec) {
+        MongoExecutionContextDao dao = new MongoExecutionContextDao();
+        dao.setMongoTemplate(template);
+        dao.setCompressor(codec);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            dao.updateExecutionContext(stepExecution);
+        }
+        long written = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            assertEquals(ENTRIES + 1, getContext(dao).size());
+        }
+        long read = System.nanoTime();
+
+        RawBsonDocument stored = template.getDb()
+                .getCollection(ExecutionContext.class.getSimpleName(), RawBsonDocument.class)
+                .find(new Document(AbstractMongoDao.STEP_EXECUTION_ID_KEY, stepExecution.getId())).first();
+        int size = stored.getByteBuffer().remaining();
+        LOG.info("{}: {} bytes stored, save {} us, load {} us", codec == null ? "plain" : codec.getName(), size,
+                (written - start) / 1000 / ITERATIONS, (read - written) / 1000 / ITERATIONS);
+        return size;
+    }
+
+    private ExecutionContext getContext(ExecutionContextDao dao) {
+        return dao.getExecutionContext(stepExecution);
+    }
+
+    private ExecutionContext createContext() {
+        ExecutionContext ctx = new ExecutionContext();
+        List<String> processed = new ArrayList<>();
+        for (int i = 0; i < ENTRIES; i++) {
+            ctx.putString("partition." + i + ".resource", "s3://bucket/input/2024/part-" + i + ".csv");
+            processed.add("record-" + i);
+        }
+        ctx.put("processed", processed);
+        return ctx;
+    }
+}
@@ -0,0 +1,179 @@
+package org.springframework.batch.mongodb.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.batch.core.repository.dao.ExecutionContextDao;
+import org.springframework.batch.core.repository.dao.JobExecutionDao;
+import org.springframework.batch.core.repository.dao.JobInstanceDao;
+import org.springframework.batch.core.repository.dao.StepExecutionDao;
+import org.springframework.batch.core.repository.support.JobRepositoryFactoryBean;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.mongodb.JdbcToMongoMigrator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+/**
+ * Migrates a JDBC repository held in an embedded H2 database and reads the result back through the Mongo DAOs.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath:spring/batch/config/test-context.xml" })
+public class JdbcToMongoMigratorTests {
+
+    private static final int    INSTANCES = 5;
+
+    @Autowired
+    protected MongoTemplate     mongoTemplate;
+
+    @Autowired
+    private JobInstanceDao      jobInstanceDao;
+
+    @Autowired
+    private JobExecutionDao     jobExecutionDao;
+
+    @Autowired
+    private StepExecutionDao    stepExecutionDao;
+
+    @Autowired
+    private ExecutionContextDao executionContextDao;
+
+    private EmbeddedDatabase    dataSource;
+
+    private JobRepository       jdbcRepository;
+
+    private JdbcToMongoMigrator migrator;
+
+    private Date                runDate   = new Date(1500000000000L);
+
+    @Before
+    public void setUp() throws Exception {
+        mongoTemplate.getDb().drop();
+        dataSource = new EmbeddedDatabaseBuilder().setType(EmbeddedDatabaseType.H2).generateUniqueName(true)
+                .addScript("classpath:org/springframework/batch/core/schema-h2.sql").build();
+        JobRepositoryFactoryBean factory = new JobRepositoryFactoryBean();
+        factory.setDataSource(dataSource);
+        factory.setTransactionManager(new DataSourceTransactionManager(dataSource));
+        factory.afterPropertiesSet();
+        jdbcRepository = factory.getObject();
+
+        migrator = new JdbcToMongoMigrator();
+        migrator.setDataSource(dataSource);
+        migrator.setMongoTemplate(mongoTemplate);
+        migrator.setBatchSize(2);
+        migrator.setThreads(2);
+        migrator.setMaxPendingBatches(1);
+    }
+
+    @After
+    public void tearDown() {
+        dataSource.shutdown();
+    }
+
+    @Test
+    public void testMigrateHistory() throws Exception {
+        List<JobExecution> executions = populate(0, INSTANCES);
+
+        Map<String, Long> counts = migrator.migrate();
+        assertEquals(Long.valueOf(INSTANCES), counts.get("JobInstance"));
+        assertEquals(Long.valueOf(INSTANCES * 2), counts.get("JobExecution"));
+        assertEquals(Long.valueOf(INSTANCES * 2), counts.get("StepExecution"));
+
+        for (JobExecution source : executions) {
+            JobParameters parameters = source.getJobParameters();
+            JobInstance instance = jobInstanceDao.getJobInstance("migratedJob", parameters);
+            assertNotNull(instance);
+            assertEquals(source.getJobId(), instance.getId());
+
+            JobExecution migrated = jobExecutionDao.getJobExecution(source.getId());
+            assertEquals(source.getStatus(), migrated.getStatus());
+            assertEquals(source.getCreateTime(), migrated.getCreateTime());
+            assertEquals(source.getVersion(), migrated.getVersion());
+            assertEquals(parameters, migrated.getJobParameters());
+            assertEquals(source.getExecutionContext(), executionContextDao.getExecutionContext(migrated));
+
+            stepExecutionDao.addStepExecutions(migrated);
+            StepExecution step = migrated.getStepExecutions().iterator().next();
+            StepExecution sourceStep = source.getStepExecutions().iterator().next();
+            assertEquals(sourceStep.getId(), step.getId());
+            assertEquals(7, step.getReadCount());
+            assertEquals(BatchStatus.COMPLETED, step.getStatus());
+            assertEquals(sourceStep.getExecutionContext(), executionContextDao.getExecutionContext(step));
+        }
+
+        // new ids continue after the migrated ones
+        JobInstance next = jobInstanceDao.createJobInstance("afterMigration", new JobParameters());
+        assertTrue(next.getId() > INSTANCES);
+    }
+
+    @Test
+    public void testResumeFromCheckpoint() throws Exception {
+        populate(0, INSTANCES);
+        migrator.migrate();
+
+        populate(INSTANCES, 2);
+        Map<String, Long> counts = migrator.migrate();
+        assertEquals(Long.valueOf(2), counts.get("JobInstance"));
+        assertEquals(Long.valueOf(4), counts.get("JobExecution"));
+        assertEquals(INSTANCES + 2, mongoTemplate.getCollection(JobInstance.class.getSimpleName()).countDocuments());
+
+        migrator.resetCheckpoints();
+        counts = migrator.migrate();
+        assertEquals(Long.valueOf(INSTANCES + 2), counts.get("JobInstance"));
+        assertEquals(INSTANCES + 2, mongoTemplate.getCollection(JobInstance.class.getSimpleName()).countDocuments());
+    }
+
+    /**
+     * Creates instances with a failed and a completed execution of one step each.
+     */
+    private List<JobExecution> populate(int from, int count) throws Exception {
+        List<JobExecution> executions = new ArrayList<>();
+        for (int i = from; i < from + count; i++) {
+            JobParameters parameters = new JobParametersBuilder().addLong("run.id", (long) i)
+                    .addString("input", "file-" + i + ".csv").addDate("date", runDate)
+                    .addDouble("ratio", 0.5, false).toJobParameters();
+            for (BatchStatus status : new BatchStatus[] { BatchStatus.FAILED, BatchStatus.COMPLETED }) {
+                JobExecution execution = jdbcRepository.createJobExecution("migratedJob", parameters);
+                StepExecution step = execution.createStepExecution("step");
+                jdbcRepository.add(step);
+                step.setReadCount(7);
+                step.setStatus(BatchStatus.COMPLETED);
+                step.getExecutionContext().putLong("reader.position", 7L);
+                jdbcRepository.update(step);
+                jdbcRepository.updateExecutionContext(step);
+
+                execution.setStatus(status);
+                execution.setEndTime(new Date());
+                execution.getExecutionContext().putString("partition", "p" + i);
+                jdbcRepository.update(execution);
+                jdbcRepository.updateExecutionContext(execution);
+                if (status == BatchStatus.COMPLETED) {
+                    executions.add(execution);
+                }
+            }
+        }
+        return executions;
+    }
+}
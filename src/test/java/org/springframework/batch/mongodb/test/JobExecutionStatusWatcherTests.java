@@ -0,0 +1,162 @@
+package org.springframework.batch.mongodb.test;
+
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Updates.combine;
+import static com.mongodb.client.model.Updates.set;
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.repository.dao.JobInstanceDao;
+import org.springframework.batch.mongodb.AbstractMongoDao;
+import org.springframework.batch.mongodb.JobExecutionStatusWatcher;
+import org.springframework.batch.mongodb.MongoJobExecutionDao;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+/**
+ * synchronizeStatus must give the same answers with the watcher, whether the change stream is available or the DAO
+ * has fallen back to polling.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath:spring/batch/config/test-context.xml" })
+public class JobExecutionStatusWatcherTests {
+
+    @Autowired
+    protected MongoTemplate           mongoTemplate;
+
+    @Autowired
+    private JobInstanceDao            jobInstanceDao;
+
+    private JobExecutionStatusWatcher statusWatcher;
+
+    private MongoJobExecutionDao      jobExecutionDao;
+
+    private JobInstance               jobInstance;
+
+    @Before
+    public void setUp() throws Exception {
+        mongoTemplate.getDb().drop();
+        jobInstance = jobInstanceDao.createJobInstance("watchedJob", new JobParameters());
+
+        statusWatcher = new JobExecutionStatusWatcher();
+        statusWatcher.setMongoTemplate(mongoTemplate);
+        statusWatcher.setRetryIntervalMillis(100);
+        statusWatcher.setMaxAwaitTimeMillis(100);
+        statusWatcher.start();
+
+        jobExecutionDao = new MongoJobExecutionDao();
+        jobExecutionDao.setMongoTemplate(mongoTemplate);
+        jobExecutionDao.setStatusWatcher(statusWatcher);
+        jobExecutionDao.init();
+        // give the watcher a chance to open its stream (or to give up on a standalone server)
+        Thread.sleep(500);
+    }
+
+    @After
+    public void tearDown() {
+        statusWatcher.stop();
+    }
+
+    @Test
+    public void testExternalStopIsSeen() throws Exception {
+        JobExecution execution = new JobExecution(jobInstance, null);
+        execution.setStatus(BatchStatus.STARTED);
+        jobExecutionDao.saveJobExecution(execution);
+
+        jobExecutionDao.synchronizeStatus(execution);
+        assertEquals(BatchStatus.STARTED, execution.getStatus());
+
+        // another node asks the job to stop
+        mongoTemplate.getCollection(JobExecution.class.getSimpleName()).updateOne(
+                eq(AbstractMongoDao.JOB_EXECUTION_ID_KEY, execution.getId()),
+                combine(set(AbstractMongoDao.STATUS_KEY, BatchStatus.STOPPING.toString()),
+                        set(AbstractMongoDao.VERSION_KEY, execution.getVersion() + 1)));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        do {
+            jobExecutionDao.synchronizeStatus(execution);
+            if (execution.getStatus() == BatchStatus.STOPPING) {
+                break;
+            }
+            Thread.sleep(20);
+        } while (System.currentTimeMillis() < deadline);
+
+        assertEquals(BatchStatus.STOPPING, execution.getStatus());
+        assertEquals(Integer.valueOf(1), execution.getVersion());
+    }
+
+    /**
+     * A stop requested while the first lookup of an execution reads it must not be lost. Needs change streams, e.g.
+     * a single-node replica set.
+     */
+    @Test
+    public void testChangeDuringFirstLookupIsKept() throws Exception {
+        Assume.assumeTrue("Change streams not supported by this server", statusWatcher.isWatching());
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (int i = 0; i < 50; i++) {
+                JobExecution execution = new JobExecution(jobInstance, null);
+                execution.setStatus(BatchStatus.STARTED);
+                jobExecutionDao.saveJobExecution(execution);
+
+                CountDownLatch start = new CountDownLatch(1);
+                Future<?> lookup = executor.submit(() -> {
+                    start.await();
+                    return statusWatcher.getStatus(execution.getId());
+                });
+                Future<?> stop = executor.submit(() -> {
+                    start.await();
+                    return mongoTemplate.getCollection(JobExecution.class.getSimpleName()).updateOne(
+                            eq(AbstractMongoDao.JOB_EXECUTION_ID_KEY, execution.getId()),
+                            combine(set(AbstractMongoDao.STATUS_KEY, BatchStatus.STOPPING.toString()),
+                                    set(AbstractMongoDao.VERSION_KEY, execution.getVersion() + 1)));
+                });
+                start.countDown();
+                lookup.get();
+                stop.get();
+
+                long deadline = System.currentTimeMillis() + 5000;
+                while (statusWatcher.getStatus(execution.getId()).getStatus() != BatchStatus.STOPPING
+                        && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(20);
+                }
+                assertEquals(BatchStatus.STOPPING, statusWatcher.getStatus(execution.getId()).getStatus());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testLocalUpdateKeepsVersion() {
+        JobExecution execution = new JobExecution(jobInstance, null);
+        execution.setStatus(BatchStatus.STARTED);
+        jobExecutionDao.saveJobExecution(execution);
+        jobExecutionDao.synchronizeStatus(execution);
+
+        execution.setStatus(BatchStatus.STOPPING);
+        jobExecutionDao.updateJobExecution(execution);
+        jobExecutionDao.synchronizeStatus(execution);
+
+        assertEquals(BatchStatus.STOPPING, execution.getStatus());
+        assertEquals(Integer.valueOf(1), execution.getVersion());
+        // the next update must still match the stored version
+        jobExecutionDao.updateJobExecution(execution);
+        assertEquals(Integer.valueOf(2), execution.getVersion());
+    }
+}
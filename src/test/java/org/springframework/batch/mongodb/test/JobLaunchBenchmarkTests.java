@@ -0,0 +1,102 @@
+package org.springframework.batch.mongodb.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.batch.mongodb.MongoJobRepositoryFactoryBean;
+import org.springframework.batch.mongodb.SequenceBlockIdGenerator;
+import org.springframework.batch.support.transaction.ResourcelessTransactionManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+/**
+ * Compares launches per second of the default repository and of the fast launch path with block-allocated ids, with
+ * many threads launching new instances. Sizes can be raised with -Dbenchmark.threads and -Dbenchmark.launches;
+ * results are logged.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath:spring/batch/config/test-context.xml" })
+public class JobLaunchBenchmarkTests {
+
+    private static final Logger LOG      = LoggerFactory.getLogger(JobLaunchBenchmarkTests.class);
+
+    private static final int    THREADS  = Integer.getInteger("benchmark.threads", 8);
+
+    private static final int    LAUNCHES = Integer.getInteger("benchmark.launches", 200);
+
+    @Autowired
+    protected MongoTemplate     mongoTemplate;
+
+    private final AtomicLong    run      = new AtomicLong();
+
+    @Before
+    public void setUp() {
+        mongoTemplate.getDb().drop();
+    }
+
+    @Test
+    public void testCompareLaunchPaths() throws Exception {
+        double standard = measure("default", repository(false));
+        double fast = measure("fast launch", repository(true));
+        LOG.info("Fast launch path: {}x the launches per second of the default repository", Math.round(fast
+                / standard * 10) / 10.0);
+        assertEquals(2L * THREADS * LAUNCHES,
+                mongoTemplate.getCollection(JobInstance.class.getSimpleName()).countDocuments());
+    }
+
+    private double measure(String name, JobRepository repository) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        long start = System.nanoTime();
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < THREADS; thread++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < LAUNCHES; i++) {
+                        repository.createJobExecution("benchmarkJob",
+                                new JobParametersBuilder().addLong("run", run.incrementAndGet()).toJobParameters());
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        double perSecond = THREADS * LAUNCHES / ((System.nanoTime() - start) / 1e9);
+        LOG.info("{}: {} launches from {} threads, {} launches/s", name, THREADS * LAUNCHES, THREADS,
+                Math.round(perSecond));
+        return perSecond;
+    }
+
+    private JobRepository repository(boolean fastLaunch) throws Exception {
+        MongoJobRepositoryFactoryBean factory = new MongoJobRepositoryFactoryBean();
+        factory.setTransactionManager(new ResourcelessTransactionManager());
+        factory.setMongoTemplate(mongoTemplate);
+        if (fastLaunch) {
+            SequenceBlockIdGenerator idGenerator = new SequenceBlockIdGenerator();
+            idGenerator.setMongoTemplate(mongoTemplate);
+            factory.setIdGenerator(idGenerator);
+            factory.setFastLaunch(true);
+        }
+        factory.afterPropertiesSet();
+        return factory.getObject();
+    }
+}
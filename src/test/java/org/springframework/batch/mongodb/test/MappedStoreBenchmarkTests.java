@@ -0,0 +1,137 @@
+package org.springframework.batch.mongodb.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.Date;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.batch.mongodb.MappedExecutionContextDao;
+import org.springframework.batch.mongodb.MappedJobExecutionDao;
+import org.springframework.batch.mongodb.MappedJobInstanceDao;
+import org.springframework.batch.mongodb.MappedStepExecutionDao;
+import org.springframework.batch.mongodb.MappedStore;
+import org.springframework.batch.mongodb.MongoJobRepositoryFactoryBean;
+import org.springframework.batch.support.transaction.ResourcelessTransactionManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+/**
+ * Compares the repository writes per second of the Mongo DAOs and of the Mapped DAOs, running jobs of one step that
+ * updates its execution and context once per chunk. Sizes can be raised with -Dbenchmark.jobs and -Dbenchmark.chunks;
+ * results are logged.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath:spring/batch/config/test-context.xml" })
+public class MappedStoreBenchmarkTests {
+
+    private static final Logger LOG    = LoggerFactory.getLogger(MappedStoreBenchmarkTests.class);
+
+    private static final int    JOBS   = Integer.getInteger("benchmark.jobs", 20);
+
+    private static final int    CHUNKS = Integer.getInteger("benchmark.chunks", 50);
+
+    @Rule
+    public TemporaryFolder      folder = new TemporaryFolder();
+
+    @Autowired
+    protected MongoTemplate     mongoTemplate;
+
+    private MappedStore         store;
+
+    @Before
+    public void setUp() {
+        mongoTemplate.getDb().drop();
+        store = new MappedStore();
+        store.setFile(new File(folder.getRoot(), "benchmark.log"));
+        store.init();
+    }
+
+    @After
+    public void tearDown() {
+        store.close();
+    }
+
+    @Test
+    public void testCompareStores() throws Exception {
+        double mongo = measure("Mongo DAOs", mongoRepository());
+        double mapped = measure("Mapped DAOs", mappedRepository());
+        LOG.info("Mapped store: {}x the writes per second of the Mongo DAOs, {} bytes of log",
+                Math.round(mapped / mongo * 10) / 10.0, store.getSize());
+    }
+
+    private double measure(String name, JobRepository jobRepository) throws Exception {
+        long start = System.nanoTime();
+        for (int job = 0; job < JOBS; job++) {
+            JobParameters jobParameters = new JobParametersBuilder().addLong("run", (long) job).toJobParameters();
+            JobExecution jobExecution = jobRepository.createJobExecution("benchmarkJob", jobParameters);
+            StepExecution stepExecution = jobExecution.createStepExecution("step");
+            stepExecution.setStartTime(new Date());
+            jobRepository.add(stepExecution);
+            for (int chunk = 0; chunk < CHUNKS; chunk++) {
+                stepExecution.setReadCount(chunk * 10);
+                stepExecution.incrementCommitCount();
+                stepExecution.getExecutionContext().putInt("position", chunk * 10);
+                jobRepository.update(stepExecution);
+                jobRepository.updateExecutionContext(stepExecution);
+            }
+            stepExecution.setStatus(BatchStatus.COMPLETED);
+            stepExecution.setEndTime(new Date());
+            jobRepository.update(stepExecution);
+            jobExecution.setStatus(BatchStatus.COMPLETED);
+            jobExecution.setEndTime(new Date());
+            jobRepository.update(jobExecution);
+            assertEquals(BatchStatus.COMPLETED,
+                    jobRepository.getLastJobExecution("benchmarkJob", jobParameters).getStatus());
+        }
+        double perSecond = JOBS * (2.0 * CHUNKS + 3) / ((System.nanoTime() - start) / 1e9);
+        LOG.info("{}: {} jobs of {} chunks, {} writes/s", name, JOBS, CHUNKS, Math.round(perSecond));
+        return perSecond;
+    }
+
+    private JobRepository mongoRepository() throws Exception {
+        MongoJobRepositoryFactoryBean factory = new MongoJobRepositoryFactoryBean();
+        factory.setTransactionManager(new ResourcelessTransactionManager());
+        factory.setMongoTemplate(mongoTemplate);
+        factory.afterPropertiesSet();
+        return factory.getObject();
+    }
+
+    private JobRepository mappedRepository() throws Exception {
+        MappedJobInstanceDao jobInstanceDao = new MappedJobInstanceDao();
+        jobInstanceDao.setStore(store);
+        jobInstanceDao.init();
+        MappedJobExecutionDao jobExecutionDao = new MappedJobExecutionDao();
+        jobExecutionDao.setStore(store);
+        jobExecutionDao.init();
+        MappedStepExecutionDao stepExecutionDao = new MappedStepExecutionDao();
+        stepExecutionDao.setStore(store);
+        stepExecutionDao.init();
+        MappedExecutionContextDao executionContextDao = new MappedExecutionContextDao();
+        executionContextDao.setStore(store);
+
+        MongoJobRepositoryFactoryBean factory = new MongoJobRepositoryFactoryBean();
+        factory.setTransactionManager(new ResourcelessTransactionManager());
+        factory.setJobInstanceDao(jobInstanceDao);
+        factory.setJobExecutionDao(jobExecutionDao);
+        factory.setStepExecutionDao(stepExecutionDao);
+        factory.setExecutionContextDao(executionContextDao);
+        factory.afterPropertiesSet();
+        return factory.getObject();
+    }
+}
@@ -0,0 +1,295 @@
+package org.springframework.batch.mongodb.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.batch.core.repository.dao.NoSuchObjectException;
+import org.springframework.batch.mongodb.MappedExecutionContextDao;
+import org.springframework.batch.mongodb.MappedJobExecutionDao;
+import org.springframework.batch.mongodb.MappedJobInstanceDao;
+import org.springframework.batch.mongodb.MappedStepExecutionDao;
+import org.springframework.batch.mongodb.MappedStore;
+import org.springframework.batch.mongodb.MongoJobRepositoryFactoryBean;
+import org.springframework.batch.support.transaction.ResourcelessTransactionManager;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.OptimisticLockingFailureException;
+
+/**
+ * Tests for {@link MappedStore} and the Mapped DAOs, through a repository built by
+ * {@link MongoJobRepositoryFactoryBean}. They need no MongoDB server.
+ */
+public class MappedStoreTests {
+
+    @Rule
+    public TemporaryFolder            folder = new TemporaryFolder();
+
+    private File                      file;
+
+    private MappedStore               store;
+
+    private MappedJobInstanceDao      jobInstanceDao;
+
+    private MappedJobExecutionDao     jobExecutionDao;
+
+    private MappedStepExecutionDao    stepExecutionDao;
+
+    private MappedExecutionContextDao executionContextDao;
+
+    private JobRepository             jobRepository;
+
+    @Before
+    public void setUp() throws Exception {
+        file = new File(folder.getRoot(), "repository.log");
+        open(64 * 1024);
+    }
+
+    @After
+    public void tearDown() {
+        store.close();
+    }
+
+    @Test
+    public void testJobLifecycle() throws Exception {
+        JobParameters parameters = new JobParametersBuilder().addString("input.file", "a.csv")
+                .addLong("attempt", 1L, false).toJobParameters();
+        JobExecution jobExecution = jobRepository.createJobExecution("mappedJob", parameters);
+        StepExecution stepExecution = start(jobExecution, "step");
+        stepExecution.setReadCount(10);
+        stepExecution.getExecutionContext().put("position", new BigDecimal("10.5"));
+        jobRepository.update(stepExecution);
+        jobRepository.updateExecutionContext(stepExecution);
+
+        JobInstance jobInstance = jobRepository.getLastJobExecution("mappedJob", parameters).getJobInstance();
+        assertEquals(jobExecution.getJobId(), jobInstance.getId());
+        // only identifying parameters make the key
+        assertNotNull(jobInstanceDao.getJobInstance("mappedJob",
+                new JobParametersBuilder().addString("input.file", "a.csv").toJobParameters()));
+        assertEquals(parameters, jobExecutionDao.getJobExecution(jobExecution.getId()).getJobParameters());
+        assertEquals(jobInstance, jobInstanceDao.getJobInstance(jobExecution));
+
+        StepExecution last = jobRepository.getLastStepExecution(jobInstance, "step");
+        assertEquals(10, last.getReadCount());
+        assertEquals(new BigDecimal("10.5"), last.getExecutionContext().get("position"));
+        assertEquals(1, jobRepository.getStepExecutionCount(jobInstance, "step"));
+        assertEquals(1, jobExecutionDao.findRunningJobExecutions("mappedJob").size());
+
+        jobExecution.setStatus(BatchStatus.COMPLETED);
+        jobExecution.setEndTime(new Date());
+        jobRepository.update(jobExecution);
+        assertTrue(jobExecutionDao.findRunningJobExecutions("mappedJob").isEmpty());
+        assertEquals(BatchStatus.COMPLETED, jobExecutionDao.getLastJobExecution(jobInstance).getStatus());
+    }
+
+    @Test
+    public void testExecutionsKeepTheirParameters() throws Exception {
+        JobExecution first = jobRepository.createJobExecution("restartedJob", new JobParametersBuilder()
+                .addString("input.file", "a.csv").addLong("attempt", 1L, false).toJobParameters());
+        first.setStatus(BatchStatus.FAILED);
+        first.setEndTime(new Date());
+        jobRepository.update(first);
+        JobExecution second = jobRepository.createJobExecution("restartedJob", new JobParametersBuilder()
+                .addString("input.file", "a.csv").addLong("attempt", 2L, false).toJobParameters());
+
+        assertEquals(first.getJobId(), second.getJobId());
+        assertEquals(Long.valueOf(1), jobExecutionDao.getJobExecution(first.getId()).getJobParameters()
+                .getLong("attempt"));
+        assertEquals(Long.valueOf(2), jobExecutionDao.getJobExecution(second.getId()).getJobParameters()
+                .getLong("attempt"));
+        assertEquals(Long.valueOf(2), jobExecutionDao.getLastJobExecution(second.getJobInstance()).getJobParameters()
+                .getLong("attempt"));
+    }
+
+    @Test
+    public void testInstanceQueries() throws Exception {
+        for (long run = 0; run < 5; run++) {
+            jobInstanceDao.createJobInstance(run % 2 == 0 ? "daily" : "dailyReport",
+                    new JobParametersBuilder().addLong("run", run).toJobParameters());
+        }
+        try {
+            jobInstanceDao.createJobInstance("daily", new JobParametersBuilder().addLong("run", 0L).toJobParameters());
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertEquals(3, jobInstanceDao.getJobInstanceCount("daily"));
+        List<JobInstance> page = jobInstanceDao.getJobInstances("daily", 1, 5);
+        assertEquals(2, page.size());
+        assertTrue(page.get(0).getId() > page.get(1).getId());
+        assertEquals(5, jobInstanceDao.findJobInstancesByName("daily*", 0, 10).size());
+        assertEquals(2, jobInstanceDao.getJobNames().size());
+    }
+
+    @Test
+    public void testOptimisticLocking() throws Exception {
+        JobExecution jobExecution = jobRepository.createJobExecution("lockedJob", new JobParameters());
+        StepExecution stepExecution = start(jobExecution, "step");
+        StepExecution stale = stepExecutionDao.getStepExecution(jobExecution, stepExecution.getId());
+        jobRepository.update(stepExecution);
+        try {
+            stepExecutionDao.updateStepExecution(stale);
+            fail("Expected OptimisticLockingFailureException");
+        } catch (OptimisticLockingFailureException e) {
+            // expected
+        }
+
+        JobExecution unsaved = new JobExecution(jobExecution.getJobInstance(), 999L, new JobParameters(), null);
+        unsaved.setVersion(0);
+        try {
+            jobExecutionDao.updateJobExecution(unsaved);
+            fail("Expected NoSuchObjectException");
+        } catch (NoSuchObjectException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testRecoveryAfterRestart() throws Exception {
+        JobExecution jobExecution = jobRepository.createJobExecution("restartedJob",
+                new JobParametersBuilder().addLong("run", 1L).toJobParameters());
+        // small segments make the records span several of them
+        for (int i = 0; i < 200; i++) {
+            StepExecution stepExecution = start(jobExecution, "step" + i);
+            stepExecution.getExecutionContext().putString("padding", "x".repeat(500));
+            jobRepository.updateExecutionContext(stepExecution);
+        }
+        store.close();
+        assertTrue(file.length() > 64 * 1024);
+
+        open(64 * 1024);
+        JobExecution reloaded = jobExecutionDao.getJobExecution(jobExecution.getId());
+        stepExecutionDao.addStepExecutions(reloaded);
+        assertEquals(200, reloaded.getStepExecutions().size());
+        assertEquals(500, executionContextDao.getExecutionContext(reloaded.getStepExecutions().iterator().next())
+                .getString("padding").length());
+        JobExecution next = jobRepository.createJobExecution("restartedJob",
+                new JobParametersBuilder().addLong("run", 2L).toJobParameters());
+        assertTrue(next.getId() > jobExecution.getId());
+    }
+
+    @Test
+    public void testTornWriteIsDiscarded() throws Exception {
+        JobExecution jobExecution = jobRepository.createJobExecution("tornJob", new JobParameters());
+        StepExecution stepExecution = start(jobExecution, "step");
+        long intact = store.getSize();
+        stepExecution.setReadCount(42);
+        jobRepository.update(stepExecution);
+        store.close();
+
+        // a crash in the middle of the last write: its payload is only half there
+        try (RandomAccessFile log = new RandomAccessFile(file, "rw")) {
+            log.seek(intact + 40);
+            log.write(new byte[20]);
+        }
+
+        open(64 * 1024);
+        assertEquals(intact, store.getSize());
+        StepExecution recovered = stepExecutionDao.getStepExecution(jobExecutionDao.getJobExecution(jobExecution
+                .getId()), stepExecution.getId());
+        assertEquals(0, recovered.getReadCount());
+        recovered.setReadCount(43);
+        stepExecutionDao.updateStepExecution(recovered);
+        store.close();
+
+        open(64 * 1024);
+        assertEquals(43, stepExecutionDao.getStepExecution(jobExecutionDao.getJobExecution(jobExecution.getId()),
+                stepExecution.getId()).getReadCount());
+    }
+
+    @Test
+    public void testRecordLargerThanSegmentIsRejected() throws Exception {
+        JobExecution jobExecution = jobRepository.createJobExecution("largeJob", new JobParameters());
+        jobExecution.getExecutionContext().putString("large", "x".repeat(128 * 1024));
+        try {
+            jobRepository.updateExecutionContext(jobExecution);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertTrue(executionContextDao.getExecutionContext(jobExecution).isEmpty());
+        jobExecution.getExecutionContext().putString("large", "x");
+        jobRepository.updateExecutionContext(jobExecution);
+        assertEquals("x", executionContextDao.getExecutionContext(jobExecution).getString("large"));
+    }
+
+    @Test
+    public void testUnknownIdsAreNotFound() throws Exception {
+        // the first record is at offset 0
+        JobExecution jobExecution = jobRepository.createJobExecution("unknownJob", new JobParameters());
+        assertNull(jobInstanceDao.getJobInstance(0L));
+        assertNull(jobInstanceDao.getJobInstance(-1L));
+        assertNull(jobExecutionDao.getJobExecution(0L));
+        assertNull(jobInstanceDao.getJobInstance(jobExecution.getJobInstance().getId() + 1));
+    }
+
+    @Test
+    public void testOpenFileIsLocked() throws Exception {
+        MappedStore second = new MappedStore();
+        second.setFile(file);
+        second.setSegmentSize(64 * 1024);
+        try {
+            second.init();
+            fail("Expected DataAccessResourceFailureException");
+        } catch (DataAccessResourceFailureException e) {
+            // expected
+        }
+        store.close();
+        second.init();
+        second.close();
+    }
+
+    private StepExecution start(JobExecution jobExecution, String stepName) {
+        StepExecution stepExecution = jobExecution.createStepExecution(stepName);
+        stepExecution.setStartTime(new Date());
+        jobRepository.add(stepExecution);
+        return stepExecution;
+    }
+
+    private void open(int segmentSize) throws Exception {
+        store = new MappedStore();
+        store.setFile(file);
+        store.setSegmentSize(segmentSize);
+        store.init();
+
+        jobInstanceDao = new MappedJobInstanceDao();
+        jobInstanceDao.setStore(store);
+        jobInstanceDao.init();
+        jobExecutionDao = new MappedJobExecutionDao();
+        jobExecutionDao.setStore(store);
+        jobExecutionDao.init();
+        stepExecutionDao = new MappedStepExecutionDao();
+        stepExecutionDao.setStore(store);
+        stepExecutionDao.init();
+        executionContextDao = new MappedExecutionContextDao();
+        executionContextDao.setStore(store);
+
+        MongoJobRepositoryFactoryBean factory = new MongoJobRepositoryFactoryBean();
+        factory.setTransactionManager(new ResourcelessTransactionManager());
+        factory.setJobInstanceDao(jobInstanceDao);
+        factory.setJobExecutionDao(jobExecutionDao);
+        factory.setStepExecutionDao(stepExecutionDao);
+        factory.setExecutionContextDao(executionContextDao);
+        factory.afterPropertiesSet();
+        jobRepository = factory.getObject();
+    }
+}
@@ -0,0 +1,93 @@
+package org.springframework.batch.mongodb.test;
+
+import java.util.Date;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.batch.mongodb.MongoBatchTransactionManager;
+import org.springframework.batch.mongodb.MongoJobRepositoryFactoryBean;
+import org.springframework.batch.support.transaction.ResourcelessTransactionManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Compares chunk boundaries written as separate writes and in one transaction of
+ * {@link MongoBatchTransactionManager}. Skipped on servers without transactions. The number of chunks can be raised
+ * with -Dbenchmark.chunks; results are logged.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath:spring/batch/config/test-context.xml" })
+public class MongoBatchTransactionManagerBenchmarkTests {
+
+    private static final Logger LOG    = LoggerFactory.getLogger(MongoBatchTransactionManagerBenchmarkTests.class);
+
+    private static final int    CHUNKS = Integer.getInteger("benchmark.chunks", 500);
+
+    @Autowired
+    protected MongoTemplate     mongoTemplate;
+
+    private long                run;
+
+    @Before
+    public void setUp() {
+        mongoTemplate.getDb().drop();
+    }
+
+    @Test
+    public void testCompareChunkBoundaries() throws Exception {
+        Assume.assumeTrue("Transactions not supported by this server",
+                MongoBatchTransactionManager.supportsTransactions(mongoTemplate.getMongoDatabaseFactory()));
+        MongoBatchTransactionManager transactionManager = new MongoBatchTransactionManager(
+                mongoTemplate.getMongoDatabaseFactory());
+        transactionManager.afterPropertiesSet();
+
+        double separate = measure("separate writes", new ResourcelessTransactionManager());
+        double transactional = measure("one transaction per chunk", transactionManager);
+        LOG.info("Transactional chunk boundaries: {}x the chunks per second of separate writes",
+                Math.round(transactional / separate * 10) / 10.0);
+    }
+
+    private double measure(String name, PlatformTransactionManager transactionManager) throws Exception {
+        MongoJobRepositoryFactoryBean factory = new MongoJobRepositoryFactoryBean();
+        factory.setTransactionManager(transactionManager);
+        factory.setMongoTemplate(mongoTemplate);
+        factory.afterPropertiesSet();
+        JobRepository jobRepository = factory.getObject();
+
+        JobExecution jobExecution = jobRepository.createJobExecution("transactionalJob",
+                new JobParametersBuilder().addLong("run", run++).toJobParameters());
+        StepExecution stepExecution = jobExecution.createStepExecution("step");
+        stepExecution.setStartTime(new Date());
+        stepExecution.setStatus(BatchStatus.STARTED);
+        jobRepository.add(stepExecution);
+
+        TransactionTemplate chunk = new TransactionTemplate(transactionManager);
+        long start = System.nanoTime();
+        for (int i = 0; i < CHUNKS; i++) {
+            int position = i;
+            chunk.executeWithoutResult(status -> {
+                stepExecution.setReadCount(position);
+                stepExecution.incrementCommitCount();
+                stepExecution.getExecutionContext().putInt("position", position);
+                jobRepository.update(stepExecution);
+                jobRepository.updateExecutionContext(stepExecution);
+            });
+        }
+        double perSecond = CHUNKS / ((System.nanoTime() - start) / 1e9);
+        LOG.info("{}: {} chunk boundaries, {} chunks/s", name, CHUNKS, Math.round(perSecond));
+        return perSecond;
+    }
+}
@@ -0,0 +1,124 @@
+package org.springframework.batch.mongodb.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.batch.mongodb.MongoBatchTransactionManager;
+import org.springframework.batch.mongodb.MongoJobRepositoryFactoryBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Tests for {@link MongoBatchTransactionManager}. Tests needing transactions are skipped on servers without them
+ * (standalone servers).
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath:spring/batch/config/test-context.xml" })
+public class MongoBatchTransactionManagerTests {
+
+    @Autowired
+    protected MongoTemplate mongoTemplate;
+
+    private long            run;
+
+    @Before
+    public void setUp() {
+        mongoTemplate.getDb().drop();
+    }
+
+    @Test
+    public void testCollectionsCreatedUpFront() {
+        transactionManager();
+        Set<String> names = mongoTemplate.getDb().listCollectionNames().into(new HashSet<>());
+        assertTrue(names.containsAll(Arrays.asList("JobInstance", "JobExecution", "StepExecution",
+                "ExecutionContext", "Sequences")));
+        // idempotent
+        transactionManager();
+    }
+
+    @Test
+    public void testChunkBoundaryIsAtomic() throws Exception {
+        assumeTransactions();
+        MongoBatchTransactionManager transactionManager = transactionManager();
+        JobRepository jobRepository = repository(transactionManager);
+        StepExecution stepExecution = start(jobRepository);
+        TransactionTemplate chunk = new TransactionTemplate(transactionManager);
+
+        try {
+            chunk.executeWithoutResult(status -> {
+                stepExecution.setReadCount(10);
+                stepExecution.getExecutionContext().putString("position", "10");
+                jobRepository.update(stepExecution);
+                jobRepository.updateExecutionContext(stepExecution);
+                throw new IllegalStateException("writer failed");
+            });
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        StepExecution stored = jobRepository.getLastStepExecution(stepExecution.getJobExecution().getJobInstance(),
+                stepExecution.getStepName());
+        assertEquals(0, stored.getReadCount());
+        assertFalse(stored.getExecutionContext().containsKey("position"));
+
+        stepExecution.setVersion(stored.getVersion());
+        chunk.executeWithoutResult(status -> {
+            stepExecution.setReadCount(20);
+            stepExecution.getExecutionContext().putString("position", "20");
+            jobRepository.update(stepExecution);
+            jobRepository.updateExecutionContext(stepExecution);
+        });
+        stored = jobRepository.getLastStepExecution(stepExecution.getJobExecution().getJobInstance(),
+                stepExecution.getStepName());
+        assertEquals(20, stored.getReadCount());
+        assertEquals("20", stored.getExecutionContext().getString("position"));
+    }
+
+    private StepExecution start(JobRepository jobRepository) throws Exception {
+        JobExecution jobExecution = jobRepository.createJobExecution("transactionalJob",
+                new JobParametersBuilder().addLong("run", run++).toJobParameters());
+        StepExecution stepExecution = jobExecution.createStepExecution("step");
+        stepExecution.setStartTime(new Date());
+        stepExecution.setStatus(BatchStatus.STARTED);
+        jobRepository.add(stepExecution);
+        return stepExecution;
+    }
+
+    private MongoBatchTransactionManager transactionManager() {
+        MongoBatchTransactionManager transactionManager = new MongoBatchTransactionManager(
+                mongoTemplate.getMongoDatabaseFactory());
+        transactionManager.afterPropertiesSet();
+        return transactionManager;
+    }
+
+    private JobRepository repository(PlatformTransactionManager transactionManager) throws Exception {
+        MongoJobRepositoryFactoryBean factory = new MongoJobRepositoryFactoryBean();
+        factory.setTransactionManager(transactionManager);
+        factory.setMongoTemplate(mongoTemplate);
+        factory.afterPropertiesSet();
+        return factory.getObject();
+    }
+
+    private void assumeTransactions() {
+        Assume.assumeTrue("Transactions not supported by this server",
+                MongoBatchTransactionManager.supportsTransactions(mongoTemplate.getMongoDatabaseFactory()));
+    }
+}
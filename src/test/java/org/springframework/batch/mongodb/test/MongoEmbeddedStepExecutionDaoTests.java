@@ -0,0 +1,165 @@
+package org.springframework.batch.mongodb.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import org.bson.Document;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.dao.JobExecutionDao;
+import org.springframework.batch.core.repository.dao.JobInstanceDao;
+import org.springframework.batch.mongodb.AbstractMongoDao;
+import org.springframework.batch.mongodb.MongoEmbeddedStepExecutionDao;
+import org.springframework.batch.mongodb.MongoStepExecutionDao;
+import org.springframework.batch.mongodb.StepExecutionLayoutMigrator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+/**
+ * Tests for {@link MongoEmbeddedStepExecutionDao} and the {@link StepExecutionLayoutMigrator}.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath:spring/batch/config/test-context.xml" })
+public class MongoEmbeddedStepExecutionDaoTests {
+
+    @Autowired
+    protected MongoTemplate               mongoTemplate;
+
+    @Autowired
+    private JobInstanceDao                jobInstanceDao;
+
+    @Autowired
+    private JobExecutionDao               jobExecutionDao;
+
+    private MongoEmbeddedStepExecutionDao stepExecutionDao;
+
+    private JobInstance                   jobInstance;
+
+    private JobExecution                  jobExecution;
+
+    @Before
+    public void onSetUp() {
+        mongoTemplate.getDb().drop();
+        stepExecutionDao = new MongoEmbeddedStepExecutionDao();
+        stepExecutionDao.setMongoTemplate(mongoTemplate);
+
+        jobInstance = jobInstanceDao.createJobInstance("job", new JobParameters());
+        jobExecution = new JobExecution(jobInstance, new JobParameters());
+        jobExecutionDao.saveJobExecution(jobExecution);
+    }
+
+    @Test
+    public void testSaveAndGetExecution() {
+        StepExecution stepExecution = new StepExecution("foo", jobExecution);
+        stepExecution.setReadCount(17);
+        stepExecution.setWriteCount(13);
+        stepExecutionDao.saveStepExecution(stepExecution);
+
+        StepExecution retrieved = stepExecutionDao.getStepExecution(jobExecution, stepExecution.getId());
+        assertEquals(stepExecution.getId(), retrieved.getId());
+        assertEquals(17, retrieved.getReadCount());
+        assertEquals(13, retrieved.getWriteCount());
+        assertEquals(Integer.valueOf(0), retrieved.getVersion());
+        assertNull(stepExecutionDao.getStepExecution(jobExecution, 45677L));
+    }
+
+    @Test
+    public void testSaveAllAndAdd() {
+        StepExecution first = new StepExecution("first", jobExecution);
+        StepExecution second = new StepExecution("second", jobExecution);
+        stepExecutionDao.saveStepExecutions(Arrays.asList(first, second));
+
+        JobExecution loaded = jobExecutionDao.getJobExecution(jobExecution.getId());
+        stepExecutionDao.addStepExecutions(loaded);
+        assertEquals(2, loaded.getStepExecutions().size());
+        assertEquals(first.getId(), loaded.getStepExecutions().iterator().next().getId());
+    }
+
+    @Test
+    public void testUpdateExecution() {
+        StepExecution stepExecution = new StepExecution("foo", jobExecution);
+        stepExecutionDao.saveStepExecution(stepExecution);
+
+        stepExecution.setStatus(BatchStatus.COMPLETED);
+        stepExecution.setCommitCount(5);
+        stepExecution.setLastUpdated(new Date());
+        stepExecutionDao.updateStepExecution(stepExecution);
+        assertEquals(Integer.valueOf(1), stepExecution.getVersion());
+
+        StepExecution retrieved = stepExecutionDao.getStepExecution(jobExecution, stepExecution.getId());
+        assertEquals(BatchStatus.COMPLETED, retrieved.getStatus());
+        assertEquals(5, retrieved.getCommitCount());
+        assertEquals(stepExecution.getLastUpdated(), retrieved.getLastUpdated());
+    }
+
+    @Test(expected = OptimisticLockingFailureException.class)
+    public void testConcurrentModificationException() {
+        StepExecution exec1 = new StepExecution("foo", jobExecution);
+        stepExecutionDao.saveStepExecution(exec1);
+
+        StepExecution exec2 = new StepExecution("foo", jobExecution);
+        exec2.setId(exec1.getId());
+        exec2.incrementVersion();
+
+        stepExecutionDao.updateStepExecution(exec1);
+        stepExecutionDao.updateStepExecution(exec2);
+    }
+
+    @Test
+    public void testLastAndCountAcrossExecutions() {
+        StepExecution early = new StepExecution("foo", jobExecution);
+        early.setStartTime(new Date(1000));
+        stepExecutionDao.saveStepExecution(early);
+
+        JobExecution restart = new JobExecution(jobInstance, new JobParameters());
+        jobExecutionDao.saveJobExecution(restart);
+        StepExecution late = new StepExecution("foo", restart);
+        late.setStartTime(new Date(2000));
+        stepExecutionDao.saveStepExecution(late);
+        stepExecutionDao.saveStepExecution(new StepExecution("bar", restart));
+
+        StepExecution last = stepExecutionDao.getLastStepExecution(jobInstance, "foo");
+        assertNotNull(last);
+        assertEquals(late.getId(), last.getId());
+        assertEquals(restart.getId(), last.getJobExecutionId());
+        assertEquals(2, stepExecutionDao.countStepExecutions(jobInstance, "foo"));
+        assertEquals(0, stepExecutionDao.countStepExecutions(jobInstance, "baz"));
+    }
+
+    @Test
+    public void testMigrationRoundTrip() {
+        MongoStepExecutionDao separateDao = new MongoStepExecutionDao();
+        separateDao.setMongoTemplate(mongoTemplate);
+        StepExecution stepExecution = new StepExecution("foo", jobExecution);
+        stepExecution.setReadCount(3);
+        separateDao.saveStepExecution(stepExecution);
+
+        StepExecutionLayoutMigrator migrator = new StepExecutionLayoutMigrator();
+        migrator.setMongoTemplate(mongoTemplate);
+        migrator.setRemoveSource(true);
+        assertEquals(1, migrator.migrateToEmbedded());
+        assertEquals(0, mongoTemplate.getCollection(StepExecution.class.getSimpleName()).countDocuments());
+
+        StepExecution embedded = stepExecutionDao.getStepExecution(jobExecution, stepExecution.getId());
+        assertEquals(3, embedded.getReadCount());
+
+        assertEquals(1, migrator.migrateToSeparate());
+        Document parent = mongoTemplate.getCollection(JobExecution.class.getSimpleName())
+                .find(new Document(AbstractMongoDao.JOB_EXECUTION_ID_KEY, jobExecution.getId())).first();
+        assertNull(parent.get(AbstractMongoDao.STEP_EXECUTIONS_KEY));
+        assertEquals(3, separateDao.getStepExecution(jobExecution, stepExecution.getId()).getReadCount());
+    }
+}
@@ -0,0 +1,226 @@
+package org.springframework.batch.mongodb.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.dao.JobExecutionDao;
+import org.springframework.batch.core.repository.dao.JobInstanceDao;
+import org.springframework.batch.core.repository.dao.StepExecutionDao;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.mongodb.AbstractMongoDao;
+import org.springframework.batch.mongodb.DeflateExecutionContextCompressor;
+import org.springframework.batch.mongodb.ExecutionContextCompressor;
+import org.springframework.batch.mongodb.Lz4ExecutionContextCompressor;
+import org.springframework.batch.mongodb.MongoExecutionContextDao;
+import org.springframework.batch.mongodb.MongoJobRepositoryFactoryBean;
+import org.springframework.batch.mongodb.ZstdExecutionContextCompressor;
+import org.springframework.batch.support.transaction.ResourcelessTransactionManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+/**
+ * Compressed encoding of ExecutionContexts.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath:spring/batch/config/test-context.xml" })
+public class MongoExecutionContextCompressionTests {
+
+    @Autowired
+    private JobExecutionDao          jobExecutionDao;
+
+    @Autowired
+    private JobInstanceDao           jobInstanceDao;
+
+    @Autowired
+    private StepExecutionDao         stepExecutionDao;
+
+    @Autowired
+    protected MongoTemplate          mongoTemplate;
+
+    private MongoExecutionContextDao executionContextDao;
+
+    private StepExecution            stepExecution;
+
+    @Before
+    public void setUp() {
+        mongoTemplate.getDb().drop();
+        executionContextDao = new MongoExecutionContextDao();
+        executionContextDao.setMongoTemplate(mongoTemplate);
+        executionContextDao.setCompressor(new Lz4ExecutionContextCompressor());
+
+        JobInstance ji = jobInstanceDao.createJobInstance("testJob", new JobParameters());
+        JobExecution jobExecution = new JobExecution(ji, null);
+        jobExecutionDao.saveJobExecution(jobExecution);
+        stepExecution = new StepExecution("stepName", jobExecution);
+        stepExecutionDao.saveStepExecution(stepExecution);
+    }
+
+    @Test
+    public void testRoundTripWithEachCodec() {
+        ExecutionContextCompressor[] codecs = { new DeflateExecutionContextCompressor(),
+                new Lz4ExecutionContextCompressor(), new ZstdExecutionContextCompressor() };
+        for (ExecutionContextCompressor codec : codecs) {
+            executionContextDao.setCompressor(codec);
+            ExecutionContext ctx = largeContext();
+            stepExecution.setExecutionContext(ctx);
+            executionContextDao.saveExecutionContext(stepExecution);
+
+            Document stored = getStoredContext();
+            assertEquals(codec.getName(), stored.get(MongoExecutionContextDao.CODEC_KEY));
+            assertFalse(stored.containsKey("keys"));
+            assertEquals(ctx, executionContextDao.getExecutionContext(stepExecution));
+        }
+    }
+
+    @Test
+    public void testSmallContextStaysPlain() {
+        ExecutionContext ctx = new ExecutionContext();
+        ctx.putString("key.with.dots", "value");
+        ctx.putLong("count", 3L);
+        stepExecution.setExecutionContext(ctx);
+        executionContextDao.saveExecutionContext(stepExecution);
+
+        assertNull(getStoredContext().get(MongoExecutionContextDao.CODEC_KEY));
+        assertEquals(ctx, executionContextDao.getExecutionContext(stepExecution));
+    }
+
+    @Test
+    public void testSwitchingEncodingLeavesNoStaleFields() {
+        ExecutionContext ctx = largeContext();
+        stepExecution.setExecutionContext(ctx);
+        executionContextDao.saveExecutionContext(stepExecution);
+
+        // a reader configured with another codec still decodes the stored one
+        MongoExecutionContextDao zstdDao = new MongoExecutionContextDao();
+        zstdDao.setMongoTemplate(mongoTemplate);
+        zstdDao.setCompressor(new ZstdExecutionContextCompressor());
+        assertEquals(ctx, zstdDao.getExecutionContext(stepExecution));
+
+        MongoExecutionContextDao plainDao = new MongoExecutionContextDao();
+        plainDao.setMongoTemplate(mongoTemplate);
+        ExecutionContext updated = new ExecutionContext();
+        updated.putString("state", "done");
+        stepExecution.setExecutionContext(updated);
+        plainDao.updateExecutionContext(stepExecution);
+
+        Document stored = getStoredContext();
+        assertFalse(stored.containsKey(MongoExecutionContextDao.PAYLOAD_KEY));
+        assertEquals(updated, plainDao.getExecutionContext(stepExecution));
+
+        stepExecution.setExecutionContext(ctx);
+        executionContextDao.updateExecutionContext(stepExecution);
+        assertFalse(getStoredContext().containsKey("state"));
+        assertEquals(ctx, plainDao.getExecutionContext(stepExecution));
+    }
+
+    @Test
+    public void testCompressedPayloadSpills() {
+        executionContextDao.setSpillThreshold(64);
+        ExecutionContext ctx = largeContext();
+        stepExecution.setExecutionContext(ctx);
+        executionContextDao.saveExecutionContext(stepExecution);
+
+        Document stored = getStoredContext();
+        assertTrue(((Document) stored.get(MongoExecutionContextDao.PAYLOAD_KEY))
+                .containsKey(MongoExecutionContextDao.SPILL_REFERENCE_KEY));
+        assertEquals(ctx, executionContextDao.getExecutionContext(stepExecution));
+
+        ctx.putString("state", "done");
+        ctx.remove("keys");
+        executionContextDao.updateExecutionContext(stepExecution);
+        assertEquals(0, mongoTemplate.getCollection(MongoExecutionContextDao.SPILL_BUCKET_NAME + ".files")
+                .countDocuments());
+        assertEquals(ctx, executionContextDao.getExecutionContext(stepExecution));
+    }
+
+    @Test
+    public void testTruncatedDeflatePayloadIsRejected() {
+        ExecutionContextCompressor codec = new DeflateExecutionContextCompressor();
+        byte[] data = "x".repeat(10_000).getBytes(StandardCharsets.UTF_8);
+        byte[] compressed = codec.compress(data);
+        try {
+            codec.decompress(Arrays.copyOf(compressed, compressed.length / 2), data.length);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testEachCodecShrinksTheContext() {
+        MongoExecutionContextDao plainDao = new MongoExecutionContextDao();
+        plainDao.setMongoTemplate(mongoTemplate);
+        stepExecution.setExecutionContext(largeContext());
+        plainDao.saveExecutionContext(stepExecution);
+        int plainSize = getStoredSize();
+
+        for (ExecutionContextCompressor codec : Arrays.asList(new DeflateExecutionContextCompressor(),
+                new Lz4ExecutionContextCompressor(), new ZstdExecutionContextCompressor())) {
+            executionContextDao.setCompressor(codec);
+            executionContextDao.updateExecutionContext(stepExecution);
+            assertTrue(codec.getName() + " should shrink the context", getStoredSize() < plainSize);
+        }
+    }
+
+    @Test
+    public void testWireCompression() throws Exception {
+        MongoJobRepositoryFactoryBean factory = new MongoJobRepositoryFactoryBean();
+        factory.setTransactionManager(new ResourcelessTransactionManager());
+        factory.setConnectionString(System.getProperty("mongodb.uri", "mongodb://127.0.0.1:27017"));
+        factory.setDatabaseName(mongoTemplate.getDb().getName());
+        factory.setCompressors(Arrays.asList("zlib"));
+        factory.afterPropertiesSet();
+        try {
+            MongoExecutionContextDao dao = new MongoExecutionContextDao();
+            dao.setMongoTemplate(factory.getMongoTemplate());
+            ExecutionContext ctx = largeContext();
+            stepExecution.setExecutionContext(ctx);
+            dao.saveExecutionContext(stepExecution);
+            assertEquals(ctx, dao.getExecutionContext(stepExecution));
+        } finally {
+            factory.destroy();
+        }
+    }
+
+    private ExecutionContext largeContext() {
+        List<String> partitionKeys = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            partitionKeys.add("partition-key-" + i);
+        }
+        ExecutionContext ctx = new ExecutionContext();
+        ctx.put("keys", partitionKeys);
+        ctx.putString("reader.position", "line-42");
+        ctx.putDouble("ratio", 0.5);
+        return ctx;
+    }
+
+    private int getStoredSize() {
+        return mongoTemplate.getDb().getCollection(ExecutionContext.class.getSimpleName(), RawBsonDocument.class)
+                .find(new Document(AbstractMongoDao.STEP_EXECUTION_ID_KEY, stepExecution.getId())).first()
+                .getByteBuffer().remaining();
+    }
+
+    private Document getStoredContext() {
+        return mongoTemplate.getCollection(ExecutionContext.class.getSimpleName())
+                .find(new Document(AbstractMongoDao.STEP_EXECUTION_ID_KEY, stepExecution.getId())).first();
+    }
+}
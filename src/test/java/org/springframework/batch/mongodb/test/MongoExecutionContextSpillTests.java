@@ -0,0 +1,222 @@
+package org.springframework.batch.mongodb.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bson.Document;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.dao.JobExecutionDao;
+import org.springframework.batch.core.repository.dao.JobInstanceDao;
+import org.springframework.batch.core.repository.dao.StepExecutionDao;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.mongodb.AbstractMongoDao;
+import org.springframework.batch.mongodb.MongoExecutionContextDao;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import com.mongodb.client.gridfs.GridFSBucket;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+/**
+ * GridFS spill-over of large ExecutionContext values.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath:spring/batch/config/test-context.xml" })
+public class MongoExecutionContextSpillTests {
+
+    @Autowired
+    private JobExecutionDao          jobExecutionDao;
+
+    @Autowired
+    private JobInstanceDao           jobInstanceDao;
+
+    @Autowired
+    private StepExecutionDao         stepExecutionDao;
+
+    @Autowired
+    protected MongoTemplate          mongoTemplate;
+
+    private MongoExecutionContextDao executionContextDao;
+
+    private StepExecution            stepExecution;
+
+    private final AtomicInteger      spillBucketUses = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+        mongoTemplate.getDb().drop();
+        executionContextDao = new MongoExecutionContextDao() {
+            @Override
+            protected GridFSBucket getSpillBucket() {
+                spillBucketUses.incrementAndGet();
+                return super.getSpillBucket();
+            }
+        };
+        executionContextDao.setMongoTemplate(mongoTemplate);
+        executionContextDao.setSpillThreshold(1024);
+
+        JobInstance ji = jobInstanceDao.createJobInstance("testJob", new JobParameters());
+        JobExecution jobExecution = new JobExecution(ji, null);
+        jobExecutionDao.saveJobExecution(jobExecution);
+        stepExecution = new StepExecution("stepName", jobExecution);
+        stepExecutionDao.saveStepExecution(stepExecution);
+    }
+
+    @Test
+    public void testLargeValueIsSpilledAndReadBack() {
+        List<String> partitionKeys = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            partitionKeys.add("partition-key-" + i);
+        }
+        ExecutionContext ctx = new ExecutionContext();
+        ctx.put("keys", partitionKeys);
+        ctx.putString("small", "inline");
+        stepExecution.setExecutionContext(ctx);
+        executionContextDao.saveExecutionContext(stepExecution);
+
+        Document stored = getStoredContext();
+        assertEquals("inline", stored.get("small"));
+        assertTrue(((Document) stored.get("keys")).containsKey(MongoExecutionContextDao.SPILL_REFERENCE_KEY));
+        assertEquals(1, countSpilledFiles());
+
+        ExecutionContext retrieved = executionContextDao.getExecutionContext(stepExecution);
+        assertEquals(ctx, retrieved);
+    }
+
+    @Test
+    public void testReplacedSpillIsDeleted() {
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            large.append("0123456789");
+        }
+        ExecutionContext ctx = new ExecutionContext();
+        ctx.putString("state", large.toString());
+        stepExecution.setExecutionContext(ctx);
+        executionContextDao.saveExecutionContext(stepExecution);
+        assertEquals(1, countSpilledFiles());
+
+        ctx.putString("state", "done");
+        executionContextDao.updateExecutionContext(stepExecution);
+        assertEquals(0, countSpilledFiles());
+        assertEquals("done", executionContextDao.getExecutionContext(stepExecution).getString("state"));
+    }
+
+    @Test
+    public void testRemovedSpilledKeyIsDropped() {
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            large.append("0123456789");
+        }
+        ExecutionContext ctx = new ExecutionContext();
+        ctx.putString("first", large.toString());
+        ctx.putString("second", large.toString());
+        stepExecution.setExecutionContext(ctx);
+        executionContextDao.saveExecutionContext(stepExecution);
+        assertEquals(2, countSpilledFiles());
+
+        ctx.remove("first");
+        executionContextDao.updateExecutionContext(stepExecution);
+        assertFalse(getStoredContext().containsKey("first"));
+        assertEquals(1, countSpilledFiles());
+        assertEquals(ctx, executionContextDao.getExecutionContext(stepExecution));
+
+        ctx.remove("second");
+        executionContextDao.updateExecutionContext(stepExecution);
+        assertFalse(getStoredContext().containsKey("second"));
+        assertEquals(0, countSpilledFiles());
+        assertEquals(ctx, executionContextDao.getExecutionContext(stepExecution));
+    }
+
+    @Test
+    public void testSpilledValueIsReadWhenAccessed() {
+        List<String> partitionKeys = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            partitionKeys.add("partition-key-" + i);
+        }
+        ExecutionContext ctx = new ExecutionContext();
+        ctx.put("keys", partitionKeys);
+        ctx.putLong("count", 1);
+        stepExecution.setExecutionContext(ctx);
+        executionContextDao.saveExecutionContext(stepExecution);
+        Object fileId = ((Document) getStoredContext().get("keys")).get(MongoExecutionContextDao.SPILL_REFERENCE_KEY);
+
+        spillBucketUses.set(0);
+        ExecutionContext retrieved = executionContextDao.getExecutionContext(stepExecution);
+        assertEquals(1, retrieved.getLong("count"));
+        assertTrue(retrieved.containsKey("keys"));
+        assertEquals(0, spillBucketUses.get());
+
+        // written back without reading the spilled value: the same file stays referenced
+        retrieved.putLong("count", 2);
+        stepExecution.setExecutionContext(retrieved);
+        executionContextDao.updateExecutionContext(stepExecution);
+        assertEquals(0, spillBucketUses.get());
+        assertEquals(fileId,
+                ((Document) getStoredContext().get("keys")).get(MongoExecutionContextDao.SPILL_REFERENCE_KEY));
+        assertEquals(1, countSpilledFiles());
+
+        retrieved = executionContextDao.getExecutionContext(stepExecution);
+        assertEquals(partitionKeys, retrieved.get("keys"));
+        assertEquals(1, spillBucketUses.get());
+        assertEquals(2, retrieved.getLong("count"));
+    }
+
+    @Test
+    public void testSmallContextIsUpdatedInPlace() {
+        ExecutionContext ctx = new ExecutionContext();
+        ctx.putString("state", "started");
+        stepExecution.setExecutionContext(ctx);
+        executionContextDao.saveExecutionContext(stepExecution);
+        mongoTemplate.getCollection(ExecutionContext.class.getSimpleName()).updateOne(
+                new Document(AbstractMongoDao.STEP_EXECUTION_ID_KEY, stepExecution.getId()),
+                new Document("$set", new Document("other", "kept")));
+
+        ctx.putString("state", "done");
+        executionContextDao.updateExecutionContext(stepExecution);
+        Document stored = getStoredContext();
+        assertEquals("done", stored.get("state"));
+        assertEquals("kept", stored.get("other"));
+        assertFalse(stored.containsKey(MongoExecutionContextDao.SPILLED_FILES_KEY));
+        assertEquals(0, spillBucketUses.get());
+    }
+
+    @Test
+    public void testMaxInlineSizeSpillsLargestValues() {
+        executionContextDao.setSpillThreshold(Integer.MAX_VALUE);
+        executionContextDao.setMaxInlineSize(2048);
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 90; i++) {
+            value.append("0123456789");
+        }
+        ExecutionContext ctx = new ExecutionContext();
+        for (int i = 0; i < 4; i++) {
+            ctx.putString("value" + i, value.toString());
+        }
+        stepExecution.setExecutionContext(ctx);
+        executionContextDao.saveExecutionContext(stepExecution);
+
+        assertEquals(2, countSpilledFiles());
+        assertEquals(ctx, executionContextDao.getExecutionContext(stepExecution));
+    }
+
+    private Document getStoredContext() {
+        return mongoTemplate.getCollection(ExecutionContext.class.getSimpleName())
+                .find(new Document(AbstractMongoDao.STEP_EXECUTION_ID_KEY, stepExecution.getId())).first();
+    }
+
+    private long countSpilledFiles() {
+        return mongoTemplate.getCollection(MongoExecutionContextDao.SPILL_BUCKET_NAME + ".files").countDocuments();
+    }
+}
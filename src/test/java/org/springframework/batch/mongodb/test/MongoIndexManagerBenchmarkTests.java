@@ -0,0 +1,107 @@
+package org.springframework.batch.mongodb.test;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.mongodb.MongoExecutionContextDao;
+import org.springframework.batch.mongodb.MongoIndexManager;
+import org.springframework.batch.mongodb.MongoIndexManager.Policy;
+import org.springframework.batch.mongodb.MongoJobExecutionDao;
+import org.springframework.batch.mongodb.MongoJobInstanceDao;
+import org.springframework.batch.mongodb.MongoStepExecutionDao;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+/**
+ * Compares DAO start-up time with and without {@link MongoIndexManager}. Each "start-up" uses a new manager, as a
+ * freshly started job JVM would. The number of start-ups can be raised with -Dbenchmark.startups; results are logged.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath:spring/batch/config/test-context.xml" })
+public class MongoIndexManagerBenchmarkTests {
+
+    private static final Logger     LOG      = LoggerFactory.getLogger(MongoIndexManagerBenchmarkTests.class);
+
+    private static final int        STARTUPS = Integer.getInteger("benchmark.startups", 20);
+
+    @Autowired
+    protected MongoTemplate         mongoTemplate;
+
+    private List<MongoIndexManager> managers = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        mongoTemplate.getDb().drop();
+    }
+
+    @After
+    public void tearDown() {
+        for (MongoIndexManager manager : managers) {
+            manager.stop();
+        }
+    }
+
+    @Test
+    public void testStartupTime() throws Exception {
+        // first start-up of a new database creates the indexes in any case
+        startUp(null);
+
+        long legacy = measure(null);
+        long create = measure(Policy.CREATE);
+        long async = measure(Policy.CREATE_ASYNC);
+        LOG.info("DAO start-up over {} start-ups: createIndex per index {} us, verify-once {} us, async {} us",
+                STARTUPS, legacy, create, async);
+    }
+
+    /**
+     * @return average microseconds per start-up
+     */
+    private long measure(Policy policy) throws InterruptedException {
+        long elapsed = 0;
+        for (int i = 0; i < STARTUPS; i++) {
+            MongoIndexManager manager = null;
+            if (policy != null) {
+                manager = new MongoIndexManager();
+                manager.setPolicy(policy);
+                managers.add(manager);
+            }
+            long start = System.nanoTime();
+            startUp(manager);
+            elapsed += System.nanoTime() - start;
+            if (manager != null) {
+                assertTrue(manager.awaitCompletion(30, TimeUnit.SECONDS));
+            }
+        }
+        return elapsed / 1000 / STARTUPS;
+    }
+
+    private void startUp(MongoIndexManager manager) {
+        MongoJobInstanceDao jobInstanceDao = new MongoJobInstanceDao();
+        MongoJobExecutionDao jobExecutionDao = new MongoJobExecutionDao();
+        MongoStepExecutionDao stepExecutionDao = new MongoStepExecutionDao();
+        MongoExecutionContextDao executionContextDao = new MongoExecutionContextDao();
+        jobInstanceDao.setMongoTemplate(mongoTemplate);
+        jobExecutionDao.setMongoTemplate(mongoTemplate);
+        stepExecutionDao.setMongoTemplate(mongoTemplate);
+        executionContextDao.setMongoTemplate(mongoTemplate);
+        jobInstanceDao.setIndexManager(manager);
+        jobExecutionDao.setIndexManager(manager);
+        stepExecutionDao.setIndexManager(manager);
+        executionContextDao.setIndexManager(manager);
+        jobInstanceDao.init();
+        jobExecutionDao.init();
+        stepExecutionDao.init();
+        executionContextDao.init();
+    }
+}
@@ -0,0 +1,194 @@
+package org.springframework.batch.mongodb.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonBoolean;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.batch.mongodb.AbstractMongoDao;
+import org.springframework.batch.mongodb.MongoExecutionContextDao;
+import org.springframework.batch.mongodb.MongoIndexManager;
+import org.springframework.batch.mongodb.MongoIndexManager.Policy;
+import org.springframework.batch.mongodb.MongoJobExecutionDao;
+import org.springframework.batch.mongodb.MongoJobInstanceDao;
+import org.springframework.batch.mongodb.MongoStepExecutionDao;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.IndexModel;
+
+/**
+ * Tests for {@link MongoIndexManager}. Start-up times are compared in {@link MongoIndexManagerBenchmarkTests}.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath:spring/batch/config/test-context.xml" })
+public class MongoIndexManagerTests {
+
+    @Autowired
+    protected MongoTemplate         mongoTemplate;
+
+    private List<MongoIndexManager> managers = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        mongoTemplate.getDb().drop();
+    }
+
+    @After
+    public void tearDown() {
+        for (MongoIndexManager manager : managers) {
+            manager.stop();
+        }
+    }
+
+    @Test
+    public void testAsyncCreatesAllIndexes() throws Exception {
+        MongoIndexManager manager = manager(Policy.CREATE_ASYNC);
+        List<AbstractMongoDao> daos = startUp(manager);
+        assertTrue(manager.awaitCompletion(30, TimeUnit.SECONDS));
+        for (AbstractMongoDao dao : daos) {
+            assertIndexesExist(dao);
+        }
+    }
+
+    @Test
+    public void testVerifyFailsOnMissingIndex() {
+        MongoIndexManager manager = manager(Policy.VERIFY);
+        MongoJobInstanceDao dao = new MongoJobInstanceDao();
+        dao.setMongoTemplate(mongoTemplate);
+        dao.setIndexManager(manager);
+        try {
+            dao.init();
+            fail("Missing indexes must fail start-up");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(AbstractMongoDao.JOB_NAME_KEY));
+        }
+
+        // once created, verification passes
+        dao.setIndexManager(manager(Policy.CREATE));
+        dao.init();
+        dao.setIndexManager(manager);
+        dao.init();
+    }
+
+    @Test
+    public void testVerifyFailsOnNonUniqueIndex() {
+        MongoJobInstanceDao dao = new MongoJobInstanceDao();
+        dao.setMongoTemplate(mongoTemplate);
+        dao.setIndexManager(manager(Policy.CREATE));
+        dao.init();
+        collection(dao).dropIndex(new Document(AbstractMongoDao.JOB_NAME_KEY, 1).append("jobKey", 1));
+        collection(dao).createIndex(new Document(AbstractMongoDao.JOB_NAME_KEY, 1).append("jobKey", 1));
+
+        dao.setIndexManager(manager(Policy.VERIFY));
+        try {
+            dao.init();
+            fail("A plain index must not pass for the unique one");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("unique"));
+        }
+    }
+
+    @Test
+    public void testAsyncCreatesUniqueIndexesBeforeReturning() {
+        MongoJobInstanceDao dao = new MongoJobInstanceDao();
+        dao.setMongoTemplate(mongoTemplate);
+        dao.setIndexManager(manager(Policy.CREATE_ASYNC));
+        dao.init();
+        boolean unique = false;
+        for (BsonDocument index : collection(dao).listIndexes(BsonDocument.class)) {
+            unique |= index.getBoolean("unique", BsonBoolean.FALSE).getValue()
+                    && index.getDocument("key").containsKey("jobKey");
+        }
+        assertTrue(unique);
+    }
+
+    @Test
+    public void testCreatesOnlyMissingIndexes() {
+        MongoJobExecutionDao dao = new MongoJobExecutionDao();
+        dao.setMongoTemplate(mongoTemplate);
+        // existing index declared with a long direction is recognised as the same index
+        collection(dao).createIndex(new Document(AbstractMongoDao.CREATE_TIME_KEY, -1L));
+        collection(dao).createIndex(new Document(AbstractMongoDao.JOB_EXECUTION_ID_KEY, 1.0));
+
+        dao.setIndexManager(manager(Policy.CREATE));
+        dao.init();
+        assertIndexesExist(dao);
+        // declared indexes plus _id
+        assertEquals(dao.getIndexes().size() + 1, collection(dao).listIndexes().into(new ArrayList<>()).size());
+    }
+
+    private List<AbstractMongoDao> startUp(MongoIndexManager manager) {
+        MongoJobInstanceDao jobInstanceDao = new MongoJobInstanceDao();
+        MongoJobExecutionDao jobExecutionDao = new MongoJobExecutionDao();
+        MongoStepExecutionDao stepExecutionDao = new MongoStepExecutionDao();
+        MongoExecutionContextDao executionContextDao = new MongoExecutionContextDao();
+        jobInstanceDao.setMongoTemplate(mongoTemplate);
+        jobExecutionDao.setMongoTemplate(mongoTemplate);
+        stepExecutionDao.setMongoTemplate(mongoTemplate);
+        executionContextDao.setMongoTemplate(mongoTemplate);
+        List<AbstractMongoDao> daos = Arrays.asList(jobInstanceDao, jobExecutionDao, stepExecutionDao,
+                executionContextDao);
+        for (AbstractMongoDao dao : daos) {
+            dao.setIndexManager(manager);
+        }
+        jobInstanceDao.init();
+        jobExecutionDao.init();
+        stepExecutionDao.init();
+        executionContextDao.init();
+        return daos;
+    }
+
+    private void assertIndexesExist(AbstractMongoDao dao) {
+        List<String> existing = new ArrayList<>();
+        for (BsonDocument index : collection(dao).listIndexes(BsonDocument.class)) {
+            existing.add(normalize(index.getDocument("key")));
+        }
+        for (IndexModel index : dao.getIndexes()) {
+            String keys = normalize(index.getKeys().toBsonDocument());
+            assertTrue(keys + " missing in " + existing, existing.contains(keys));
+        }
+    }
+
+    private String normalize(BsonDocument keys) {
+        StringBuilder builder = new StringBuilder();
+        for (String key : keys.keySet()) {
+            BsonValue direction = keys.get(key);
+            builder.append(key).append(':').append(
+                    direction.isNumber() ? direction.asNumber().intValue() : direction.toString()).append(',');
+        }
+        return builder.toString();
+    }
+
+    private MongoCollection<Document> collection(AbstractMongoDao dao) {
+        String name = dao instanceof MongoJobInstanceDao ? "JobInstance" : "JobExecution";
+        if (dao instanceof MongoStepExecutionDao) {
+            name = "StepExecution";
+        } else if (dao instanceof MongoExecutionContextDao) {
+            name = "ExecutionContext";
+        }
+        return mongoTemplate.getCollection(name);
+    }
+
+    private MongoIndexManager manager(Policy policy) {
+        MongoIndexManager manager = new MongoIndexManager();
+        manager.setPolicy(policy);
+        managers.add(manager);
+        return manager;
+    }
+}
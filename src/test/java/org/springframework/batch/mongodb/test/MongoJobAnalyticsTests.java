@@ -0,0 +1,208 @@
+package org.springframework.batch.mongodb.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.dao.JobExecutionDao;
+import org.springframework.batch.core.repository.dao.JobInstanceDao;
+import org.springframework.batch.core.repository.dao.StepExecutionDao;
+import org.springframework.batch.mongodb.AbstractMongoDao;
+import org.springframework.batch.mongodb.MongoJobAnalytics;
+import org.springframework.batch.mongodb.MongoJobAnalytics.DurationStatistics;
+import org.springframework.batch.mongodb.MongoJobAnalytics.StatusHistogram;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Updates;
+
+/**
+ * Tests for {@link MongoJobAnalytics}. Servers without $percentile run the duration histogram fallback.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath:spring/batch/config/test-context.xml" })
+public class MongoJobAnalyticsTests {
+
+    @Autowired
+    protected MongoTemplate   mongoTemplate;
+
+    @Autowired
+    private JobInstanceDao    jobInstanceDao;
+
+    @Autowired
+    private JobExecutionDao   jobExecutionDao;
+
+    @Autowired
+    private StepExecutionDao  stepExecutionDao;
+
+    private MongoJobAnalytics analytics;
+
+    private final Date        from = new Date(System.currentTimeMillis() - 60_000);
+
+    private final Date        to   = new Date(System.currentTimeMillis() + 60_000);
+
+    private long              run;
+
+    @Before
+    public void setUp() {
+        mongoTemplate.getDb().drop();
+        analytics = new MongoJobAnalytics();
+        analytics.setMongoTemplate(mongoTemplate);
+        analytics.init();
+
+        execution("nightly", BatchStatus.COMPLETED, 1000, 100);
+        execution("nightly", BatchStatus.COMPLETED, 2000, 200);
+        execution("nightly", BatchStatus.COMPLETED, 3000, 3000);
+        execution("hourly", BatchStatus.COMPLETED, 500, 50);
+        execution("hourly", BatchStatus.FAILED, 700, 70);
+        execution("hourly", BatchStatus.STARTED, -1, -1);
+    }
+
+    @Test
+    public void testStatusHistograms() {
+        List<StatusHistogram> histograms = analytics.getStatusHistograms(from, to);
+        assertEquals(2, histograms.size());
+        StatusHistogram hourly = histograms.get(0);
+        assertEquals("hourly", hourly.getJobName());
+        assertEquals(3, hourly.getTotal());
+        assertEquals(1, hourly.getCount(BatchStatus.FAILED));
+        assertEquals(1.0 / 3, hourly.getFailureRate(), 0.001);
+        assertEquals(3, histograms.get(1).getCount(BatchStatus.COMPLETED));
+        assertEquals(0.0, histograms.get(1).getFailureRate(), 0.0);
+
+        assertTrue(analytics.getStatusHistograms(to, new Date(to.getTime() + 1)).isEmpty());
+    }
+
+    @Test
+    public void testJobDurations() {
+        List<DurationStatistics> durations = analytics.getJobDurations(from, to);
+        assertEquals(2, durations.size());
+        DurationStatistics nightly = durations.get(1);
+        assertEquals("nightly", nightly.getName());
+        assertEquals(3, nightly.getCount());
+        assertEquals(2000, nightly.getAverage());
+        assertEquals(3000, nightly.getMax());
+        assertEquals(2000, nightly.getP50());
+        // the running execution is left out
+        assertEquals(2, durations.get(0).getCount());
+    }
+
+    @Test
+    public void testPercentilesOfManyExecutions() {
+        for (int i = 1; i <= 200; i++) {
+            execution("batch", BatchStatus.COMPLETED, i * 10, i * 10);
+        }
+        DurationStatistics batch = analytics.getJobDurations(from, to).get(0);
+        assertEquals("batch", batch.getName());
+        assertEquals(200, batch.getCount());
+        assertEquals(1005, batch.getAverage());
+        assertEquals(2000, batch.getMax());
+        // approximate, within 1%
+        assertEquals(1000, batch.getP50(), 10);
+        assertEquals(1900, batch.getP95(), 19);
+        assertEquals(1980, batch.getP99(), 20);
+    }
+
+    @Test
+    public void testSlowestSteps() {
+        List<DurationStatistics> steps = analytics.getSlowestSteps(from, to, 1);
+        assertEquals(1, steps.size());
+        assertEquals("nightly", steps.get(0).getJobName());
+        assertEquals("nightly.step", steps.get(0).getName());
+        assertEquals(3000, steps.get(0).getMax());
+    }
+
+    @Test
+    public void testSlowestStepsKeepJobsApart() {
+        execution("nightly", "load", 400);
+        execution("hourly", "load", 40);
+        List<DurationStatistics> steps = analytics.getSlowestSteps(from, to, 10);
+        assertEquals(4, steps.size());
+        DurationStatistics nightlyLoad = steps.get(1);
+        assertEquals("nightly", nightlyLoad.getJobName());
+        assertEquals("load", nightlyLoad.getName());
+        assertEquals(1, nightlyLoad.getCount());
+        assertEquals(400, nightlyLoad.getP95());
+        assertEquals("hourly", steps.get(3).getJobName());
+        assertEquals("load", steps.get(3).getName());
+    }
+
+    @Test
+    public void testBackfillJobNames() {
+        mongoTemplate.getCollection(JobExecution.class.getSimpleName()).updateMany(new Document(),
+                Updates.unset(AbstractMongoDao.JOB_NAME_KEY));
+        List<StatusHistogram> unnamed = analytics.getStatusHistograms(from, to);
+        assertEquals(1, unnamed.size());
+        assertNull(unnamed.get(0).getJobName());
+
+        analytics.setBatchSize(1);
+        assertEquals(6, analytics.backfillJobNames());
+        assertEquals(0, analytics.backfillJobNames());
+        assertEquals(0, mongoTemplate.getCollection(JobExecution.class.getSimpleName())
+                .countDocuments(Filters.exists(AbstractMongoDao.JOB_NAME_KEY, false)));
+        assertEquals(2, analytics.getStatusHistograms(from, to).size());
+    }
+
+    @Test
+    public void testAnalyticsIndexes() {
+        List<BsonDocument> keys = new ArrayList<>();
+        for (BsonDocument index : mongoTemplate.getCollection(JobExecution.class.getSimpleName())
+                .listIndexes(BsonDocument.class)) {
+            keys.add(index.getDocument("key"));
+        }
+        assertTrue(keys.contains(analytics.getJobExecutionIndexes().get(0).getKeys().toBsonDocument()));
+    }
+
+    /**
+     * Saves a completed execution of the job with one step of the given name.
+     */
+    private void execution(String jobName, String stepName, long stepMillis) {
+        execution(jobName, stepName, BatchStatus.COMPLETED, stepMillis, stepMillis);
+    }
+
+    /**
+     * Saves an execution of the job with one step; negative durations leave both running.
+     */
+    private void execution(String jobName, BatchStatus status, long jobMillis, long stepMillis) {
+        execution(jobName, jobName + ".step", status, jobMillis, stepMillis);
+    }
+
+    private void execution(String jobName, String stepName, BatchStatus status, long jobMillis, long stepMillis) {
+        JobInstance jobInstance = jobInstanceDao.createJobInstance(jobName,
+                new JobParametersBuilder().addLong("run", run++).toJobParameters());
+        JobExecution jobExecution = new JobExecution(jobInstance, new JobParameters());
+        Date start = new Date();
+        jobExecution.setStartTime(start);
+        jobExecution.setStatus(status);
+        if (jobMillis >= 0) {
+            jobExecution.setEndTime(new Date(start.getTime() + jobMillis));
+        }
+        jobExecutionDao.saveJobExecution(jobExecution);
+
+        StepExecution stepExecution = new StepExecution(stepName, jobExecution);
+        stepExecution.setStartTime(start);
+        stepExecution.setStatus(status);
+        if (stepMillis >= 0) {
+            stepExecution.setEndTime(new Date(start.getTime() + stepMillis));
+        }
+        stepExecutionDao.saveStepExecution(stepExecution);
+    }
+}
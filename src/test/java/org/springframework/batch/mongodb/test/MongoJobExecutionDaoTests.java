@@ -22,6 +22,7 @@ import org.springframework.batch.core.StepExecution;
 import org.springframework.batch.core.repository.dao.JobExecutionDao;
 import org.springframework.batch.core.repository.dao.JobInstanceDao;
 import org.springframework.batch.core.repository.dao.StepExecutionDao;
+import org.springframework.batch.mongodb.MongoJobExecutionDao;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.data.mongodb.core.MongoTemplate;
@@ -327,6 +328,33 @@ public class MongoJobExecutionDaoTests{
         assertEquals(BatchStatus.UNKNOWN, exec2.getStatus());
     }
 
+    /**
+     * Latest execution of each job name in one query, with its job instance.
+     */
+    @Test
+    public void testGetLatestJobExecutions() {
+        JobInstance other = jobInstanceDao.createJobInstance("Job0", new JobParameters());
+        List<JobExecution> saved = new ArrayList<JobExecution>();
+        for (int i = 0; i < 3; i++) {
+            for (JobInstance instance : new JobInstance[] { jobInstance, other }) {
+                JobExecution jobExecution = new JobExecution(instance, null);
+                jobExecution.setCreateTime(new Date(1000L * i + instance.getId()));
+                jobExecution.setStatus(i == 2 ? BatchStatus.FAILED : BatchStatus.COMPLETED);
+                jobExecutionDao.saveJobExecution(jobExecution);
+                saved.add(jobExecution);
+            }
+        }
+
+        List<JobExecution> latest = ((MongoJobExecutionDao) jobExecutionDao).getLatestJobExecutions();
+        assertEquals(2, latest.size());
+        assertEquals("Job0", latest.get(0).getJobInstance().getJobName());
+        assertEquals(other.getId(), latest.get(0).getJobId());
+        assertExecutionsAreEqual(saved.get(5), latest.get(0));
+        assertEquals("Job1", latest.get(1).getJobInstance().getJobName());
+        assertExecutionsAreEqual(saved.get(4), latest.get(1));
+        assertEquals(BatchStatus.FAILED, latest.get(1).getStatus());
+    }
+
     /*
       * Check to make sure the executions are equal. Normally, comparing the id's
       * is sufficient. However, for testing purposes, especially of a DAO, we
@@ -5,12 +5,19 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.math.BigInteger;
 import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import org.bson.Document;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -20,11 +27,15 @@ import org.springframework.batch.core.JobParameters;
 import org.springframework.batch.core.JobParametersBuilder;
 import org.springframework.batch.core.repository.dao.JobExecutionDao;
 import org.springframework.batch.core.repository.dao.JobInstanceDao;
+import org.springframework.batch.mongodb.JobInstanceAlreadyExistsException;
+import org.springframework.batch.mongodb.MongoJobInstanceDao;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
+import com.mongodb.client.MongoCollection;
+
 @RunWith(SpringJUnit4ClassRunner.class)
 @ContextConfiguration(locations = {
 	    "classpath:spring/batch/config/test-context.xml"})
@@ -214,7 +225,67 @@ public class MongoJobInstanceDaoTests {
         jobInstanceDao.createJobInstance(fooJob, fooParams);
     }
 
-    
+    /**
+     * Concurrent launches of the same job+parameters create a single instance
+     */
+    @Test
+    public void testConcurrentCreateDuplicateInstance() throws Exception {
+        // the unique index was dropped with the database
+        ((MongoJobInstanceDao) jobInstanceDao).init();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<JobInstance>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> jobInstanceDao.createJobInstance(fooJob, fooParams)));
+            }
+            int created = 0;
+            for (Future<JobInstance> future : futures) {
+                try {
+                    future.get();
+                    created++;
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof IllegalStateException);
+                }
+            }
+            assertEquals(1, created);
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1, mongoTemplate.getCollection(JobInstance.class.getSimpleName()).countDocuments());
+    }
+
+    /**
+     * Instances keyed by all parameters, as before non-identifying ones were left out, are found until migrated
+     */
+    @Test
+    public void testLegacyJobKeyIsFoundAndMigrated() throws Exception {
+        MongoJobInstanceDao dao = (MongoJobInstanceDao) jobInstanceDao;
+        JobParameters parameters = new JobParametersBuilder().addString("input", "a.csv")
+                .addString("run", "first", false).toJobParameters();
+        JobInstance jobInstance = dao.createJobInstance(fooJob, parameters);
+        MessageDigest digest = MessageDigest.getInstance("MD5");
+        String legacyKey = String.format("%032x",
+                new BigInteger(1, digest.digest("input=a.csv;run=first;".getBytes("UTF-8"))));
+        MongoCollection<Document> instances = mongoTemplate.getCollection(JobInstance.class.getSimpleName());
+        instances.updateOne(new Document(), new Document("$set", new Document(MongoJobInstanceDao.JOB_KEY_KEY,
+                legacyKey)));
+
+        assertEquals(jobInstance, dao.getJobInstance(fooJob, parameters));
+        try {
+            dao.createJobInstance(fooJob, parameters);
+            fail("Expected JobInstanceAlreadyExistsException");
+        } catch (JobInstanceAlreadyExistsException e) {
+            // expected
+        }
+
+        assertEquals(1, dao.migrateJobKeys());
+        assertFalse(legacyKey.equals(instances.find().first().getString(MongoJobInstanceDao.JOB_KEY_KEY)));
+        assertEquals(jobInstance, dao.getJobInstance(fooJob, new JobParametersBuilder().addString("input", "a.csv")
+                .addString("run", "second", false).toJobParameters()));
+        assertEquals(0, dao.migrateJobKeys());
+        assertEquals(1, instances.countDocuments());
+    }
+
     @Test
     public void testCreationAddsVersion() {
 
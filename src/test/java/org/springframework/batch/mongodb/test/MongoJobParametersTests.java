@@ -0,0 +1,178 @@
+package org.springframework.batch.mongodb.test;
+
+import static com.mongodb.client.model.Filters.eq;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.bson.Document;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.batch.mongodb.AbstractMongoDao;
+import org.springframework.batch.mongodb.MongoJobExecutionDao;
+import org.springframework.batch.mongodb.MongoJobInstanceDao;
+import org.springframework.batch.mongodb.MongoJobRepositoryFactoryBean;
+import org.springframework.batch.support.transaction.ResourcelessTransactionManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+/**
+ * Tests for the job parameters lists of job instances and executions: lookups by parameter, parameters per execution
+ * and the migrations of documents stored before.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath:spring/batch/config/test-context.xml" })
+public class MongoJobParametersTests {
+
+    @Autowired
+    protected MongoTemplate      mongoTemplate;
+
+    private MongoJobInstanceDao  jobInstanceDao;
+
+    private MongoJobExecutionDao jobExecutionDao;
+
+    private JobRepository        jobRepository;
+
+    @Before
+    public void setUp() throws Exception {
+        mongoTemplate.getDb().drop();
+        jobInstanceDao = new MongoJobInstanceDao();
+        jobInstanceDao.setMongoTemplate(mongoTemplate);
+        jobInstanceDao.init();
+        jobExecutionDao = new MongoJobExecutionDao();
+        jobExecutionDao.setMongoTemplate(mongoTemplate);
+
+        MongoJobRepositoryFactoryBean factory = new MongoJobRepositoryFactoryBean();
+        factory.setTransactionManager(new ResourcelessTransactionManager());
+        factory.setMongoTemplate(mongoTemplate);
+        factory.afterPropertiesSet();
+        jobRepository = factory.getObject();
+    }
+
+    @Test
+    public void testFindJobInstancesByParameters() throws Exception {
+        for (long run = 0; run < 6; run++) {
+            jobInstanceDao.createJobInstance(run < 4 ? "billing" : "reporting", new JobParametersBuilder()
+                    .addLong("customerId", run % 2 == 0 ? 42L : 7L).addLong("run", run)
+                    .addString("region", "eu", false).toJobParameters());
+        }
+
+        List<JobInstance> page = jobInstanceDao.findJobInstancesByParameters(null,
+                new JobParametersBuilder().addLong("customerId", 42L).toJobParameters(), 0, 10);
+        assertEquals(Arrays.asList(5L, 3L, 1L), ids(page));
+        assertEquals(Arrays.asList(3L, 1L), ids(jobInstanceDao.findJobInstancesByParameters("billing",
+                new JobParametersBuilder().addLong("customerId", 42L).toJobParameters(), 0, 10)));
+        assertEquals(Arrays.asList(3L), ids(jobInstanceDao.findJobInstancesByParameters(null,
+                new JobParametersBuilder().addLong("customerId", 42L).toJobParameters(), 1, 1)));
+        // every parameter must match, non-identifying ones included
+        assertEquals(Arrays.asList(4L), ids(jobInstanceDao.findJobInstancesByParameters(null,
+                new JobParametersBuilder().addLong("customerId", 7L).addLong("run", 3L).addString("region", "eu")
+                        .toJobParameters(), 0, 10)));
+        // values compare by type
+        assertTrue(jobInstanceDao.findJobInstancesByParameters(null,
+                new JobParametersBuilder().addString("customerId", "42").toJobParameters(), 0, 10).isEmpty());
+    }
+
+    @Test
+    public void testParametersRoundTrip() throws Exception {
+        Date date = new Date(1_000_000L);
+        JobParameters parameters = new JobParametersBuilder().addString("input.file", "a.csv")
+                .addLong("attempt", 2L, false).addDouble("ratio", 0.5).addDate("day", date).toJobParameters();
+        JobExecution jobExecution = jobRepository.createJobExecution("roundTrip", parameters);
+
+        JobParameters stored = jobRepository.getLastJobExecution("roundTrip", parameters).getJobParameters();
+        assertEquals(parameters, stored);
+        assertEquals(false, stored.getParameters().get("attempt").isIdentifying());
+        assertEquals(Arrays.asList(jobExecution.getJobId()), ids(jobInstanceDao.findJobInstancesByParameters(
+                "roundTrip", new JobParametersBuilder().addString("input.file", "a.csv").addDate("day", date)
+                        .toJobParameters(), 0, 10)));
+    }
+
+    @Test
+    public void testMigrateJobParameters() throws Exception {
+        JobParameters parameters = new JobParametersBuilder().addString("input.file", "a.csv")
+                .addLong("customerId", 42L).toJobParameters();
+        JobExecution jobExecution = jobRepository.createJobExecution("legacy", parameters);
+        // the shape written before: values keyed by name, dots escaped
+        mongoTemplate.getCollection("JobInstance").updateOne(
+                eq(AbstractMongoDao.JOB_INSTANCE_ID_KEY, jobExecution.getJobId()),
+                new Document("$set", new Document(AbstractMongoDao.JOB_PARAMETERS_KEY,
+                        new Document("input{dot}file", "a.csv").append("customerId", 42L))));
+
+        // read in either shape
+        assertEquals(parameters, jobRepository.getLastJobExecution("legacy", parameters).getJobParameters());
+        JobParameters byCustomer = new JobParametersBuilder().addLong("customerId", 42L).toJobParameters();
+        assertTrue(jobInstanceDao.findJobInstancesByParameters(null, byCustomer, 0, 10).isEmpty());
+
+        assertEquals(1, jobInstanceDao.migrateJobParameters());
+        assertEquals(0, jobInstanceDao.migrateJobParameters());
+        assertEquals(parameters, jobRepository.getLastJobExecution("legacy", parameters).getJobParameters());
+        assertEquals(Arrays.asList(jobExecution.getJobId()),
+                ids(jobInstanceDao.findJobInstancesByParameters(null, byCustomer, 0, 10)));
+    }
+
+    @Test
+    public void testExecutionsKeepTheirParameters() throws Exception {
+        JobParameters first = new JobParametersBuilder().addString("input.file", "a.csv").addLong("attempt", 1L, false)
+                .toJobParameters();
+        JobExecution failed = jobRepository.createJobExecution("restarted", first);
+        failed.setStatus(BatchStatus.FAILED);
+        failed.setEndTime(new Date());
+        jobRepository.update(failed);
+        JobParameters second = new JobParametersBuilder().addString("input.file", "a.csv")
+                .addLong("attempt", 2L, false).toJobParameters();
+        JobExecution restarted = jobRepository.createJobExecution("restarted", second);
+        assertEquals(failed.getJobId(), restarted.getJobId());
+
+        // read from the executions alone
+        unsetParameters("JobInstance", AbstractMongoDao.JOB_INSTANCE_ID_KEY, failed.getJobId());
+        assertEquals(first, jobExecutionDao.getJobExecution(failed.getId()).getJobParameters());
+        assertEquals(second, jobExecutionDao.getJobExecution(restarted.getId()).getJobParameters());
+        List<JobExecution> executions = jobExecutionDao.findJobExecutions(restarted.getJobInstance());
+        assertEquals(Arrays.asList(second, first), executions.stream().map(JobExecution::getJobParameters)
+                .collect(Collectors.toList()));
+        assertEquals(second, jobExecutionDao.getLastJobExecution(restarted.getJobInstance()).getJobParameters());
+    }
+
+    @Test
+    public void testBackfillJobParameters() throws Exception {
+        JobParameters parameters = new JobParametersBuilder().addString("input.file", "a.csv")
+                .addLong("customerId", 42L).toJobParameters();
+        JobExecution jobExecution = jobRepository.createJobExecution("legacy", parameters);
+        // as stored before: parameters on the instance only, in the former shape
+        unsetParameters("JobExecution", AbstractMongoDao.JOB_EXECUTION_ID_KEY, jobExecution.getId());
+        mongoTemplate.getCollection("JobInstance").updateOne(
+                eq(AbstractMongoDao.JOB_INSTANCE_ID_KEY, jobExecution.getJobId()),
+                new Document("$set", new Document(AbstractMongoDao.JOB_PARAMETERS_KEY,
+                        new Document("input{dot}file", "a.csv").append("customerId", 42L))));
+        assertEquals(parameters, jobExecutionDao.getLastJobExecution(jobExecution.getJobInstance())
+                .getJobParameters());
+
+        assertEquals(1, jobExecutionDao.backfillJobParameters());
+        assertEquals(0, jobExecutionDao.backfillJobParameters());
+        unsetParameters("JobInstance", AbstractMongoDao.JOB_INSTANCE_ID_KEY, jobExecution.getJobId());
+        assertEquals(parameters, jobExecutionDao.getJobExecution(jobExecution.getId()).getJobParameters());
+    }
+
+    private void unsetParameters(String collectionName, String idKey, Long id) {
+        mongoTemplate.getCollection(collectionName).updateOne(eq(idKey, id),
+                new Document("$unset", new Document(AbstractMongoDao.JOB_PARAMETERS_KEY, "")));
+    }
+
+    private static List<Long> ids(List<JobInstance> jobInstances) {
+        return jobInstances.stream().map(JobInstance::getId).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,184 @@
+package org.springframework.batch.mongodb.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.aop.framework.Advised;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.repository.JobExecutionAlreadyRunningException;
+import org.springframework.batch.core.repository.JobInstanceAlreadyCompleteException;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.mongodb.AbstractMongoDao;
+import org.springframework.batch.mongodb.MongoJobInstanceDao;
+import org.springframework.batch.mongodb.MongoJobRepository;
+import org.springframework.batch.mongodb.MongoJobRepositoryFactoryBean;
+import org.springframework.batch.mongodb.SequenceBlockIdGenerator;
+import org.springframework.batch.support.transaction.ResourcelessTransactionManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+/**
+ * Tests for the launch path of {@link MongoJobRepository}, created through {@link MongoJobRepositoryFactoryBean}.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath:spring/batch/config/test-context.xml" })
+public class MongoJobRepositoryTests {
+
+    @Autowired
+    protected MongoTemplate mongoTemplate;
+
+    private JobRepository   jobRepository;
+
+    private JobParameters   parameters = new JobParametersBuilder().addLong("run", 1L).toJobParameters();
+
+    @Before
+    public void setUp() throws Exception {
+        mongoTemplate.getDb().drop();
+        SequenceBlockIdGenerator idGenerator = new SequenceBlockIdGenerator();
+        idGenerator.setMongoTemplate(mongoTemplate);
+        MongoJobRepositoryFactoryBean factory = new MongoJobRepositoryFactoryBean();
+        factory.setTransactionManager(new ResourcelessTransactionManager());
+        factory.setMongoTemplate(mongoTemplate);
+        factory.setIdGenerator(idGenerator);
+        factory.setFastLaunch(true);
+        factory.afterPropertiesSet();
+        jobRepository = factory.getObject();
+    }
+
+    @Test
+    public void testLaunchSkipsEmptyContext() throws Exception {
+        JobExecution execution = launch();
+        assertEquals(BatchStatus.STARTING, execution.getStatus());
+        assertEquals(0, mongoTemplate.getCollection(ExecutionContext.class.getSimpleName()).countDocuments());
+        assertEquals(execution, jobRepository.getLastJobExecution("fastJob", parameters));
+
+        execution.getExecutionContext().putString("key", "value");
+        jobRepository.updateExecutionContext(execution);
+        assertEquals("value", jobRepository.getLastJobExecution("fastJob", parameters).getExecutionContext()
+                .getString("key"));
+    }
+
+    @Test(expected = JobExecutionAlreadyRunningException.class)
+    public void testRunningInstanceCannotBeLaunchedAgain() throws Exception {
+        JobExecution execution = launch();
+        execution.setStartTime(new Date());
+        jobRepository.update(execution);
+        launch();
+    }
+
+    @Test
+    public void testFailedInstanceIsRestarted() throws Exception {
+        JobExecution first = launch();
+        finish(first, BatchStatus.FAILED);
+
+        JobExecution restart = launch();
+        assertEquals(first.getJobInstance(), restart.getJobInstance());
+        assertNotEquals(first.getId(), restart.getId());
+    }
+
+    @Test(expected = JobInstanceAlreadyCompleteException.class)
+    public void testCompletedInstanceIsNotRestarted() throws Exception {
+        finish(launch(), BatchStatus.COMPLETED);
+        launch();
+    }
+
+    @Test
+    public void testIdsComeFromBlocks() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            launch(new JobParametersBuilder().addLong("run", 10L + i).toJobParameters());
+        }
+        // one block per sequence
+        assertEquals(100L, mongoTemplate.getCollection(AbstractMongoDao.SEQUENCES_COLLECTION_NAME).find().first().getLong("value").longValue());
+        assertTrue(launch().getId() <= 100L);
+    }
+
+    @Test
+    public void testConcurrentLaunchesCreateEveryInstance() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        AtomicLong run = new AtomicLong(100);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 4; thread++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 25; i++) {
+                        launch(new JobParametersBuilder().addLong("run", run.incrementAndGet()).toJobParameters());
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(100, mongoTemplate.getCollection(JobInstance.class.getSimpleName()).countDocuments());
+        assertEquals(100, mongoTemplate.getCollection(JobExecution.class.getSimpleName()).countDocuments());
+    }
+
+    @Test
+    public void testRepositoryIsProxiedWithTransactions() throws Exception {
+        Advised proxy = (Advised) jobRepository;
+        assertTrue(proxy.getTargetSource().getTarget() instanceof MongoJobRepository);
+        assertTrue(proxy.getAdvisors().length > 0);
+    }
+
+    @Test
+    public void testOtherInstanceFailuresPropagate() throws Exception {
+        MongoJobInstanceDao failingDao = new MongoJobInstanceDao() {
+
+            @Override
+            public JobInstance createJobInstance(String jobName, JobParameters jobParameters) {
+                throw new IllegalStateException("Instance store unavailable");
+            }
+        };
+        failingDao.setMongoTemplate(mongoTemplate);
+        MongoJobRepositoryFactoryBean factory = new MongoJobRepositoryFactoryBean();
+        factory.setTransactionManager(new ResourcelessTransactionManager());
+        factory.setMongoTemplate(mongoTemplate);
+        factory.setJobInstanceDao(failingDao);
+        factory.setFastLaunch(true);
+        factory.afterPropertiesSet();
+        try {
+            factory.getObject().createJobExecution("fastJob", parameters);
+            fail("Only an existing instance leads to the restart path");
+        } catch (IllegalStateException e) {
+            assertEquals("Instance store unavailable", e.getMessage());
+        }
+    }
+
+    private JobExecution launch() throws Exception {
+        return launch(parameters);
+    }
+
+    private JobExecution launch(JobParameters jobParameters) throws Exception {
+        return jobRepository.createJobExecution("fastJob", jobParameters);
+    }
+
+    private void finish(JobExecution execution, BatchStatus status) {
+        execution.setStartTime(new Date());
+        execution.setStatus(status);
+        execution.setEndTime(new Date());
+        jobRepository.update(execution);
+    }
+}
@@ -0,0 +1,329 @@
+package org.springframework.batch.mongodb.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.batch.mongodb.MongoExecutionContextDao;
+import org.springframework.batch.mongodb.MongoJobExecutionDao;
+import org.springframework.batch.mongodb.MongoJobInstanceDao;
+import org.springframework.batch.mongodb.MongoJobRepositoryFactoryBean;
+import org.springframework.batch.mongodb.MongoStepExecutionDao;
+import org.springframework.batch.support.transaction.ResourcelessTransactionManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+
+/**
+ * Query plan regression tests: seeds a repository, runs each DAO query and explains the commands it sent. A plan
+ * fails on a collection scan, an in-memory sort, or more documents examined per document returned than
+ * -Dqueryplan.maxExaminedRatio. Volumes can be raised with -Dqueryplan.jobs and -Dqueryplan.instances. Needs a
+ * server supporting explain; skipped otherwise.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath:spring/batch/config/test-context.xml" })
+public class MongoQueryPlanTests {
+
+    private static final Logger                   LOG = LoggerFactory.getLogger(MongoQueryPlanTests.class);
+
+    private static final int                      JOBS = Integer.getInteger("queryplan.jobs", 5);
+
+    private static final int                      INSTANCES = Integer.getInteger("queryplan.instances", 100);
+
+    private static final int                      MAX_EXAMINED_RATIO = Integer.getInteger(
+            "queryplan.maxExaminedRatio", 2);
+
+    private static final List<String>             QUERY_COMMANDS = Arrays.asList("find", "aggregate", "count",
+            "distinct");
+
+    private static final List<String>             SESSION_FIELDS = Arrays.asList("$db", "lsid", "$clusterTime",
+            "$readPreference", "txnNumber", "apiVersion");
+
+    @Autowired
+    protected MongoTemplate                       mongoTemplate;
+
+    /** Commands sent by the DAO query currently run, by query. */
+    private final Map<String, List<BsonDocument>> commands = new LinkedHashMap<>();
+
+    private volatile List<BsonDocument>           recording;
+
+    private MongoClient                           client;
+
+    private MongoJobInstanceDao                   jobInstanceDao;
+
+    private MongoJobExecutionDao                  jobExecutionDao;
+
+    private MongoStepExecutionDao                 stepExecutionDao;
+
+    private MongoExecutionContextDao              executionContextDao;
+
+    private JobRepository                         jobRepository;
+
+    @Before
+    public void setUp() throws Exception {
+        mongoTemplate.getDb().drop();
+        client = MongoClients.create(MongoClientSettings.builder()
+                .applyConnectionString(new ConnectionString(System.getProperty("mongodb.uri",
+                        "mongodb://127.0.0.1:27017")))
+                .addCommandListener(new CommandListener() {
+                    @Override
+                    public void commandStarted(CommandStartedEvent event) {
+                        List<BsonDocument> current = recording;
+                        if (current != null && QUERY_COMMANDS.contains(event.getCommandName())) {
+                            current.add(event.getCommand().clone());
+                        }
+                    }
+                }).build());
+        MongoTemplate template = new MongoTemplate(client, mongoTemplate.getDb().getName());
+
+        jobInstanceDao = new MongoJobInstanceDao();
+        jobInstanceDao.setMongoTemplate(template);
+        jobInstanceDao.init();
+        jobExecutionDao = new MongoJobExecutionDao();
+        jobExecutionDao.setMongoTemplate(template);
+        jobExecutionDao.init();
+        stepExecutionDao = new MongoStepExecutionDao();
+        stepExecutionDao.setMongoTemplate(template);
+        stepExecutionDao.init();
+        executionContextDao = new MongoExecutionContextDao();
+        executionContextDao.setMongoTemplate(template);
+        executionContextDao.init();
+
+        MongoJobRepositoryFactoryBean factory = new MongoJobRepositoryFactoryBean();
+        factory.setTransactionManager(new ResourcelessTransactionManager());
+        factory.setMongoTemplate(mongoTemplate);
+        factory.afterPropertiesSet();
+        jobRepository = factory.getObject();
+    }
+
+    @After
+    public void tearDown() {
+        client.close();
+    }
+
+    @Test
+    public void testQueryResults() throws Exception {
+        seed(2, 3);
+        JobParameters parameters = parameters(2);
+        JobExecution last = jobRepository.getLastJobExecution("job0", parameters);
+        JobInstance jobInstance = last.getJobInstance();
+
+        assertEquals(jobInstance, jobInstanceDao.getJobInstance(last));
+        assertEquals(2, jobExecutionDao.findJobExecutions(jobInstance).size());
+        // one running execution per job, on its last instance
+        Set<JobExecution> running = jobExecutionDao.findRunningJobExecutions("job0");
+        assertEquals(1, running.size());
+        assertEquals(last.getId(), running.iterator().next().getId());
+
+        StepExecution step = stepExecutionDao.getLastStepExecution(jobInstance, "step1");
+        assertNotNull(step);
+        assertEquals(last.getId(), step.getJobExecutionId());
+        assertEquals(BatchStatus.COMPLETED, step.getStatus());
+        assertEquals(2, stepExecutionDao.countStepExecutions(jobInstance, "step1"));
+        assertEquals(1, stepExecutionDao.countStepExecutions(jobInstance, "step2"));
+    }
+
+    @Test
+    public void testDaoQueriesUseIndexes() throws Exception {
+        try {
+            mongoTemplate.getDb().runCommand(new Document("explain", new Document("find", "JobInstance"))
+                    .append("verbosity", "executionStats"));
+        } catch (MongoCommandException e) {
+            Assume.assumeNoException("explain not supported by this server", e);
+            return;
+        }
+        seed(JOBS, INSTANCES);
+        String jobName = "job" + (JOBS / 2);
+        JobParameters parameters = parameters(INSTANCES / 2);
+        JobInstance jobInstance = jobInstanceDao.getJobInstance(jobName, parameters);
+        JobExecution jobExecution = jobExecutionDao.getLastJobExecution(jobInstance);
+        stepExecutionDao.addStepExecutions(jobExecution);
+        StepExecution stepExecution = jobExecution.getStepExecutions().iterator().next();
+
+        record("getJobInstance(name, parameters)", () -> jobInstanceDao.getJobInstance(jobName, parameters));
+        record("getJobInstance(jobExecution)", () -> jobInstanceDao.getJobInstance(jobExecution));
+        record("getJobInstances", () -> jobInstanceDao.getJobInstances(jobName, 0, 20));
+        record("getJobNames", () -> jobInstanceDao.getJobNames());
+        record("getLastJobExecution", () -> jobExecutionDao.getLastJobExecution(jobInstance));
+        record("findJobExecutions", () -> jobExecutionDao.findJobExecutions(jobInstance));
+        record("findRunningJobExecutions", () -> jobExecutionDao.findRunningJobExecutions(jobName));
+        record("getJobExecution", () -> jobExecutionDao.getJobExecution(jobExecution.getId()));
+        record("synchronizeStatus", () -> jobExecutionDao.synchronizeStatus(jobExecution));
+        record("getLastStepExecution", () -> stepExecutionDao.getLastStepExecution(jobInstance, "step1"));
+        record("countStepExecutions", () -> stepExecutionDao.countStepExecutions(jobInstance, "step1"));
+        record("addStepExecutions", () -> stepExecutionDao.addStepExecutions(new JobExecution(jobExecution)));
+        record("getExecutionContext(jobExecution)", () -> executionContextDao.getExecutionContext(jobExecution));
+        record("getExecutionContext(stepExecution)", () -> executionContextDao.getExecutionContext(stepExecution));
+
+        List<String> violations = new ArrayList<>();
+        for (Map.Entry<String, List<BsonDocument>> entry : commands.entrySet()) {
+            assertFalse("no query recorded for " + entry.getKey(), entry.getValue().isEmpty());
+            for (BsonDocument command : entry.getValue()) {
+                explain(entry.getKey(), command, violations);
+            }
+        }
+        assertTrue("Query plan regressions:\n" + String.join("\n", violations), violations.isEmpty());
+    }
+
+    private void record(String query, Runnable call) {
+        List<BsonDocument> sent = new ArrayList<>();
+        recording = sent;
+        try {
+            call.run();
+        } finally {
+            recording = null;
+        }
+        commands.put(query, sent);
+    }
+
+    private void explain(String query, BsonDocument command, List<String> violations) {
+        for (String field : SESSION_FIELDS) {
+            command.remove(field);
+        }
+        Document explain = mongoTemplate.getDb().runCommand(new Document("explain", command)
+                .append("verbosity", "executionStats"));
+        List<String> stages = new ArrayList<>();
+        collectStages(explain, stages);
+        Document stats = find(explain, "executionStats");
+        long examined = stats == null ? 0 : ((Number) stats.get("totalDocsExamined")).longValue();
+        long returned = stats == null ? 0 : ((Number) stats.get("nReturned")).longValue();
+        LOG.info("{}: {} stages {}, {} examined, {} returned", query, command.getFirstKey(), stages, examined,
+                returned);
+        if (stages.contains("COLLSCAN")) {
+            violations.add(query + ": collection scan for " + command.toJson());
+        }
+        if (stages.contains("SORT")) {
+            violations.add(query + ": in-memory sort for " + command.toJson());
+        }
+        if (examined > MAX_EXAMINED_RATIO * Math.max(returned, 1)) {
+            violations.add(query + ": " + examined + " documents examined for " + returned + " returned by "
+                    + command.toJson());
+        }
+    }
+
+    /**
+     * Stages of the winning plans; rejected plans are left out.
+     */
+    private static void collectStages(Object node, List<String> stages) {
+        if (node instanceof Document) {
+            for (Map.Entry<String, Object> entry : ((Document) node).entrySet()) {
+                if ("rejectedPlans".equals(entry.getKey()) || "allPlansExecution".equals(entry.getKey())) {
+                    continue;
+                }
+                if ("stage".equals(entry.getKey()) && entry.getValue() instanceof String) {
+                    stages.add((String) entry.getValue());
+                } else {
+                    collectStages(entry.getValue(), stages);
+                }
+            }
+        } else if (node instanceof List) {
+            for (Object element : (List<?>) node) {
+                collectStages(element, stages);
+            }
+        }
+    }
+
+    private static Document find(Object node, String key) {
+        if (node instanceof Document) {
+            Document document = (Document) node;
+            if (document.get(key) instanceof Document) {
+                return (Document) document.get(key);
+            }
+            for (Object value : document.values()) {
+                Document found = find(value, key);
+                if (found != null) {
+                    return found;
+                }
+            }
+        } else if (node instanceof List) {
+            for (Object element : (List<?>) node) {
+                Document found = find(element, key);
+                if (found != null) {
+                    return found;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Each instance has a failed execution and a restart; the restart of the last instance of each job is still
+     * running.
+     */
+    private void seed(int jobs, int instances) throws Exception {
+        long start = System.currentTimeMillis();
+        long time = start;
+        for (int job = 0; job < jobs; job++) {
+            for (int instance = 0; instance < instances; instance++) {
+                JobParameters parameters = parameters(instance);
+                JobExecution failed = jobRepository.createJobExecution("job" + job, parameters);
+                time = step(failed, "step1", BatchStatus.COMPLETED, time);
+                time = step(failed, "step2", BatchStatus.FAILED, time);
+                finish(failed, BatchStatus.FAILED);
+                JobExecution restart = jobRepository.createJobExecution("job" + job, parameters);
+                time = step(restart, "step1", BatchStatus.COMPLETED, time);
+                if (instance < instances - 1) {
+                    time = step(restart, "step3", BatchStatus.COMPLETED, time);
+                    finish(restart, BatchStatus.COMPLETED);
+                }
+            }
+        }
+        LOG.info("Seeded {} jobs of {} instances in {} ms", jobs, instances, System.currentTimeMillis() - start);
+    }
+
+    private long step(JobExecution jobExecution, String stepName, BatchStatus status, long time) {
+        StepExecution stepExecution = jobExecution.createStepExecution(stepName);
+        stepExecution.setStartTime(new Date(time));
+        jobRepository.add(stepExecution);
+        stepExecution.getExecutionContext().putString("position", stepName);
+        jobRepository.updateExecutionContext(stepExecution);
+        stepExecution.setStatus(status);
+        stepExecution.setEndTime(new Date(time + 500));
+        jobRepository.update(stepExecution);
+        return time + 1000;
+    }
+
+    private void finish(JobExecution jobExecution, BatchStatus status) {
+        jobExecution.setStatus(status);
+        jobExecution.setEndTime(new Date());
+        jobRepository.update(jobExecution);
+    }
+
+    private static JobParameters parameters(int instance) {
+        return new JobParametersBuilder().addLong("run", (long) instance).toJobParameters();
+    }
+}
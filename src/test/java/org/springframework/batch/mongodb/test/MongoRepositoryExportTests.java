@@ -0,0 +1,158 @@
+package org.springframework.batch.mongodb.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.Document;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.dao.ExecutionContextDao;
+import org.springframework.batch.core.repository.dao.JobExecutionDao;
+import org.springframework.batch.core.repository.dao.JobInstanceDao;
+import org.springframework.batch.core.repository.dao.StepExecutionDao;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.mongodb.MongoRepositoryExporter;
+import org.springframework.batch.mongodb.MongoRepositoryImporter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import com.mongodb.client.model.Sorts;
+
+/**
+ * Round trips of the repository through {@link MongoRepositoryExporter} and {@link MongoRepositoryImporter}.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath:spring/batch/config/test-context.xml" })
+public class MongoRepositoryExportTests {
+
+    @Rule
+    public TemporaryFolder      folder = new TemporaryFolder();
+
+    @Autowired
+    protected MongoTemplate     mongoTemplate;
+
+    @Autowired
+    private JobInstanceDao      jobInstanceDao;
+
+    @Autowired
+    private JobExecutionDao     jobExecutionDao;
+
+    @Autowired
+    private StepExecutionDao    stepExecutionDao;
+
+    @Autowired
+    private ExecutionContextDao executionContextDao;
+
+    private MongoRepositoryExporter exporter;
+
+    private MongoRepositoryImporter importer;
+
+    @Before
+    public void setUp() {
+        mongoTemplate.getDb().drop();
+        exporter = new MongoRepositoryExporter();
+        exporter.setMongoTemplate(mongoTemplate);
+        exporter.setPartitions(3);
+        importer = new MongoRepositoryImporter();
+        importer.setMongoTemplate(mongoTemplate);
+        importer.setBatchSize(7);
+
+        for (int i = 0; i < 20; i++) {
+            JobInstance instance = jobInstanceDao.createJobInstance("exportJob",
+                    new JobParametersBuilder().addLong("run", (long) i).toJobParameters());
+            JobExecution execution = new JobExecution(instance, null);
+            jobExecutionDao.saveJobExecution(execution);
+            StepExecution step = new StepExecution("step", execution);
+            stepExecutionDao.saveStepExecution(step);
+            ExecutionContext ctx = new ExecutionContext();
+            ctx.putLong("position", i);
+            step.setExecutionContext(ctx);
+            executionContextDao.saveExecutionContext(step);
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        roundTrip(false);
+    }
+
+    @Test
+    public void testRoundTripMemoryMapped() throws Exception {
+        roundTrip(true);
+    }
+
+    @Test
+    public void testImportNeedsEmptyDatabase() throws Exception {
+        Path directory = folder.newFolder().toPath();
+        exporter.export(directory);
+        try {
+            importer.importFrom(directory);
+            fail("Import into a populated database must be refused");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testDamagedExportIsRejectedBeforeInsert() throws Exception {
+        Path directory = folder.newFolder().toPath();
+        exporter.export(directory);
+        Path file = directory.resolve(JobExecution.class.getSimpleName() + "-0.bson");
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 2] ^= 0x7f;
+        Files.write(file, bytes);
+
+        mongoTemplate.getDb().drop();
+        try {
+            importer.importFrom(directory);
+            fail("Checksum mismatch expected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertEquals(0, mongoTemplate.getCollection(JobInstance.class.getSimpleName()).countDocuments());
+    }
+
+    private void roundTrip(boolean memoryMapped) throws IOException {
+        Map<String, List<Document>> before = snapshot();
+        Path directory = folder.newFolder().toPath();
+        Document manifest = exporter.export(directory);
+        assertEquals(before.size(), ((List<?>) manifest.get("collections")).size());
+
+        mongoTemplate.getDb().drop();
+        importer.setMemoryMapped(memoryMapped);
+        Map<String, Long> counts = importer.importFrom(directory);
+        assertEquals(Long.valueOf(20), counts.get(StepExecution.class.getSimpleName()));
+        assertEquals(before, snapshot());
+
+        // ids continue where the exported repository stopped
+        JobInstance next = jobInstanceDao.createJobInstance("exportJob", new JobParametersBuilder()
+                .addLong("run", 20L).toJobParameters());
+        assertEquals(Long.valueOf(21), next.getId());
+    }
+
+    private Map<String, List<Document>> snapshot() {
+        Map<String, List<Document>> contents = new LinkedHashMap<>();
+        for (String name : MongoRepositoryExporter.DEFAULT_COLLECTIONS) {
+            contents.put(name, mongoTemplate.getCollection(name).find().sort(Sorts.ascending("_id"))
+                    .into(new ArrayList<>()));
+        }
+        return contents;
+    }
+}
@@ -0,0 +1,128 @@
+package org.springframework.batch.mongodb.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.mongodb.MongoJobInstanceDao;
+import org.springframework.batch.mongodb.MongoJobRepositoryFactoryBean;
+import org.springframework.batch.mongodb.MongoRepositoryMetrics;
+import org.springframework.batch.mongodb.MongoRepositoryMetrics.CommandStatistics;
+import org.springframework.batch.mongodb.MongoRepositoryMetrics.PoolStatistics;
+import org.springframework.batch.support.transaction.ResourcelessTransactionManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+/**
+ * Tests for {@link MongoRepositoryMetrics} registered through {@link MongoJobRepositoryFactoryBean}. More threads than
+ * pooled connections make them wait for checkouts.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath:spring/batch/config/test-context.xml" })
+public class MongoRepositoryMetricsTests {
+
+    private static final Logger           LOG     = LoggerFactory.getLogger(MongoRepositoryMetricsTests.class);
+
+    private static final int              THREADS = 8;
+
+    @Autowired
+    protected MongoTemplate               mongoTemplate;
+
+    private MongoRepositoryMetrics        metrics;
+
+    private MongoJobRepositoryFactoryBean factory;
+
+    private MongoJobInstanceDao           jobInstanceDao;
+
+    @Before
+    public void setUp() throws Exception {
+        mongoTemplate.getDb().drop();
+        metrics = new MongoRepositoryMetrics();
+
+        factory = new MongoJobRepositoryFactoryBean();
+        factory.setTransactionManager(new ResourcelessTransactionManager());
+        factory.setConnectionString(System.getProperty("mongodb.uri", "mongodb://127.0.0.1:27017"));
+        factory.setDatabaseName(mongoTemplate.getDb().getName());
+        factory.setMaxPoolSize(2);
+        factory.setMaxConnectionWaitMillis(10_000L);
+        factory.setRepositoryMetrics(metrics);
+        factory.afterPropertiesSet();
+
+        jobInstanceDao = new MongoJobInstanceDao();
+        jobInstanceDao.setMongoTemplate(factory.getMongoTemplate());
+    }
+
+    @After
+    public void tearDown() {
+        factory.destroy();
+    }
+
+    @Test
+    public void testPoolAndCommandMetrics() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 20; i++) {
+                    jobInstanceDao.createJobInstance("pooledJob",
+                            new JobParametersBuilder().addLong("run", thread * 100L + i).toJobParameters());
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+
+        PoolStatistics pool = metrics.getPoolStatistics();
+        LOG.info("Pool: {}", pool);
+        assertTrue(pool.toString(), pool.getSize() >= 1 && pool.getSize() <= 2);
+        assertTrue(pool.getCheckouts() >= THREADS * 20);
+        assertEquals(0, pool.getInUse());
+        assertEquals(0, pool.getWaiting());
+        assertEquals(0, pool.getCheckoutFailures());
+
+        CommandStatistics upsert = find("MongoJobInstanceDao.createJobInstance", "update");
+        assertEquals(THREADS * 20, upsert.getCount());
+        assertEquals(0, upsert.getFailures());
+        assertTrue(upsert.getMaxMicros() >= upsert.getAverageMicros());
+        find("AbstractMongoDao.incrementSequence", "findAndModify");
+        for (CommandStatistics command : metrics.getCommandStatistics()) {
+            LOG.info("{}", command);
+        }
+    }
+
+    @Test
+    public void testWithoutCallSites() {
+        metrics.setCallSites(false);
+        jobInstanceDao.getJobInstance(1L);
+        find("unknown", "find");
+    }
+
+    private CommandStatistics find(String daoMethod, String commandName) {
+        List<CommandStatistics> statistics = metrics.getCommandStatistics();
+        for (CommandStatistics command : statistics) {
+            if (command.getDaoMethod().equals(daoMethod) && command.getCommandName().equals(commandName)) {
+                return command;
+            }
+        }
+        throw new AssertionError("No " + commandName + " from " + daoMethod + " in " + statistics);
+    }
+}
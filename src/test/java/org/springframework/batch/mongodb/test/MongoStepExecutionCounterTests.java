@@ -0,0 +1,194 @@
+package org.springframework.batch.mongodb.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.dao.JobExecutionDao;
+import org.springframework.batch.core.repository.dao.JobInstanceDao;
+import org.springframework.batch.mongodb.MongoStepExecutionDao;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+/**
+ * Tests for the incremental counter updates of {@link MongoStepExecutionDao}, with two DAOs standing in for two
+ * writers of the same step.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath:spring/batch/config/test-context.xml" })
+public class MongoStepExecutionCounterTests {
+
+    @Autowired
+    protected MongoTemplate       mongoTemplate;
+
+    @Autowired
+    private JobInstanceDao        jobInstanceDao;
+
+    @Autowired
+    private JobExecutionDao       jobExecutionDao;
+
+    private MongoStepExecutionDao first;
+
+    private MongoStepExecutionDao second;
+
+    private JobExecution          jobExecution;
+
+    private Long                  stepExecutionId;
+
+    @Before
+    public void setUp() {
+        mongoTemplate.getDb().drop();
+        first = dao();
+        second = dao();
+        JobInstance jobInstance = jobInstanceDao.createJobInstance("counterJob", new JobParameters());
+        jobExecution = new JobExecution(jobInstance, new JobParameters());
+        jobExecutionDao.saveJobExecution(jobExecution);
+        StepExecution stepExecution = new StepExecution("step", jobExecution);
+        stepExecution.setStartTime(new Date());
+        stepExecution.setStatus(BatchStatus.STARTED);
+        first.saveStepExecution(stepExecution);
+        stepExecutionId = stepExecution.getId();
+    }
+
+    @Test
+    public void testConcurrentWritersAddUp() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (MongoStepExecutionDao dao : new MongoStepExecutionDao[] { first, second }) {
+                futures.add(executor.submit(() -> {
+                    StepExecution stepExecution = dao.getStepExecution(jobExecution, stepExecutionId);
+                    for (int i = 0; i < 50; i++) {
+                        stepExecution.setReadCount(stepExecution.getReadCount() + 10);
+                        stepExecution.setWriteCount(stepExecution.getWriteCount() + 9);
+                        stepExecution.setFilterCount(stepExecution.getFilterCount() + 1);
+                        stepExecution.incrementCommitCount();
+                        stepExecution.setLastUpdated(new Date());
+                        dao.updateStepExecution(stepExecution);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        StepExecution stored = first.getStepExecution(jobExecution, stepExecutionId);
+        assertEquals(1000, stored.getReadCount());
+        assertEquals(900, stored.getWriteCount());
+        assertEquals(100, stored.getFilterCount());
+        assertEquals(100, stored.getCommitCount());
+        // counter updates do not change the version
+        assertEquals(Integer.valueOf(0), stored.getVersion());
+    }
+
+    @Test
+    public void testStatusTransitionKeepsOptimisticLocking() {
+        StepExecution fromFirst = first.getStepExecution(jobExecution, stepExecutionId);
+        StepExecution fromSecond = second.getStepExecution(jobExecution, stepExecutionId);
+
+        fromSecond.setReadCount(5);
+        second.updateStepExecution(fromSecond);
+
+        fromFirst.setReadCount(3);
+        fromFirst.setStatus(BatchStatus.COMPLETED);
+        fromFirst.setEndTime(new Date());
+        first.updateStepExecution(fromFirst);
+        assertEquals(Integer.valueOf(1), fromFirst.getVersion());
+
+        fromSecond.setStatus(BatchStatus.FAILED);
+        try {
+            second.updateStepExecution(fromSecond);
+            throw new AssertionError("Stale status update must fail");
+        } catch (OptimisticLockingFailureException e) {
+            // expected
+        }
+
+        StepExecution stored = first.getStepExecution(jobExecution, stepExecutionId);
+        assertEquals(BatchStatus.COMPLETED, stored.getStatus());
+        assertEquals(8, stored.getReadCount());
+    }
+
+    @Test
+    public void testUnknownObjectIsWrittenAbsolutely() {
+        // e.g. read through another DAO
+        StepExecution stepExecution = new StepExecution("step", jobExecution, stepExecutionId);
+        stepExecution.setStartTime(new Date());
+        stepExecution.setStatus(BatchStatus.STARTED);
+        stepExecution.setVersion(0);
+        stepExecution.setReadCount(42);
+        second.updateStepExecution(stepExecution);
+        assertEquals(42, first.getStepExecution(jobExecution, stepExecutionId).getReadCount());
+        assertEquals(Integer.valueOf(1), stepExecution.getVersion());
+    }
+
+    @Test
+    public void testObjectsOnOneDaoAddUp() {
+        StepExecution one = first.getStepExecution(jobExecution, stepExecutionId);
+        StepExecution other = first.getStepExecution(jobExecution, stepExecutionId);
+
+        one.setReadCount(one.getReadCount() + 10);
+        first.updateStepExecution(one);
+        other.setReadCount(other.getReadCount() + 10);
+        first.updateStepExecution(other);
+        one.setReadCount(one.getReadCount() + 10);
+        first.updateStepExecution(one);
+
+        StepExecution stored = first.getStepExecution(jobExecution, stepExecutionId);
+        assertEquals(30, stored.getReadCount());
+        assertEquals(Integer.valueOf(0), stored.getVersion());
+    }
+
+    @Test
+    public void testCopyIsWrittenAbsolutely() {
+        StepExecution stepExecution = first.getStepExecution(jobExecution, stepExecutionId);
+        stepExecution.setReadCount(5);
+        first.updateStepExecution(stepExecution);
+
+        // e.g. deserialized after being sent to a remote worker
+        StepExecution copy = new StepExecution("step", jobExecution, stepExecutionId);
+        copy.setStartTime(stepExecution.getStartTime());
+        copy.setStatus(BatchStatus.STARTED);
+        copy.setVersion(stepExecution.getVersion());
+        copy.setReadCount(9);
+        first.updateStepExecution(copy);
+        assertEquals(Integer.valueOf(1), copy.getVersion());
+        assertEquals(9, first.getStepExecution(jobExecution, stepExecutionId).getReadCount());
+
+        // the original is now stale
+        stepExecution.setReadCount(6);
+        stepExecution.setStatus(BatchStatus.COMPLETED);
+        try {
+            first.updateStepExecution(stepExecution);
+            throw new AssertionError("Stale status update must fail");
+        } catch (OptimisticLockingFailureException e) {
+            // expected
+        }
+    }
+
+    private MongoStepExecutionDao dao() {
+        MongoStepExecutionDao dao = new MongoStepExecutionDao();
+        dao.setMongoTemplate(mongoTemplate);
+        dao.setIncrementalCounters(true);
+        return dao;
+    }
+}
@@ -0,0 +1,274 @@
+package org.springframework.batch.mongodb.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.bson.Document;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.mongodb.AbstractMongoDao;
+import org.springframework.batch.mongodb.MongoExecutionContextDao;
+import org.springframework.batch.mongodb.MongoJobExecutionDao;
+import org.springframework.batch.mongodb.MongoJobRepositoryFactoryBean;
+import org.springframework.batch.mongodb.MongoStepExecutionDao;
+import org.springframework.batch.mongodb.RepositoryWriteJournal;
+import org.springframework.batch.mongodb.test.support.MongoProxy;
+import org.springframework.batch.support.transaction.ResourcelessTransactionManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import com.mongodb.client.MongoCollection;
+
+/**
+ * Tests for {@link RepositoryWriteJournal}, taking MongoDB away behind a {@link MongoProxy} while a step runs.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath:spring/batch/config/test-context.xml" })
+public class RepositoryWriteJournalTests {
+
+    @Rule
+    public TemporaryFolder                folder = new TemporaryFolder();
+
+    @Autowired
+    protected MongoTemplate               mongoTemplate;
+
+    private MongoProxy                    proxy;
+
+    private File                          file;
+
+    private RepositoryWriteJournal        journal;
+
+    private MongoJobRepositoryFactoryBean factory;
+
+    private JobRepository                 jobRepository;
+
+    @Before
+    public void setUp() throws Exception {
+        mongoTemplate.getDb().drop();
+        proxy = new MongoProxy("127.0.0.1", 27017);
+        file = new File(folder.getRoot(), "journal.log");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        journal.stop();
+        factory.destroy();
+        proxy.close();
+    }
+
+    @Test
+    public void testWritesAreReplayedInOrder() throws Exception {
+        start(64 * 1024 * 1024);
+        JobExecution jobExecution = jobRepository.createJobExecution("journaledJob", new JobParameters());
+        StepExecution stepExecution = startStep(jobExecution);
+
+        proxy.setAvailable(false);
+        for (int chunk = 1; chunk <= 5; chunk++) {
+            stepExecution.setReadCount(chunk * 10);
+            stepExecution.incrementCommitCount();
+            jobRepository.update(stepExecution);
+            stepExecution.getExecutionContext().putInt("position", chunk * 10);
+            jobRepository.updateExecutionContext(stepExecution);
+        }
+        stepExecution.setStatus(BatchStatus.COMPLETED);
+        stepExecution.setEndTime(new Date());
+        jobRepository.update(stepExecution);
+        jobExecution.setStatus(BatchStatus.COMPLETED);
+        jobExecution.setEndTime(new Date());
+        jobRepository.update(jobExecution);
+        assertTrue(journal.isPending());
+        assertEquals(12, journal.getJournaledCount());
+
+        proxy.setAvailable(true);
+        awaitReplay();
+        assertEquals(0, journal.getFailedCount());
+        StepExecution stored = storedStepExecution(jobExecution, stepExecution);
+        assertEquals(50, stored.getReadCount());
+        assertEquals(5, stored.getCommitCount());
+        assertEquals(BatchStatus.COMPLETED, stored.getStatus());
+        assertEquals(stepExecution.getVersion(), stored.getVersion());
+        assertEquals(50, storedContext(stepExecution).getInt("position"));
+        assertEquals(BatchStatus.COMPLETED, jobExecutionDao().getJobExecution(jobExecution.getId()).getStatus());
+        assertEquals(8, file.length());
+
+        // back to direct writes
+        stepExecution.setReadCount(60);
+        jobRepository.update(stepExecution);
+        assertFalse(journal.isPending());
+        assertEquals(60, storedStepExecution(jobExecution, stepExecution).getReadCount());
+    }
+
+    @Test
+    public void testWriteAppliedBeforeFailingIsNotDuplicated() throws Exception {
+        start(64 * 1024 * 1024);
+        JobExecution jobExecution = jobRepository.createJobExecution("ambiguousJob", new JobParameters());
+        StepExecution stepExecution = startStep(jobExecution);
+
+        proxy.setAvailable(false);
+        Integer version = stepExecution.getVersion();
+        stepExecution.setReadCount(10);
+        jobRepository.update(stepExecution);
+        assertTrue(journal.isPending());
+        // the update reached the server before the connection broke
+        stepExecutions().updateOne(new Document(AbstractMongoDao.STEP_EXECUTION_ID_KEY, stepExecution.getId()),
+                new Document("$set", new Document(AbstractMongoDao.VERSION_KEY, version + 1)
+                        .append(AbstractMongoDao.READ_COUNT_KEY, 10)));
+
+        proxy.setAvailable(true);
+        awaitReplay();
+        assertEquals(0, journal.getFailedCount());
+        assertEquals(1, stepExecutions()
+                .countDocuments(new Document(AbstractMongoDao.STEP_EXECUTION_ID_KEY, stepExecution.getId())));
+        assertEquals(10, storedStepExecution(jobExecution, stepExecution).getReadCount());
+    }
+
+    @Test
+    public void testConflictingReplayIsReported() throws Exception {
+        start(64 * 1024 * 1024);
+        List<String> failures = new ArrayList<>();
+        journal.setReplayFailureHandler((collection, write, cause) -> failures.add(collection));
+        JobExecution jobExecution = jobRepository.createJobExecution("conflictingJob", new JobParameters());
+        StepExecution stepExecution = startStep(jobExecution);
+
+        proxy.setAvailable(false);
+        Integer version = stepExecution.getVersion();
+        stepExecution.setReadCount(10);
+        jobRepository.update(stepExecution);
+        stepExecutions().updateOne(new Document(AbstractMongoDao.STEP_EXECUTION_ID_KEY, stepExecution.getId()),
+                new Document("$set", new Document(AbstractMongoDao.VERSION_KEY, version - 1)));
+
+        proxy.setAvailable(true);
+        awaitReplay();
+        assertEquals(1, journal.getFailedCount());
+        assertEquals(Collections.singletonList(StepExecution.class.getSimpleName()), failures);
+        assertEquals(1, stepExecutions()
+                .countDocuments(new Document(AbstractMongoDao.STEP_EXECUTION_ID_KEY, stepExecution.getId())));
+    }
+
+    @Test
+    public void testFullJournalFails() throws Exception {
+        start(2048);
+        JobExecution jobExecution = jobRepository.createJobExecution("fullJob", new JobParameters());
+        StepExecution stepExecution = startStep(jobExecution);
+
+        proxy.setAvailable(false);
+        DataAccessResourceFailureException failure = null;
+        for (int chunk = 1; chunk <= 100 && failure == null; chunk++) {
+            stepExecution.setReadCount(chunk);
+            try {
+                jobRepository.update(stepExecution);
+            } catch (DataAccessResourceFailureException e) {
+                failure = e;
+            }
+        }
+        assertNotNull(failure);
+        assertTrue(file.length() <= 2048);
+        long journaled = journal.getJournaledCount();
+        assertTrue(journaled > 1);
+
+        proxy.setAvailable(true);
+        awaitReplay();
+        StepExecution stored = storedStepExecution(jobExecution, stepExecution);
+        assertEquals(journaled, stored.getReadCount());
+        assertEquals(stepExecution.getVersion(), stored.getVersion());
+    }
+
+    @Test
+    public void testJournalIsReplayedAfterRestart() throws Exception {
+        start(64 * 1024 * 1024);
+        JobExecution jobExecution = jobRepository.createJobExecution("restartedJob", new JobParameters());
+        StepExecution stepExecution = startStep(jobExecution);
+
+        proxy.setAvailable(false);
+        stepExecution.setReadCount(42);
+        jobRepository.update(stepExecution);
+        stepExecution.getExecutionContext().putString("cursor", "row-42");
+        jobRepository.updateExecutionContext(stepExecution);
+        journal.stop();
+        assertTrue(file.length() > 8);
+
+        journal = new RepositoryWriteJournal();
+        journal.setMongoTemplate(mongoTemplate);
+        journal.setFile(file);
+        journal.init();
+        awaitReplay();
+        assertEquals(42, storedStepExecution(jobExecution, stepExecution).getReadCount());
+        assertEquals("row-42", storedContext(stepExecution).getString("cursor"));
+    }
+
+    private void start(long maxSize) throws Exception {
+        journal = new RepositoryWriteJournal();
+        journal.setFile(file);
+        journal.setMaxSize(maxSize);
+        journal.setFsyncPolicy(RepositoryWriteJournal.FsyncPolicy.ALWAYS);
+        journal.setRetryIntervalMillis(100);
+
+        factory = new MongoJobRepositoryFactoryBean();
+        factory.setTransactionManager(new ResourcelessTransactionManager());
+        factory.setConnectionString(proxy.getConnectionString() + "/?heartbeatFrequencyMS=500&connectTimeoutMS=500");
+        factory.setDatabaseName(mongoTemplate.getDb().getName());
+        factory.setServerSelectionTimeoutMillis(500L);
+        factory.setWriteJournal(journal);
+        factory.afterPropertiesSet();
+        jobRepository = factory.getObject();
+    }
+
+    private StepExecution startStep(JobExecution jobExecution) {
+        StepExecution stepExecution = jobExecution.createStepExecution("step");
+        stepExecution.setStartTime(new Date());
+        jobRepository.add(stepExecution);
+        return stepExecution;
+    }
+
+    private void awaitReplay() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (journal.isPending() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        assertFalse("journal not replayed", journal.isPending());
+    }
+
+    private MongoCollection<Document> stepExecutions() {
+        return mongoTemplate.getCollection(StepExecution.class.getSimpleName());
+    }
+
+    private StepExecution storedStepExecution(JobExecution jobExecution, StepExecution stepExecution) {
+        MongoStepExecutionDao dao = new MongoStepExecutionDao();
+        dao.setMongoTemplate(mongoTemplate);
+        return dao.getStepExecution(jobExecution, stepExecution.getId());
+    }
+
+    private ExecutionContext storedContext(StepExecution stepExecution) {
+        MongoExecutionContextDao dao = new MongoExecutionContextDao();
+        dao.setMongoTemplate(mongoTemplate);
+        return dao.getExecutionContext(stepExecution);
+    }
+
+    private MongoJobExecutionDao jobExecutionDao() {
+        MongoJobExecutionDao dao = new MongoJobExecutionDao();
+        dao.setMongoTemplate(mongoTemplate);
+        return dao;
+    }
+}
@@ -0,0 +1,267 @@
+package org.springframework.batch.mongodb.test;
+
+import static com.mongodb.client.model.Filters.eq;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.bson.Document;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.batch.mongodb.AbstractMongoDao;
+import org.springframework.batch.mongodb.MongoEmbeddedStepExecutionDao;
+import org.springframework.batch.mongodb.MongoJobExecutionDao;
+import org.springframework.batch.mongodb.MongoJobRepositoryFactoryBean;
+import org.springframework.batch.mongodb.MongoStepExecutionDao;
+import org.springframework.batch.mongodb.SchemaMigration;
+import org.springframework.batch.mongodb.SchemaMigrationRunner;
+import org.springframework.batch.support.transaction.ResourcelessTransactionManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import com.mongodb.client.MongoCollection;
+
+/**
+ * Tests for {@link SchemaMigrationRunner}: the built-in migrations on documents in their former formats, the version
+ * document, resuming and the lease.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath:spring/batch/config/test-context.xml" })
+public class SchemaMigrationRunnerTests {
+
+    @Autowired
+    protected MongoTemplate               mongoTemplate;
+
+    private JobRepository                 jobRepository;
+
+    private MongoStepExecutionDao         stepExecutionDao;
+
+    private MongoEmbeddedStepExecutionDao embeddedStepExecutionDao;
+
+    private SchemaMigrationRunner         runner;
+
+    @Before
+    public void setUp() throws Exception {
+        mongoTemplate.getDb().drop();
+        MongoJobRepositoryFactoryBean factory = new MongoJobRepositoryFactoryBean();
+        factory.setTransactionManager(new ResourcelessTransactionManager());
+        factory.setMongoTemplate(mongoTemplate);
+        factory.afterPropertiesSet();
+        jobRepository = factory.getObject();
+        stepExecutionDao = new MongoStepExecutionDao();
+        stepExecutionDao.setMongoTemplate(mongoTemplate);
+        embeddedStepExecutionDao = new MongoEmbeddedStepExecutionDao();
+        embeddedStepExecutionDao.setMongoTemplate(mongoTemplate);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (runner != null) {
+            runner.stop();
+        }
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testMigratesLegacyDocuments() throws Exception {
+        JobParameters parameters = new JobParametersBuilder().addString("input.file", "a.csv").toJobParameters();
+        JobExecution jobExecution = jobRepository.createJobExecution("legacy", parameters);
+        StepExecution stepExecution = jobExecution.createStepExecution("step");
+        jobRepository.add(stepExecution);
+        JobExecution embeddedExecution = jobRepository.createJobExecution("embedded", new JobParameters());
+        StepExecution embeddedStep = new StepExecution("step", embeddedExecution);
+        embeddedStepExecutionDao.saveStepExecution(embeddedStep);
+
+        // as stored before
+        stepExecutions().updateOne(eq(AbstractMongoDao.STEP_EXECUTION_ID_KEY, stepExecution.getId()),
+                legacyCounters("", 3, 2));
+        jobExecutions().updateOne(eq(AbstractMongoDao.JOB_EXECUTION_ID_KEY, embeddedExecution.getId()),
+                legacyCounters(AbstractMongoDao.STEP_EXECUTIONS_KEY + ".0.", 5, 0));
+        jobExecutions().updateMany(new Document(), new Document("$unset", new Document(AbstractMongoDao.JOB_NAME_KEY,
+                "").append(AbstractMongoDao.JOB_PARAMETERS_KEY, "")));
+        mongoTemplate.getCollection("JobInstance").updateOne(
+                eq(AbstractMongoDao.JOB_INSTANCE_ID_KEY, jobExecution.getJobId()),
+                new Document("$set", new Document(AbstractMongoDao.JOB_PARAMETERS_KEY,
+                        new Document("input{dot}file", "a.csv"))));
+
+        // read in the former format
+        StepExecution read = stepExecutionDao.getStepExecution(jobExecution, stepExecution.getId());
+        assertEquals(3, read.getFilterCount());
+        assertEquals(2, read.getProcessSkipCount());
+        assertEquals(5, embeddedStepExecutionDao.getStepExecution(embeddedExecution, embeddedStep.getId())
+                .getFilterCount());
+
+        runner = runner(1);
+        assertEquals(0, runner.getSchemaVersion());
+        runner.init();
+        assertEquals(6, runner.getSchemaVersion());
+        assertEquals(runner.getLatestVersion(), runner.getSchemaVersion());
+
+        Document step = stepExecutions().find(eq(AbstractMongoDao.STEP_EXECUTION_ID_KEY, stepExecution.getId()))
+                .first();
+        assertEquals(3, step.get(AbstractMongoDao.FILTER_COUNT_KEY));
+        assertEquals(2, step.get(AbstractMongoDao.PROCESS_SKIP_COUNT_KEY));
+        assertFalse(step.containsKey(AbstractMongoDao.FILTER_COUT_KEY));
+        assertFalse(step.containsKey(AbstractMongoDao.PROCESS_SKIP_COUT_KEY));
+        Document embedded = jobExecutions().find(eq(AbstractMongoDao.JOB_EXECUTION_ID_KEY, embeddedExecution.getId()))
+                .first().getList(AbstractMongoDao.STEP_EXECUTIONS_KEY, Document.class).get(0);
+        assertEquals(5, embedded.get(AbstractMongoDao.FILTER_COUNT_KEY));
+        assertFalse(embedded.containsKey(AbstractMongoDao.FILTER_COUT_KEY));
+        assertEquals(3, stepExecutionDao.getStepExecution(jobExecution, stepExecution.getId()).getFilterCount());
+        // a former name set next to the current one is not added to it
+        stepExecutions().updateOne(eq(AbstractMongoDao.STEP_EXECUTION_ID_KEY, stepExecution.getId()),
+                new Document("$set", new Document(AbstractMongoDao.FILTER_COUT_KEY, 9)));
+        assertEquals(3, stepExecutionDao.getStepExecution(jobExecution, stepExecution.getId()).getFilterCount());
+        assertEquals(5, embeddedStepExecutionDao.getStepExecution(embeddedExecution, embeddedStep.getId())
+                .getFilterCount());
+
+        Document execution = jobExecutions().find(eq(AbstractMongoDao.JOB_EXECUTION_ID_KEY, jobExecution.getId()))
+                .first();
+        assertEquals("legacy", execution.get(AbstractMongoDao.JOB_NAME_KEY));
+        assertTrue(execution.get(AbstractMongoDao.JOB_PARAMETERS_KEY) instanceof List);
+        assertTrue(mongoTemplate.getCollection("JobInstance")
+                .find(eq(AbstractMongoDao.JOB_INSTANCE_ID_KEY, jobExecution.getJobId())).first()
+                .get(AbstractMongoDao.JOB_PARAMETERS_KEY) instanceof List);
+        MongoJobExecutionDao jobExecutionDao = new MongoJobExecutionDao();
+        jobExecutionDao.setMongoTemplate(mongoTemplate);
+        assertEquals(parameters, jobExecutionDao.getJobExecution(jobExecution.getId()).getJobParameters());
+
+        Document schema = schema();
+        assertNull(schema.get(SchemaMigrationRunner.MIGRATION_KEY));
+        assertNull(schema.get("owner"));
+        assertEquals(6, runner.migrate());
+    }
+
+    @Test
+    public void testResumesFromRecordedPosition() throws Exception {
+        List<Object> positions = new ArrayList<>();
+        SchemaMigration first = migration(1, positions, 3);
+        SchemaMigration second = migration(2, positions, 3);
+        mongoTemplate.getCollection(SchemaMigrationRunner.COLLECTION_NAME).insertOne(
+                new Document("_id", SchemaMigrationRunner.SCHEMA_ID).append(SchemaMigrationRunner.VERSION_KEY, 1)
+                        .append(SchemaMigrationRunner.MIGRATION_KEY, 2)
+                        .append(SchemaMigrationRunner.POSITION_KEY, 20002L));
+
+        runner = runner(2);
+        runner.setMigrations(Arrays.asList(second, first));
+        runner.init();
+        // the first migration was done; the second resumes after its last recorded batch
+        assertEquals(Arrays.asList(20002L, 20003L), positions);
+        assertEquals(2, runner.getSchemaVersion());
+        assertNull(schema().get(SchemaMigrationRunner.POSITION_KEY));
+        positions.clear();
+        assertEquals(2, runner.migrate());
+        assertTrue(positions.isEmpty());
+    }
+
+    @Test
+    public void testLeaseHeldByAnotherProcess() throws Exception {
+        List<Object> positions = new ArrayList<>();
+        mongoTemplate.getCollection(SchemaMigrationRunner.COLLECTION_NAME).insertOne(
+                new Document("_id", SchemaMigrationRunner.SCHEMA_ID).append("owner", "other")
+                        .append("leaseUntil", new Date(System.currentTimeMillis() + 60_000)));
+        runner = runner(1);
+        runner.setMigrations(Arrays.asList(migration(1, positions, 2)));
+        runner.init();
+        assertTrue(positions.isEmpty());
+        assertEquals(0, runner.getSchemaVersion());
+
+        // an expired lease is taken over
+        mongoTemplate.getCollection(SchemaMigrationRunner.COLLECTION_NAME).updateOne(
+                eq("_id", SchemaMigrationRunner.SCHEMA_ID),
+                new Document("$set", new Document("leaseUntil", new Date(System.currentTimeMillis() - 1))));
+        assertEquals(1, runner.migrate());
+        assertEquals(Arrays.asList(null, 10001L, 10002L), positions);
+    }
+
+    @Test
+    public void testMigratesInBackground() throws Exception {
+        List<Object> positions = new ArrayList<>();
+        runner = new SchemaMigrationRunner();
+        runner.setMongoTemplate(mongoTemplate);
+        runner.setMigrations(Arrays.asList(migration(1, positions, 3)));
+        runner.setPauseMillis(0);
+        runner.init();
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (runner.getSchemaVersion() < 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(1, runner.getSchemaVersion());
+        runner.stop();
+        assertFalse(runner.isRunning());
+    }
+
+    private SchemaMigrationRunner runner(int batchSize) {
+        SchemaMigrationRunner runner = new SchemaMigrationRunner();
+        runner.setMongoTemplate(mongoTemplate);
+        runner.setBatchSize(batchSize);
+        runner.setPauseMillis(0);
+        runner.setAsync(false);
+        return runner;
+    }
+
+    /**
+     * Migration over the positions version * 10000 + 1 to version * 10000 + count, recording each one it starts at.
+     */
+    private static SchemaMigration migration(int version, List<Object> positions, int count) {
+        return new SchemaMigration() {
+
+            @Override
+            public int getVersion() {
+                return version;
+            }
+
+            @Override
+            public String getDescription() {
+                return "test migration " + version;
+            }
+
+            @Override
+            public Object migrateBatch(Object position, int limit) {
+                positions.add(position);
+                long next = position == null ? version * 10000L + 1 : (Long) position + 1;
+                return next > version * 10000L + count ? null : next;
+            }
+        };
+    }
+
+    /**
+     * Moves the filter and process skip counters to their former names.
+     */
+    @SuppressWarnings("deprecation")
+    private static Document legacyCounters(String prefix, int filterCount, int processSkipCount) {
+        return new Document("$set", new Document(prefix + AbstractMongoDao.FILTER_COUT_KEY, filterCount)
+                .append(prefix + AbstractMongoDao.PROCESS_SKIP_COUT_KEY, processSkipCount))
+                .append("$unset", new Document(prefix + AbstractMongoDao.FILTER_COUNT_KEY, "")
+                        .append(prefix + AbstractMongoDao.PROCESS_SKIP_COUNT_KEY, ""));
+    }
+
+    private Document schema() {
+        return mongoTemplate.getCollection(SchemaMigrationRunner.COLLECTION_NAME)
+                .find(eq("_id", SchemaMigrationRunner.SCHEMA_ID)).first();
+    }
+
+    private MongoCollection<Document> stepExecutions() {
+        return mongoTemplate.getCollection("StepExecution");
+    }
+
+    private MongoCollection<Document> jobExecutions() {
+        return mongoTemplate.getCollection("JobExecution");
+    }
+}
@@ -0,0 +1,139 @@
+package org.springframework.batch.mongodb.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.mongodb.AbstractMongoDao;
+import org.springframework.batch.mongodb.MongoJobExecutionDao;
+import org.springframework.batch.mongodb.MongoJobInstanceDao;
+import org.springframework.batch.mongodb.MongoJobRepositoryFactoryBean;
+import org.springframework.batch.mongodb.SlowOperationDetector;
+import org.springframework.batch.mongodb.SlowOperationDetector.SlowOperation;
+import org.springframework.batch.support.transaction.ResourcelessTransactionManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import com.mongodb.client.model.Filters;
+
+/**
+ * Tests for {@link SlowOperationDetector} registered through {@link MongoJobRepositoryFactoryBean}. A threshold of 0
+ * makes every repository command slow.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath:spring/batch/config/test-context.xml" })
+public class SlowOperationDetectorTests {
+
+    @Autowired
+    protected MongoTemplate               mongoTemplate;
+
+    private SlowOperationDetector         detector;
+
+    private MongoJobRepositoryFactoryBean factory;
+
+    private MongoJobInstanceDao           jobInstanceDao;
+
+    private MongoJobExecutionDao          jobExecutionDao;
+
+    @Before
+    public void setUp() throws Exception {
+        mongoTemplate.getDb().drop();
+        detector = new SlowOperationDetector();
+        detector.setThresholdMillis(0);
+        detector.setMaxReportsPerMinute(1000);
+
+        factory = new MongoJobRepositoryFactoryBean();
+        factory.setTransactionManager(new ResourcelessTransactionManager());
+        factory.setConnectionString(System.getProperty("mongodb.uri", "mongodb://127.0.0.1:27017"));
+        factory.setDatabaseName(mongoTemplate.getDb().getName());
+        factory.setSlowOperationDetector(detector);
+        factory.afterPropertiesSet();
+
+        jobInstanceDao = new MongoJobInstanceDao();
+        jobInstanceDao.setMongoTemplate(factory.getMongoTemplate());
+        jobExecutionDao = new MongoJobExecutionDao();
+        jobExecutionDao.setMongoTemplate(factory.getMongoTemplate());
+    }
+
+    @After
+    public void tearDown() {
+        factory.destroy();
+        detector.stop();
+    }
+
+    @Test
+    public void testReportsDaoMethodAndFilterShape() {
+        JobParameters parameters = new JobParametersBuilder().addString("secret", "do-not-log").toJobParameters();
+        JobInstance instance = jobInstanceDao.createJobInstance("slowJob", parameters);
+        jobInstanceDao.getJobInstance("slowJob", parameters);
+        jobExecutionDao.saveJobExecution(new JobExecution(instance, parameters));
+        jobExecutionDao.findRunningJobExecutions("slowJob");
+
+        SlowOperation lookup = find("MongoJobInstanceDao.getJobInstance", "find");
+        assertEquals(JobInstance.class.getSimpleName(), lookup.getCollection());
+        assertTrue(lookup.getFilterShape(), lookup.getFilterShape().contains("\"jobName\": \"?\""));
+        assertFalse(lookup.getFilterShape(), lookup.getFilterShape().contains("slowJob"));
+
+        SlowOperation running = find("MongoJobExecutionDao.findRunningJobExecutions", "find");
+        assertTrue(running.getFilterShape(), running.getFilterShape().startsWith("{\"filter\""));
+
+        // the sequence bump goes through findAndModify from the shared parent class
+        find("AbstractMongoDao.incrementSequence", "findAndModify");
+    }
+
+    @Test
+    public void testRateLimit() {
+        detector.setMaxReportsPerMinute(3);
+        for (int i = 0; i < 10; i++) {
+            jobInstanceDao.getJobInstance((long) i);
+        }
+        assertEquals(3, detector.getRecentOperations().size());
+    }
+
+    @Test
+    public void testLargeFilterKeepsOnlyItsShape() {
+        detector.setMaxCommandBytes(1024);
+        List<Long> ids = new ArrayList<>();
+        for (long id = 0; id < 1000; id++) {
+            ids.add(id);
+        }
+        factory.getMongoTemplate().getCollection(JobInstance.class.getSimpleName())
+                .find(Filters.in(AbstractMongoDao.JOB_INSTANCE_ID_KEY, ids)).first();
+
+        SlowOperation operation = detector.getRecentOperations().get(0);
+        assertEquals("find", operation.getCommandName());
+        assertEquals(JobInstance.class.getSimpleName(), operation.getCollection());
+        assertEquals("{\"filter\": {\"jobInstanceId\": {\"$in\": \"?\"}}}", operation.getFilterShape());
+    }
+
+    private SlowOperation find(String daoMethod, String commandName) {
+        List<SlowOperation> operations = detector.getRecentOperations();
+        for (SlowOperation operation : operations) {
+            if (operation.getDaoMethod().equals(daoMethod) && operation.getCommandName().equals(commandName)) {
+                return operation;
+            }
+        }
+        throw new AssertionError("No " + commandName + " reported from " + daoMethod + " in " + describe(operations));
+    }
+
+    private String describe(List<SlowOperation> operations) {
+        StringBuilder builder = new StringBuilder();
+        for (SlowOperation operation : operations) {
+            builder.append(operation.getDaoMethod()).append(':').append(operation.getCommandName()).append(' ');
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,124 @@
+package org.springframework.batch.mongodb.test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.dao.JobExecutionDao;
+import org.springframework.batch.core.repository.dao.JobInstanceDao;
+import org.springframework.batch.mongodb.MongoStepExecutionDao;
+import org.springframework.batch.mongodb.StepExecutionGroupCommitter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+/**
+ * Throughput of step execution updates with and without {@link StepExecutionGroupCommitter}, one thread per step
+ * execution as in a partitioned step. Sizes can be raised with -Dbenchmark.threads and -Dbenchmark.updates; results
+ * are logged.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath:spring/batch/config/test-context.xml" })
+public class StepExecutionGroupCommitterBenchmarkTests {
+
+    private static final Logger         LOG     = LoggerFactory
+            .getLogger(StepExecutionGroupCommitterBenchmarkTests.class);
+
+    private static final int            THREADS = Integer.getInteger("benchmark.threads", 16);
+
+    private static final int            UPDATES = Integer.getInteger("benchmark.updates", 50);
+
+    @Autowired
+    protected MongoTemplate             mongoTemplate;
+
+    @Autowired
+    private JobInstanceDao              jobInstanceDao;
+
+    @Autowired
+    private JobExecutionDao             jobExecutionDao;
+
+    private StepExecutionGroupCommitter groupCommitter;
+
+    private JobExecution                jobExecution;
+
+    @Before
+    public void setUp() {
+        mongoTemplate.getDb().drop();
+        groupCommitter = new StepExecutionGroupCommitter();
+        groupCommitter.setMongoTemplate(mongoTemplate);
+        JobInstance jobInstance = jobInstanceDao.createJobInstance("partitionedJob", new JobParameters());
+        jobExecution = new JobExecution(jobInstance, new JobParameters());
+        jobExecutionDao.saveJobExecution(jobExecution);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        groupCommitter.stop();
+    }
+
+    @Test
+    public void testCompareThroughput() throws Exception {
+        double direct = measure("direct", dao(null));
+        double grouped = measure("group commit", dao(groupCommitter));
+        LOG.info("Group commit: {}x the updates per second of direct writes, {} updates in {} bulkWrites",
+                Math.round(grouped / direct * 10) / 10.0, groupCommitter.getUpdateCount(),
+                groupCommitter.getBatchCount());
+    }
+
+    private double measure(String name, MongoStepExecutionDao dao) throws Exception {
+        List<StepExecution> partitions = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            StepExecution stepExecution = new StepExecution("step:partition" + i, jobExecution);
+            stepExecution.setStartTime(new Date());
+            stepExecution.setStatus(BatchStatus.STARTED);
+            dao.saveStepExecution(stepExecution);
+            partitions.add(stepExecution);
+        }
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (StepExecution partition : partitions) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < UPDATES; i++) {
+                        partition.setReadCount(partition.getReadCount() + 1);
+                        partition.setLastUpdated(new Date());
+                        dao.updateStepExecution(partition);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        double perSecond = THREADS * UPDATES / ((System.nanoTime() - start) / 1e9);
+        LOG.info("{}: {} updates from {} threads, {} updates/s", name, THREADS * UPDATES, THREADS,
+                Math.round(perSecond));
+        return perSecond;
+    }
+
+    private MongoStepExecutionDao dao(StepExecutionGroupCommitter groupCommitter) {
+        MongoStepExecutionDao dao = new MongoStepExecutionDao();
+        dao.setMongoTemplate(mongoTemplate);
+        dao.setGroupCommitter(groupCommitter);
+        return dao;
+    }
+}
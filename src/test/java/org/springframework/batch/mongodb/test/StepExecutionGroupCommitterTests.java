@@ -0,0 +1,226 @@
+package org.springframework.batch.mongodb.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.dao.JobExecutionDao;
+import org.springframework.batch.core.repository.dao.JobInstanceDao;
+import org.springframework.batch.mongodb.AbstractMongoDao;
+import org.springframework.batch.mongodb.MongoStepExecutionDao;
+import org.springframework.batch.mongodb.StepExecutionGroupCommitter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+/**
+ * Tests for {@link StepExecutionGroupCommitter} behind a {@link MongoStepExecutionDao}, with one thread per step
+ * execution as in a partitioned step.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath:spring/batch/config/test-context.xml" })
+public class StepExecutionGroupCommitterTests {
+
+    private static final int            THREADS = 16;
+
+    private static final int            UPDATES = 50;
+
+    @Autowired
+    protected MongoTemplate             mongoTemplate;
+
+    @Autowired
+    private JobInstanceDao              jobInstanceDao;
+
+    @Autowired
+    private JobExecutionDao             jobExecutionDao;
+
+    private StepExecutionGroupCommitter groupCommitter;
+
+    private JobExecution                jobExecution;
+
+    @Before
+    public void setUp() {
+        mongoTemplate.getDb().drop();
+        groupCommitter = new StepExecutionGroupCommitter();
+        groupCommitter.setMongoTemplate(mongoTemplate);
+        JobInstance jobInstance = jobInstanceDao.createJobInstance("partitionedJob", new JobParameters());
+        jobExecution = new JobExecution(jobInstance, new JobParameters());
+        jobExecutionDao.saveJobExecution(jobExecution);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        groupCommitter.stop();
+    }
+
+    @Test
+    public void testConcurrentUpdatesShareBatches() throws Exception {
+        MongoStepExecutionDao dao = dao(groupCommitter);
+        List<StepExecution> partitions = partitions(dao);
+        updateConcurrently(dao, partitions);
+
+        for (StepExecution partition : partitions) {
+            StepExecution stored = dao.getStepExecution(jobExecution, partition.getId());
+            assertEquals(UPDATES, stored.getReadCount());
+            assertEquals(Integer.valueOf(UPDATES), stored.getVersion());
+        }
+        assertEquals(THREADS * UPDATES, groupCommitter.getUpdateCount());
+        assertTrue(groupCommitter.getBatchCount() < groupCommitter.getUpdateCount());
+    }
+
+    @Test
+    public void testStaleUpdateFailsAlone() throws Exception {
+        groupCommitter.setMaxDelayMicros(200_000);
+        MongoStepExecutionDao dao = dao(groupCommitter);
+        List<StepExecution> partitions = partitions(dao);
+        StepExecution stale = partitions.get(0);
+        stale.setVersion(stale.getVersion() + 1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> failing = executor.submit(() -> dao.updateStepExecution(stale));
+            Future<?> succeeding = executor.submit(() -> dao.updateStepExecution(partitions.get(1)));
+            succeeding.get();
+            try {
+                failing.get();
+                throw new AssertionError("Stale update must fail");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof OptimisticLockingFailureException);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1L, groupCommitter.getBatchCount());
+        assertEquals(Integer.valueOf(0), dao.getStepExecution(jobExecution, stale.getId()).getVersion());
+        assertEquals(Integer.valueOf(1), dao.getStepExecution(jobExecution, partitions.get(1).getId()).getVersion());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsavedStepExecution() {
+        StepExecution stepExecution = new StepExecution("unsaved", jobExecution, 4711L);
+        stepExecution.setVersion(0);
+        dao(groupCommitter).updateStepExecution(stepExecution);
+    }
+
+    @Test
+    public void testVersionMovedByAnotherWriterFails() {
+        for (MongoStepExecutionDao dao : Arrays.asList(dao(groupCommitter), dao(null))) {
+            StepExecution stepExecution = new StepExecution("step", jobExecution);
+            dao.saveStepExecution(stepExecution);
+            // another writer already moved it to the version this update would set
+            mongoTemplate.getCollection(StepExecution.class.getSimpleName()).updateOne(
+                    new Document(AbstractMongoDao.STEP_EXECUTION_ID_KEY, stepExecution.getId()),
+                    new Document("$set", new Document(AbstractMongoDao.VERSION_KEY, 1)
+                            .append(AbstractMongoDao.READ_COUNT_KEY, 7)));
+            stepExecution.setReadCount(3);
+            try {
+                dao.updateStepExecution(stepExecution);
+                fail("Expected OptimisticLockingFailureException");
+            } catch (OptimisticLockingFailureException e) {
+                // expected
+            }
+            assertEquals(7, dao.getStepExecution(jobExecution, stepExecution.getId()).getReadCount());
+        }
+    }
+
+    @Test
+    public void testInterruptedFlusherReleasesCallers() throws Exception {
+        groupCommitter.setMaxDelayMicros(60_000_000);
+        MongoStepExecutionDao dao = dao(groupCommitter);
+        StepExecution stepExecution = new StepExecution("step", jobExecution);
+        dao.saveStepExecution(stepExecution);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> update = executor.submit(() -> dao.updateStepExecution(stepExecution));
+            Thread flusher = null;
+            while (flusher == null) {
+                Thread.sleep(10);
+                flusher = Thread.getAllStackTraces().keySet().stream()
+                        .filter(thread -> "step-execution-group-commit".equals(thread.getName())).findFirst()
+                        .orElse(null);
+            }
+            // waiting for other updates to join the batch
+            Thread.sleep(200);
+            flusher.interrupt();
+            try {
+                update.get(10, TimeUnit.SECONDS);
+                fail("Expected DataAccessResourceFailureException");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof DataAccessResourceFailureException);
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // a new flusher takes over
+        groupCommitter.setMaxDelayMicros(0);
+        dao.updateStepExecution(stepExecution);
+        assertEquals(Integer.valueOf(1), dao.getStepExecution(jobExecution, stepExecution.getId()).getVersion());
+    }
+
+    private void updateConcurrently(MongoStepExecutionDao dao, List<StepExecution> partitions) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(partitions.size());
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (StepExecution partition : partitions) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < UPDATES; i++) {
+                        partition.setReadCount(partition.getReadCount() + 1);
+                        partition.setLastUpdated(new Date());
+                        dao.updateStepExecution(partition);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private List<StepExecution> partitions(MongoStepExecutionDao dao) {
+        List<StepExecution> partitions = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            StepExecution stepExecution = new StepExecution("step:partition" + i, jobExecution);
+            stepExecution.setStartTime(new Date());
+            stepExecution.setStatus(BatchStatus.STARTED);
+            dao.saveStepExecution(stepExecution);
+            partitions.add(stepExecution);
+        }
+        return partitions;
+    }
+
+    private MongoStepExecutionDao dao(StepExecutionGroupCommitter groupCommitter) {
+        MongoStepExecutionDao dao = new MongoStepExecutionDao();
+        dao.setMongoTemplate(mongoTemplate);
+        dao.setGroupCommitter(groupCommitter);
+        return dao;
+    }
+}
@@ -0,0 +1,104 @@
+package org.springframework.batch.mongodb.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.dao.JobExecutionDao;
+import org.springframework.batch.core.repository.dao.JobInstanceDao;
+import org.springframework.batch.core.repository.dao.StepExecutionDao;
+import org.springframework.batch.mongodb.MongoEmbeddedStepExecutionDao;
+import org.springframework.batch.mongodb.MongoStepExecutionDao;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+/**
+ * Compares the separate and the embedded step execution layouts on the paths a restart goes through. Sizes can be
+ * raised with -Dbenchmark.executions and -Dbenchmark.steps; timings are logged.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath:spring/batch/config/test-context.xml" })
+public class StepExecutionLayoutBenchmarkTests {
+
+    private static final Logger LOG        = LoggerFactory.getLogger(StepExecutionLayoutBenchmarkTests.class);
+
+    private static final int    EXECUTIONS = Integer.getInteger("benchmark.executions", 50);
+
+    private static final int    STEPS      = Integer.getInteger("benchmark.steps", 10);
+
+    @Autowired
+    protected MongoTemplate     mongoTemplate;
+
+    @Autowired
+    private JobInstanceDao      jobInstanceDao;
+
+    @Autowired
+    private JobExecutionDao     jobExecutionDao;
+
+    @Before
+    public void onSetUp() {
+        mongoTemplate.getDb().drop();
+    }
+
+    @Test
+    public void testCompareLayouts() {
+        MongoStepExecutionDao separate = new MongoStepExecutionDao();
+        separate.setMongoTemplate(mongoTemplate);
+        separate.init();
+        MongoEmbeddedStepExecutionDao embedded = new MongoEmbeddedStepExecutionDao();
+        embedded.setMongoTemplate(mongoTemplate);
+
+        int separateSteps = run("separate", separate);
+        int embeddedSteps = run("embedded", embedded);
+        assertEquals(separateSteps, embeddedSteps);
+    }
+
+    private int run(String layout, StepExecutionDao stepExecutionDao) {
+        List<JobExecution> executions = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < EXECUTIONS; i++) {
+            JobParameters parameters = new JobParametersBuilder().addString("layout", layout).addLong("run", (long) i)
+                    .toJobParameters();
+            JobInstance instance = jobInstanceDao.createJobInstance("benchmarkJob", parameters);
+            JobExecution execution = new JobExecution(instance, parameters);
+            jobExecutionDao.saveJobExecution(execution);
+            List<StepExecution> steps = new ArrayList<>();
+            for (int s = 0; s < STEPS; s++) {
+                steps.add(new StepExecution("step" + s, execution));
+            }
+            stepExecutionDao.saveStepExecutions(steps);
+            for (StepExecution step : steps) {
+                step.setReadCount(10);
+                stepExecutionDao.updateStepExecution(step);
+            }
+            executions.add(execution);
+        }
+        long written = System.nanoTime();
+
+        int loadedSteps = 0;
+        for (JobExecution execution : executions) {
+            JobExecution loaded = jobExecutionDao.getJobExecution(execution.getId());
+            stepExecutionDao.addStepExecutions(loaded);
+            loadedSteps += loaded.getStepExecutions().size();
+            stepExecutionDao.getLastStepExecution(execution.getJobInstance(), "step" + (STEPS - 1));
+        }
+        long read = System.nanoTime();
+
+        LOG.info("{} layout: write {} ms, restart reads {} ms for {} executions x {} steps", layout,
+                (written - start) / 1000000, (read - written) / 1000000, EXECUTIONS, STEPS);
+        return loadedSteps;
+    }
+}
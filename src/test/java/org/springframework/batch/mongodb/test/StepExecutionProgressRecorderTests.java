@@ -0,0 +1,159 @@
+package org.springframework.batch.mongodb.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.bson.Document;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.dao.JobExecutionDao;
+import org.springframework.batch.core.repository.dao.JobInstanceDao;
+import org.springframework.batch.mongodb.AbstractMongoDao;
+import org.springframework.batch.mongodb.MongoStepExecutionDao;
+import org.springframework.batch.mongodb.StepExecutionProgressRecorder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import com.mongodb.MongoCommandException;
+
+/**
+ * Tests for {@link StepExecutionProgressRecorder} fed by a {@link MongoStepExecutionDao}. The rate curve test is
+ * skipped on servers without $setWindowFields.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath:spring/batch/config/test-context.xml" })
+public class StepExecutionProgressRecorderTests {
+
+    @Autowired
+    protected MongoTemplate               mongoTemplate;
+
+    @Autowired
+    private JobInstanceDao                jobInstanceDao;
+
+    @Autowired
+    private JobExecutionDao               jobExecutionDao;
+
+    private StepExecutionProgressRecorder recorder;
+
+    private MongoStepExecutionDao         dao;
+
+    private StepExecution                stepExecution;
+
+    @Before
+    public void setUp() {
+        mongoTemplate.getDb().drop();
+        recorder = new StepExecutionProgressRecorder();
+        recorder.setMongoTemplate(mongoTemplate);
+        recorder.setFlushIntervalMillis(50);
+        dao = new MongoStepExecutionDao();
+        dao.setMongoTemplate(mongoTemplate);
+        dao.setProgressRecorder(recorder);
+
+        JobInstance jobInstance = jobInstanceDao.createJobInstance("progressJob", new JobParameters());
+        JobExecution jobExecution = new JobExecution(jobInstance, new JobParameters());
+        jobExecutionDao.saveJobExecution(jobExecution);
+        stepExecution = new StepExecution("step", jobExecution);
+        stepExecution.setStartTime(new Date());
+        stepExecution.setStatus(BatchStatus.STARTED);
+        dao.saveStepExecution(stepExecution);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        recorder.stop();
+    }
+
+    @Test
+    public void testUpdatesAreSampled() throws Exception {
+        recorder.init();
+        update(5, 1000);
+        recorder.stop();
+
+        List<Document> samples = samples();
+        assertEquals(5, samples.size());
+        for (int i = 0; i < samples.size(); i++) {
+            assertEquals(Integer.valueOf((i + 1) * 100), samples.get(i).getInteger(AbstractMongoDao.READ_COUNT_KEY));
+        }
+        assertEquals(0, recorder.getDroppedCount());
+    }
+
+    @Test
+    public void testFullQueueDropsSamples() throws Exception {
+        recorder.setCapacity(1);
+        recorder.init();
+        int recorded = 0;
+        for (int i = 0; i < 1000; i++) {
+            stepExecution.setReadCount(i);
+            if (recorder.record(stepExecution)) {
+                recorded++;
+            }
+        }
+        recorder.stop();
+
+        assertTrue(recorder.getDroppedCount() > 0);
+        assertEquals(1000, recorded + recorder.getDroppedCount());
+        assertEquals(recorded, samples().size());
+    }
+
+    @Test
+    public void testNotStartedRecorderDropsSamples() {
+        assertFalse(recorder.record(stepExecution));
+        assertEquals(1, recorder.getDroppedCount());
+    }
+
+    @Test
+    public void testRateCurves() throws Exception {
+        recorder.init();
+        update(4, 2000);
+        recorder.stop();
+
+        List<Document> rates;
+        try {
+            rates = recorder.getStepRates(stepExecution.getId());
+        } catch (MongoCommandException e) {
+            Assume.assumeNoException("$setWindowFields not supported by this server", e);
+            return;
+        }
+        assertEquals(4, rates.size());
+        assertNull(rates.get(0).get(StepExecutionProgressRecorder.READ_RATE_KEY));
+        for (Document rate : rates.subList(1, rates.size())) {
+            assertEquals(50.0, ((Number) rate.get(StepExecutionProgressRecorder.READ_RATE_KEY)).doubleValue(), 0.01);
+            assertEquals(0.5, ((Number) rate.get(StepExecutionProgressRecorder.COMMIT_RATE_KEY)).doubleValue(), 0.01);
+        }
+        assertEquals(rates, recorder.getJobRates(stepExecution.getJobExecutionId()));
+    }
+
+    /**
+     * Updates with 100 more items read and one more commit each, lastUpdated advancing by the given interval.
+     */
+    private void update(int times, long intervalMillis) {
+        long time = System.currentTimeMillis();
+        for (int i = 1; i <= times; i++) {
+            stepExecution.setReadCount(i * 100);
+            stepExecution.setCommitCount(i);
+            stepExecution.setLastUpdated(new Date(time + i * intervalMillis));
+            dao.updateStepExecution(stepExecution);
+        }
+    }
+
+    private List<Document> samples() {
+        return mongoTemplate.getCollection(StepExecutionProgressRecorder.DEFAULT_COLLECTION_NAME).find()
+                .sort(new Document(StepExecutionProgressRecorder.TIMESTAMP_KEY, 1)).into(new ArrayList<>());
+    }
+}
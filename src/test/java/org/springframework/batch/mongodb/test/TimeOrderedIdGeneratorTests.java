@@ -0,0 +1,165 @@
+package org.springframework.batch.mongodb.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.bson.Document;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.mongodb.AbstractMongoDao;
+import org.springframework.batch.mongodb.MongoJobInstanceDao;
+import org.springframework.batch.mongodb.TimeOrderedIdGenerator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import com.mongodb.client.MongoCollection;
+
+/**
+ * Tests for {@link TimeOrderedIdGenerator} and its node id leases.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath:spring/batch/config/test-context.xml" })
+public class TimeOrderedIdGeneratorTests {
+
+    @Autowired
+    protected MongoTemplate              mongoTemplate;
+
+    private List<TimeOrderedIdGenerator> generators = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        mongoTemplate.getDb().drop();
+    }
+
+    @After
+    public void tearDown() {
+        for (TimeOrderedIdGenerator generator : generators) {
+            generator.stop();
+        }
+    }
+
+    @Test
+    public void testIdsAreUniqueAndIncreasing() throws Exception {
+        TimeOrderedIdGenerator first = generator();
+        TimeOrderedIdGenerator second = generator();
+        assertNotEquals(first.getNodeId(), second.getNodeId());
+
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 4; thread++) {
+                TimeOrderedIdGenerator generator = thread % 2 == 0 ? first : second;
+                futures.add(executor.submit(() -> {
+                    long previous = 0;
+                    for (int i = 0; i < 10000; i++) {
+                        long id = generator.nextId("JobExecution");
+                        assertTrue(id > previous);
+                        assertTrue(ids.add(id));
+                        previous = id;
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(40000, ids.size());
+    }
+
+    @Test
+    public void testTakesOverOnlyExpiredLease() {
+        long expiry = System.currentTimeMillis() - 1;
+        List<Document> leases = new ArrayList<>();
+        for (int node = 0; node < 1024; node++) {
+            leases.add(new Document(AbstractMongoDao.ID_KEY, node).append(TimeOrderedIdGenerator.OWNER_KEY, "live")
+                    .append(TimeOrderedIdGenerator.EXPIRES_AT_KEY, new Date(expiry + 3600000)));
+        }
+        leases.get(42).put(TimeOrderedIdGenerator.OWNER_KEY, "crashed");
+        leases.get(42).put(TimeOrderedIdGenerator.EXPIRES_AT_KEY, new Date(expiry));
+        getLeases().insertMany(leases);
+
+        TimeOrderedIdGenerator generator = generator();
+        assertEquals(42, generator.getNodeId());
+        // the timestamp part never goes below the expiry of the previous holder's lease
+        long timestamp = (generator.nextId("JobInstance") >> 22) + 1577836800000L;
+        assertTrue(timestamp >= expiry);
+
+        try {
+            generator();
+            fail("No node id left to lease");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testReleasedAndLostLeases() throws Exception {
+        TimeOrderedIdGenerator generator = generator();
+        generator.setLeaseMillis(300);
+        int nodeId = generator.getNodeId();
+        generator.nextId("JobInstance");
+        generator.stop();
+        Document released = getLeases().find(new Document(AbstractMongoDao.ID_KEY, nodeId)).first();
+        assertFalse(released.getDate(TimeOrderedIdGenerator.EXPIRES_AT_KEY).after(new Date()));
+
+        // another node takes the lease while this one is paused
+        generator.init();
+        nodeId = generator.getNodeId();
+        getLeases().updateOne(new Document(AbstractMongoDao.ID_KEY, nodeId),
+                new Document("$set", new Document(TimeOrderedIdGenerator.OWNER_KEY, "other")
+                        .append(TimeOrderedIdGenerator.EXPIRES_AT_KEY, new Date(System.currentTimeMillis() + 3600000))));
+        Thread.sleep(400);
+        generator.nextId("JobInstance");
+        assertNotEquals(nodeId, generator.getNodeId());
+    }
+
+    @Test
+    public void testDaoUsesGenerator() {
+        MongoJobInstanceDao dao = new MongoJobInstanceDao();
+        dao.setMongoTemplate(mongoTemplate);
+        dao.setIdGenerator(generator());
+        JobInstance first = dao.createJobInstance("timeOrderedJob",
+                new JobParametersBuilder().addLong("run", 1L).toJobParameters());
+        JobInstance second = dao.createJobInstance("timeOrderedJob",
+                new JobParametersBuilder().addLong("run", 2L).toJobParameters());
+
+        assertTrue(first.getId() > 1L << 22);
+        assertTrue(second.getId() > first.getId());
+        assertEquals(second, dao.getJobInstances("timeOrderedJob", 0, 1).get(0));
+        assertEquals(first, dao.getJobInstance(first.getId()));
+        assertFalse(mongoTemplate.collectionExists(AbstractMongoDao.SEQUENCES_COLLECTION_NAME));
+    }
+
+    private TimeOrderedIdGenerator generator() {
+        TimeOrderedIdGenerator generator = new TimeOrderedIdGenerator();
+        generator.setMongoTemplate(mongoTemplate);
+        generator.init();
+        generators.add(generator);
+        return generator;
+    }
+
+    private MongoCollection<Document> getLeases() {
+        return mongoTemplate.getCollection(TimeOrderedIdGenerator.LEASE_COLLECTION_NAME);
+    }
+}
@@ -0,0 +1,104 @@
+package org.springframework.batch.mongodb.test.support;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * TCP proxy in front of the test server that can be taken down and brought back, to simulate MongoDB outages.
+ */
+public class MongoProxy implements AutoCloseable {
+
+    private final String             host;
+
+    private final int                port;
+
+    private final ServerSocket       serverSocket;
+
+    private final List<Socket>       sockets = new CopyOnWriteArrayList<>();
+
+    private volatile boolean         available = true;
+
+    public MongoProxy(String host, int port) throws IOException {
+        this.host = host;
+        this.port = port;
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::accept, "mongo-proxy");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public String getConnectionString() {
+        return "mongodb://127.0.0.1:" + serverSocket.getLocalPort();
+    }
+
+    /**
+     * While unavailable, open connections are cut and new ones are closed right away.
+     */
+    public void setAvailable(boolean available) {
+        this.available = available;
+        if (!available) {
+            for (Socket socket : sockets) {
+                closeQuietly(socket);
+            }
+            sockets.clear();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        setAvailable(false);
+        serverSocket.close();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket client = serverSocket.accept();
+                if (!available) {
+                    closeQuietly(client);
+                    continue;
+                }
+                Socket server = new Socket(host, port);
+                sockets.add(client);
+                sockets.add(server);
+                pipe(client, server);
+                pipe(server, client);
+            } catch (IOException e) {
+                // closed
+            }
+        }
+    }
+
+    private void pipe(Socket from, Socket to) {
+        Thread thread = new Thread(() -> {
+            byte[] buffer = new byte[8192];
+            try (InputStream in = from.getInputStream(); OutputStream out = to.getOutputStream()) {
+                int read;
+                while ((read = in.read(buffer)) >= 0) {
+                    out.write(buffer, 0, read);
+                }
+            } catch (IOException e) {
+                // connection cut
+            } finally {
+                closeQuietly(from);
+                closeQuietly(to);
+            }
+        }, "mongo-proxy-pipe");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // ignored
+        }
+    }
+}